@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file cost of {@link ChecksumEngine} for the sizes seen in a storage, from sidecar files to big distributions,
+ * read through the direct buffer and memory mapped. The file stays in the page cache, so this is the cost of
+ * hashing and not of the disk.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ChecksumBenchmark
+{
+    @Param( { "1024", "65536", "1048576", "16777216" } )
+    public int size;
+
+    @Param( { "false", "true" } )
+    public boolean mmap;
+
+    @Param( { "MD5", "MD5,SHA-256" } )
+    public String algorithms;
+
+    private File file;
+
+    private ChecksumEngine engine;
+
+    @Setup( Level.Trial )
+    public void setup()
+            throws Exception
+    {
+        final byte[] content = new byte[size];
+        new Random( 42 ).nextBytes( content );
+        file = Files.createTempFile( "checksum-benchmark", ".jar" ).toFile();
+        Files.write( file.toPath(), content );
+        engine = new ChecksumEngine( Arrays.asList( algorithms.split( "," ) ), ChecksumEngine.DEFAULT_BUFFER_SIZE,
+                                     mmap ? 1 : 0, 1 );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        file.delete();
+    }
+
+    @Benchmark
+    public Object checksums()
+            throws IOException
+    {
+        return engine.checksums( file );
+    }
+}
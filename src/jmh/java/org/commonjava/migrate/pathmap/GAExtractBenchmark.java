@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-pom cost of deciding whether a pom goes to the GA cache and deriving its GA path, the way it was done before
+ * (regex compiled on every call, parent path through {@link java.nio.file.Paths}) and now.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class GAExtractBenchmark
+{
+    private static final String PATTERN = "^build-\\d+";
+
+    private String[] fileSystems;
+
+    private String[] paths;
+
+    private GAExtractor extractor;
+
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        fileSystems = new String[1024];
+        paths = new String[1024];
+        for ( int i = 0; i < fileSystems.length; i++ )
+        {
+            fileSystems[i] = GAExtractor.MAVEN_HOSTED + ( i % 8 == 0 ? "shared-imports" : "build-" + ( i % 50 ) );
+            paths[i] = "/org/commonjava/indy/module-" + i + "/1." + i + "/module-" + i + "-1." + i + ".pom";
+        }
+        extractor = new GAExtractor( PATTERN );
+    }
+
+    @Benchmark
+    public void before( final Blackhole bh )
+    {
+        final int i = next++ & 1023;
+        final String fileSystem = fileSystems[i];
+        if ( fileSystem.startsWith( GAExtractor.MAVEN_HOSTED ) && paths[i].endsWith( ".pom" ) )
+        {
+            final String repoName = fileSystem.substring( GAExtractor.MAVEN_HOSTED.length() );
+            if ( repoName.matches( PATTERN ) )
+            {
+                bh.consume( GAExtractor.slowGaPath( paths[i] ) );
+            }
+        }
+    }
+
+    @Benchmark
+    public void after( final Blackhole bh )
+    {
+        final int i = next++ & 1023;
+        if ( paths[i].endsWith( ".pom" ) )
+        {
+            final String repoName = extractor.repoOf( fileSystems[i] );
+            if ( repoName != null )
+            {
+                bh.consume( GAExtractor.getGaPath( paths[i] ) );
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Per-file cost of the GA cache part of the write stage, from the file system and path of a file to the GA index, with
+ * as many threads as write threads and a GA cache table which takes the flushes at once. A flush runs about every
+ * second, so the cost of handing the pending GAs over is in it.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Threads( 4 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class GAInsertBenchmark
+{
+    private String[] fileSystems;
+
+    private String[] paths;
+
+    private GAExtractor extractor;
+
+    private GAIndex index;
+
+    @Setup( Level.Trial )
+    public void setup()
+            throws IOException
+    {
+        fileSystems = new String[4096];
+        paths = new String[4096];
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            fileSystems[i] = GAExtractor.MAVEN_HOSTED + ( i % 8 == 0 ? "shared-imports" : "build-" + ( i % 200 ) );
+            // a pom, a jar and two sidecars for each version, several versions for each GA
+            final String gav = "/org/commonjava/indy/module-" + ( i / 32 ) + "/1." + ( i / 4 ) + "/module-" + ( i / 32 )
+                    + "-1." + ( i / 4 );
+            paths[i] = gav + new String[] { ".pom", ".jar", ".pom.md5", ".jar.sha1" }[i % 4];
+        }
+        extractor = new GAExtractor( "^build-\\d+" );
+        index = new GAIndex( ( ga, repos ) -> Futures.immediateFuture( null ), null, 1000, Integer.MAX_VALUE,
+                             CassandraMigrator.GA_MAX_IN_FLIGHT );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+            throws IOException
+    {
+        index.close();
+    }
+
+    @Benchmark
+    public void insertGa()
+    {
+        final int i = ThreadLocalRandom.current().nextInt( paths.length );
+        final String path = paths[i];
+        if ( path.endsWith( ".pom" ) )
+        {
+            final String repoName = extractor.repoOf( fileSystems[i] );
+            if ( repoName != null )
+            {
+                final String gaPath = GAExtractor.getGaPath( path );
+                if ( isNotBlank( gaPath ) )
+                {
+                    index.add( gaPath, repoName );
+                }
+                index.addScanned( repoName );
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file cost of {@link IndyStoreBasedPathGenerator}, with the three generate calls of the older callers and with
+ * the one parse the migrator does.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class PathGeneratorBenchmark
+{
+    private static final String BASE = "/opt/indy/var/lib/indy/storage";
+
+    @Param( { "maven", "npm" } )
+    public String pkg;
+
+    private String[] paths;
+
+    private IndyStoreBasedPathGenerator generator;
+
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        paths = new String[1024];
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            final String store = BASE + "/" + pkg + "/hosted-build-" + ( i / 64 );
+            paths[i] = "maven".equals( pkg ) ?
+                    store + "/org/commonjava/indy/indy-core-" + i + "/1." + i + "/indy-core-" + i + "-1." + i + ".jar" :
+                    store + "/@angular/core-" + i + "/-/core-" + i + "-1." + i + ".tgz";
+        }
+        generator = new IndyStoreBasedPathGenerator( BASE );
+    }
+
+    @Benchmark
+    public void generate( final Blackhole bh )
+    {
+        final String physicalPath = paths[next++ & 1023];
+        bh.consume( generator.generateFileSystem( physicalPath ) );
+        bh.consume( generator.generatePath( physicalPath ) );
+        bh.consume( generator.generateStorePath( physicalPath ) );
+    }
+
+    @Benchmark
+    public void parse( final Blackhole bh )
+    {
+        bh.consume( generator.parse( paths[next++ & 1023] ) );
+    }
+}
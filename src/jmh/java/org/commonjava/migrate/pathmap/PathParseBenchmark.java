@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file cost of getting file system, path and store path of a physical path, with three split based calls as
+ * before and with one {@link PathParser#parse(String)} now. The paths are in runs of one store, like in the paths
+ * files of scan.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class PathParseBenchmark
+{
+    private static final String BASE = "/opt/indy/var/lib/indy/storage";
+
+    @Param( { "maven", "npm" } )
+    public String pkg;
+
+    private String[] paths;
+
+    private PathParser parser;
+
+    private int next;
+
+    @Setup
+    public void setup()
+    {
+        paths = new String[1024];
+        for ( int i = 0; i < paths.length; i++ )
+        {
+            final String store = BASE + "/" + pkg + "/hosted-build-" + ( i / 64 ) + "-redhat";
+            if ( "maven".equals( pkg ) )
+            {
+                paths[i] = store + "/org/jboss/eap/modules/system/layers/base/wildfly-clustering-" + i + "/7.2." + i
+                        + ".GA-redhat-00001/wildfly-clustering-" + i + "-7.2." + i + ".GA-redhat-00001.pom";
+            }
+            else
+            {
+                paths[i] = store + "/@babel/plugin-transform-" + i + "/-/plugin-transform-" + i + "/node_modules"
+                        + "/@babel/helper-" + i + "/lib/helpers/" + i + "/package.json";
+            }
+        }
+        parser = new PathParser( BASE );
+    }
+
+    @Benchmark
+    public void before( final Blackhole bh )
+    {
+        final String physicalPath = paths[next++ & 1023];
+        bh.consume( PathParser.slowFileSystem( PathParser.slowStorePath( BASE, physicalPath ) ) );
+        bh.consume( PathParser.slowPath( PathParser.slowStorePath( BASE, physicalPath ) ) );
+        bh.consume( PathParser.slowStorePath( BASE, physicalPath ) );
+    }
+
+    @Benchmark
+    public void after( final Blackhole bh )
+    {
+        bh.consume( parser.parse( paths[next++ & 1023] ) );
+    }
+}
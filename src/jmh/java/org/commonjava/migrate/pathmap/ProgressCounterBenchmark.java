@@ -0,0 +1,67 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-file cost of the progress counters every write thread bumps when a path is done, a succeeded and a processed
+ * count, as the atomic integers of migrate and as the long adders of the GA index.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Threads( 8 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class ProgressCounterBenchmark
+{
+    private final AtomicInteger processedCount = new AtomicInteger( 0 );
+
+    private final AtomicInteger succeedCount = new AtomicInteger( 0 );
+
+    private final LongAdder processed = new LongAdder();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    @Benchmark
+    public int atomicInteger()
+    {
+        succeedCount.getAndIncrement();
+        return processedCount.getAndIncrement();
+    }
+
+    @Benchmark
+    public void longAdder()
+    {
+        succeeded.increment();
+        processed.increment();
+    }
+}
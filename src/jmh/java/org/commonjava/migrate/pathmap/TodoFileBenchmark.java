@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file cost of writing a todo file the way scan stores a batch, and of reading it back the way migrate does, for
+ * a small batch and one of the default --batch size.
+ */
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+@Fork( 1 )
+@State( Scope.Benchmark )
+public class TodoFileBenchmark
+{
+    @Param( { "10000", "100000" } )
+    public int paths;
+
+    private List<String> lines;
+
+    private File written;
+
+    private File todo;
+
+    @Setup( Level.Trial )
+    public void setup()
+            throws IOException
+    {
+        lines = new ArrayList<>( paths );
+        for ( int i = 0; i < paths; i++ )
+        {
+            lines.add( "/opt/indy/var/lib/indy/storage/maven/hosted-build-" + ( i / 1000 ) + "/org/commonjava/indy/indy-"
+                               + i + "/1." + i + "/indy-" + i + "-1." + i + ".jar" );
+        }
+        written = Files.createTempFile( "todo-benchmark-written", ".txt" ).toFile();
+        todo = Files.createTempFile( "todo-benchmark", ".txt" ).toFile();
+        write( todo );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        written.delete();
+        todo.delete();
+    }
+
+    @Benchmark
+    public File store()
+            throws IOException
+    {
+        write( written );
+        return written;
+    }
+
+    @Benchmark
+    public List<String> read()
+            throws IOException
+    {
+        return FileUtils.readLines( todo );
+    }
+
+    private void write( final File file )
+            throws IOException
+    {
+        try (OutputStream os = new FileOutputStream( file ))
+        {
+            IOUtils.writeLines( lines, null, os );
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Console output which never holds up the threads writing it. Lines go to a bounded ring buffer without locks and a
+ * thread of its own prints them in order; when the console can not keep up and the buffer is full, lines are dropped
+ * and counted instead of blocking. Errors which only differ by the path or GA they are about are printed once per
+ * period, and how often they were repeated meanwhile is printed at the end of it, so an outage of the path db gives a
+ * few lines instead of one for every file.
+ */
+public class AsyncLog
+{
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private final PrintStream out;
+
+    private final int mask;
+
+    // sequence of each slot: equal to the position when it is free to write, position + 1 when it holds a line
+    private final AtomicLongArray sequences;
+
+    private final String[] lines;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    // next position to print, only moved by the printing thread
+    private final AtomicLong head = new AtomicLong();
+
+    private final LongAdder dropped = new LongAdder();
+
+    // dropped lines already reported, only changed by the printing thread
+    private long droppedReported;
+
+    private final Map<String, Repeated> repeated = new ConcurrentHashMap<>();
+
+    private final long periodNanos;
+
+    private volatile boolean summaryRequested;
+
+    /**
+     * @param capacity lines buffered at most, rounded up to a power of two
+     * @param periodMillis period after which repeated errors are summarized
+     */
+    public AsyncLog( final PrintStream out, final int capacity, final long periodMillis )
+    {
+        this.out = out;
+        final int size = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray( size );
+        for ( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+        this.lines = new String[size];
+        this.periodNanos = TimeUnit.MILLISECONDS.toNanos( periodMillis );
+        final Thread printer = new Thread( this::print, "async-log" );
+        printer.setDaemon( true );
+        printer.start();
+    }
+
+    /**
+     * Queue a line for the console.
+     *
+     * @return false if it was dropped as the buffer is full
+     */
+    public boolean info( final String line )
+    {
+        long pos = tail.get();
+        while ( true )
+        {
+            final int slot = (int) ( pos & mask );
+            final long diff = sequences.get( slot ) - pos;
+            if ( diff == 0 )
+            {
+                if ( tail.compareAndSet( pos, pos + 1 ) )
+                {
+                    lines[slot] = line;
+                    // publishes the line to the printing thread
+                    sequences.set( slot, pos + 1 );
+                    return true;
+                }
+                pos = tail.get();
+            }
+            else if ( diff < 0 )
+            {
+                dropped.increment();
+                return false;
+            }
+            else
+            {
+                // taken by another thread meanwhile
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Queue an error about a subject like a path. The first one of a kind in a period is printed; the kind is the
+     * format with the detail, where the subject is left out of the detail, and the line is only formatted when it is
+     * printed.
+     *
+     * @param format format of the line with the subject and the detail as the two arguments
+     */
+    public void error( final String format, final String subject, final String detail )
+    {
+        final String kind = format + ( detail == null || subject == null ? detail : detail.replace( subject, "{}" ) );
+        Repeated seen = repeated.get( kind );
+        if ( seen == null )
+        {
+            seen = new Repeated( format, subject, detail );
+            final Repeated earlier = repeated.putIfAbsent( kind, seen );
+            if ( earlier == null )
+            {
+                info( String.format( format, subject, detail ) );
+                return;
+            }
+            seen = earlier;
+        }
+        seen.count.increment();
+        seen.lastSubject = subject;
+        seen.lastDetail = detail;
+    }
+
+    /**
+     * Wait until every line queued before is printed, with the summary of repeated errors so far.
+     *
+     * @return false if they were not printed in time
+     */
+    public boolean flush( final long timeoutMillis )
+    {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeoutMillis );
+        final long target = tail.get();
+        summaryRequested = true;
+        while ( head.get() < target || summaryRequested )
+        {
+            if ( System.nanoTime() - deadline > 0 )
+            {
+                return false;
+            }
+            LockSupport.parkNanos( IDLE_PARK_NANOS );
+        }
+        return true;
+    }
+
+    public long getDropped()
+    {
+        return dropped.sum();
+    }
+
+    private void print()
+    {
+        long lastSummary = System.nanoTime();
+        while ( true )
+        {
+            final boolean printed = drain();
+            final boolean requested = summaryRequested;
+            if ( requested || System.nanoTime() - lastSummary >= periodNanos )
+            {
+                // what was queued before the summary comes first
+                drain();
+                summarize();
+                out.flush();
+                lastSummary = System.nanoTime();
+                if ( requested )
+                {
+                    summaryRequested = false;
+                }
+            }
+            else if ( printed )
+            {
+                out.flush();
+            }
+            else
+            {
+                LockSupport.parkNanos( IDLE_PARK_NANOS );
+            }
+        }
+    }
+
+    private boolean drain()
+    {
+        boolean printed = false;
+        long pos = head.get();
+        while ( true )
+        {
+            final int slot = (int) ( pos & mask );
+            if ( sequences.get( slot ) != pos + 1 )
+            {
+                break;
+            }
+            final String line = lines[slot];
+            lines[slot] = null;
+            sequences.set( slot, pos + mask + 1 );
+            head.set( ++pos );
+            out.println( line );
+            printed = true;
+        }
+        return printed;
+    }
+
+    /**
+     * Print how often each error was repeated since the last summary. An error not repeated for a whole period is
+     * forgotten, so the next one of its kind is printed in full again.
+     */
+    private void summarize()
+    {
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds( periodNanos );
+        for ( Map.Entry<String, Repeated> entry : repeated.entrySet() )
+        {
+            final Repeated seen = entry.getValue();
+            final long count = seen.count.sumThenReset();
+            if ( count == 0 )
+            {
+                repeated.remove( entry.getKey(), seen );
+            }
+            else
+            {
+                out.println( String.format( "Repeated %s times in up to %s seconds, last one: %s", count, seconds,
+                                            String.format( seen.format, seen.lastSubject, seen.lastDetail ) ) );
+            }
+        }
+        final long lost = dropped.sum() - droppedReported;
+        droppedReported += lost;
+        if ( lost > 0 )
+        {
+            out.println( String.format( "Warning: %s lines were dropped as the console could not keep up", lost ) );
+        }
+    }
+
+    private static final class Repeated
+    {
+        private final String format;
+
+        private final LongAdder count = new LongAdder();
+
+        private volatile String lastSubject;
+
+        private volatile String lastDetail;
+
+        private Repeated( final String format, final String subject, final String detail )
+        {
+            this.format = format;
+            this.lastSubject = subject;
+            this.lastDetail = detail;
+        }
+    }
+}
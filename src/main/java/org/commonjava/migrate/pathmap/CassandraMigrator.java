@@ -15,66 +15,72 @@
  */
 package org.commonjava.migrate.pathmap;
 
-import com.datastax.driver.core.BoundStatement;
-import com.datastax.driver.core.PreparedStatement;
-import com.datastax.driver.core.Session;
-import org.apache.commons.io.IOUtils;
-import org.commonjava.storage.pathmapped.config.DefaultPathMappedStorageConfig;
-import org.commonjava.storage.pathmapped.config.PathMappedStorageConfig;
 import org.commonjava.storage.pathmapped.core.FileBasedPhysicalStore;
-import org.commonjava.storage.pathmapped.pathdb.datastax.CassandraPathDB;
 import org.commonjava.storage.pathmapped.spi.FileInfo;
 import org.commonjava.storage.pathmapped.spi.PhysicalStore;
-import org.commonjava.storage.pathmapped.util.ChecksumCalculator;
-import org.commonjava.storage.pathmapped.util.PathMapUtils;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+/**
+ * Stat, checksum and dedupe of the files to migrate, which are then written to the path map by a
+ * {@link MigrateTarget}: cassandra itself, SSTables or a relational database.
+ */
 public class CassandraMigrator
+        implements MigratePipeline.Stages
 {
-    private static final String MAVEN_HOSTED = "maven:hosted:";
+    static final int GA_MAX_IN_FLIGHT = 256;
 
     private static CassandraMigrator migrator;
 
-    private final CassandraPathDB pathDB;
+    private final MigrateTarget target;
 
     private final PhysicalStore physicalStore;
 
     private final IndyStoreBasedPathGenerator storePathGen;
 
+    private static final String UNIX_ATTRIBUTES = "unix:dev,ino,size,lastModifiedTime,isRegularFile";
+
+    private static final String BASIC_ATTRIBUTES = "size,lastModifiedTime,isRegularFile";
+
+    private volatile boolean unixAttributes = true;
+
     private final boolean dedup;
 
-    private final ChecksumCalculator checksumCalculator;
+    private final ChecksumEngine checksumEngine;
 
-    private PreparedStatement preparedStoresIncrement;
+    private final ChecksumCache checksumCache;
 
-    private final Session session;
+    private final DedupeIndex dedupeIndex;
 
-    private final GACacheOptions cacheOptions;
+    private final SidecarChecksums sidecarChecksums;
+
+    private final LongAdder checksumsFromCache = new LongAdder();
 
-    private final String gaStorePattern;
+    private final LongAdder checksumsCalculated = new LongAdder();
 
-    private final Set<String> scanned = Collections.synchronizedSet( new HashSet<>() );
+    private final GACacheOptions cacheOptions;
 
-    private final Map<String, Set<String>> gaMap = Collections.synchronizedMap( new HashMap() );
+    private final GAExtractor gaExtractor;
+
+    private GAIndex gaIndex;
 
     // @formatter:off
-    private static String getSchemaCreateTable( String cacheTable )
+    static String getSchemaCreateTable( String cacheTable )
     {
         return "CREATE TABLE IF NOT EXISTS " + cacheTable + " ("
                         + "ga varchar,"
@@ -82,46 +88,50 @@ public class CassandraMigrator
                         + "PRIMARY KEY (ga)"
                         + ");";
     }
+
+    static String getGaStoresUpdate( String cacheTable )
+    {
+        return "UPDATE " + cacheTable + " SET stores = stores + ? WHERE ga=?;";
+    }
+
+    static String getSchemaCreateChecksumsTable( String keyspace )
+    {
+        return "CREATE TABLE IF NOT EXISTS " + keyspace + ".pathchecksums ("
+                        + "filesystem varchar,"
+                        + "path varchar,"
+                        + "checksums map<text, text>,"
+                        + "PRIMARY KEY ((filesystem, path))"
+                        + ");";
+    }
     // @formatter:on
 
-    private CassandraMigrator( final PathMappedStorageConfig config, final String baseDir,
-                               final boolean dedup, final String dedupAlgo, final GACacheOptions gaCacheOptions ) throws MigrateException
+    private CassandraMigrator( final MigrateTarget target, final String baseDir, final DedupeOptions dedupeOptions,
+                               final GACacheOptions gaCacheOptions )
+            throws MigrateException
     {
-        this.pathDB = new CassandraPathDB( config );
-        this.session = pathDB.getSession();
+        this.target = target;
         this.cacheOptions = gaCacheOptions;
-        this.gaStorePattern = gaCacheOptions.getGaCacheStorePattern();
+        this.gaExtractor = new GAExtractor( gaCacheOptions.getGaCacheStorePattern() );
         prepareCacheStore();
         this.storePathGen = new IndyStoreBasedPathGenerator( baseDir );
         this.physicalStore = new FileBasedPhysicalStore( new File( baseDir ) );
-        this.dedup = dedup;
-        if ( dedup )
-        {
-            try
-            {
-                checksumCalculator = new ChecksumCalculator( dedupAlgo );
-            }
-            catch ( NoSuchAlgorithmException e )
-            {
-                throw new MigrateException( String.format( "Can not init migrator. Error: %s", e.getMessage() ), e );
-            }
-        }
-        else
-        {
-            checksumCalculator = null;
-        }
+        this.checksumEngine = dedupeOptions.getChecksumEngine();
+        this.checksumCache = dedupeOptions.getChecksumCache();
+        this.dedupeIndex = dedupeOptions.getDedupeIndex();
+        this.sidecarChecksums = dedupeOptions.getSidecarChecksums();
+        this.dedup = checksumEngine != null;
     }
 
-    public static CassandraMigrator getMigrator( final Map<String, Object> cassandraConfig, final String baseDir,
-                                                 final boolean dedup, final String dedupAlgo, final GACacheOptions gaCacheOptions )
+    public static CassandraMigrator getMigrator( final MigrateTarget target, final String baseDir,
+                                                 final DedupeOptions dedupeOptions,
+                                                 final GACacheOptions gaCacheOptions )
             throws MigrateException
     {
         synchronized ( CassandraMigrator.class )
         {
             if ( migrator == null )
             {
-                final PathMappedStorageConfig config = new DefaultPathMappedStorageConfig( cassandraConfig );
-                migrator = new CassandraMigrator( config, baseDir, dedup, dedupAlgo, gaCacheOptions );
+                migrator = new CassandraMigrator( target, baseDir, dedupeOptions, gaCacheOptions );
             }
         }
         return migrator;
@@ -131,39 +141,152 @@ public class CassandraMigrator
     public void migrate( final String physicalFilePath )
             throws MigrateException
     {
+        final MigrateEntry entry = stat( physicalFilePath, null );
+        checksum( entry );
+        write( entry );
+    }
 
-        File file = Paths.get( physicalFilePath ).normalize().toFile();
-        if ( !file.exists() || !file.isFile() )
+    @Override
+    public MigrateEntry stat( final String physicalFilePath, final Set<String> listing )
+            throws MigrateException
+    {
+        final Path filePath = Paths.get( physicalFilePath ).normalize();
+        final Map<String, Object> attributes = readAttributes( filePath );
+        if ( attributes == null || !Boolean.TRUE.equals( attributes.get( "isRegularFile" ) ) )
         {
             throw new MigrateException( "Error: the physical path {} does not exists or is not a real file.",
                                         physicalFilePath );
         }
+        final ParsedPath parsed = storePathGen.parse( physicalFilePath );
+        final MigrateEntry entry =
+                new MigrateEntry( physicalFilePath, filePath.toFile(), (Long) attributes.get( "size" ),
+                                  parsed.getFileSystem(), parsed.getPath(), parsed.getStorePath() );
+        if ( attributes.containsKey( "ino" ) )
+        {
+            entry.setIdentity( (Long) attributes.get( "dev" ), (Long) attributes.get( "ino" ),
+                               ( (FileTime) attributes.get( "lastModifiedTime" ) ).to( TimeUnit.NANOSECONDS ) );
+        }
+        if ( sidecarChecksums != null )
+        {
+            entry.setSidecars( sidecarChecksums.find( physicalFilePath, listing ) );
+        }
+        return entry;
+    }
+
+    /**
+     * Read everything the later stages need with a single stat call. Device and inode are only available on
+     * file systems supporting the unix attribute view.
+     *
+     * @return attributes of the file, or null if it does not exist
+     */
+    private Map<String, Object> readAttributes( final Path filePath )
+            throws MigrateException
+    {
+        try
+        {
+            if ( unixAttributes )
+            {
+                try
+                {
+                    return Files.readAttributes( filePath, UNIX_ATTRIBUTES );
+                }
+                catch ( UnsupportedOperationException | IllegalArgumentException e )
+                {
+                    unixAttributes = false;
+                }
+            }
+            return Files.readAttributes( filePath, BASIC_ATTRIBUTES );
+        }
+        catch ( NoSuchFileException e )
+        {
+            return null;
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not read attributes of {}: {}", e, filePath, e.getMessage() );
+        }
+    }
 
-        String checksum = null;
+    @Override
+    public boolean needsChecksum()
+    {
+        return dedup;
+    }
+
+    @Override
+    public void checksum( final MigrateEntry entry )
+            throws MigrateException
+    {
         if ( dedup )
         {
             try
             {
-                checksum = calculateChecksum( file );
+                final Map<String, String> checksums = calculateChecksums( entry );
+                entry.setChecksum( checksums.get( checksumEngine.getAlgorithm() ) );
+                if ( checksums.size() > 1 )
+                {
+                    entry.setChecksums( checksums );
+                }
             }
             catch ( IOException e )
             {
                 throw new MigrateException(
-                                String.format( "Error: Can not get file checksum for file of %s", physicalFilePath ), e );
+                        String.format( "Error: Can not get file checksum for file of %s", entry.getPhysicalPath() ),
+                        e );
             }
         }
-        final String fileSystem = storePathGen.generateFileSystem( physicalFilePath );
-        final String path = storePathGen.generatePath( physicalFilePath );
-        final String storePath = storePathGen.generateStorePath( physicalFilePath );
+    }
+
+    @Override
+    public void write( final MigrateEntry entry )
+            throws MigrateException
+    {
+        final String fileSystem = entry.getFileSystem();
+        final String path = entry.getPath();
+        if ( entry.isRestored() )
+        {
+            restore( entry );
+            return;
+        }
+        final long start = System.nanoTime();
         FileInfo fileInfo = physicalStore.getFileInfo( fileSystem, path );
+        final long fileInfoEnd = System.nanoTime();
+        entry.addNanos( PathTracer.Step.FILE_INFO, fileInfoEnd - start );
 
         try
         {
-            pathDB.insert( fileSystem, path, new Date(), null, fileInfo.getFileId(), file.length(), storePath,
-                           checksum );
+            final boolean dedupe =
+                    dedupeIndex != null && entry.getChecksum() != null && !entry.isChecksumUnverified();
+            final DedupeIndex.Entry shared =
+                    dedupe ? dedupeIndex.get( entry.getChecksum(), entry.getSize(), entry.getStorePath() ) : null;
+            // a duplicate points to the first seen file
+            final boolean primary = shared == null;
+            target.insert( fileSystem, path, new Date(), null, primary ? fileInfo.getFileId() : shared.getFileId(),
+                           entry.getSize(), primary ? entry.getStorePath() : shared.getStorePath(),
+                           entry.getChecksum(), primary );
+            // only once it has its row, so no copy points to a file a failed insert left without one
+            if ( dedupe )
+            {
+                if ( primary )
+                {
+                    dedupeIndex.register( entry.getChecksum(), fileInfo.getFileId(), entry.getStorePath(),
+                                          entry.getSize() );
+                }
+                else
+                {
+                    dedupeIndex.shared( entry.getStorePath(), shared, entry.getSize() );
+                }
+            }
+            if ( entry.getChecksums() != null )
+            {
+                target.putChecksums( fileSystem, path, entry.getChecksums() );
+            }
+            final long insertEnd = System.nanoTime();
+            entry.addNanos( PathTracer.Step.INSERT, insertEnd - fileInfoEnd );
             if ( this.cacheOptions.isDoGACache() )
             {
                 insertGa( fileSystem, path );
+                entry.addNanos( PathTracer.Step.GA, System.nanoTime() - insertEnd );
             }
         }
         catch ( Exception e )
@@ -174,105 +297,212 @@ public class CassandraMigrator
         }
     }
 
+    /**
+     * Write back a row of an export as it was. Like for duplicates, it is not primary, so the target never takes the
+     * row for a new copy of a known file and reclaims its storage.
+     */
+    private void restore( final MigrateEntry entry )
+            throws MigrateException
+    {
+        final String fileSystem = entry.getFileSystem();
+        final String path = entry.getPath();
+        try
+        {
+            final long start = System.nanoTime();
+            target.insert( fileSystem, path, entry.getCreation(), entry.getExpiration(), entry.getFileId(),
+                           entry.getSize(), entry.getStorePath(), entry.getChecksum(), false );
+            final long insertEnd = System.nanoTime();
+            entry.addNanos( PathTracer.Step.INSERT, insertEnd - start );
+            if ( this.cacheOptions.isDoGACache() )
+            {
+                insertGa( fileSystem, path );
+                entry.addNanos( PathTracer.Step.GA, System.nanoTime() - insertEnd );
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new MigrateException( "Error: failed to restore {}:{} to path db: {}", e, fileSystem, path,
+                                        e.getMessage() );
+        }
+    }
+
     private void prepareCacheStore()
+            throws MigrateException
     {
         if ( cacheOptions.doGACache )
         {
-            final String gaCacheTable = cacheOptions.getGaCacheTableName();
-            session.execute( getSchemaCreateTable( gaCacheTable ) );
-            this.preparedStoresIncrement =
-                    session.prepare( "UPDATE " + gaCacheTable + " SET stores = stores + ? WHERE ga=?;" );
+            try
+            {
+                this.gaIndex = new GAIndex( target::appendGa, cacheOptions.dumpFile, cacheOptions.getFlushIntervalMillis(),
+                                            cacheOptions.getMaxPending(), GA_MAX_IN_FLIGHT );
+            }
+            catch ( IOException e )
+            {
+                throw new MigrateException( "Error: can not open GA cache dump {}: {}", e, cacheOptions.dumpFile,
+                                            e.getMessage() );
+            }
         }
     }
 
     private void insertGa( String fileSystem, String path )
     {
-        if ( fileSystem.startsWith( MAVEN_HOSTED ) && path.endsWith( ".pom" ) )
+        if ( path.endsWith( ".pom" ) )
         {
-            String repoName = fileSystem.substring( MAVEN_HOSTED.length() );
-            if ( gaStorePattern != null && repoName.matches( gaStorePattern ) )
+            String repoName = gaExtractor.repoOf( fileSystem );
+            if ( repoName != null )
             {
-                String gaPath = getGaPath( path );
+                String gaPath = GAExtractor.getGaPath( path );
                 if ( isNotBlank( gaPath ) )
                 {
-                    gaMap.computeIfAbsent( gaPath, s -> new HashSet() ).add( repoName );
+                    gaIndex.add( gaPath, repoName );
                 }
-                scanned.add( repoName );
+                gaIndex.addScanned( repoName );
             }
         }
     }
 
-    private String getGaPath( String path )
+    /**
+     * Get the checksums from the cheapest source: the sidecar files next to the file, then the checksum cache, and
+     * only then reading the file.
+     */
+    private Map<String, String> calculateChecksums( MigrateEntry entry )
+            throws IOException
     {
-        String ret = null;
-        String parentPath = PathMapUtils.getParentPath( path );
-        if ( isNotBlank( parentPath ) )
+        if ( entry.getSidecars() != null )
         {
-            Path ga = Paths.get( parentPath ).getParent();
-            if ( ga != null )
+            final Map<String, String> fromSidecars = sidecarChecksums.read( entry.getSidecars() );
+            if ( fromSidecars != null )
             {
-                ret = ga.toString();
-                if ( ret.startsWith( "/" ) )
+                // a stale sidecar must not make this path point to the content of another file
+                if ( !sidecarChecksums.shouldVerify() && ( dedupeIndex == null || !dedupeIndex.contains(
+                        fromSidecars.get( checksumEngine.getAlgorithm() ) ) ) )
                 {
-                    ret = ret.substring( 1 ); // remove the leading '/'
+                    entry.setChecksumUnverified( true );
+                    return fromSidecars;
                 }
+                final Map<String, String> calculated = checksumEngine.checksums( entry.getFile() );
+                checksumsCalculated.increment();
+                sidecarChecksums.verify( entry.getPhysicalPath(), fromSidecars, calculated );
+                return calculated;
             }
         }
-        return ret;
-    }
-
-    private void update( String ga, Set<String> set )
-    {
-        BoundStatement bound = preparedStoresIncrement.bind();
-        bound.setSet( 0, set );
-        bound.setString( 1, ga );
-        session.execute( bound );
+        if ( checksumCache != null && entry.hasIdentity() )
+        {
+            // the cache keeps the digests of all algorithms joined as one
+            final String cached = checksumCache.get( entry.getDevice(), entry.getInode(), entry.getSize(),
+                                                     entry.getLastModified() );
+            if ( cached != null )
+            {
+                checksumsFromCache.increment();
+                return checksumEngine.split( cached );
+            }
+            final Map<String, String> checksums = checksumEngine.checksums( entry.getFile() );
+            checksumsCalculated.increment();
+            checksumCache.put( entry.getDevice(), entry.getInode(), entry.getSize(), entry.getLastModified(),
+                               checksumEngine.join( checksums ) );
+            return checksums;
+        }
+        checksumsCalculated.increment();
+        return checksumEngine.checksums( entry.getFile() );
     }
 
-    private String calculateChecksum( File file )
-            throws IOException
+    public List<String> checksumReport()
     {
-        if ( !file.exists() || !file.isFile() )
-        {
-            throw new IOException(
-                    String.format( "Digest error: file not exists or not a regular file for file %s", file ) );
-        }
-        if ( checksumCalculator != null )
+        final List<String> lines = new ArrayList<>( 3 );
+        if ( dedup )
         {
-            try (FileInputStream is = new FileInputStream( file ))
+            lines.add( String.format( "Checksum: from sidecars: %s, from cache: %s, calculated: %s",
+                                      sidecarChecksums == null ? 0 : sidecarChecksums.getFound(),
+                                      checksumsFromCache.sum(), checksumsCalculated.sum() ) );
+            if ( sidecarChecksums != null )
             {
-                checksumCalculator.update( IOUtils.toByteArray( is ) );
+                lines.addAll( sidecarChecksums.report() );
             }
-            return checksumCalculator.getDigestHex();
         }
-
-        return null;
+        return lines;
     }
 
-    final String SCANNED_STORES = "scanned-stores";
-
     public void shutdown()
     {
-        if ( this.cacheOptions.isDoGACache() )
+        try
+        {
+            if ( gaIndex != null )
+            {
+                gaIndex.close();
+            }
+            if ( checksumCache != null )
+            {
+                checksumCache.close();
+            }
+            if ( dedupeIndex != null )
+            {
+                dedupeIndex.close();
+            }
+        }
+        catch ( IOException e )
         {
-            dumpGACacheToFile( cacheOptions.dumpFile );
-            gaMap.forEach( ( k, v ) -> update( k, v ) );
-            update( SCANNED_STORES, scanned );
+            e.printStackTrace();
         }
         migrator = null;
-        pathDB.close();
+        try
+        {
+            target.close();
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+        }
+        target.report().forEach( Util::printInfo );
     }
 
-    private void dumpGACacheToFile( File dumpFile )
+    public DedupeIndex getDedupeIndex()
     {
-        try (PrintStream ps = new PrintStream( new FileOutputStream( dumpFile ) ))
+        return dedupeIndex;
+    }
+
+    static class DedupeOptions
+    {
+        private final ChecksumEngine checksumEngine;
+
+        private final ChecksumCache checksumCache;
+
+        private final DedupeIndex dedupeIndex;
+
+        private final SidecarChecksums sidecarChecksums;
+
+        /**
+         * @param checksumEngine engine to calculate checksum for dedupe, null means no dedupe
+         * @param checksumCache persistent cache of checksums from earlier runs, null means no cache
+         * @param dedupeIndex index to point duplicates to the first seen file, null means only record checksum
+         * @param sidecarChecksums trusted checksums from sidecar files, null means always calculate them
+         */
+        DedupeOptions( ChecksumEngine checksumEngine, ChecksumCache checksumCache, DedupeIndex dedupeIndex,
+                       SidecarChecksums sidecarChecksums )
         {
-            gaMap.forEach( ( k, v ) -> ps.println( k + "=" + v ) );
-            ps.println( SCANNED_STORES + "=" + scanned );
+            this.checksumEngine = checksumEngine;
+            this.checksumCache = checksumCache;
+            this.dedupeIndex = dedupeIndex;
+            this.sidecarChecksums = sidecarChecksums;
         }
-        catch ( IOException e )
+
+        public ChecksumEngine getChecksumEngine()
         {
-            e.printStackTrace();
+            return checksumEngine;
+        }
+
+        public ChecksumCache getChecksumCache()
+        {
+            return checksumCache;
+        }
+
+        public DedupeIndex getDedupeIndex()
+        {
+            return dedupeIndex;
+        }
+
+        public SidecarChecksums getSidecarChecksums()
+        {
+            return sidecarChecksums;
         }
     }
 
@@ -281,13 +511,18 @@ public class CassandraMigrator
         private final String gaCacheStorePattern;
         private final String gaCacheTableName;
         private final File dumpFile;
+        private final long flushIntervalMillis;
+        private final int maxPending;
 
-        GACacheOptions( boolean doGACache, String gaCacheStorePattern, String gaCacheTableName, File dumpFile )
+        GACacheOptions( boolean doGACache, String gaCacheStorePattern, String gaCacheTableName, File dumpFile,
+                        long flushIntervalMillis, int maxPending )
         {
             this.doGACache = doGACache;
             this.gaCacheStorePattern = gaCacheStorePattern;
             this.gaCacheTableName = gaCacheTableName;
             this.dumpFile = dumpFile;
+            this.flushIntervalMillis = flushIntervalMillis;
+            this.maxPending = maxPending;
         }
 
         public boolean isDoGACache()
@@ -304,5 +539,15 @@ public class CassandraMigrator
         {
             return gaCacheTableName;
         }
+
+        public long getFlushIntervalMillis()
+        {
+            return flushIntervalMillis;
+        }
+
+        public int getMaxPending()
+        {
+            return maxPending;
+        }
     }
 }
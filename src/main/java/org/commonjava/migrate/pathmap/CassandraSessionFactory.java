@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Session;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.Closeable;
+
+/**
+ * Cassandra cluster and session built from the options, with the {@link DriverProfile} applied. Migrate hands the
+ * session to {@link org.commonjava.storage.pathmapped.pathdb.datastax.CassandraPathDB}, and the commands which don't
+ * write the path map use it directly.
+ */
+public class CassandraSessionFactory
+        implements Closeable
+{
+    private final Cluster cluster;
+
+    private final Session session;
+
+    public CassandraSessionFactory( final MigrateOptions options )
+            throws MigrateException
+    {
+        final Cluster.Builder builder = Cluster.builder()
+                                               .withoutJMXReporting()
+                                               .addContactPoint( options.getCassandraHost() )
+                                               .withPort( Integer.parseInt( options.getCassandraPort() ) );
+        if ( StringUtils.isNotBlank( options.getCassandraUser() ) )
+        {
+            builder.withCredentials( options.getCassandraUser(), options.getCassandraPass() );
+        }
+        options.getDriverProfile().apply( builder );
+        this.cluster = builder.build();
+        try
+        {
+            this.session = cluster.connect();
+        }
+        catch ( RuntimeException e )
+        {
+            cluster.close();
+            throw new MigrateException( "Error: can not connect to cassandra {}:{}: {}", e,
+                                        options.getCassandraHost(), options.getCassandraPort(), e.getMessage() );
+        }
+    }
+
+    public Session getSession()
+    {
+        return session;
+    }
+
+    @Override
+    public void close()
+    {
+        session.close();
+        cluster.close();
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.commonjava.storage.pathmapped.config.DefaultPathMappedStorageConfig;
+import org.commonjava.storage.pathmapped.pathdb.datastax.CassandraPathDB;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.PROP_CASSANDRA_KEYSPACE;
+
+/**
+ * Writes the path map with the cassandra path db, which makes the parent dirs, the reverse map and the file checksum
+ * of a file and reclaims the storage of a copy of a known file, and the GA cache and all checksums of a file with
+ * statements of its own.
+ */
+public class CassandraTarget
+        implements MigrateTarget
+{
+    private final CassandraSessionFactory sessions;
+
+    private final Session session;
+
+    private final CassandraPathDB pathDB;
+
+    private final PreparedStatement preparedChecksumUpdate;
+
+    private final PreparedStatement preparedChecksumsUpdate;
+
+    private final PreparedStatement preparedStoresIncrement;
+
+    /**
+     * @param gaCacheTable GA cache table, created if missing, null to write no GA cache
+     * @param allChecksums true if more than the primary checksum is calculated, which are kept in a table of their own
+     */
+    public CassandraTarget( final Map<String, Object> cassandraConfig, final CassandraSessionFactory sessions,
+                            final String gaCacheTable, final boolean allChecksums )
+    {
+        final String keyspace = (String) cassandraConfig.get( PROP_CASSANDRA_KEYSPACE );
+        this.sessions = sessions;
+        this.session = sessions.getSession();
+        this.pathDB = new CassandraPathDB( new DefaultPathMappedStorageConfig( cassandraConfig ), session, keyspace );
+        this.preparedChecksumUpdate = session.prepare( "UPDATE " + keyspace
+                                                               + ".pathmap SET checksum=? WHERE filesystem=? AND parentpath=? AND filename=?;" );
+        if ( allChecksums )
+        {
+            // pathmap only has room for the primary checksum, all of them go to a table of their own
+            session.execute( CassandraMigrator.getSchemaCreateChecksumsTable( keyspace ) );
+            this.preparedChecksumsUpdate = session.prepare(
+                    "UPDATE " + keyspace + ".pathchecksums SET checksums = checksums + ? WHERE filesystem=? AND path=?;" );
+        }
+        else
+        {
+            this.preparedChecksumsUpdate = null;
+        }
+        if ( gaCacheTable != null )
+        {
+            session.execute( CassandraMigrator.getSchemaCreateTable( gaCacheTable ) );
+            this.preparedStoresIncrement = session.prepare( CassandraMigrator.getGaStoresUpdate( gaCacheTable ) );
+        }
+        else
+        {
+            this.preparedStoresIncrement = null;
+        }
+    }
+
+    /**
+     * If not primary, the checksum is set after the insert, as inserting it with a known checksum would make the path
+     * db reclaim the storage given here, which is the shared one.
+     */
+    @Override
+    public void insert( final String fileSystem, final String path, final Date creation, final Date expiration,
+                        final String fileId, final long size, final String fileStorage, final String checksum,
+                        final boolean primary )
+    {
+        pathDB.insert( fileSystem, path, creation, expiration, fileId, size, fileStorage, primary ? checksum : null );
+        if ( !primary && checksum != null )
+        {
+            session.execute( preparedChecksumUpdate.bind( checksum, fileSystem, PathMapUtils.getParentPath( path ),
+                                                          PathMapUtils.getFilename( path ) ) );
+        }
+    }
+
+    @Override
+    public void putChecksums( final String fileSystem, final String path, final Map<String, String> checksums )
+    {
+        if ( preparedChecksumsUpdate != null )
+        {
+            session.execute( preparedChecksumsUpdate.bind( checksums, fileSystem, path ) );
+        }
+    }
+
+    @Override
+    public ListenableFuture<?> appendGa( final String ga, final Set<String> repos )
+    {
+        BoundStatement bound = preparedStoresIncrement.bind();
+        bound.setSet( 0, repos );
+        bound.setString( 1, ga );
+        return session.executeAsync( bound );
+    }
+
+    @Override
+    public List<String> report()
+    {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void close()
+    {
+        pathDB.close();
+        sessions.close();
+    }
+}
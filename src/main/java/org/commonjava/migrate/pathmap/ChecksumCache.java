@@ -0,0 +1,375 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.locks.StampedLock;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * On-disk cache of file checksums keyed by file identity (device, inode), and valid only while the size and the
+ * modification time of the file stay the same. A rerun can then get the checksum of an unchanged file with a stat
+ * instead of reading the whole file again.
+ * <p>
+ * The cache is an append-only log in the work dir. On open it is replayed into an open addressing table made of
+ * primitive arrays; the last record of a file wins. Lookups use optimistic reads and never block on disk I/O; inserts
+ * take the write lock only to update the table and append to the log under a separate lock. A truncated last record
+ * (e.g. after a crash) is ignored.
+ */
+public class ChecksumCache
+        implements Closeable
+{
+    private static final int MAGIC = 0x504d4343; // PMCC
+
+    private static final int VERSION = 1;
+
+    private static final int FIELDS = 4; // dev, ino, size, mtime
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private static final int FLUSH_INTERVAL = 1000;
+
+    private final File logFile;
+
+    private final String algorithm;
+
+    private final int digestLength;
+
+    private final StampedLock lock = new StampedLock();
+
+    /** Guards {@link #log} and {@link #unflushed}, so that disk I/O never runs under {@link #lock}. */
+    final Object logLock = new Object();
+
+    private long[] keys;
+
+    private byte[] digests;
+
+    private int size;
+
+    private DataOutputStream log;
+
+    private int unflushed;
+
+    private ChecksumCache( final File logFile, final String algorithm, final int digestLength )
+    {
+        this.logFile = logFile;
+        this.algorithm = algorithm;
+        this.digestLength = digestLength;
+        this.keys = new long[INITIAL_CAPACITY * FIELDS];
+        this.digests = new byte[INITIAL_CAPACITY * digestLength];
+    }
+
+    /**
+     * Open the cache log, replaying what was recorded by earlier runs. A log written for another algorithm is
+     * discarded.
+     */
+    public static ChecksumCache open( final File logFile, final String algorithm, final int digestLength )
+            throws IOException
+    {
+        final ChecksumCache cache = new ChecksumCache( logFile, algorithm, digestLength );
+        final long records = logFile.exists() ? cache.replay() : -1;
+        if ( records < 0 || records > 2L * cache.size )
+        {
+            // Missing, incompatible or mostly superseded: start a new compacted log
+            cache.rewrite();
+        }
+        cache.log = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( logFile, true ) ) );
+        printInfo( String.format( "Checksum cache %s loaded with %s entries", logFile, cache.size ) );
+        return cache;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return hex checksum of the file if it is cached and the file did not change since, otherwise null
+     */
+    public String get( final long dev, final long ino, final long fileSize, final long mtime )
+    {
+        final byte[] digest = new byte[digestLength];
+        long stamp = lock.tryOptimisticRead();
+        boolean found = find( dev, ino, fileSize, mtime, digest );
+        if ( !lock.validate( stamp ) )
+        {
+            stamp = lock.readLock();
+            try
+            {
+                found = find( dev, ino, fileSize, mtime, digest );
+            }
+            finally
+            {
+                lock.unlockRead( stamp );
+            }
+        }
+        return found ? Hex.encodeHexString( digest ) : null;
+    }
+
+    private boolean find( final long dev, final long ino, final long fileSize, final long mtime,
+                          final byte[] digest )
+    {
+        final long[] k = keys;
+        final byte[] d = digests;
+        final int mask = k.length / FIELDS - 1;
+        int slot = slot( dev, ino, mask );
+        for ( int probes = 0; probes <= mask; probes++ )
+        {
+            final int base = slot * FIELDS;
+            if ( base + FIELDS > k.length )
+            {
+                return false; // arrays swapped under us, caller validates and retries
+            }
+            final long kDev = k[base];
+            final long kIno = k[base + 1];
+            if ( kDev == 0 && kIno == 0 )
+            {
+                return false;
+            }
+            if ( kDev == dev && kIno == ino )
+            {
+                if ( k[base + 2] != fileSize || k[base + 3] != mtime || ( slot + 1 ) * digestLength > d.length )
+                {
+                    return false; // file changed since it was cached
+                }
+                System.arraycopy( d, slot * digestLength, digest, 0, digestLength );
+                return true;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Record the checksum of a file, replacing whatever was cached for the same identity.
+     */
+    public void put( final long dev, final long ino, final long fileSize, final long mtime, final String checksum )
+            throws IOException
+    {
+        final byte[] digest = decode( checksum );
+        final long stamp = lock.writeLock();
+        try
+        {
+            store( dev, ino, fileSize, mtime, digest );
+        }
+        finally
+        {
+            lock.unlockWrite( stamp );
+        }
+        // Concurrent puts of one identity may reach the log out of table order; the record replayed then is at
+        // worst stale, and the size and mtime check rejects it
+        synchronized ( logLock )
+        {
+            writeRecord( log, dev, ino, fileSize, mtime, digest );
+            if ( ++unflushed >= FLUSH_INTERVAL )
+            {
+                log.flush();
+                unflushed = 0;
+            }
+        }
+    }
+
+    private void store( final long dev, final long ino, final long fileSize, final long mtime, final byte[] digest )
+    {
+        if ( ( size + 1 ) * 10L > ( keys.length / FIELDS ) * 6L )
+        {
+            grow();
+        }
+        final int mask = keys.length / FIELDS - 1;
+        int slot = slot( dev, ino, mask );
+        while ( true )
+        {
+            final int base = slot * FIELDS;
+            final boolean empty = keys[base] == 0 && keys[base + 1] == 0;
+            if ( empty || ( keys[base] == dev && keys[base + 1] == ino ) )
+            {
+                if ( empty )
+                {
+                    size++;
+                }
+                keys[base] = dev;
+                keys[base + 1] = ino;
+                keys[base + 2] = fileSize;
+                keys[base + 3] = mtime;
+                System.arraycopy( digest, 0, digests, slot * digestLength, digestLength );
+                return;
+            }
+            slot = ( slot + 1 ) & mask;
+        }
+    }
+
+    private void grow()
+    {
+        final long[] oldKeys = keys;
+        final byte[] oldDigests = digests;
+        final int capacity = oldKeys.length / FIELDS * 2;
+        keys = new long[capacity * FIELDS];
+        digests = new byte[capacity * digestLength];
+        size = 0;
+        final byte[] digest = new byte[digestLength];
+        for ( int slot = 0; slot < oldKeys.length / FIELDS; slot++ )
+        {
+            final int base = slot * FIELDS;
+            if ( oldKeys[base] != 0 || oldKeys[base + 1] != 0 )
+            {
+                System.arraycopy( oldDigests, slot * digestLength, digest, 0, digestLength );
+                store( oldKeys[base], oldKeys[base + 1], oldKeys[base + 2], oldKeys[base + 3], digest );
+            }
+        }
+    }
+
+    private static int slot( final long dev, final long ino, final int mask )
+    {
+        long h = dev * 0x9E3779B97F4A7C15L ^ ino;
+        h ^= ( h >>> 33 );
+        h *= 0xff51afd7ed558ccdL;
+        h ^= ( h >>> 33 );
+        return (int) h & mask;
+    }
+
+    private byte[] decode( final String checksum )
+            throws IOException
+    {
+        try
+        {
+            final byte[] digest = Hex.decodeHex( checksum.toCharArray() );
+            if ( digest.length != digestLength )
+            {
+                throw new IOException( String.format( "Checksum %s does not match the cache digest length %s",
+                                                      checksum, digestLength ) );
+            }
+            return digest;
+        }
+        catch ( DecoderException e )
+        {
+            throw new IOException( String.format( "Invalid checksum %s", checksum ), e );
+        }
+    }
+
+    /**
+     * @return number of records in the log, or -1 if the log can not be appended to as it is
+     */
+    private long replay()
+            throws IOException
+    {
+        long records = 0;
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( logFile ) ) ))
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION || !algorithm.equals( in.readUTF() )
+                    || in.readInt() != digestLength )
+            {
+                printInfo( String.format( "Checksum cache %s is not for algorithm %s, will discard it", logFile,
+                                          algorithm ) );
+                return -1;
+            }
+            final byte[] digest = new byte[digestLength];
+            while ( true )
+            {
+                final long dev = in.readLong();
+                final long ino = in.readLong();
+                final long fileSize = in.readLong();
+                final long mtime = in.readLong();
+                in.readFully( digest );
+                store( dev, ino, fileSize, mtime, digest );
+                records++;
+            }
+        }
+        catch ( EOFException e )
+        {
+            // end of log, or a record truncated by a crash
+        }
+        final long headerLength = 14 + algorithm.getBytes( StandardCharsets.UTF_8 ).length;
+        if ( ( logFile.length() - headerLength ) % ( 32 + digestLength ) != 0 )
+        {
+            printInfo( String.format( "Checksum cache %s has a truncated record, will rewrite it", logFile ) );
+            return -1;
+        }
+        return records;
+    }
+
+    private void rewrite()
+            throws IOException
+    {
+        final File tmp = new File( logFile.getPath() + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( tmp ) ) ))
+        {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeUTF( algorithm );
+            out.writeInt( digestLength );
+            final byte[] digest = new byte[digestLength];
+            for ( int slot = 0; slot < keys.length / FIELDS; slot++ )
+            {
+                final int base = slot * FIELDS;
+                if ( keys[base] != 0 || keys[base + 1] != 0 )
+                {
+                    System.arraycopy( digests, slot * digestLength, digest, 0, digestLength );
+                    writeRecord( out, keys[base], keys[base + 1], keys[base + 2], keys[base + 3], digest );
+                }
+            }
+        }
+        Files.move( tmp.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static void writeRecord( final DataOutputStream out, final long dev, final long ino, final long fileSize,
+                                     final long mtime, final byte[] digest )
+            throws IOException
+    {
+        out.writeLong( dev );
+        out.writeLong( ino );
+        out.writeLong( fileSize );
+        out.writeLong( mtime );
+        out.write( digest );
+    }
+
+    public void flush()
+            throws IOException
+    {
+        synchronized ( logLock )
+        {
+            log.flush();
+            unflushed = 0;
+        }
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        synchronized ( logLock )
+        {
+            log.close();
+        }
+    }
+}
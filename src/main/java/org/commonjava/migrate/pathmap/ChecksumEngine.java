@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streaming checksum calculation which is safe to share between migrating threads. Each thread owns its own
+ * {@link MessageDigest}s and a direct read buffer, so the memory used per worker stays constant whatever the file
+ * size is. Files bigger than the mmap threshold are digested through memory mapped windows instead of being copied
+ * through the read buffer.
+ * <p>
+ * Several algorithms can be calculated in one pass: each buffer read is fed to every digest. The first algorithm is
+ * the primary one, used for dedupe. With more than one lane, the digests of one buffer are updated in parallel: the
+ * calling thread updates the primary one and each lane a share of the others. Lanes run on a pool which grows with
+ * the calling threads, so every caller gets lanes of its own instead of queueing behind the others.
+ */
+public class ChecksumEngine
+{
+    static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    static final int MMAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final List<String> algorithms;
+
+    private final int[] digestLengths;
+
+    private final int digestLength;
+
+    private final long mmapThreshold;
+
+    private final ThreadLocal<MessageDigest[]> digests;
+
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    private final int laneCount;
+
+    private final ExecutorService lanes;
+
+    public ChecksumEngine( final String algorithm, final int bufferSize, final long mmapThreshold )
+            throws NoSuchAlgorithmException
+    {
+        this( Collections.singletonList( algorithm ), bufferSize, mmapThreshold, 1 );
+    }
+
+    /**
+     * @param algorithms digest algorithms, like MD5 or SHA-256; the first one is the primary
+     * @param bufferSize size of the direct read buffer allocated for each thread
+     * @param mmapThreshold files whose size is bigger than this will be memory mapped; 0 or less disables mmap
+     * @param lanes threads to update the digests of one buffer in parallel; 1 or less updates them in turn
+     */
+    public ChecksumEngine( final List<String> algorithms, final int bufferSize, final long mmapThreshold,
+                           final int lanes )
+            throws NoSuchAlgorithmException
+    {
+        if ( algorithms.isEmpty() )
+        {
+            throw new NoSuchAlgorithmException( "No checksum algorithm given" );
+        }
+        this.algorithms = Collections.unmodifiableList( new ArrayList<>( algorithms ) );
+        this.digestLengths = new int[algorithms.size()];
+        int total = 0;
+        for ( int i = 0; i < algorithms.size(); i++ )
+        {
+            digestLengths[i] = MessageDigest.getInstance( algorithms.get( i ) ).getDigestLength(); // fail fast
+            total += digestLengths[i];
+        }
+        this.digestLength = total;
+        this.mmapThreshold = mmapThreshold;
+        this.digests = ThreadLocal.withInitial( () -> {
+            final MessageDigest[] mds = new MessageDigest[this.algorithms.size()];
+            for ( int i = 0; i < mds.length; i++ )
+            {
+                try
+                {
+                    mds[i] = MessageDigest.getInstance( this.algorithms.get( i ) );
+                }
+                catch ( NoSuchAlgorithmException e )
+                {
+                    throw new IllegalStateException( e ); // already verified above
+                }
+            }
+            return mds;
+        } );
+        final int size = bufferSize <= 0 ? DEFAULT_BUFFER_SIZE : bufferSize;
+        this.buffers = ThreadLocal.withInitial( () -> ByteBuffer.allocateDirect( size ) );
+        this.laneCount = Math.min( lanes, algorithms.size() - 1 );
+        if ( laneCount > 0 && lanes > 1 )
+        {
+            final AtomicInteger threadNum = new AtomicInteger( 0 );
+            // at most laneCount tasks of each caller are outstanding, so the idle threads are reused between them
+            this.lanes = Executors.newCachedThreadPool( r -> {
+                final Thread t = new Thread( r, "checksum-lane-" + threadNum.getAndIncrement() );
+                t.setDaemon( true );
+                return t;
+            } );
+        }
+        else
+        {
+            this.lanes = null;
+        }
+    }
+
+    /**
+     * @return the primary algorithm
+     */
+    public String getAlgorithm()
+    {
+        return algorithms.get( 0 );
+    }
+
+    public List<String> getAlgorithms()
+    {
+        return algorithms;
+    }
+
+    /**
+     * @return length in bytes of all digests together
+     */
+    public int getDigestLength()
+    {
+        return digestLength;
+    }
+
+    /**
+     * @return length in bytes of the digest of one algorithm
+     */
+    public int getDigestLength( final String algorithm )
+    {
+        return digestLengths[algorithms.indexOf( algorithm )];
+    }
+
+    /**
+     * @return hex checksum of the primary algorithm
+     */
+    public String checksum( final File file )
+            throws IOException
+    {
+        return checksums( file ).get( getAlgorithm() );
+    }
+
+    /**
+     * @return hex checksums of the file by algorithm, in the order of the algorithms
+     */
+    public Map<String, String> checksums( final File file )
+            throws IOException
+    {
+        if ( !file.exists() || !file.isFile() )
+        {
+            throw new IOException(
+                    String.format( "Digest error: file not exists or not a regular file for file %s", file ) );
+        }
+
+        final MessageDigest[] mds = digests.get();
+        for ( MessageDigest md : mds )
+        {
+            md.reset();
+        }
+        try (FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ ))
+        {
+            final long size = channel.size();
+            if ( mmapThreshold > 0 && size > mmapThreshold )
+            {
+                digestMapped( channel, size, mds );
+            }
+            else
+            {
+                digestStreamed( channel, mds );
+            }
+        }
+        final Map<String, String> result = new LinkedHashMap<>( mds.length * 2 );
+        for ( int i = 0; i < mds.length; i++ )
+        {
+            result.put( algorithms.get( i ), Hex.encodeHexString( mds[i].digest() ) );
+        }
+        return result;
+    }
+
+    /**
+     * Join checksums of all algorithms into one hex string, e.g. to be kept in {@link ChecksumCache}.
+     */
+    public String join( final Map<String, String> checksums )
+    {
+        final StringBuilder sb = new StringBuilder( digestLength * 2 );
+        algorithms.forEach( a -> sb.append( checksums.get( a ) ) );
+        return sb.toString();
+    }
+
+    /**
+     * Reverse of {@link #join(Map)}.
+     */
+    public Map<String, String> split( final String joined )
+    {
+        final Map<String, String> result = new LinkedHashMap<>( algorithms.size() * 2 );
+        int start = 0;
+        for ( int i = 0; i < algorithms.size(); i++ )
+        {
+            final int end = start + digestLengths[i] * 2;
+            result.put( algorithms.get( i ), joined.substring( start, end ) );
+            start = end;
+        }
+        return result;
+    }
+
+    private void digestStreamed( final FileChannel channel, final MessageDigest[] mds )
+            throws IOException
+    {
+        final ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        while ( channel.read( buffer ) >= 0 )
+        {
+            buffer.flip();
+            update( mds, buffer );
+            buffer.clear();
+        }
+    }
+
+    private void digestMapped( final FileChannel channel, final long size, final MessageDigest[] mds )
+            throws IOException
+    {
+        // Map in fixed windows so that huge files don't need a huge contiguous address range
+        long position = 0;
+        while ( position < size )
+        {
+            final long window = Math.min( MMAP_WINDOW_SIZE, size - position );
+            final MappedByteBuffer mapped = channel.map( FileChannel.MapMode.READ_ONLY, position, window );
+            update( mds, mapped );
+            position += window;
+        }
+    }
+
+    private void update( final MessageDigest[] mds, final ByteBuffer buffer )
+            throws IOException
+    {
+        if ( mds.length == 1 )
+        {
+            mds[0].update( buffer );
+            return;
+        }
+        if ( lanes == null )
+        {
+            for ( MessageDigest md : mds )
+            {
+                md.update( buffer.duplicate() );
+            }
+            return;
+        }
+
+        final List<Future<?>> updates = new ArrayList<>( laneCount );
+        try
+        {
+            for ( int lane = 0; lane < laneCount; lane++ )
+            {
+                final int first = lane + 1;
+                updates.add( lanes.submit( () -> {
+                    for ( int i = first; i < mds.length; i += laneCount )
+                    {
+                        mds[i].update( buffer.duplicate() );
+                    }
+                } ) );
+            }
+            mds[0].update( buffer.duplicate() );
+            for ( Future<?> f : updates )
+            {
+                f.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            awaitLanes( updates );
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while updating digests", e );
+        }
+        catch ( ExecutionException | RuntimeException e )
+        {
+            awaitLanes( updates );
+            throw new IOException( "Failed to update digest", e instanceof ExecutionException ? e.getCause() : e );
+        }
+    }
+
+    /**
+     * Cancel the lane updates which did not start and wait for the running ones, so no lane touches the digests of
+     * this thread any more when they are reset for the next file.
+     */
+    private static void awaitLanes( final List<Future<?>> updates )
+    {
+        boolean interrupted = false;
+        for ( Future<?> f : updates )
+        {
+            if ( f.cancel( false ) )
+            {
+                continue;
+            }
+            while ( true )
+            {
+                try
+                {
+                    f.get();
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+                catch ( ExecutionException e )
+                {
+                    break;
+                }
+            }
+        }
+        if ( interrupted )
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
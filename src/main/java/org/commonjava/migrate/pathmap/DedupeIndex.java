@@ -0,0 +1,382 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Content addressed index from checksum to the first seen physical file, so that every later copy of the same
+ * content can point to that file instead of getting its own fileId.
+ * <p>
+ * Keys are the first 128 bits of the digest kept in primitive arrays, with the size of the file, which must be the
+ * same as well for a file to be taken as a copy. The index is split into shards by digest bits,
+ * each guarded by its own monitor, so migrating threads rarely contend. A file is only registered once it is written
+ * to the path map, so no copy ever points to a file without a row. Registered files are appended to a primaries log
+ * which the next run loads again, and duplicates to a log file which later storage GC can use; {@link #report()}
+ * gives the savings.
+ */
+public class DedupeIndex
+        implements Closeable
+{
+    private static final int SHARDS = 64;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    private final LongAdder uniqueFiles = new LongAdder();
+
+    private final LongAdder uniqueBytes = new LongAdder();
+
+    private final LongAdder duplicateFiles = new LongAdder();
+
+    private final LongAdder duplicateBytes = new LongAdder();
+
+    private final LongAdder sizeMismatches = new LongAdder();
+
+    private final LongAdder reloaded = new LongAdder();
+
+    private final BufferedWriter duplicatesLog;
+
+    private final BufferedWriter primariesLog;
+
+    /**
+     * @param duplicatesLog file to record every duplicate and the file it is deduped to, null for no log
+     */
+    public DedupeIndex( final File duplicatesLog )
+            throws IOException
+    {
+        this( duplicatesLog, null );
+    }
+
+    /**
+     * @param primariesLog file to record every registered file, so a later run can {@link #load(File)} them, null for
+     * no log
+     */
+    public DedupeIndex( final File duplicatesLog, final File primariesLog )
+            throws IOException
+    {
+        for ( int i = 0; i < SHARDS; i++ )
+        {
+            shards[i] = new Shard();
+        }
+        this.duplicatesLog = duplicatesLog == null ? null : new BufferedWriter( new FileWriter( duplicatesLog, true ) );
+        this.primariesLog = primariesLog == null ? null : new BufferedWriter( new FileWriter( primariesLog, true ) );
+    }
+
+    /**
+     * Register the files of the primaries log of an earlier run, or of another process, so their copies point to
+     * them instead of becoming new primaries.
+     *
+     * @return number of files registered
+     */
+    public int load( final File primaries )
+            throws IOException
+    {
+        int loaded = 0;
+        try (BufferedReader reader = new BufferedReader( new FileReader( primaries ) ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final String[] fields = line.split( "\t" );
+                if ( fields.length != 4 )
+                {
+                    continue; // cut off by a crash
+                }
+                final long size = Long.parseLong( fields[1] );
+                if ( shardOf( fields[0] ).putIfAbsent( parse( fields[0], 0 ), parse( fields[0], 16 ), fields[2],
+                                                      fields[3], size ) == null )
+                {
+                    loaded++;
+                }
+            }
+        }
+        reloaded.add( loaded );
+        return loaded;
+    }
+
+    /**
+     * Find the first seen file with a checksum. A file with the checksum of a registered one but another size is not
+     * a copy of it.
+     *
+     * @return the registered file with the same checksum and size, or null if there is none
+     */
+    public Entry get( final String checksum, final long size, final String storePath )
+    {
+        final Entry existing = shardOf( checksum ).get( parse( checksum, 0 ), parse( checksum, 16 ) );
+        if ( existing != null && existing.getSize() != size )
+        {
+            sizeMismatches.increment();
+            printInfo( String.format( "Warning: %s has checksum %s of %s but a size of %s instead of %s, not deduped",
+                                      storePath, checksum, existing.getStorePath(), size, existing.getSize() ) );
+            return null;
+        }
+        return existing;
+    }
+
+    /**
+     * @return true if a file with the checksum is registered, whatever its size
+     */
+    public boolean contains( final String checksum )
+    {
+        return shardOf( checksum ).get( parse( checksum, 0 ), parse( checksum, 16 ) ) != null;
+    }
+
+    /**
+     * Register a file by its checksum, once it is written to the path map as a file of its own, so later copies can
+     * point to it. When another file with the checksum was registered meanwhile, that one is kept.
+     *
+     * @return true if the file was registered
+     */
+    public boolean register( final String checksum, final String fileId, final String storePath, final long size )
+    {
+        uniqueFiles.increment();
+        uniqueBytes.add( size );
+        final boolean registered =
+                shardOf( checksum ).putIfAbsent( parse( checksum, 0 ), parse( checksum, 16 ), fileId, storePath,
+                                                 size ) == null;
+        if ( registered )
+        {
+            append( primariesLog, checksum + "\t" + size + "\t" + fileId + "\t" + storePath );
+        }
+        return registered;
+    }
+
+    /**
+     * Count a file written to the path map pointing to a registered file. The registered file itself, written again
+     * by a later run, is not a duplicate of itself.
+     */
+    public void shared( final String storePath, final Entry shared, final long size )
+    {
+        if ( storePath.equals( shared.getStorePath() ) )
+        {
+            uniqueFiles.increment();
+            uniqueBytes.add( size );
+            return;
+        }
+        duplicateFiles.increment();
+        duplicateBytes.add( size );
+        append( duplicatesLog, storePath + "\t" + shared.getStorePath() + "\t" + size );
+    }
+
+    private Shard shardOf( final String checksum )
+    {
+        return shards[(int) ( parse( checksum, 16 ) & ( SHARDS - 1 ) )];
+    }
+
+    private static long parse( final String checksum, final int start )
+    {
+        if ( checksum.length() <= start )
+        {
+            return 0;
+        }
+        return Long.parseUnsignedLong( checksum.substring( start, Math.min( checksum.length(), start + 16 ) ), 16 );
+    }
+
+    private static void append( final BufferedWriter log, final String line )
+    {
+        if ( log == null )
+        {
+            return;
+        }
+        synchronized ( log )
+        {
+            try
+            {
+                log.write( line );
+                log.newLine();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    public long getUniqueFiles()
+    {
+        return uniqueFiles.sum();
+    }
+
+    public long getDuplicateFiles()
+    {
+        return duplicateFiles.sum();
+    }
+
+    public long getDuplicateBytes()
+    {
+        return duplicateBytes.sum();
+    }
+
+    public List<String> report()
+    {
+        final long unique = uniqueBytes.sum();
+        final long duplicate = duplicateBytes.sum();
+        final long total = unique + duplicate;
+        final List<String> lines = new ArrayList<>( 5 );
+        lines.add( String.format( "Dedupe: unique files: %s, size: %s bytes", uniqueFiles.sum(), unique ) );
+        lines.add( String.format( "Dedupe: duplicate files: %s, size: %s bytes", duplicateFiles.sum(), duplicate ) );
+        lines.add( String.format( "Dedupe: files registered by earlier runs: %s", reloaded.sum() ) );
+        lines.add( String.format( "Dedupe: same checksum with another size, not deduped: %s", sizeMismatches.sum() ) );
+        lines.add( String.format( "Dedupe: storage needed after dedupe: %s of %s bytes (%.2f%% saved)", unique,
+                                  total, total == 0 ? 0 : duplicate * 100.0 / total ) );
+        return lines;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        for ( BufferedWriter log : new BufferedWriter[] { duplicatesLog, primariesLog } )
+        {
+            if ( log != null )
+            {
+                synchronized ( log )
+                {
+                    log.close();
+                }
+            }
+        }
+    }
+
+    public static class Entry
+    {
+        private final String fileId;
+
+        private final String storePath;
+
+        private final long size;
+
+        Entry( final String fileId, final String storePath, final long size )
+        {
+            this.fileId = fileId;
+            this.storePath = storePath;
+            this.size = size;
+        }
+
+        public String getFileId()
+        {
+            return fileId;
+        }
+
+        public String getStorePath()
+        {
+            return storePath;
+        }
+
+        public long getSize()
+        {
+            return size;
+        }
+    }
+
+    private static final class Shard
+    {
+        private long[] keys = new long[1024 * 2];
+
+        private int[] refs = new int[1024]; // 1 based position in fileIds/storePaths, 0 means empty slot
+
+        private String[] fileIds = new String[512];
+
+        private String[] storePaths = new String[512];
+
+        private long[] sizes = new long[512];
+
+        private int count;
+
+        synchronized Entry get( final long hi, final long lo )
+        {
+            final int slot = find( hi, lo );
+            if ( refs[slot] == 0 )
+            {
+                return null;
+            }
+            final int ref = refs[slot] - 1;
+            return new Entry( fileIds[ref], storePaths[ref], sizes[ref] );
+        }
+
+        synchronized Entry putIfAbsent( final long hi, final long lo, final String fileId, final String storePath,
+                                        final long size )
+        {
+            int slot = find( hi, lo );
+            if ( refs[slot] != 0 )
+            {
+                final int ref = refs[slot] - 1;
+                return new Entry( fileIds[ref], storePaths[ref], sizes[ref] );
+            }
+            if ( ( count + 1 ) * 10L > refs.length * 6L )
+            {
+                grow();
+                slot = find( hi, lo );
+            }
+            if ( count == fileIds.length )
+            {
+                final int capacity = fileIds.length * 2;
+                fileIds = Arrays.copyOf( fileIds, capacity );
+                storePaths = Arrays.copyOf( storePaths, capacity );
+                sizes = Arrays.copyOf( sizes, capacity );
+            }
+            fileIds[count] = fileId;
+            storePaths[count] = storePath;
+            sizes[count] = size;
+            keys[slot * 2] = hi;
+            keys[slot * 2 + 1] = lo;
+            refs[slot] = ++count;
+            return null;
+        }
+
+        private int find( final long hi, final long lo )
+        {
+            final int mask = refs.length - 1;
+            // low bits of lo already chose the shard, so spread the rest
+            int slot = (int) ( ( hi ^ ( lo >>> 6 ) ) * 0x9E3779B97F4A7C15L >>> 32 ) & mask;
+            while ( refs[slot] != 0 && ( keys[slot * 2] != hi || keys[slot * 2 + 1] != lo ) )
+            {
+                slot = ( slot + 1 ) & mask;
+            }
+            return slot;
+        }
+
+        private void grow()
+        {
+            final long[] oldKeys = keys;
+            final int[] oldRefs = refs;
+            keys = new long[oldKeys.length * 2];
+            refs = new int[oldRefs.length * 2];
+            for ( int i = 0; i < oldRefs.length; i++ )
+            {
+                if ( oldRefs[i] != 0 )
+                {
+                    final int slot = find( oldKeys[i * 2], oldKeys[i * 2 + 1] );
+                    keys[slot * 2] = oldKeys[i * 2];
+                    keys[slot * 2 + 1] = oldKeys[i * 2 + 1];
+                    refs[slot] = oldRefs[i];
+                }
+            }
+        }
+    }
+}
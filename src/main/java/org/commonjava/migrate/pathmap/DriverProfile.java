@@ -0,0 +1,205 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.QueryOptions;
+import com.datastax.driver.core.SocketOptions;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Tuning of the cassandra driver for bulk load: connections and requests per connection, protocol compression,
+ * consistency level, fetch size, read timeout and speculative execution. It is read from a properties file with the
+ * keys below, and single values can be overridden by options. Unset values keep the defaults of the driver.
+ */
+public class DriverProfile
+{
+    static final String CONNECTIONS_PER_HOST = "connectionsPerHost";
+
+    static final String MAX_REQUESTS_PER_CONNECTION = "maxRequestsPerConnection";
+
+    static final String COMPRESSION = "compression";
+
+    static final String CONSISTENCY = "consistency";
+
+    static final String FETCH_SIZE = "fetchSize";
+
+    static final String READ_TIMEOUT = "readTimeout";
+
+    static final String SPECULATIVE_DELAY = "speculativeDelay";
+
+    static final String SPECULATIVE_EXECUTIONS = "speculativeExecutions";
+
+    private static final int DEFAULT_SPECULATIVE_EXECUTIONS = 2;
+
+    private int connectionsPerHost;
+
+    private int maxRequestsPerConnection;
+
+    private ProtocolOptions.Compression compression = ProtocolOptions.Compression.NONE;
+
+    private ConsistencyLevel consistency;
+
+    private int fetchSize;
+
+    private int readTimeoutMillis;
+
+    private long speculativeDelayMillis;
+
+    private int speculativeExecutions = DEFAULT_SPECULATIVE_EXECUTIONS;
+
+    public static DriverProfile load( final File file )
+            throws MigrateException
+    {
+        final Properties props = new Properties();
+        try (InputStream in = new FileInputStream( file ))
+        {
+            props.load( in );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not read driver profile {}: {}", e, file, e.getMessage() );
+        }
+        final DriverProfile profile = new DriverProfile();
+        for ( String key : props.stringPropertyNames() )
+        {
+            profile.set( key, props.getProperty( key ).trim() );
+        }
+        return profile;
+    }
+
+    /**
+     * Set one value by its key in the properties file.
+     */
+    public DriverProfile set( final String key, final String value )
+            throws MigrateException
+    {
+        try
+        {
+            switch ( key )
+            {
+                case CONNECTIONS_PER_HOST:
+                    connectionsPerHost = Integer.parseInt( value );
+                    break;
+                case MAX_REQUESTS_PER_CONNECTION:
+                    maxRequestsPerConnection = Integer.parseInt( value );
+                    break;
+                case COMPRESSION:
+                    compression = ProtocolOptions.Compression.valueOf( value.toUpperCase() );
+                    break;
+                case CONSISTENCY:
+                    consistency = ConsistencyLevel.valueOf( value.toUpperCase() );
+                    break;
+                case FETCH_SIZE:
+                    fetchSize = Integer.parseInt( value );
+                    break;
+                case READ_TIMEOUT:
+                    readTimeoutMillis = Integer.parseInt( value );
+                    break;
+                case SPECULATIVE_DELAY:
+                    speculativeDelayMillis = Long.parseLong( value );
+                    break;
+                case SPECULATIVE_EXECUTIONS:
+                    speculativeExecutions = Integer.parseInt( value );
+                    break;
+                default:
+                    throw new MigrateException( "Error: unknown driver profile key {}", key );
+            }
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new MigrateException( "Error: invalid value {} for driver profile key {}", e, value, key );
+        }
+        return this;
+    }
+
+    public void apply( final Cluster.Builder builder )
+    {
+        final PoolingOptions pooling = new PoolingOptions();
+        for ( HostDistance distance : new HostDistance[] { HostDistance.LOCAL, HostDistance.REMOTE } )
+        {
+            if ( connectionsPerHost > 0 )
+            {
+                pooling.setConnectionsPerHost( distance, connectionsPerHost, connectionsPerHost );
+            }
+            if ( maxRequestsPerConnection > 0 )
+            {
+                pooling.setMaxRequestsPerConnection( distance, maxRequestsPerConnection );
+            }
+        }
+        builder.withPoolingOptions( pooling ).withCompression( compression );
+
+        final QueryOptions query = new QueryOptions();
+        if ( consistency != null )
+        {
+            query.setConsistencyLevel( consistency );
+        }
+        if ( fetchSize > 0 )
+        {
+            query.setFetchSize( fetchSize );
+        }
+        if ( speculativeDelayMillis > 0 )
+        {
+            // only idempotent statements are retried speculatively; all writes of the migrator are inserts and set
+            // appends, so they are
+            query.setDefaultIdempotence( true );
+            builder.withSpeculativeExecutionPolicy(
+                    new ConstantSpeculativeExecutionPolicy( speculativeDelayMillis, speculativeExecutions ) );
+        }
+        builder.withQueryOptions( query );
+
+        if ( readTimeoutMillis > 0 )
+        {
+            builder.withSocketOptions( new SocketOptions().setReadTimeoutMillis( readTimeoutMillis ) );
+        }
+    }
+
+    public ProtocolOptions.Compression getCompression()
+    {
+        return compression;
+    }
+
+    public ConsistencyLevel getConsistency()
+    {
+        return consistency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "connections per host: %s, max requests per connection: %s, compression: %s, "
+                                      + "consistency: %s, fetch size: %s, read timeout: %s ms, speculative delay: %s ms"
+                                      + " x %s", orDefault( connectionsPerHost ), orDefault( maxRequestsPerConnection ),
+                              compression, consistency == null ? "default" : consistency, orDefault( fetchSize ),
+                              orDefault( readTimeoutMillis ),
+                              speculativeDelayMillis > 0 ? speculativeDelayMillis : "off", speculativeExecutions );
+    }
+
+    private static Object orDefault( final long value )
+    {
+        return value > 0 ? value : "default";
+    }
+}
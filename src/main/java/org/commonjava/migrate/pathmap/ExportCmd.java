@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Row;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.commonjava.migrate.pathmap.Util.newLines;
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Dumps the file rows of the pathmap table to gzipped shards in the export dir, one shard for each worker of a
+ * {@link TokenRangeScanner}, with a manifest of the rows in each shard. Rows are streamed from the pages of the scan
+ * to the shards, so memory does not grow with the table. Directory rows are left out, as importing a file creates its
+ * parent directories again; the reverse map is written by the path db on import in the same way.
+ */
+public class ExportCmd
+        implements Command
+{
+    static final String SHARD_PREFIX = "pathmap-";
+
+    static final String SHARD_SUFFIX = ".tsv.gz";
+
+    static final String MANIFEST = "manifest";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, Long> shardRows = new TreeMap<>();
+
+    private final LongAdder dirs = new LongAdder();
+
+    @Override
+    public void run( final MigrateOptions options )
+            throws MigrateException
+    {
+        final long start = System.currentTimeMillis();
+        final File exportDir = new File( options.getExportDir() );
+        prepareExportDir( exportDir );
+        printInfo( String.format( "Exporting path map of keyspace %s to %s with %s threads",
+                                  options.getCassandraKeyspace(), exportDir, options.getThreads() ) );
+
+        try (CassandraSessionFactory sessions = new CassandraSessionFactory( options ))
+        {
+            final TokenRangeScanner scanner =
+                    new TokenRangeScanner( sessions.getSession(), options.getCassandraKeyspace() + ".pathmap",
+                                           PathMapRow.COLUMNS, "filesystem, parentpath" );
+            scanner.scan( options.getThreads(), worker -> openShard( exportDir, worker ) );
+        }
+
+        final List<String> manifest = new ArrayList<>( shardRows.size() );
+        long total = 0;
+        for ( Map.Entry<String, Long> shard : shardRows.entrySet() )
+        {
+            manifest.add( shard.getKey() + "\t" + shard.getValue() );
+            total += shard.getValue();
+        }
+        try
+        {
+            FileUtils.writeLines( new File( exportDir, MANIFEST ), manifest );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not write manifest of export to {}: {}", e, exportDir,
+                                        e.getMessage() );
+        }
+
+        newLines( 2 );
+        printInfo( String.format( "Export: files exported: %s in %s shards, directories left out: %s", total,
+                                  shardRows.size(), dirs.sum() ) );
+        printInfo( String.format( "Export: total spent time: %s seconds",
+                                  ( System.currentTimeMillis() - start ) / 1000 ) );
+    }
+
+    private static void prepareExportDir( final File exportDir )
+            throws MigrateException
+    {
+        try
+        {
+            Files.createDirectories( exportDir.toPath() );
+            for ( Path shard : listShards( exportDir ) )
+            {
+                printInfo( String.format( "Deleting shard %s of an earlier export", shard ) );
+                Files.delete( shard );
+            }
+            Files.deleteIfExists( new File( exportDir, MANIFEST ).toPath() );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not prepare export dir {}: {}", e, exportDir, e.getMessage() );
+        }
+    }
+
+    static List<Path> listShards( final File exportDir )
+            throws IOException
+    {
+        if ( !exportDir.isDirectory() )
+        {
+            return new ArrayList<>();
+        }
+        try (Stream<Path> stream = Files.list( exportDir.toPath() ))
+        {
+            return stream.filter( p -> {
+                final String name = p.getFileName().toString();
+                return name.startsWith( SHARD_PREFIX ) && name.endsWith( SHARD_SUFFIX );
+            } ).sorted().collect( Collectors.toList() );
+        }
+    }
+
+    ShardWriter openShard( final File exportDir, final int worker )
+    {
+        final File file = new File( exportDir, String.format( "%s%03d%s", SHARD_PREFIX, worker, SHARD_SUFFIX ) );
+        try
+        {
+            return new ShardWriter( file );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    static BufferedReader openShardReader( final Path shard )
+            throws IOException
+    {
+        return new BufferedReader(
+                new InputStreamReader( new GZIPInputStream( new FileInputStream( shard.toFile() ), BUFFER_SIZE ),
+                                       StandardCharsets.UTF_8 ), BUFFER_SIZE );
+    }
+
+    /**
+     * Map of shard name to rows in it, from the manifest of an export.
+     */
+    static Map<String, Long> readManifest( final File exportDir )
+            throws IOException
+    {
+        final Map<String, Long> manifest = new TreeMap<>();
+        final File file = new File( exportDir, MANIFEST );
+        if ( file.exists() )
+        {
+            for ( String line : FileUtils.readLines( file ) )
+            {
+                final String[] parts = line.split( "\t" );
+                manifest.put( parts[0], Long.parseLong( parts[1] ) );
+            }
+        }
+        return manifest;
+    }
+
+    Map<String, Long> getShardRows()
+    {
+        return shardRows;
+    }
+
+    /**
+     * The shard of one worker. Compression is set to the fastest level, as the export has to keep up with the scan.
+     */
+    final class ShardWriter
+            implements TokenRangeScanner.RowHandler
+    {
+        private final File file;
+
+        private final BufferedWriter writer;
+
+        private long rows;
+
+        private ShardWriter( final File file )
+                throws IOException
+        {
+            this.file = file;
+            final GZIPOutputStream gzip = new GZIPOutputStream( new FileOutputStream( file ), BUFFER_SIZE )
+            {
+                {
+                    def.setLevel( Deflater.BEST_SPEED );
+                }
+            };
+            this.writer = new BufferedWriter( new OutputStreamWriter( gzip, StandardCharsets.UTF_8 ), BUFFER_SIZE );
+        }
+
+        void write( final PathMapRow row )
+                throws IOException
+        {
+            if ( row.isDirectory() )
+            {
+                dirs.increment();
+                return;
+            }
+            writer.write( row.toLine() );
+            writer.newLine();
+            rows++;
+        }
+
+        @Override
+        public void handle( final Row row )
+                throws IOException
+        {
+            write( PathMapRow.of( row ) );
+        }
+
+        @Override
+        public void close()
+                throws IOException
+        {
+            writer.close();
+            synchronized ( shardRows )
+            {
+                shardRows.put( file.getName(), rows );
+            }
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Binary dump of the GA index, which is appended to on every flush. It is a record of what was written to the GA
+ * cache table, which can be read back offline; a later run only loads the stores scanned from it.
+ * <p>
+ * After the header the file is a sequence of segments, each with its length and CRC, so a segment cut by a crash is
+ * detected and dropped on load. Repo names are written once, the first time a segment refers to them, and referred
+ * to by their id in the {@link RepoDictionary} after that. The GAs of a segment are sorted and each is written as
+ * the length of the prefix it shares with the one before and the rest, followed by its delta encoded repo ids. A
+ * GA may be in several segments; its repos are the union of them. {@link #compact(GATrie, Set)} rewrites the dump
+ * without the repetitions.
+ */
+public class GADump
+        implements Closeable
+{
+    private static final int MAGIC = 0x504d4741; // PMGA
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int COMPACT_SEGMENT_GAS = 100000;
+
+    private final File file;
+
+    private final RepoDictionary repos;
+
+    private DataOutputStream out;
+
+    private int writtenRepos;
+
+    private int segments;
+
+    private GADump( final File file, final RepoDictionary repos )
+    {
+        this.file = file;
+        this.repos = repos;
+    }
+
+    /**
+     * Open the dump for appending, after loading what earlier runs wrote into the given trie and set. The trie must be
+     * empty and own its dictionary, so that the ids in the file are the ids in the dictionary. A file in another
+     * format, like the text dump of older versions, is kept aside as "*.old".
+     */
+    public static GADump open( final File file, final GATrie known, final Set<String> scanned )
+            throws IOException
+    {
+        return open( file, known.getRepos(), known, scanned );
+    }
+
+    /**
+     * Open the dump for appending, after loading only the stores scanned by earlier runs into the given set; the GAs
+     * are left in the file. The dictionary must be empty, so that the ids in the file are the ids in the dictionary.
+     */
+    public static GADump open( final File file, final RepoDictionary repos, final Set<String> scanned )
+            throws IOException
+    {
+        return open( file, repos, null, scanned );
+    }
+
+    private static GADump open( final File file, final RepoDictionary repos, final GATrie known,
+                                final Set<String> scanned )
+            throws IOException
+    {
+        final GADump dump = new GADump( file, repos );
+        if ( file.exists() && file.length() > 0 )
+        {
+            final long valid = dump.load( known, scanned );
+            if ( valid < 0 )
+            {
+                final File old = new File( file.getPath() + ".old" );
+                printInfo( String.format( "GA cache dump %s is not in binary format, moved to %s", file, old ) );
+                Files.move( file.toPath(), old.toPath(), StandardCopyOption.REPLACE_EXISTING );
+            }
+            else if ( valid < file.length() )
+            {
+                printInfo( String.format( "GA cache dump %s has a truncated segment, dropped %s bytes", file,
+                                          file.length() - valid ) );
+                try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+                {
+                    raf.setLength( valid );
+                }
+            }
+        }
+        if ( !file.exists() || file.length() == 0 )
+        {
+            dump.writeHeader( file );
+        }
+        dump.out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+        return dump;
+    }
+
+    /**
+     * Read a dump into the given trie and set, e.g. to look at it offline.
+     */
+    public static void read( final File file, final GATrie into, final Set<String> scanned )
+            throws IOException
+    {
+        if ( new GADump( file, into.getRepos() ).load( into, scanned ) < 0 )
+        {
+            throw new IOException( "Not a GA cache dump: " + file );
+        }
+    }
+
+    public int getSegments()
+    {
+        return segments;
+    }
+
+    /**
+     * @param into trie to load the GAs into, or null to skip them
+     * @return length of the valid part of the file, or -1 if it is not a dump
+     */
+    private long load( final GATrie into, final Set<String> scanned )
+            throws IOException
+    {
+        int[] idMap = new int[64]; // id in the file to id in the dictionary
+        long valid;
+        try (DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ))
+        {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+            {
+                return -1;
+            }
+            valid = HEADER_LENGTH;
+            int fileRepos = 0;
+            final CRC32 crc = new CRC32();
+            while ( true )
+            {
+                final int length;
+                final int checksum;
+                final byte[] body;
+                try
+                {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if ( length < 0 || length > file.length() )
+                    {
+                        break;
+                    }
+                    body = new byte[length];
+                    in.readFully( body );
+                }
+                catch ( EOFException e )
+                {
+                    break;
+                }
+                crc.reset();
+                crc.update( body, 0, body.length );
+                if ( (int) crc.getValue() != checksum )
+                {
+                    break;
+                }
+
+                final DataInputStream seg = new DataInputStream( new ByteArrayInputStream( body ) );
+                final int newRepos = readVarInt( seg );
+                if ( fileRepos + newRepos > idMap.length )
+                {
+                    idMap = Arrays.copyOf( idMap, Math.max( idMap.length * 2, fileRepos + newRepos ) );
+                }
+                for ( int i = 0; i < newRepos; i++ )
+                {
+                    idMap[fileRepos++] = repos.intern( seg.readUTF() );
+                }
+                final int gas = readVarInt( seg );
+                final StringBuilder ga = new StringBuilder( 128 );
+                for ( int i = 0; i < gas; i++ )
+                {
+                    ga.setLength( readVarInt( seg ) );
+                    ga.append( seg.readUTF() );
+                    final String key = ga.toString();
+                    final int count = readVarInt( seg );
+                    int id = 0;
+                    for ( int r = 0; r < count; r++ )
+                    {
+                        id += readVarInt( seg );
+                        if ( into != null )
+                        {
+                            into.add( key, idMap[id] );
+                        }
+                    }
+                }
+                final int scannedCount = readVarInt( seg );
+                for ( int i = 0; i < scannedCount; i++ )
+                {
+                    scanned.add( repos.name( idMap[readVarInt( seg )] ) );
+                }
+                valid += 8 + length;
+                segments++;
+            }
+            writtenRepos = fileRepos;
+        }
+        catch ( EOFException e )
+        {
+            return -1; // shorter than the header
+        }
+        return valid;
+    }
+
+    /**
+     * Append the GAs and scanned stores confirmed by a flush as one segment.
+     *
+     * @param gas GAs with their repos, sorted by GA
+     * @param scanned stores scanned so far, or null if unchanged
+     */
+    public synchronized void append( final SortedMap<String, Set<String>> gas, final Collection<String> scanned )
+            throws IOException
+    {
+        if ( gas.isEmpty() && scanned == null )
+        {
+            return;
+        }
+        writeSegment( out, gas, scanned );
+        out.flush();
+    }
+
+    /**
+     * Rewrite the dump with every GA and repo once, replacing the file atomically.
+     */
+    public synchronized void compact( final GATrie known, final Set<String> scanned )
+            throws IOException
+    {
+        out.close();
+        final File tmp = new File( file.getPath() + ".tmp" );
+        writeHeader( tmp );
+        final int before = segments;
+        segments = 0;
+        writtenRepos = 0;
+        final IOException[] error = new IOException[1];
+        try (DataOutputStream tmpOut = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( tmp, true ) ) ))
+        {
+            final TreeMap<String, Set<String>> chunk = new TreeMap<>();
+            // GAs come sorted within each shard, so chunks of them are mostly sorted runs
+            known.forEach( ( ga, names ) -> {
+                chunk.put( ga, names );
+                if ( chunk.size() >= COMPACT_SEGMENT_GAS && error[0] == null )
+                {
+                    try
+                    {
+                        writeSegment( tmpOut, chunk, null );
+                    }
+                    catch ( IOException e )
+                    {
+                        error[0] = e;
+                    }
+                    chunk.clear();
+                }
+            } );
+            if ( error[0] != null )
+            {
+                throw error[0];
+            }
+            writeSegment( tmpOut, chunk, scanned );
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+        out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ) ) );
+        printInfo( String.format( "GA cache dump %s compacted from %s to %s segments", file, before, segments ) );
+    }
+
+    private void writeHeader( final File target )
+            throws IOException
+    {
+        try (DataOutputStream header = new DataOutputStream( new FileOutputStream( target ) ))
+        {
+            header.writeInt( MAGIC );
+            header.writeInt( VERSION );
+        }
+    }
+
+    private void writeSegment( final DataOutputStream target, final SortedMap<String, Set<String>> gas,
+                               final Collection<String> scanned )
+            throws IOException
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream( 64 + gas.size() * 32 );
+        final DataOutputStream seg = new DataOutputStream( bytes );
+
+        // intern every name first, so that all ids referred to below are below the size taken after
+        for ( Set<String> names : gas.values() )
+        {
+            names.forEach( repos::intern );
+        }
+        int[] scannedIds = null;
+        if ( scanned != null )
+        {
+            scannedIds = new int[scanned.size()];
+            int i = 0;
+            for ( String name : scanned )
+            {
+                if ( i == scannedIds.length )
+                {
+                    break; // added meanwhile, left for the next segment
+                }
+                scannedIds[i++] = repos.intern( name );
+            }
+            scannedIds = Arrays.copyOf( scannedIds, i );
+        }
+        final int known = repos.size();
+        writeVarInt( seg, known - writtenRepos );
+        for ( int id = writtenRepos; id < known; id++ )
+        {
+            seg.writeUTF( repos.name( id ) );
+        }
+
+        writeVarInt( seg, gas.size() );
+        String previous = "";
+        int[] ids = new int[8];
+        for ( Map.Entry<String, Set<String>> entry : gas.entrySet() )
+        {
+            final String ga = entry.getKey();
+            final int shared = sharedPrefix( previous, ga );
+            writeVarInt( seg, shared );
+            seg.writeUTF( ga.substring( shared ) );
+            previous = ga;
+
+            final Set<String> names = entry.getValue();
+            if ( ids.length < names.size() )
+            {
+                ids = new int[names.size()];
+            }
+            int count = 0;
+            for ( String name : names )
+            {
+                ids[count++] = repos.get( name );
+            }
+            Arrays.sort( ids, 0, count );
+            writeVarInt( seg, count );
+            int last = 0;
+            for ( int i = 0; i < count; i++ )
+            {
+                writeVarInt( seg, ids[i] - last );
+                last = ids[i];
+            }
+        }
+
+        if ( scannedIds == null )
+        {
+            writeVarInt( seg, 0 );
+        }
+        else
+        {
+            writeVarInt( seg, scannedIds.length );
+            for ( int id : scannedIds )
+            {
+                writeVarInt( seg, id );
+            }
+        }
+        seg.flush();
+
+        final byte[] body = bytes.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update( body, 0, body.length );
+        target.writeInt( body.length );
+        target.writeInt( (int) crc.getValue() );
+        target.write( body );
+        writtenRepos = known;
+        segments++;
+    }
+
+    private static int sharedPrefix( final String a, final String b )
+    {
+        final int max = Math.min( a.length(), b.length() );
+        int i = 0;
+        while ( i < max && a.charAt( i ) == b.charAt( i ) )
+        {
+            i++;
+        }
+        if ( i > 0 && Character.isHighSurrogate( b.charAt( i - 1 ) ) )
+        {
+            i--; // don't split a surrogate pair between prefix and suffix
+        }
+        return i;
+    }
+
+    static void writeVarInt( final DataOutputStream out, int value )
+            throws IOException
+    {
+        while ( ( value & ~0x7f ) != 0 )
+        {
+            out.writeByte( ( value & 0x7f ) | 0x80 );
+            value >>>= 7;
+        }
+        out.writeByte( value );
+    }
+
+    static int readVarInt( final DataInputStream in )
+            throws IOException
+    {
+        int value = 0;
+        for ( int shift = 0; shift < 32; shift += 7 )
+        {
+            final int b = in.readUnsignedByte();
+            value |= ( b & 0x7f ) << shift;
+            if ( ( b & 0x80 ) == 0 )
+            {
+                return value;
+            }
+        }
+        throw new IOException( "Malformed varint in GA cache dump" );
+    }
+
+    @Override
+    public synchronized void close()
+            throws IOException
+    {
+        out.close();
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+
+/**
+ * Decides which poms go to the GA cache and derives their GA path. This runs for every pom, so the store pattern is
+ * compiled once, the decision for a file system is remembered, and the GA path is cut out of the pom path without
+ * intermediate objects.
+ */
+public class GAExtractor
+{
+    static final String MAVEN_HOSTED = "maven:hosted:";
+
+    private static final String NOT_INDEXED = "";
+
+    private final Pattern storePattern;
+
+    private final ConcurrentHashMap<String, String> repos = new ConcurrentHashMap<>();
+
+    /**
+     * @param storePattern regex which the names of the hosted repos to index must match, null to index none
+     */
+    public GAExtractor( final String storePattern )
+    {
+        this.storePattern = storePattern == null ? null : Pattern.compile( storePattern );
+    }
+
+    /**
+     * @return name of the hosted repo of the file system if its poms are indexed, otherwise null
+     */
+    public String repoOf( final String fileSystem )
+    {
+        final String repo = repos.computeIfAbsent( fileSystem, this::decide );
+        return repo == NOT_INDEXED ? null : repo;
+    }
+
+    private String decide( final String fileSystem )
+    {
+        if ( storePattern != null && fileSystem.startsWith( MAVEN_HOSTED ) )
+        {
+            final String repoName = fileSystem.substring( MAVEN_HOSTED.length() );
+            if ( storePattern.matcher( repoName ).matches() )
+            {
+                return repoName;
+            }
+        }
+        return NOT_INDEXED;
+    }
+
+    /**
+     * GA path of a pom, which is the parent of its version directory without the leading '/', e.g.
+     * org/commonjava/indy/indy-api for /org/commonjava/indy/indy-api/1.0/indy-api-1.0.pom.
+     *
+     * @return the GA path, or null or empty if the pom is not deep enough to have one
+     */
+    public static String getGaPath( final String path )
+    {
+        final int fileSlash = path.lastIndexOf( '/' );
+        if ( fileSlash <= 0 || path.charAt( fileSlash - 1 ) == '/' )
+        {
+            return slowGaPath( path );
+        }
+        final int versionSlash = path.lastIndexOf( '/', fileSlash - 1 );
+        if ( versionSlash <= 0 || path.charAt( versionSlash - 1 ) == '/' || path.charAt( 0 ) != '/' )
+        {
+            return slowGaPath( path );
+        }
+        if ( path.indexOf( "//" ) >= 0 || path.indexOf( "/./" ) >= 0 || path.indexOf( "/../" ) >= 0 )
+        {
+            return slowGaPath( path ); // needs normalizing
+        }
+        return path.substring( 1, versionSlash );
+    }
+
+    /**
+     * The original way to get the GA path through the parent path and {@link Paths}, for paths out of the common
+     * shape.
+     */
+    static String slowGaPath( final String path )
+    {
+        String ret = null;
+        String parentPath = PathMapUtils.getParentPath( path );
+        if ( isNotBlank( parentPath ) )
+        {
+            Path ga = Paths.get( parentPath ).getParent();
+            if ( ga != null )
+            {
+                ret = ga.toString();
+                if ( ret.startsWith( "/" ) )
+                {
+                    ret = ret.substring( 1 ); // remove the leading '/'
+                }
+            }
+        }
+        return ret;
+    }
+}
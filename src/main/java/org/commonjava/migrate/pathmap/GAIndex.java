@@ -0,0 +1,441 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.migrate.pathmap.Util.printError;
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Index from GA path to the hosted repos containing it, which is written to the GA cache table while migrating
+ * instead of all at the end. The entries added since the last flush are kept in a {@link GATrie} of their own. They
+ * are flushed every interval, or earlier when there are more than the allowed pending entries, with asynchronous
+ * set-append updates of which only a bounded number are in flight. What a flush wrote successfully is appended to
+ * the {@link GADump}. Pairs which still can not be written when the index is closed are saved next to the dump and
+ * retried by the next run. Nothing written is kept in memory: a pair added again after its flush is simply appended again,
+ * which the set-append makes harmless, so a rerun can always rebuild a lost or truncated table.
+ */
+public class GAIndex
+        implements Closeable
+{
+    static final String SCANNED_STORES = "scanned-stores";
+
+    static final String PENDING_SUFFIX = ".pending";
+
+    /**
+     * Appends repos to the stored set of a GA.
+     */
+    public interface Writer
+    {
+        ListenableFuture<?> append( String ga, Set<String> repos );
+    }
+
+    private final Writer writer;
+
+    private final int maxPending;
+
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+
+    private final RepoDictionary dictionary = new RepoDictionary();
+
+    private final GATrie pending = new GATrie( dictionary );
+
+    private final ConcurrentLinkedQueue<Map.Entry<String, Set<String>>> confirmed = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong pendingEntries = new AtomicLong( 0 );
+
+    private final Set<String> scanned = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean scannedDirty = new AtomicBoolean( false );
+
+    private final AtomicBoolean earlyFlushQueued = new AtomicBoolean( false );
+
+    private final Object flushLock = new Object();
+
+    private final ScheduledExecutorService flusher;
+
+    private final GADump dump;
+
+    private final File pendingFile;
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder flushes = new LongAdder();
+
+    /**
+     * @param writer writes the entries of a flush to the GA cache table
+     * @param dumpFile dump to load on start and to append every flush to, null for no dump; the pairs not written
+     * yet are kept next to it
+     * @param flushIntervalMillis time between periodic flushes
+     * @param maxPending number of GA and repo pairs kept in memory, above which a flush starts early
+     * @param maxInFlight number of updates which may wait for the GA cache table at the same time
+     */
+    public GAIndex( final Writer writer, final File dumpFile, final long flushIntervalMillis, final int maxPending,
+                    final int maxInFlight )
+            throws IOException
+    {
+        this.writer = writer;
+        this.maxPending = maxPending;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore( maxInFlight );
+        this.dump = dumpFile == null ? null : GADump.open( dumpFile, dictionary, scanned );
+        if ( dump != null && dump.getSegments() > 0 )
+        {
+            printInfo( String.format( "GA index: loaded %s scanned stores from %s", scanned.size(), dumpFile ) );
+        }
+        this.pendingFile = dumpFile == null ? null : new File( dumpFile.getPath() + PENDING_SUFFIX );
+        if ( pendingFile != null && pendingFile.exists() )
+        {
+            loadPending();
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "ga-index-flush" );
+            t.setDaemon( true );
+            return t;
+        } );
+        flusher.scheduleWithFixedDelay( this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                                        TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Record that the GA is in the repo.
+     */
+    public void add( final String ga, final String repo )
+    {
+        if ( merge( ga, repo ) && pendingEntries.incrementAndGet() > maxPending
+                && earlyFlushQueued.compareAndSet( false, true ) )
+        {
+            flusher.execute( () -> {
+                earlyFlushQueued.set( false );
+                flushQuietly();
+            } );
+        }
+    }
+
+    /**
+     * Record every GA and repo pair of an index built elsewhere, e.g. by the index command.
+     */
+    public void addAll( final GATrie index )
+    {
+        index.forEach( ( ga, repos ) -> repos.forEach( repo -> add( ga, repo ) ) );
+    }
+
+    /**
+     * Record that the repo was scanned for GAs.
+     */
+    public void addScanned( final String repo )
+    {
+        if ( scanned.add( repo ) )
+        {
+            scannedDirty.set( true );
+        }
+    }
+
+    private boolean merge( final String ga, final String repo )
+    {
+        return pending.add( ga, repo );
+    }
+
+    private void flushQuietly()
+    {
+        try
+        {
+            flush();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        catch ( RuntimeException | IOException e )
+        {
+            printError( "Error: %s flush failed, will retry in next flush: %s", "GA index", e.getMessage() );
+        }
+    }
+
+    /**
+     * Write out everything added since the last flush, wait for the updates and append the successful ones to the
+     * dump. Blocks while too many updates are in flight.
+     */
+    public void flush()
+            throws IOException, InterruptedException
+    {
+        synchronized ( flushLock )
+        {
+            flushes.increment();
+            final long drained = pending.drain( ( ga, repos ) -> {
+                try
+                {
+                    write( ga, repos );
+                }
+                catch ( InterruptedException e )
+                {
+                    // already put back; keep the flag so the rest of the drained entries are put back too
+                    Thread.currentThread().interrupt();
+                }
+            } );
+            pendingEntries.addAndGet( -drained );
+            if ( Thread.interrupted() )
+            {
+                throw new InterruptedException( "Interrupted while flushing GA index" );
+            }
+            if ( scannedDirty.getAndSet( false ) )
+            {
+                write( SCANNED_STORES, new HashSet<>( scanned ) );
+            }
+            inFlight.acquire( maxInFlight );
+            inFlight.release( maxInFlight );
+
+            final TreeMap<String, Set<String>> gas = new TreeMap<>();
+            Set<String> scannedStores = null;
+            Map.Entry<String, Set<String>> entry;
+            while ( ( entry = confirmed.poll() ) != null )
+            {
+                if ( SCANNED_STORES.equals( entry.getKey() ) )
+                {
+                    scannedStores = entry.getValue();
+                    continue;
+                }
+                gas.computeIfAbsent( entry.getKey(), k -> new HashSet<>() ).addAll( entry.getValue() );
+            }
+            if ( dump != null )
+            {
+                dump.append( gas, scannedStores );
+            }
+        }
+    }
+
+    private void write( final String ga, final Set<String> repos )
+            throws InterruptedException
+    {
+        try
+        {
+            inFlight.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            requeue( ga, repos, e );
+            throw e;
+        }
+        final ListenableFuture<?> future;
+        try
+        {
+            future = writer.append( ga, repos );
+        }
+        catch ( RuntimeException e )
+        {
+            requeue( ga, repos, e );
+            inFlight.release();
+            return;
+        }
+        Futures.addCallback( future, new FutureCallback<Object>()
+        {
+            @Override
+            public void onSuccess( final Object result )
+            {
+                written.add( repos.size() );
+                confirmed.add( new AbstractMap.SimpleImmutableEntry<>( ga, repos ) );
+                inFlight.release();
+            }
+
+            @Override
+            public void onFailure( final Throwable t )
+            {
+                // back in pending before a flush waiting for the updates can see them all done
+                requeue( ga, repos, t );
+                inFlight.release();
+            }
+        }, MoreExecutors.directExecutor() );
+    }
+
+    /**
+     * Put a failed update back, so that the next flush retries it.
+     */
+    private void requeue( final String ga, final Set<String> repos, final Throwable error )
+    {
+        failed.increment();
+        printError( "Error: failed to update GA %s, will retry in next flush: %s", ga, error.getMessage() );
+        if ( SCANNED_STORES.equals( ga ) )
+        {
+            scannedDirty.set( true );
+            return;
+        }
+        repos.forEach( repo -> {
+            if ( merge( ga, repo ) )
+            {
+                pendingEntries.incrementAndGet();
+            }
+        } );
+    }
+
+    public long getPendingEntries()
+    {
+        return pendingEntries.get();
+    }
+
+    public long getWritten()
+    {
+        return written.sum();
+    }
+
+    public long getFailed()
+    {
+        return failed.sum();
+    }
+
+    public List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 2 );
+        lines.add( String.format( "GA index: flushes: %s, written: %s, failed: %s, pending: %s", flushes.sum(),
+                                  written.sum(), failed.sum(), pendingEntries.get() ) );
+        lines.add( String.format( "GA index: scanned stores: %s", scanned.size() ) );
+        return lines;
+    }
+
+    private void loadPending()
+            throws IOException
+    {
+        for ( String line : FileUtils.readLines( pendingFile, StandardCharsets.UTF_8 ) )
+        {
+            final String[] fields = line.split( "\t" );
+            for ( int i = 1; i < fields.length; i++ )
+            {
+                if ( merge( fields[0], fields[i] ) )
+                {
+                    pendingEntries.incrementAndGet();
+                }
+            }
+        }
+        printInfo( String.format( "GA index: loaded %s GA and store pairs not written by an earlier run from %s",
+                                  pendingEntries.get(), pendingFile ) );
+    }
+
+    /**
+     * Keep the pairs which could not be written for the next run, or drop the file of an earlier run once they are.
+     */
+    private void savePending()
+            throws IOException
+    {
+        if ( pendingEntries.get() == 0 )
+        {
+            Files.deleteIfExists( pendingFile.toPath() );
+            return;
+        }
+        final File temp = new File( pendingFile.getPath() + ".tmp" );
+        try (BufferedWriter out = Files.newBufferedWriter( temp.toPath(), StandardCharsets.UTF_8 ))
+        {
+            final IOException[] error = new IOException[1];
+            pending.forEach( ( ga, repos ) -> {
+                try
+                {
+                    out.write( ga + "\t" + String.join( "\t", repos ) );
+                    out.newLine();
+                }
+                catch ( IOException e )
+                {
+                    error[0] = e;
+                }
+            } );
+            if ( error[0] != null )
+            {
+                throw error[0];
+            }
+        }
+        Files.move( temp.toPath(), pendingFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Stop the periodic flushes, flush what is left and wait for all updates to complete. What still failed is saved
+     * for the next run.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        flusher.shutdown();
+        try
+        {
+            flusher.awaitTermination( 1, TimeUnit.MINUTES );
+            scannedDirty.set( true ); // make sure the scanned stores are written at least once
+            flush();
+            if ( pendingEntries.get() > 0 )
+            {
+                flush(); // retry failed ones once more
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            try
+            {
+                if ( pendingFile != null )
+                {
+                    savePending();
+                }
+            }
+            finally
+            {
+                if ( dump != null )
+                {
+                    dump.close();
+                }
+            }
+        }
+        report().forEach( Util::printInfo );
+        if ( pendingEntries.get() > 0 )
+        {
+            printError( "Error: %s GA and store pairs could not be written to the GA cache table, %s",
+                        String.valueOf( pendingEntries.get() ),
+                        pendingFile == null ? "they are lost" : "kept in " + pendingFile + " for the next run" );
+        }
+    }
+}
@@ -0,0 +1,376 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact store of GA paths and the repos containing them. GA paths share long prefixes (org/commonjava/indy/...), so
+ * they are kept in a radix trie whose edges hold only the differing part, and the few repos are interned by a
+ * {@link RepoDictionary} and kept as sorted int arrays instead of sets of strings.
+ * <p>
+ * The trie is split into shards by the first path segment, each guarded by its own monitor, so that concurrent
+ * inserts rarely contend. Iteration visits the GAs of each shard in sorted order. {@link #drain(BiConsumer)} detaches
+ * each shard before visiting it, so inserting can go on meanwhile.
+ */
+public class GATrie
+{
+    private static final int SHARDS = 64;
+
+    private static final int[] NO_REPOS = new int[0];
+
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final RepoDictionary repos;
+
+    private final Shard[] shards = new Shard[SHARDS];
+
+    public GATrie()
+    {
+        this( new RepoDictionary() );
+    }
+
+    /**
+     * @param repos dictionary of repo names, which can be shared by several tries to merge them cheaply
+     */
+    public GATrie( final RepoDictionary repos )
+    {
+        this.repos = repos;
+        for ( int i = 0; i < SHARDS; i++ )
+        {
+            shards[i] = new Shard();
+        }
+    }
+
+    public RepoDictionary getRepos()
+    {
+        return repos;
+    }
+
+    /**
+     * @return true if the repo was not yet recorded for the GA
+     */
+    public boolean add( final String ga, final String repo )
+    {
+        return add( ga, repos.intern( repo ) );
+    }
+
+    /**
+     * @param repoId id of the repo in the dictionary of this trie
+     * @return true if the repo was not yet recorded for the GA
+     */
+    public boolean add( final String ga, final int repoId )
+    {
+        final Shard shard = shardOf( ga );
+        synchronized ( shard )
+        {
+            if ( insert( shard.root, ga, repoId ) )
+            {
+                shard.pairs++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    public boolean contains( final String ga, final String repo )
+    {
+        final int repoId = repos.get( repo );
+        if ( repoId < 0 )
+        {
+            return false;
+        }
+        final Shard shard = shardOf( ga );
+        synchronized ( shard )
+        {
+            final Node node = find( shard.root, ga );
+            return node != null && Arrays.binarySearch( node.repos, repoId ) >= 0;
+        }
+    }
+
+    /**
+     * @return number of GA and repo pairs
+     */
+    public long size()
+    {
+        long size = 0;
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                size += shard.pairs;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Visit every GA with its repos, sorted by GA within each shard. Each shard is locked while it is visited.
+     */
+    public void forEach( final BiConsumer<String, Set<String>> consumer )
+    {
+        for ( Shard shard : shards )
+        {
+            synchronized ( shard )
+            {
+                visit( shard.root, new StringBuilder( 128 ), consumer );
+            }
+        }
+    }
+
+    /**
+     * Visit and remove every GA. A shard is detached under its lock and visited after, so concurrent inserts go to
+     * the new empty shard and are left for the next drain.
+     *
+     * @return number of GA and repo pairs drained
+     */
+    public long drain( final BiConsumer<String, Set<String>> consumer )
+    {
+        long drained = 0;
+        for ( Shard shard : shards )
+        {
+            final Node root;
+            synchronized ( shard )
+            {
+                if ( shard.pairs == 0 )
+                {
+                    continue;
+                }
+                root = shard.root;
+                drained += shard.pairs;
+                shard.root = new Node( new char[0] );
+                shard.pairs = 0;
+            }
+            visit( root, new StringBuilder( 128 ), consumer );
+        }
+        return drained;
+    }
+
+    /**
+     * Add everything of another trie sharing the same dictionary into this one.
+     */
+    public void merge( final GATrie other )
+    {
+        if ( other.repos != repos )
+        {
+            other.forEach( ( ga, names ) -> names.forEach( name -> add( ga, name ) ) );
+            return;
+        }
+        for ( Shard shard : other.shards )
+        {
+            synchronized ( shard )
+            {
+                visitIds( shard.root, new StringBuilder( 128 ), this );
+            }
+        }
+    }
+
+    private Shard shardOf( final String ga )
+    {
+        int end = ga.indexOf( '/' );
+        if ( end < 0 )
+        {
+            end = ga.length();
+        }
+        int h = 0;
+        for ( int i = 0; i < end; i++ )
+        {
+            h = 31 * h + ga.charAt( i );
+        }
+        return shards[( h ^ ( h >>> 16 ) ) & ( SHARDS - 1 )];
+    }
+
+    private static boolean insert( final Node root, final String key, final int repoId )
+    {
+        Node node = root;
+        int pos = 0;
+        while ( pos < key.length() )
+        {
+            final char c = key.charAt( pos );
+            final int idx = childIndex( node, c );
+            if ( idx < 0 )
+            {
+                final Node leaf = new Node( key.substring( pos ).toCharArray() );
+                leaf.repos = new int[] { repoId };
+                node.children = insertChild( node.children, -idx - 1, leaf );
+                return true;
+            }
+            final Node child = node.children[idx];
+            final int common = commonPrefix( child.label, key, pos );
+            if ( common < child.label.length )
+            {
+                // split the edge: the common part becomes a node of its own
+                final Node mid = new Node( Arrays.copyOf( child.label, common ) );
+                child.label = Arrays.copyOfRange( child.label, common, child.label.length );
+                mid.children = new Node[] { child };
+                node.children[idx] = mid;
+                node = mid;
+            }
+            else
+            {
+                node = child;
+            }
+            pos += common;
+        }
+        return node.addRepo( repoId );
+    }
+
+    private static Node find( final Node root, final String key )
+    {
+        Node node = root;
+        int pos = 0;
+        while ( pos < key.length() )
+        {
+            final int idx = childIndex( node, key.charAt( pos ) );
+            if ( idx < 0 )
+            {
+                return null;
+            }
+            final Node child = node.children[idx];
+            if ( commonPrefix( child.label, key, pos ) < child.label.length )
+            {
+                return null;
+            }
+            pos += child.label.length;
+            node = child;
+        }
+        return node;
+    }
+
+    private static int childIndex( final Node node, final char c )
+    {
+        final Node[] children = node.children;
+        int low = 0;
+        int high = children.length - 1;
+        while ( low <= high )
+        {
+            final int mid = ( low + high ) >>> 1;
+            final char m = children[mid].label[0];
+            if ( m < c )
+            {
+                low = mid + 1;
+            }
+            else if ( m > c )
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+        return -( low + 1 );
+    }
+
+    private static Node[] insertChild( final Node[] children, final int at, final Node child )
+    {
+        final Node[] result = new Node[children.length + 1];
+        System.arraycopy( children, 0, result, 0, at );
+        result[at] = child;
+        System.arraycopy( children, at, result, at + 1, children.length - at );
+        return result;
+    }
+
+    private static int commonPrefix( final char[] label, final String key, final int pos )
+    {
+        final int max = Math.min( label.length, key.length() - pos );
+        int i = 0;
+        while ( i < max && label[i] == key.charAt( pos + i ) )
+        {
+            i++;
+        }
+        return i;
+    }
+
+    private void visit( final Node node, final StringBuilder path, final BiConsumer<String, Set<String>> consumer )
+    {
+        final int length = path.length();
+        path.append( node.label );
+        if ( node.repos.length > 0 )
+        {
+            final Set<String> names = new LinkedHashSet<>( node.repos.length * 2 );
+            for ( int id : node.repos )
+            {
+                names.add( repos.name( id ) );
+            }
+            consumer.accept( path.toString(), names );
+        }
+        for ( Node child : node.children )
+        {
+            visit( child, path, consumer );
+        }
+        path.setLength( length );
+    }
+
+    private static void visitIds( final Node node, final StringBuilder path, final GATrie target )
+    {
+        final int length = path.length();
+        path.append( node.label );
+        if ( node.repos.length > 0 )
+        {
+            final String ga = path.toString();
+            for ( int id : node.repos )
+            {
+                target.add( ga, id );
+            }
+        }
+        for ( Node child : node.children )
+        {
+            visitIds( child, path, target );
+        }
+        path.setLength( length );
+    }
+
+    private static final class Shard
+    {
+        private Node root = new Node( new char[0] );
+
+        private long pairs;
+    }
+
+    private static final class Node
+    {
+        private char[] label;
+
+        private Node[] children = NO_CHILDREN;
+
+        private int[] repos = NO_REPOS;
+
+        Node( final char[] label )
+        {
+            this.label = label;
+        }
+
+        boolean addRepo( final int repoId )
+        {
+            final int idx = Arrays.binarySearch( repos, repoId );
+            if ( idx >= 0 )
+            {
+                return false;
+            }
+            final int at = -idx - 1;
+            final int[] result = new int[repos.length + 1];
+            System.arraycopy( repos, 0, result, 0, at );
+            result[at] = repoId;
+            System.arraycopy( repos, at, result, at + 1, repos.length - at );
+            repos = result;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static org.commonjava.migrate.pathmap.Util.IMPORT_FAILED_FILE;
+import static org.commonjava.migrate.pathmap.Util.forEachParallel;
+import static org.commonjava.migrate.pathmap.Util.newLines;
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Writes the rows of an export back to the path map. The shards are read in parallel and each row goes straight to
+ * the write stage of the migrate pipeline, with its bounded queue and write threads, where it is inserted with the
+ * file id, storage, dates and checksum it was exported with.
+ */
+public class ImportCmd
+        implements Command
+{
+    private static final int PROGRESS_ROWS = 100000;
+
+    private final LongAdder read = new LongAdder();
+
+    private final LongAdder written = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder unparsable = new LongAdder();
+
+    @Override
+    public void run( final MigrateOptions options )
+            throws MigrateException
+    {
+        final long start = System.currentTimeMillis();
+        final File exportDir = new File( options.getExportDir() );
+        final List<Path> shards;
+        final Map<String, Long> manifest;
+        try
+        {
+            shards = ExportCmd.listShards( exportDir );
+            manifest = ExportCmd.readManifest( exportDir );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not read export dir {}: {}", e, exportDir, e.getMessage() );
+        }
+        printInfo( String.format( "Importing %s shards of %s with %s readers and %s write threads", shards.size(),
+                                  exportDir, options.getThreads(), options.getWriteThreads() ) );
+
+        final CassandraMigrator migrator = options.getMigrator();
+        final File failedFile = Paths.get( options.getWorkDir(), IMPORT_FAILED_FILE ).toFile();
+        try (BufferedWriter failedLog = new BufferedWriter( new FileWriter( failedFile ) ))
+        {
+            final MigratePipeline pipeline = new MigratePipeline( migrator, new MigratePipeline.Listener()
+            {
+                @Override
+                public void succeeded( final MigrateEntry entry )
+                {
+                    written.increment();
+                }
+
+                @Override
+                public void failed( final String physicalPath, final MigrateException error )
+                {
+                    failed.increment();
+                    synchronized ( failedLog )
+                    {
+                        try
+                        {
+                            failedLog.write( physicalPath + "\t" + error.getMessage() );
+                            failedLog.newLine();
+                        }
+                        catch ( IOException e )
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                }
+            }, 1, 1, options.getWriteThreads(), options.getQueueSize() );
+
+            final PathParser parser = new PathParser( options.getBaseDir() );
+            forEachParallel( shards, options.getThreads(), "read shards",
+                             shard -> readShard( shard, parser, pipeline::submitWrite ) );
+            pipeline.awaitCompletion();
+            pipeline.report().forEach( Util::printInfo );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not write {}: {}", e, failedFile, e.getMessage() );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MigrateException( "Error: interrupted while importing", e );
+        }
+        finally
+        {
+            migrator.shutdown();
+        }
+
+        final long exported = manifest.values().stream().mapToLong( Long::longValue ).sum();
+        newLines( 2 );
+        printInfo( String.format( "Import: rows in manifest: %s, read: %s, unparsable: %s", exported, read.sum(),
+                                  unparsable.sum() ) );
+        printInfo( String.format( "Import: rows written: %s, failed: %s, see %s", written.sum(), failed.sum(),
+                                  IMPORT_FAILED_FILE ) );
+        if ( manifest.isEmpty() )
+        {
+            printInfo( "Import: WARNING, the export has no manifest, it may be incomplete" );
+        }
+        else if ( exported != read.sum() )
+        {
+            printInfo( "Import: WARNING, rows read differ from the manifest, the export may be incomplete" );
+        }
+        printInfo( String.format( "Import: total spent time: %s seconds",
+                                  ( System.currentTimeMillis() - start ) / 1000 ) );
+    }
+
+    void readShard( final Path shard, final PathParser parser, final Consumer<MigrateEntry> entries )
+            throws IOException
+    {
+        printInfo( String.format( "%s: importing %s", Thread.currentThread().getName(), shard ) );
+        try (BufferedReader reader = ExportCmd.openShardReader( shard ))
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                final MigrateEntry entry;
+                try
+                {
+                    entry = PathMapRow.parse( line ).toEntry( parser );
+                }
+                catch ( RuntimeException e )
+                {
+                    unparsable.increment();
+                    continue;
+                }
+                read.increment();
+                entries.accept( entry );
+                if ( read.sum() % PROGRESS_ROWS == 0 )
+                {
+                    printInfo( String.format( "Rows read: %s, written: %s, failed: %s", read.sum(), written.sum(),
+                                              failed.sum() ) );
+                }
+            }
+        }
+    }
+
+    long getRead()
+    {
+        return read.sum();
+    }
+}
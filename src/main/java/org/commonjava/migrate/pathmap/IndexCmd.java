@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Session;
+import com.google.common.util.concurrent.Futures;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
+import static org.commonjava.migrate.pathmap.Util.GA_CACHE_DUMP;
+import static org.commonjava.migrate.pathmap.Util.TODO_FILES_DIR;
+import static org.commonjava.migrate.pathmap.Util.newLines;
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Builds the GA cache index straight from the paths files of scan, without stat or any path map write. Each worker
+ * reads whole paths files into a partial index of its own, and the partial indexes are merged at the end and written
+ * to the GA cache table and the dump, or only to the dump.
+ */
+public class IndexCmd
+        implements Command
+{
+    // the package comes after the rank of the store in the names of a scan with store priority
+    private static final Pattern MAVEN_FILE_NAME = Pattern.compile( "^" + TODO_FILES_DIR + "(-p\\d+)?-maven-.*" );
+
+    static final Predicate<Path> MAVEN_FILES_FILTER = p -> MigrateCmd.WORKING_FILES_FILTER.test( p )
+            && MAVEN_FILE_NAME.matcher( p.getFileName().toString() ).matches();
+
+    private final LongAdder paths = new LongAdder();
+
+    private final LongAdder poms = new LongAdder();
+
+    private final LongAdder unparsable = new LongAdder();
+
+    private final GAIndex.Writer tableWriter;
+
+    public IndexCmd()
+    {
+        this( null );
+    }
+
+    /**
+     * @param tableWriter writes to the GA cache table instead of cassandra, e.g. in tests
+     */
+    IndexCmd( final GAIndex.Writer tableWriter )
+    {
+        this.tableWriter = tableWriter;
+    }
+
+    @Override
+    public void run( final MigrateOptions options )
+            throws MigrateException
+    {
+        final long start = System.currentTimeMillis();
+        final List<Path> files = listPathsFiles( options );
+        printInfo( String.format( "Building GA index from %s paths files with %s threads", files.size(),
+                                  options.getThreads() ) );
+
+        final Set<String> scanned = ConcurrentHashMap.newKeySet();
+        final GATrie index = build( files, options.getThreads(), options.getBaseDir(),
+                                    options.getIndexGAStorePattern(), scanned );
+        final long built = System.currentTimeMillis();
+        printInfo( String.format( "GA index built: paths: %s, poms: %s, unparsable: %s, GA and store pairs: %s, "
+                                          + "stores: %s, in %s seconds", paths.sum(), poms.sum(), unparsable.sum(),
+                                  index.size(), scanned.size(), ( built - start ) / 1000 ) );
+
+        store( index, scanned, options );
+        newLines( 2 );
+        printInfo( String.format( "GA index completed, time consumed: %s seconds",
+                                  ( System.currentTimeMillis() - start ) / 1000 ) );
+    }
+
+    static List<Path> listPathsFiles( final MigrateOptions options )
+            throws MigrateException
+    {
+        return listPathsFiles( options, MAVEN_FILES_FILTER );
+    }
+
+    /**
+     * @return the paths files in the todo, processed and inprogress dirs of the work dir which match the filter
+     */
+    static List<Path> listPathsFiles( final MigrateOptions options, final Predicate<Path> filter )
+            throws MigrateException
+    {
+        final List<Path> files = new ArrayList<>();
+        for ( String dir : new String[] { options.getToDoDir(), options.getProcessedDir(),
+                options.getInProgressDir() } )
+        {
+            if ( !Files.isDirectory( Paths.get( dir ) ) )
+            {
+                continue;
+            }
+            // the files claimed by migrate processes are in a dir for each owner
+            final int depth = dir.equals( options.getInProgressDir() ) ? 2 : 1;
+            try (Stream<Path> stream = Files.walk( Paths.get( dir ), depth ))
+            {
+                files.addAll( stream.filter( filter ).collect( Collectors.toList() ) );
+            }
+            catch ( IOException e )
+            {
+                throw new MigrateException( "Error: can not list dir {}: {}", e, dir, e.getMessage() );
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Index the poms of all paths files with the given number of workers.
+     *
+     * @param scanned collects the stores the poms were found in
+     * @return the merged index
+     */
+    GATrie build( final List<Path> files, final int threads, final String baseDir, final String storePattern,
+                  final Set<String> scanned )
+            throws MigrateException
+    {
+        final RepoDictionary repos = new RepoDictionary();
+        final GAExtractor extractor = new GAExtractor( storePattern );
+        final IndyStoreBasedPathGenerator pathGen = new IndyStoreBasedPathGenerator( baseDir );
+        final ConcurrentLinkedQueue<Path> queue = new ConcurrentLinkedQueue<>( files );
+        final int workers = Math.max( 1, Math.min( threads, files.size() ) );
+
+        final ExecutorService executor = Executors.newFixedThreadPool( workers );
+        final List<Future<GATrie>> partials = new ArrayList<>( workers );
+        for ( int i = 0; i < workers; i++ )
+        {
+            partials.add( executor.submit( () -> {
+                final GATrie partial = new GATrie( repos );
+                Path file;
+                while ( ( file = queue.poll() ) != null )
+                {
+                    indexFile( file, partial, extractor, pathGen, scanned );
+                }
+                return partial;
+            } ) );
+        }
+        executor.shutdown();
+
+        GATrie index = null;
+        try
+        {
+            for ( Future<GATrie> partial : partials )
+            {
+                if ( index == null )
+                {
+                    index = partial.get();
+                }
+                else
+                {
+                    index.merge( partial.get() );
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MigrateException( "Error: interrupted while building GA index", e );
+        }
+        catch ( ExecutionException e )
+        {
+            executor.shutdownNow();
+            throw new MigrateException( "Error: failed to build GA index: {}", e.getCause(),
+                                        e.getCause().getMessage() );
+        }
+        return index;
+    }
+
+    private void indexFile( final Path file, final GATrie partial, final GAExtractor extractor,
+                            final IndyStoreBasedPathGenerator pathGen, final Set<String> scanned )
+            throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ))
+        {
+            String physicalPath;
+            while ( ( physicalPath = reader.readLine() ) != null )
+            {
+                paths.increment();
+                if ( !physicalPath.endsWith( ".pom" ) )
+                {
+                    continue;
+                }
+                try
+                {
+                    final ParsedPath parsed = pathGen.parse( physicalPath );
+                    final String repoName = extractor.repoOf( parsed.getFileSystem() );
+                    if ( repoName == null )
+                    {
+                        continue;
+                    }
+                    poms.increment();
+                    final String gaPath = GAExtractor.getGaPath( parsed.getPath() );
+                    if ( isNotBlank( gaPath ) )
+                    {
+                        partial.add( gaPath, repoName );
+                    }
+                    scanned.add( repoName );
+                }
+                catch ( RuntimeException e )
+                {
+                    unparsable.increment();
+                }
+            }
+        }
+        printInfo( String.format( "%s: %s indexed", Thread.currentThread().getName(), file ) );
+    }
+
+    private void store( final GATrie index, final Set<String> scanned, final MigrateOptions options )
+            throws MigrateException
+    {
+        final File dumpFile = Paths.get( options.getWorkDir(), GA_CACHE_DUMP ).toFile();
+        try (CassandraSessionFactory sessions = options.isIndexDumpOnly() || tableWriter != null ?
+                null :
+                new CassandraSessionFactory( options ))
+        {
+            final GAIndex.Writer writer;
+            if ( options.isIndexDumpOnly() )
+            {
+                writer = ( ga, repos ) -> Futures.immediateFuture( null );
+            }
+            else if ( sessions == null )
+            {
+                writer = tableWriter;
+            }
+            else
+            {
+                final Session session = sessions.getSession();
+                session.execute( CassandraMigrator.getSchemaCreateTable( options.getIndyCacheTable() ) );
+                final PreparedStatement update =
+                        session.prepare( CassandraMigrator.getGaStoresUpdate( options.getIndyCacheTable() ) );
+                writer = ( ga, repos ) -> {
+                    final BoundStatement bound = update.bind();
+                    bound.setSet( 0, repos );
+                    bound.setString( 1, ga );
+                    return session.executeAsync( bound );
+                };
+            }
+            try (GAIndex gaIndex = new GAIndex( writer, dumpFile, options.getGaFlushInterval() * 1000L,
+                                                options.getGaMaxPending(), CassandraMigrator.GA_MAX_IN_FLIGHT ))
+            {
+                gaIndex.addAll( index );
+                scanned.forEach( gaIndex::addScanned );
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not write GA index to {}: {}", e, dumpFile, e.getMessage() );
+        }
+    }
+}
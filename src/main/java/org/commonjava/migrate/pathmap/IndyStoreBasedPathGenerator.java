@@ -15,67 +15,35 @@
  */
 package org.commonjava.migrate.pathmap;
 
-import org.apache.commons.lang.StringUtils;
-import org.commonjava.storage.pathmapped.util.PathMapUtils;
-
 public class IndyStoreBasedPathGenerator
 {
-    private final String baseDir;
+    private final PathParser parser;
 
     IndyStoreBasedPathGenerator( final String baseDir )
     {
-        this.baseDir = baseDir;
+        this.parser = new PathParser( baseDir );
+    }
+
+    /**
+     * All components of the physical path at once, see {@link PathParser}.
+     */
+    public ParsedPath parse( String physicalPath )
+    {
+        return parser.parse( physicalPath );
     }
 
     public String generatePath( String physicalPath )
     {
-        final String storePath = generateStorePath( physicalPath );
-        final String[] parts = storePath.split( "/" );
-        String path = "";
-        for ( int i = 2; i < parts.length; i++ )
-        {
-            path = PathMapUtils.normalize( path, parts[i] );
-        }
-        return path.startsWith( "/" ) ? path : "/" + path;
+        return parser.parse( physicalPath ).getPath();
     }
 
     public String generateFileSystem( String physicalPath )
     {
-        final String storePath = generateStorePath( physicalPath );
-        final String[] parts = storePath.split( "/" );
-        final String pkg = parts[0];
-        final String repo = parts[1];
-        final String[] keyAName = repo.split( "-" );
-        final String type = keyAName[0];
-        StringBuilder name = new StringBuilder();
-        if ( keyAName.length > 2 )
-        {
-            for ( int i = 1; i < keyAName.length; i++ )
-            {
-                if ( name.length() != 0 )
-                {
-                    name.append( "-" );
-                }
-                name.append( keyAName[i] );
-            }
-
-        }
-        else
-        {
-            name.append( keyAName[1] );
-        }
-        return pkg + ":" + type + ":" + name.toString();
+        return parser.parse( physicalPath ).getFileSystem();
     }
 
     public String generateStorePath( String physicalPath )
     {
-        if ( StringUtils.isBlank( baseDir ) || !physicalPath.contains( baseDir ) )
-        {
-            return physicalPath;
-        }
-
-        final int storePathStart = physicalPath.indexOf( baseDir ) + baseDir.length();
-        final String storePath = physicalPath.substring( storePathStart );
-        return storePath.startsWith( "/" ) ? storePath.substring( 1 ) : storePath;
+        return parser.parse( physicalPath ).getStorePath();
     }
 }
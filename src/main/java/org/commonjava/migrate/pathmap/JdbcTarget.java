@@ -0,0 +1,864 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the path map to a relational database over JDBC. The tables have the columns of the cassandra ones, with the
+ * elements of the set and map columns of reversemap, pathchecksums and the GA cache as rows of their own, and are
+ * created if missing. Nothing is reclaimed, a duplicate only gets its checksum with the row.
+ * <p>
+ * An insert returns once its rows are committed, so the inserts of the write threads are grouped: they join a batch,
+ * which is written by the thread filling it up to the batch size or up to all write threads not waiting for another
+ * batch, or by the first one whose linger runs out. A batch is one transaction with a multi-row insert for each chunk
+ * of rows of a table, sent with addBatch and executeBatch. If it fails, on a key written by an earlier run for example,
+ * it is rolled back and the files are written again one by one, updating the rows which exist, so only the files which
+ * really fail are reported.
+ * <p>
+ * Each directory row is written by the first insert under it. The other inserts which come along while it is not
+ * committed yet wait for it after their own batch, and write it themselves if it failed, so an insert never returns
+ * with a file whose directories are missing.
+ */
+public class JdbcTarget
+        implements MigrateTarget
+{
+    static final int ROWS_PER_INSERT = 100;
+
+    private static final long LINGER_MILLIS = 5;
+
+    private static final int VALID_TIMEOUT_SECONDS = 5;
+
+    // @formatter:off
+    static final Table FILES = new Table( 0, "pathmap", 3, true,
+                                          "filesystem VARCHAR(255)", "parentpath VARCHAR(1024)", "filename VARCHAR(255)",
+                                          "fileid VARCHAR(255)", "creation TIMESTAMP", "expiration TIMESTAMP",
+                                          "size BIGINT", "filestorage VARCHAR(1024)", "checksum VARCHAR(255)" );
+
+    static final Table DIRS = new Table( 1, FILES, false );
+
+    static final Table REVERSE_MAP = new Table( 2, "reversemap", 2, false,
+                                                "fileid VARCHAR(255)", "path VARCHAR(1280)" );
+
+    static final Table FILE_CHECKSUM = new Table( 3, "filechecksum", 1, false,
+                                                  "checksum VARCHAR(255)", "fileid VARCHAR(255)",
+                                                  "storage VARCHAR(1024)" );
+
+    static final Table PATH_CHECKSUMS = new Table( 4, "pathchecksums", 3, true,
+                                                   "filesystem VARCHAR(255)", "path VARCHAR(1280)",
+                                                   "algorithm VARCHAR(32)", "checksum VARCHAR(255)" );
+    // @formatter:on
+
+    // in the order they are written, directories first so they are kept when the rows of their file fail
+    private static final List<Table> TABLES = Arrays.asList( DIRS, FILES, REVERSE_MAP, FILE_CHECKSUM, PATH_CHECKSUMS );
+
+    // owner of the directories which are committed
+    private static final Entry WRITTEN = new Entry();
+
+    private final String url;
+
+    private final String user;
+
+    private final String password;
+
+    private final Table gaCache;
+
+    private final int batchSize;
+
+    private final int writers;
+
+    private final BlockingQueue<Connection> pool;
+
+    // directories by the insert writing them, or by WRITTEN once committed, so each is only written once for the run
+    private final ConcurrentHashMap<String, Entry> dirs = new ConcurrentHashMap<>();
+
+    private Batch open = new Batch();
+
+    // inserts in batches being written, which can not join the open one
+    private int flushing;
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    private final LongAdder[] rows = new LongAdder[TABLES.size()];
+
+    private final LongAdder gaRows = new LongAdder();
+
+    /**
+     * @param gaCacheTable GA cache table, null to write no GA cache
+     * @param batchSize number of files written in a batch at most
+     * @param poolSize number of connections, which is the number of batches written at the same time at most
+     * @param writers number of threads which insert at the same time
+     */
+    public JdbcTarget( final String url, final String user, final String password, final String gaCacheTable,
+                       final int batchSize, final int poolSize, final int writers )
+            throws MigrateException
+    {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.gaCache = gaCacheTable == null ?
+                null :
+                new Table( -1, gaCacheTable, 2, false, "ga VARCHAR(1024)", "store VARCHAR(255)" );
+        this.batchSize = batchSize;
+        this.writers = writers;
+        this.pool = new ArrayBlockingQueue<>( poolSize );
+        for ( int i = 0; i < rows.length; i++ )
+        {
+            rows[i] = new LongAdder();
+        }
+        try
+        {
+            for ( int i = 0; i < poolSize; i++ )
+            {
+                pool.add( connect() );
+            }
+            final Connection connection = pool.peek();
+            createTables( connection );
+        }
+        catch ( SQLException e )
+        {
+            closeConnections();
+            throw new MigrateException( "Error: can not prepare path map tables in {}: {}", e, url, e.getMessage() );
+        }
+    }
+
+    @Override
+    public void insert( final String fileSystem, final String path, final Date creation, final Date expiration,
+                        final String fileId, final long size, final String fileStorage, final String checksum,
+                        final boolean primary )
+            throws IOException
+    {
+        final String parentPath = PathMapUtils.getParentPath( path );
+        final Entry entry = new Entry();
+        entry.add( FILES, fileSystem, parentPath, PathMapUtils.getFilename( path ), fileId, timestamp( creation ),
+                   timestamp( expiration ), size, fileStorage, checksum );
+        for ( String[] dir : PathMapRow.dirsOf( fileSystem, parentPath ) )
+        {
+            addDir( entry, fileSystem + '\t' + dir[0] + '\t' + dir[1],
+                    new Object[] { fileSystem, dir[0], dir[1], null, null, null, 0L, null, null } );
+        }
+        entry.add( REVERSE_MAP, fileId, PathMapUtils.marshall( fileSystem, path ) );
+        if ( primary && checksum != null )
+        {
+            entry.add( FILE_CHECKSUM, checksum, fileId, fileStorage );
+        }
+        write( entry );
+    }
+
+    /**
+     * Add the row of the directory to the entry if no other insert writes it, or have the entry wait for the one
+     * which does.
+     */
+    private void addDir( final Entry entry, final String key, final Object[] row )
+    {
+        final Entry owner = dirs.putIfAbsent( key, entry );
+        if ( owner == null )
+        {
+            entry.add( DIRS, row );
+            entry.dirs.add( key );
+        }
+        else if ( owner != WRITTEN )
+        {
+            entry.awaited.add( new AwaitedDir( key, row, owner ) );
+        }
+    }
+
+    @Override
+    public void putChecksums( final String fileSystem, final String path, final Map<String, String> checksums )
+            throws IOException
+    {
+        final Entry entry = new Entry();
+        checksums.forEach( ( algorithm, checksum ) -> entry.add( PATH_CHECKSUMS, fileSystem, path, algorithm,
+                                                                 checksum ) );
+        write( entry );
+    }
+
+    /**
+     * Writes the rows of the GA right away, as the GA index appends them one after another from its flush thread and
+     * waits for all of them at the end.
+     */
+    @Override
+    public ListenableFuture<?> appendGa( final String ga, final Set<String> repos )
+    {
+        final List<Object[]> gaRows = new ArrayList<>( repos.size() );
+        repos.forEach( repo -> gaRows.add( new Object[] { ga, repo } ) );
+        try
+        {
+            final Connection connection = borrow();
+            try
+            {
+                connection.setAutoCommit( true );
+                for ( Object[] row : gaRows )
+                {
+                    writeRow( connection, gaCache, row );
+                }
+            }
+            finally
+            {
+                pool.add( connection );
+            }
+            this.gaRows.add( gaRows.size() );
+            return Futures.immediateFuture( null );
+        }
+        catch ( IOException | SQLException e )
+        {
+            return Futures.immediateFailedFuture( e );
+        }
+    }
+
+    /**
+     * Join the open batch and wait until it is written, writing it if this is the insert which fills it or the first
+     * one whose linger runs out.
+     */
+    private void write( final Entry entry )
+            throws IOException
+    {
+        final Batch batch;
+        boolean flush;
+        synchronized ( this )
+        {
+            batch = open;
+            batch.entries.add( entry );
+            flush = batch.entries.size() >= Math.min( batchSize, writers - flushing );
+            if ( flush )
+            {
+                detach( batch );
+            }
+        }
+        try
+        {
+            if ( !flush && !batch.done.await( LINGER_MILLIS, TimeUnit.MILLISECONDS ) )
+            {
+                flush = claim( batch );
+                if ( !flush )
+                {
+                    batch.done.await();
+                }
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for batch" );
+        }
+        if ( flush )
+        {
+            flush( batch );
+        }
+        if ( entry.error != null )
+        {
+            throw entry.error;
+        }
+        awaitDirs( entry );
+    }
+
+    /**
+     * Wait for the directories of the entry written by other inserts, and write again those they failed to write.
+     */
+    private void awaitDirs( final Entry entry )
+            throws IOException
+    {
+        final Entry retry = new Entry();
+        for ( AwaitedDir dir : entry.awaited )
+        {
+            try
+            {
+                dir.owner.written.await();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException( "Interrupted while waiting for directory rows" );
+            }
+            if ( dirs.get( dir.key ) != WRITTEN )
+            {
+                addDir( retry, dir.key, dir.row );
+            }
+        }
+        if ( !retry.dirs.isEmpty() || !retry.awaited.isEmpty() )
+        {
+            write( retry );
+        }
+    }
+
+    private synchronized boolean claim( final Batch batch )
+    {
+        if ( open != batch )
+        {
+            return false;
+        }
+        detach( batch );
+        return true;
+    }
+
+    // called with the lock held
+    private void detach( final Batch batch )
+    {
+        open = new Batch();
+        flushing += batch.entries.size();
+    }
+
+    private void flush( final Batch batch )
+    {
+        try
+        {
+            final Connection connection = borrow();
+            try
+            {
+                writeBatch( connection, batch );
+            }
+            finally
+            {
+                pool.add( connection );
+            }
+        }
+        catch ( IOException e )
+        {
+            batch.entries.forEach( entry -> {
+                entry.fail( e );
+                releaseDirs( entry );
+            } );
+        }
+        finally
+        {
+            synchronized ( this )
+            {
+                flushing -= batch.entries.size();
+            }
+            batch.entries.forEach( entry -> entry.written.countDown() );
+            batch.done.countDown();
+        }
+    }
+
+    private void writeBatch( final Connection connection, final Batch batch )
+            throws IOException
+    {
+        try
+        {
+            connection.setAutoCommit( false );
+            for ( Table table : TABLES )
+            {
+                final List<Object[]> tableRows = new ArrayList<>();
+                batch.entries.forEach( entry -> tableRows.addAll( entry.rows.get( table.index ) ) );
+                // the same order in all batches, so two of them never wait for each other's rows
+                tableRows.sort( table.keyOrder );
+                insertRows( connection, table, tableRows );
+            }
+            connection.commit();
+            batches.increment();
+            batch.entries.forEach( this::committed );
+            return;
+        }
+        catch ( SQLException e )
+        {
+            rollback( connection, e );
+        }
+        fallbacks.increment();
+        for ( Entry entry : batch.entries )
+        {
+            Table written = null;
+            try
+            {
+                connection.setAutoCommit( true );
+                for ( Table table : TABLES )
+                {
+                    for ( Object[] row : entry.rows.get( table.index ) )
+                    {
+                        writeRow( connection, table, row );
+                    }
+                    written = table;
+                }
+                committed( entry );
+            }
+            catch ( SQLException e )
+            {
+                entry.fail( new IOException( e.getMessage(), e ) );
+                if ( written == null )
+                {
+                    releaseDirs( entry );
+                }
+                else
+                {
+                    entry.dirs.forEach( key -> dirs.put( key, WRITTEN ) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert the rows with a multi-row insert for each chunk of them, the full chunks sent as one batch.
+     */
+    private static void insertRows( final Connection connection, final Table table, final List<Object[]> tableRows )
+            throws SQLException
+    {
+        final int chunks = tableRows.size() / ROWS_PER_INSERT;
+        if ( chunks > 0 )
+        {
+            try (PreparedStatement statement = connection.prepareStatement( table.insert( ROWS_PER_INSERT ) ))
+            {
+                for ( int i = 0; i < chunks; i++ )
+                {
+                    bind( statement, table, tableRows.subList( i * ROWS_PER_INSERT, ( i + 1 ) * ROWS_PER_INSERT ) );
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+        final int rest = tableRows.size() % ROWS_PER_INSERT;
+        if ( rest > 0 )
+        {
+            try (PreparedStatement statement = connection.prepareStatement( table.insert( rest ) ))
+            {
+                bind( statement, table, tableRows.subList( tableRows.size() - rest, tableRows.size() ) );
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * Insert a row, or update it if its key exists and the table is updated, with auto commit.
+     */
+    private static void writeRow( final Connection connection, final Table table, final Object[] row )
+            throws SQLException
+    {
+        try (PreparedStatement statement = connection.prepareStatement( table.insert( 1 ) ))
+        {
+            bind( statement, table, Collections.singletonList( row ) );
+            statement.executeUpdate();
+        }
+        catch ( SQLException e )
+        {
+            if ( !isDuplicateKey( e ) )
+            {
+                throw e;
+            }
+            if ( table.update )
+            {
+                try (PreparedStatement statement = connection.prepareStatement( table.update() ))
+                {
+                    int index = 1;
+                    for ( int i = table.keys; i < table.columns.length; i++ )
+                    {
+                        set( statement, index++, row[i], table.types[i] );
+                    }
+                    for ( int i = 0; i < table.keys; i++ )
+                    {
+                        set( statement, index++, row[i], table.types[i] );
+                    }
+                    statement.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static void bind( final PreparedStatement statement, final Table table, final List<Object[]> tableRows )
+            throws SQLException
+    {
+        int index = 1;
+        for ( Object[] row : tableRows )
+        {
+            for ( int i = 0; i < row.length; i++ )
+            {
+                set( statement, index++, row[i], table.types[i] );
+            }
+        }
+    }
+
+    private static void set( final PreparedStatement statement, final int index, final Object value, final int type )
+            throws SQLException
+    {
+        if ( value == null )
+        {
+            statement.setNull( index, type );
+        }
+        else
+        {
+            statement.setObject( index, value, type );
+        }
+    }
+
+    /**
+     * Integrity constraint violations are of SQL state class 23 in all databases.
+     */
+    static boolean isDuplicateKey( final SQLException e )
+    {
+        for ( SQLException next = e; next != null; next = next.getNextException() )
+        {
+            if ( next.getSQLState() != null && next.getSQLState().startsWith( "23" ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void rollback( final Connection connection, final SQLException cause )
+            throws IOException
+    {
+        try
+        {
+            connection.rollback();
+        }
+        catch ( SQLException e )
+        {
+            cause.addSuppressed( e );
+        }
+        try
+        {
+            if ( !connection.isValid( VALID_TIMEOUT_SECONDS ) )
+            {
+                // replaced when it is borrowed next time
+                connection.close();
+                throw new IOException( "Connection lost: " + cause.getMessage(), cause );
+            }
+        }
+        catch ( SQLException e )
+        {
+            throw new IOException( cause.getMessage(), cause );
+        }
+    }
+
+    private void committed( final Entry entry )
+    {
+        for ( Table table : TABLES )
+        {
+            rows[table.index].add( entry.rows.get( table.index ).size() );
+        }
+        entry.dirs.forEach( key -> dirs.put( key, WRITTEN ) );
+    }
+
+    /**
+     * Let the next insert under the directories of a failed entry write them.
+     */
+    private void releaseDirs( final Entry entry )
+    {
+        entry.dirs.forEach( key -> dirs.remove( key, entry ) );
+    }
+
+    private Connection borrow()
+            throws IOException
+    {
+        final Connection connection;
+        try
+        {
+            connection = pool.take();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for a connection" );
+        }
+        try
+        {
+            return connection.isClosed() ? connect() : connection;
+        }
+        catch ( SQLException e )
+        {
+            pool.add( connection );
+            throw new IOException( "Can not connect to " + url + ": " + e.getMessage(), e );
+        }
+    }
+
+    private Connection connect()
+            throws SQLException
+    {
+        return user == null ? DriverManager.getConnection( url ) : DriverManager.getConnection( url, user, password );
+    }
+
+    private void createTables( final Connection connection )
+            throws SQLException
+    {
+        final DatabaseMetaData metaData = connection.getMetaData();
+        for ( Table table : gaCache == null ? TABLES : concat( TABLES, gaCache ) )
+        {
+            if ( table.index != DIRS.index && !exists( metaData, table.name ) )
+            {
+                try (Statement statement = connection.createStatement())
+                {
+                    statement.executeUpdate( table.create() );
+                }
+            }
+        }
+    }
+
+    private static List<Table> concat( final List<Table> tables, final Table table )
+    {
+        final List<Table> all = new ArrayList<>( tables );
+        all.add( table );
+        return all;
+    }
+
+    /**
+     * Databases keep unquoted names upper or lower case, so look for both.
+     */
+    private static boolean exists( final DatabaseMetaData metaData, final String name )
+            throws SQLException
+    {
+        for ( String candidate : new String[] { name, name.toUpperCase(), name.toLowerCase() } )
+        {
+            try (ResultSet tables = metaData.getTables( null, null, candidate, new String[] { "TABLE" } ))
+            {
+                if ( tables.next() )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Timestamp timestamp( final Date date )
+    {
+        return date == null ? null : new Timestamp( date.getTime() );
+    }
+
+    @Override
+    public List<String> report()
+    {
+        return Collections.singletonList( String.format(
+                "JDBC: batches: %s (written again file by file: %s), rows of pathmap: %s (directories: %s), "
+                        + "reversemap: %s, filechecksum: %s, pathchecksums: %s, GA cache: %s", batches.sum(),
+                fallbacks.sum(), rows[FILES.index].sum() + rows[DIRS.index].sum(), rows[DIRS.index].sum(),
+                rows[REVERSE_MAP.index].sum(), rows[FILE_CHECKSUM.index].sum(), rows[PATH_CHECKSUMS.index].sum(),
+                gaRows.sum() ) );
+    }
+
+    /**
+     * Write the inserts left in the open batch, of threads interrupted while waiting for it, and close the
+     * connections.
+     */
+    @Override
+    public void close()
+    {
+        final Batch last;
+        synchronized ( this )
+        {
+            last = open;
+            detach( last );
+        }
+        if ( !last.entries.isEmpty() )
+        {
+            flush( last );
+        }
+        closeConnections();
+    }
+
+    private void closeConnections()
+    {
+        Connection connection;
+        while ( ( connection = pool.poll() ) != null )
+        {
+            try
+            {
+                connection.close();
+            }
+            catch ( SQLException e )
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * A table with its columns, of which the first ones are the primary key.
+     */
+    static final class Table
+    {
+        private final int index;
+
+        private final String name;
+
+        private final int keys;
+
+        private final boolean update;
+
+        private final String[] columns;
+
+        private final String[] definitions;
+
+        private final int[] types;
+
+        private final Comparator<Object[]> keyOrder;
+
+        /**
+         * @param update true to update the row when its key exists, false to keep the existing one
+         * @param definitions names and SQL types of the columns
+         */
+        Table( final int index, final String name, final int keys, final boolean update,
+               final String... definitions )
+        {
+            this.index = index;
+            this.name = name;
+            this.keys = keys;
+            this.update = update;
+            this.definitions = definitions;
+            this.columns = new String[definitions.length];
+            this.types = new int[definitions.length];
+            for ( int i = 0; i < definitions.length; i++ )
+            {
+                final String[] parts = definitions[i].split( " " );
+                columns[i] = parts[0];
+                types[i] = parts[1].startsWith( "VARCHAR" ) ?
+                        Types.VARCHAR :
+                        "BIGINT".equals( parts[1] ) ? Types.BIGINT : Types.TIMESTAMP;
+            }
+            this.keyOrder = ( a, b ) -> {
+                for ( int i = 0; i < keys; i++ )
+                {
+                    final int compared = ( (String) a[i] ).compareTo( (String) b[i] );
+                    if ( compared != 0 )
+                    {
+                        return compared;
+                    }
+                }
+                return 0;
+            };
+        }
+
+        /**
+         * Same table and columns, written with other rows.
+         */
+        Table( final int index, final Table table, final boolean update )
+        {
+            this( index, table.name, table.keys, update, table.definitions );
+        }
+
+        String create()
+        {
+            final StringBuilder sql = new StringBuilder( "CREATE TABLE " ).append( name ).append( " (" );
+            for ( int i = 0; i < definitions.length; i++ )
+            {
+                sql.append( definitions[i] ).append( i < keys ? " NOT NULL, " : ", " );
+            }
+            return sql.append( "PRIMARY KEY (" )
+                      .append( String.join( ", ", Arrays.asList( columns ).subList( 0, keys ) ) )
+                      .append( "))" )
+                      .toString();
+        }
+
+        String insert( final int rowCount )
+        {
+            final String values = "(" + String.join( ", ", Collections.nCopies( columns.length, "?" ) ) + ")";
+            return "INSERT INTO " + name + " (" + String.join( ", ", columns ) + ") VALUES "
+                    + String.join( ", ", Collections.nCopies( rowCount, values ) );
+        }
+
+        String update()
+        {
+            final List<String> set = new ArrayList<>();
+            for ( int i = keys; i < columns.length; i++ )
+            {
+                set.add( columns[i] + " = ?" );
+            }
+            final List<String> where = new ArrayList<>();
+            for ( int i = 0; i < keys; i++ )
+            {
+                where.add( columns[i] + " = ?" );
+            }
+            return "UPDATE " + name + " SET " + String.join( ", ", set ) + " WHERE " + String.join( " AND ", where );
+        }
+    }
+
+    /**
+     * The rows of one insert, by table.
+     */
+    private static final class Entry
+    {
+        private final List<List<Object[]>> rows = new ArrayList<>( TABLES.size() );
+
+        // directories whose rows the entry writes
+        private final List<String> dirs = new ArrayList<>();
+
+        // directories written by other entries
+        private final List<AwaitedDir> awaited = new ArrayList<>();
+
+        // once the rows are committed or failed
+        private final CountDownLatch written = new CountDownLatch( 1 );
+
+        private volatile IOException error;
+
+        private Entry()
+        {
+            for ( int i = 0; i < TABLES.size(); i++ )
+            {
+                rows.add( new ArrayList<>( 1 ) );
+            }
+        }
+
+        void add( final Table table, final Object... row )
+        {
+            rows.get( table.index ).add( row );
+        }
+
+        void fail( final IOException e )
+        {
+            error = e;
+        }
+    }
+
+    private static final class AwaitedDir
+    {
+        private final String key;
+
+        private final Object[] row;
+
+        private final Entry owner;
+
+        private AwaitedDir( final String key, final Object[] row, final Entry owner )
+        {
+            this.key = key;
+            this.row = row;
+            this.owner = owner;
+        }
+    }
+
+    private static final class Batch
+    {
+        private final List<Entry> entries = new ArrayList<>();
+
+        private final CountDownLatch done = new CountDownLatch( 1 );
+    }
+}
@@ -17,14 +17,20 @@ package org.commonjava.migrate.pathmap;
 
 import java.lang.reflect.InvocationTargetException;
 
+import static org.commonjava.migrate.pathmap.Util.CMD_EXPORT;
+import static org.commonjava.migrate.pathmap.Util.CMD_IMPORT;
+import static org.commonjava.migrate.pathmap.Util.CMD_INDEX;
 import static org.commonjava.migrate.pathmap.Util.CMD_MIGRATE;
 import static org.commonjava.migrate.pathmap.Util.CMD_SCAN;
+import static org.commonjava.migrate.pathmap.Util.CMD_VERIFY;
+import static org.commonjava.migrate.pathmap.Util.flushLog;
 
 public class Main
 {
     public static void main( String[] args )
     {
         Thread.currentThread().setUncaughtExceptionHandler( ( thread, error ) -> {
+            flushLog();
             if ( error instanceof InvocationTargetException )
             {
                 final InvocationTargetException ite = (InvocationTargetException) error;
@@ -56,6 +62,7 @@ public class Main
         }
         catch ( final IllegalArgumentException | MigrateException e )
         {
+            flushLog();
             System.err.printf( "ERROR: %s", e.getMessage() );
             System.exit( 1 );
         }
@@ -69,6 +76,14 @@ public class Main
                 return new ScanCmd();
             case CMD_MIGRATE:
                 return new MigrateCmd();
+            case CMD_INDEX:
+                return new IndexCmd();
+            case CMD_VERIFY:
+                return new VerifyCmd();
+            case CMD_EXPORT:
+                return new ExportCmd();
+            case CMD_IMPORT:
+                return new ImportCmd();
         }
         return null;
     }
@@ -28,25 +28,34 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
+import static org.commonjava.migrate.pathmap.Util.COMPLETED_STORES_DIR;
+import static org.commonjava.migrate.pathmap.Util.DEDUPE_REPORT_FILE;
 import static org.commonjava.migrate.pathmap.Util.DEFAULT_FAILED_BATCH_SIZE;
+import static org.commonjava.migrate.pathmap.Util.DEFAULT_TRACE_BUFFER;
 import static org.commonjava.migrate.pathmap.Util.FAILED_PATHS_FILE;
+import static org.commonjava.migrate.pathmap.Util.MIGRATED_FILTER_FILE;
+import static org.commonjava.migrate.pathmap.Util.MIGRATED_SKIPPED_FILE;
+import static org.commonjava.migrate.pathmap.Util.PATH_TRACES_FILE;
+import static org.commonjava.migrate.pathmap.Util.PRIORITY_TODO_PREFIX;
 import static org.commonjava.migrate.pathmap.Util.PROGRESS_FILE;
 import static org.commonjava.migrate.pathmap.Util.STATUS_FILE;
 import static org.commonjava.migrate.pathmap.Util.TODO_FILES_DIR;
+import static org.commonjava.migrate.pathmap.Util.TRACE_DUMP_PERIOD;
+import static org.commonjava.migrate.pathmap.Util.estimatePaths;
 import static org.commonjava.migrate.pathmap.Util.newLines;
+import static org.commonjava.migrate.pathmap.Util.printError;
 import static org.commonjava.migrate.pathmap.Util.printInfo;
-import static org.commonjava.migrate.pathmap.Util.slicePathsByMod;
 
 public class MigrateCmd
         implements Command
@@ -59,8 +68,35 @@ public class MigrateCmd
 
     private AtomicInteger succeedCount = new AtomicInteger( 0 );
 
+    private AtomicInteger skippedCount = new AtomicInteger( 0 );
+
+    private static final long FILTER_SAVE_PERIOD = 5 * 60 * 1000L;
+
+    private MigratedFilter migratedFilter;
+
+    // a filter hit only means possibly migrated, so every skipped path is listed to be checked again
+    private BufferedWriter skippedLog;
+
+    private PathParser pathParser;
+
     private long startFromScratch;
 
+    private volatile MigratePipeline pipeline;
+
+    private final List<String> failedPaths = new ArrayList<>();
+
+    private TodoLeases leases;
+
+    private PathTracer tracer;
+
+    private StoreCompletion completion;
+
+    // store of the paths submitted last, sealed when the paths of the next one start
+    private String submittingStore;
+
+    // paths of claimed todo files in the pipeline, with the file they are from
+    private final Map<String, ClaimedFile> claimedPaths = new ConcurrentHashMap<>();
+
     static final Predicate<Path> WORKING_FILES_FILTER =
             p -> Files.isRegularFile( p ) && p.getFileName().toString().startsWith( TODO_FILES_DIR );
 
@@ -70,63 +106,95 @@ public class MigrateCmd
     {
         init( options );
         migrator = options.getMigrator();
+        openMigratedFilter( options );
+        if ( options.isTraced() )
+        {
+            tracer = new PathTracer( options.getMigrateFile( PATH_TRACES_FILE ), options.getTraceRate(),
+                                     options.getTraceThreshold(), DEFAULT_TRACE_BUFFER );
+            tracer.startDump( TRACE_DUMP_PERIOD );
+        }
+        pipeline = new MigratePipeline( migrator, new FailedPathsListener( options ), options.getStatThreads(),
+                                        options.getChecksumThreads(), options.getWriteThreads(),
+                                        options.getQueueSize(), tracer );
 
         try
         {
-            final List<Path> todoPaths = new ArrayList<>(  );
-            Files.walk( Paths.get( options.getToDoDir() ), 1 ).filter( WORKING_FILES_FILTER ).forEach( todoPaths::add );
-            if ( options.getThreads() <= 1 )
+            if ( options.isLeased() )
             {
-                processBatch( todoPaths, options );
+                processClaimed( options );
             }
             else
             {
-                final Map<Integer, List<Path>> batchTodoPaths = slicePathsByMod( todoPaths, options.getThreads() );
-                final CountDownLatch latch = new CountDownLatch( batchTodoPaths.size() );
-                final ExecutorService service = Executors.newFixedThreadPool( batchTodoPaths.size() );
-                for ( int i = 0; i < batchTodoPaths.size(); i++ )
+                final List<Path> todoPaths = new ArrayList<>(  );
+                Files.walk( Paths.get( options.getToDoDir() ), 1 ).filter( WORKING_FILES_FILTER ).forEach( todoPaths::add );
+                // the names of the todo files of a scan with store priority start with the rank of their store
+                todoPaths.sort( null );
+                openStoreCompletion( todoPaths, options );
+                processBatch( todoPaths, options );
+                if ( completion != null )
                 {
-                    List<Path> paths = batchTodoPaths.get( i );
-                    service.execute( () -> {
-                        try
-                        {
-                            processBatch( paths, options );
-                        }
-                        finally
-                        {
-                            latch.countDown();
-                        }
-                    } );
-
+                    if ( submittingStore != null )
+                    {
+                        completion.seal( submittingStore );
+                    }
+                    completion.sealAll();
                 }
-                latch.await();
-                service.shutdownNow();
             }
+            pipeline.awaitCompletion();
         }
         catch ( Throwable e )
         {
             e.printStackTrace();
+            pipeline.shutdownNow();
+            storeRemainingFailedPaths( options );
             stop( options );
             throw new MigrateException( "Error: Some error happened!", e );
         }
+        storeRemainingFailedPaths( options );
 
         final long end = System.currentTimeMillis();
 
         newLines(2);
         printInfo( String.format( "Migrate: total processed paths: %s", processedCount ) );
         printInfo( String.format( "Migrate: total succeed paths: %s", succeedCount ) );
+        if ( migratedFilter != null )
+        {
+            printInfo( String.format( "Migrate: total skipped paths migrated before: %s, a few may be false positives "
+                                              + "of the filter, see %s", skippedCount,
+                                      options.getMigrateFile( MIGRATED_SKIPPED_FILE ).getName() ) );
+        }
         printInfo( String.format( "Migrate: total failed paths: %s", failedCount ) );
         printInfo( String.format( "Migrate: total spent time: %s seconds", ( end - startFromScratch ) / 1000 ) );
+        pipeline.report().forEach( Util::printInfo );
+        storeDedupeReport( options );
 
         stop( options );
     }
 
-    private void processBatch( final List<Path> todoPaths, final MigrateOptions options )
+    private void storeDedupeReport( final MigrateOptions options )
     {
-        final List<String> failedPaths = new ArrayList<>();
+        final DedupeIndex dedupeIndex = migrator.getDedupeIndex();
+        if ( dedupeIndex == null )
+        {
+            return;
+        }
+        final List<String> report = new ArrayList<>( dedupeIndex.report() );
+        report.addAll( migrator.checksumReport() );
+        report.forEach( Util::printInfo );
+        try
+        {
+            FileUtils.writeLines( options.getMigrateFile( DEDUPE_REPORT_FILE ), report );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+        }
+    }
 
+    private void processBatch( final List<Path> todoPaths, final MigrateOptions options )
+    {
         Consumer<Path> handler = p -> {
-				    printInfo( String.format( "Start to process paths in %s ", p ) );
+            printInfo( String.format( "Start to process paths in %s ", p ) );
             List<String> paths = null;
             try
             {
@@ -141,44 +209,324 @@ public class MigrateCmd
             }
             if ( paths != null && !paths.isEmpty() )
             {
+                // scan lists a directory in one go, so the batch is the listing to look for sidecar files in
+                final Set<String> listing = options.isSidecarChecksum() ? new HashSet<>( paths ) : null;
                 paths.forEach( path -> {
-                    try
-                    {
-                        migrator.migrate( path );
-                        succeedCount.getAndIncrement();
-                    }
-                    catch ( MigrateException e )
+                    final String store = submittingStoreOf( path );
+                    if ( isMigrated( path ) )
                     {
-                        printInfo( String.format( "Error: %s in %s failed to migrate. Error is: %s", path, p,
-                                                  e.getMessage() ) );
-                        failedPaths.add( path );
-                        failedCount.incrementAndGet();
-                        if ( failedPaths.size() > DEFAULT_FAILED_BATCH_SIZE )
-                        {
-                            storeFailedPaths( options, failedPaths );
-                            failedPaths.clear();
-                        }
+                        skipped( path );
+                        return;
                     }
-                    finally
+                    if ( store != null )
                     {
-                        processedCount.getAndIncrement();
+                        completion.submitted( store );
                     }
+                    pipeline.submit( path, listing );
                 } );
                 paths = null; // for gc
-                printInfo( String.format( "%s finished processing and moved to processed folder", p ) );
+                printInfo( String.format( "%s finished submitting and moved to processed folder", p ) );
             }
         };
 
+        todoPaths.forEach( handler );
+    }
+
+    /**
+     * Write a completion marker for each store when the todo files are the ones of a scan with store priority, which
+     * has the paths of each store in files of its own, one after another. Other processes sharing the work dir may
+     * have paths of the same store, so there are none with an owner.
+     */
+    private void openStoreCompletion( final List<Path> todoPaths, final MigrateOptions options )
+            throws IOException
+    {
+        if ( todoPaths.isEmpty() || !todoPaths.stream()
+                                              .allMatch( p -> p.getFileName()
+                                                               .toString()
+                                                               .startsWith( PRIORITY_TODO_PREFIX ) ) )
+        {
+            return;
+        }
+        final Path markerDir = Paths.get( options.getWorkDir(), COMPLETED_STORES_DIR );
+        completion = new StoreCompletion( markerDir );
+        if ( pathParser == null )
+        {
+            pathParser = new PathParser( options.getBaseDir() );
+        }
+        printInfo( String.format( "Will write a completion marker for each store to %s", markerDir ) );
+    }
+
+    /**
+     * @return the store of a path about to be submitted, null if no completion markers are written
+     */
+    private String submittingStoreOf( final String path )
+    {
+        if ( completion == null )
+        {
+            return null;
+        }
+        final String store = storeOf( path );
+        if ( store != null && !store.equals( submittingStore ) )
+        {
+            if ( submittingStore != null )
+            {
+                completion.seal( submittingStore );
+            }
+            submittingStore = store;
+        }
+        return store;
+    }
+
+    private String storeOf( final String physicalPath )
+    {
+        try
+        {
+            return pathParser.parse( physicalPath ).getFileSystem();
+        }
+        catch ( RuntimeException e )
+        {
+            return null; // let stat report it
+        }
+    }
+
+    private void storeDone( final String physicalPath, final boolean succeeded )
+    {
+        if ( completion != null )
+        {
+            final String store = storeOf( physicalPath );
+            if ( store != null )
+            {
+                completion.done( store, succeeded );
+            }
+        }
+    }
+
+    /**
+     * Claim the todo files one at a time, sharing them with the other migrate processes of the work dir. A file only
+     * moves on to processed once all its paths are done, so the paths of a process which dies are not lost but taken
+     * over by another one.
+     */
+    private void processClaimed( final MigrateOptions options )
+            throws IOException
+    {
+        leases = new TodoLeases( Paths.get( options.getToDoDir() ), Paths.get( options.getInProgressDir() ),
+                                 Paths.get( options.getProcessedDir() ), WORKING_FILES_FILTER, options.getOwner(),
+                                 options.getLeaseTimeout() * 1000L );
+        leases.startHeartbeat();
+        Path claimed;
+        while ( ( claimed = leases.claim() ) != null )
+        {
+            printInfo( String.format( "Start to process paths in %s ", claimed ) );
+            List<String> paths = FileUtils.readLines( claimed.toFile() );
+            final ClaimedFile file = new ClaimedFile( claimed, paths.size() );
+            final Set<String> listing = options.isSidecarChecksum() ? new HashSet<>( paths ) : null;
+            for ( String path : paths )
+            {
+                if ( isMigrated( path ) )
+                {
+                    skipped( path );
+                    file.done();
+                }
+                else if ( claimedPaths.putIfAbsent( path, file ) != null )
+                {
+                    // in the pipeline for another file already
+                    file.done();
+                }
+                else
+                {
+                    pipeline.submit( path, listing );
+                }
+            }
+            paths = null; // for gc
+            file.done();
+            printInfo( String.format( "%s finished submitting", claimed ) );
+        }
+    }
+
+    private void claimedPathDone( final String path )
+    {
+        if ( leases != null )
+        {
+            final ClaimedFile file = claimedPaths.remove( path );
+            if ( file != null )
+            {
+                file.done();
+            }
+        }
+    }
+
+    /**
+     * A claimed todo file with the number of its paths not done yet, and one more until all are submitted.
+     */
+    private class ClaimedFile
+    {
+        private final Path path;
+
+        private final AtomicInteger pending;
+
+        ClaimedFile( final Path path, final int paths )
+        {
+            this.path = path;
+            this.pending = new AtomicInteger( paths + 1 );
+        }
+
+        void done()
+        {
+            if ( pending.decrementAndGet() > 0 )
+            {
+                return;
+            }
+            try
+            {
+                if ( leases.complete( path ) )
+                {
+                    printInfo( String.format( "%s finished and moved to processed folder", path ) );
+                }
+                else
+                {
+                    printInfo( String.format( "Warning: %s was taken back from owner %s before it finished", path,
+                                              leases.getOwner() ) );
+                }
+            }
+            catch ( IOException e )
+            {
+                printInfo( String.format( "Error: can not move %s to processed folder: %s", path, e.getMessage() ) );
+            }
+        }
+    }
+
+    /**
+     * Load the filter of migrated paths with --skipMigrated, and with --skipMigratedFromDB add the files in the path
+     * map to it first. It is saved from time to time and when migrate stops.
+     */
+    private void openMigratedFilter( final MigrateOptions options )
+            throws MigrateException
+    {
+        if ( !options.isSkipMigrated() )
+        {
+            return;
+        }
+        final File file = options.getMigrateFile( MIGRATED_FILTER_FILE );
+        migratedFilter = MigratedFilter.open( file, estimatePaths(
+                IndexCmd.listPathsFiles( options, WORKING_FILES_FILTER ) ) );
+        if ( options.isSkipMigratedFromDB() )
+        {
+            printInfo( "Adding the files in the path map to the filter of migrated paths" );
+            try (CassandraSessionFactory sessions = new CassandraSessionFactory( options ))
+            {
+                migratedFilter.addFromPathMap( sessions.getSession(), options.getCassandraKeyspace(),
+                                               options.getThreads() );
+            }
+            migratedFilter.trySave();
+        }
+        printInfo( String.format( "Filter of migrated paths: %s bytes, estimated false positive rate: %s",
+                                  migratedFilter.getByteSize(), migratedFilter.getFalsePositiveRate() ) );
+        final File skippedFile = options.getMigrateFile( MIGRATED_SKIPPED_FILE );
         try
         {
-            todoPaths.forEach( handler );
+            skippedLog = new BufferedWriter( new FileWriter( skippedFile, true ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not open {}: {}", e, skippedFile, e.getMessage() );
+        }
+        pathParser = new PathParser( options.getBaseDir() );
+        progressTimer.schedule( new TimerTask()
+        {
+            @Override
+            public void run()
+            {
+                migratedFilter.trySave();
+            }
+        }, FILTER_SAVE_PERIOD, FILTER_SAVE_PERIOD );
+    }
+
+    private boolean isMigrated( final String physicalPath )
+    {
+        if ( migratedFilter == null )
+        {
+            return false;
+        }
+        final ParsedPath parsed;
+        try
+        {
+            parsed = pathParser.parse( physicalPath );
+        }
+        catch ( RuntimeException e )
+        {
+            return false; // let stat report it
+        }
+        return migratedFilter.contains( parsed.getFileSystem(), parsed.getPath() );
+    }
+
+    private void skipped( final String physicalPath )
+    {
+        // not processed again: a resumed run already counts it in the processed paths it restores
+        skippedCount.getAndIncrement();
+        synchronized ( skippedLog )
+        {
+            try
+            {
+                skippedLog.write( physicalPath );
+                skippedLog.newLine();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private class FailedPathsListener
+            implements MigratePipeline.Listener
+    {
+        private final MigrateOptions options;
+
+        FailedPathsListener( final MigrateOptions options )
+        {
+            this.options = options;
+        }
+
+        @Override
+        public void succeeded( final MigrateEntry entry )
+        {
+            succeedCount.getAndIncrement();
+            processedCount.getAndIncrement();
+            if ( migratedFilter != null )
+            {
+                migratedFilter.add( entry.getFileSystem(), entry.getPath() );
+            }
+            claimedPathDone( entry.getPhysicalPath() );
+            storeDone( entry.getPhysicalPath(), true );
         }
-        finally
+
+        @Override
+        public void failed( final String path, final MigrateException error )
+        {
+            printError( "Error: %s failed to migrate. Error is: %s", path, error.getMessage() );
+            synchronized ( failedPaths )
+            {
+                failedPaths.add( path );
+                if ( failedPaths.size() > DEFAULT_FAILED_BATCH_SIZE )
+                {
+                    storeFailedPaths( options, failedPaths );
+                    failedPaths.clear();
+                }
+            }
+            failedCount.incrementAndGet();
+            processedCount.getAndIncrement();
+            claimedPathDone( path );
+            storeDone( path, false );
+        }
+    }
+
+    private void storeRemainingFailedPaths( final MigrateOptions options )
+    {
+        synchronized ( failedPaths )
         {
             if ( !failedPaths.isEmpty() )
             {
                 storeFailedPaths( options, failedPaths );
-                failedCount.addAndGet( failedPaths.size() );
                 failedPaths.clear();
             }
         }
@@ -189,7 +537,7 @@ public class MigrateCmd
     private void init( MigrateOptions options )
     {
         // Reload last processed paths count
-        Path progressFilePath = Paths.get( options.getWorkDir(), PROGRESS_FILE );
+        Path progressFilePath = options.getMigrateFile( PROGRESS_FILE ).toPath();
         File progressFile = progressFilePath.toFile();
         if ( progressFile.exists() )
         {
@@ -222,12 +570,50 @@ public class MigrateCmd
     {
         new UpdateProgressTask( options ).run(); // last run
         progressTimer.cancel();
+        if ( migratedFilter != null )
+        {
+            migratedFilter.trySave();
+            synchronized ( skippedLog )
+            {
+                try
+                {
+                    skippedLog.close();
+                }
+                catch ( IOException e )
+                {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if ( tracer != null )
+        {
+            try
+            {
+                tracer.close();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+            tracer.report().forEach( Util::printInfo );
+        }
+        if ( leases != null )
+        {
+            try
+            {
+                leases.close();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+        }
         migrator.shutdown();
     }
 
     private synchronized void storeFailedPaths( MigrateOptions options, List<String> failedPaths )
     {
-        File failedFile = Paths.get( options.getWorkDir(), FAILED_PATHS_FILE ).toFile();
+        File failedFile = options.getMigrateFile( FAILED_PATHS_FILE );
         try
         {
             if ( !failedFile.exists() )
@@ -283,7 +669,7 @@ public class MigrateCmd
             double progress = (double) currentProcessedCnt / (double) totalCnt;
             String progressString = new DecimalFormat( "##.##" ).format( progress * 100 );
             final int currentTimeConsumedSeconds = (int) ( ( System.currentTimeMillis() - startFromScratch ) / 1000 );
-            final Path progressFilePath = Paths.get( options.getWorkDir(), PROGRESS_FILE );
+            final Path progressFilePath = options.getMigrateFile( PROGRESS_FILE ).toPath();
             try
             {
                 Files.deleteIfExists( progressFilePath );
@@ -298,10 +684,24 @@ public class MigrateCmd
                     writer.newLine();
                     writer.write( String.format( "Failed:%s", failedCount.get() ) );
                     writer.newLine();
+                    if ( migratedFilter != null )
+                    {
+                        writer.write( String.format( "Skipped:%s", skippedCount.get() ) );
+                        writer.newLine();
+                    }
                     writer.write( String.format( "Progress:%s", progressString ) + "%" );
                     writer.newLine();
                     writer.write( String.format( "Time spent: %s seconds", currentTimeConsumedSeconds ) );
                     writer.newLine();
+                    final MigratePipeline currentPipeline = pipeline;
+                    if ( currentPipeline != null )
+                    {
+                        for ( String stage : currentPipeline.report() )
+                        {
+                            writer.write( stage );
+                            writer.newLine();
+                        }
+                    }
                 }
             }
             catch ( IOException e )
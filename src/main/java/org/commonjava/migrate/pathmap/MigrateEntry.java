@@ -0,0 +1,267 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * State of one physical file while it moves through the migrate stages. It is filled by the stat stage, gets its
+ * checksum in the checksum stage and is finally written to the path db.
+ */
+public class MigrateEntry
+{
+    private final String physicalPath;
+
+    private final File file;
+
+    private final long size;
+
+    private final String fileSystem;
+
+    private final String path;
+
+    private final String storePath;
+
+    private long device;
+
+    private long inode;
+
+    private long lastModified;
+
+    private String checksum;
+
+    private Map<String, String> checksums;
+
+    private boolean checksumUnverified;
+
+    private Map<String, String> sidecars;
+
+    private String fileId;
+
+    private Date creation;
+
+    private Date expiration;
+
+    // nanos spent on each step, kept for the path tracer
+    private final long[] stepNanos = new long[PathTracer.Step.ALL.length];
+
+    private long startedAt;
+
+    private long queuedAt;
+
+    MigrateEntry( final String physicalPath, final File file, final long size, final String fileSystem,
+                  final String path, final String storePath )
+    {
+        this.physicalPath = physicalPath;
+        this.file = file;
+        this.size = size;
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.storePath = storePath;
+    }
+
+    /**
+     * Set the identity of the file on its device. Both 0 means the file system does not expose it.
+     */
+    void setIdentity( final long device, final long inode, final long lastModified )
+    {
+        this.device = device;
+        this.inode = inode;
+        this.lastModified = lastModified;
+    }
+
+    public String getPhysicalPath()
+    {
+        return physicalPath;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public String getFileSystem()
+    {
+        return fileSystem;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public String getStorePath()
+    {
+        return storePath;
+    }
+
+    public long getDevice()
+    {
+        return device;
+    }
+
+    public long getInode()
+    {
+        return inode;
+    }
+
+    /**
+     * @return last modified time in nanoseconds
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public boolean hasIdentity()
+    {
+        return device != 0 || inode != 0;
+    }
+
+    public String getChecksum()
+    {
+        return checksum;
+    }
+
+    public void setChecksum( String checksum )
+    {
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return hex checksums by algorithm when more than the primary one are calculated, otherwise null
+     */
+    public Map<String, String> getChecksums()
+    {
+        return checksums;
+    }
+
+    public void setChecksums( Map<String, String> checksums )
+    {
+        this.checksums = checksums;
+    }
+
+    /**
+     * @return true if the checksum was read from sidecars and not checked against the content, so it is not good
+     * enough to dedupe by
+     */
+    public boolean isChecksumUnverified()
+    {
+        return checksumUnverified;
+    }
+
+    public void setChecksumUnverified( boolean checksumUnverified )
+    {
+        this.checksumUnverified = checksumUnverified;
+    }
+
+    /**
+     * @return paths of the checksum sidecar files of this file by algorithm, or null if it doesn't have them all
+     */
+    public Map<String, String> getSidecars()
+    {
+        return sidecars;
+    }
+
+    public void setSidecars( Map<String, String> sidecars )
+    {
+        this.sidecars = sidecars;
+    }
+
+    /**
+     * Keep the file id, creation and expiration of a path map row, so it is written back as it was instead of as a
+     * new file. The store path is then the file storage of the row.
+     */
+    void setRestored( final String fileId, final Date creation, final Date expiration )
+    {
+        this.fileId = fileId;
+        this.creation = creation;
+        this.expiration = expiration;
+    }
+
+    public boolean isRestored()
+    {
+        return fileId != null;
+    }
+
+    public String getFileId()
+    {
+        return fileId;
+    }
+
+    public Date getCreation()
+    {
+        return creation;
+    }
+
+    public Date getExpiration()
+    {
+        return expiration;
+    }
+
+    void addNanos( final PathTracer.Step step, final long nanos )
+    {
+        stepNanos[step.ordinal()] += nanos;
+    }
+
+    public long getNanos( final PathTracer.Step step )
+    {
+        return stepNanos[step.ordinal()];
+    }
+
+    /**
+     * Set when the path was submitted, at {@link System#nanoTime()}.
+     */
+    void started( final long nanos )
+    {
+        startedAt = nanos;
+    }
+
+    long getStartedAt()
+    {
+        return startedAt;
+    }
+
+    /**
+     * Mark the entry as queued for the next stage, at {@link System#nanoTime()}.
+     */
+    void queued( final long nanos )
+    {
+        queuedAt = nanos;
+    }
+
+    /**
+     * Count the time since it was queued as waiting, when the next stage takes it.
+     */
+    void dequeued( final long nanos )
+    {
+        addNanos( PathTracer.Step.QUEUE, nanos - queuedAt );
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MigrateEntry{" + "fileSystem='" + fileSystem + '\'' + ", path='" + path + '\'' + ", size=" + size
+                + '}';
+    }
+}
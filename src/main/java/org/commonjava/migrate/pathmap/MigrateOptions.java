@@ -16,7 +16,6 @@
 package org.commonjava.migrate.pathmap;
 
 import org.apache.commons.lang3.StringUtils;
-import org.commonjava.storage.pathmapped.util.ChecksumCalculator;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.CmdLineException;
 import org.kohsuke.args4j.CmdLineParser;
@@ -33,6 +32,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.commonjava.migrate.pathmap.Util.*;
@@ -60,15 +60,48 @@ public class MigrateOptions
     //    @Option( name = "-t", aliases = "--threads", usage = "Number of threads to execute the migrating process" )
     //    private int threads;
 
+    @Option( name = "--priorityStores",
+             usage = "Scan: comma separated stores like maven:hosted:build-1 which are migrated first, in this order" )
+    private String priorityStores;
+
+    @Option( name = "--priorityTypes",
+             usage = "Scan: comma separated repo types like hosted,group,remote in the order their stores are migrated" )
+    private String priorityTypes;
+
+    @Option( name = "--accessLogs",
+             usage = "Scan: comma separated access logs of indy, the stores with most requests in them are migrated first" )
+    private String accessLogs;
+
     @Option( name = "-B", aliases = "--batch", usage = "Batch of paths to process each time" )
     private int batchSize;
 
     @Option( name = "-d", aliases = "--dedupe", usage = "If to use checksum to dedupe all files in file storage" )
     private boolean dedupe;
 
-    @Option( name = "-A", aliases = "--dedupeAlgorithm", usage = "Algorithm to do dedupe check, default is MD5" )
+    @Option( name = "-A", aliases = "--dedupeAlgorithm",
+             usage = "Algorithm to do dedupe check, default is MD5. A comma separated list like MD5,SHA-1,SHA-256 calculates all of them in one pass, and the first one is used for dedupe" )
     private String dedupeAlgorithm;
 
+    @Option( name = "--digestLanes",
+             usage = "Threads of each checksum thread to update the digests of multiple algorithms in parallel for each read, default is 1" )
+    private int digestLanes;
+
+    @Option( name = "--mmapThreshold",
+             usage = "Files bigger than this size in MB will be memory mapped for checksum, default is 0 (disabled)" )
+    private long mmapThreshold;
+
+    @Option( name = "--checksumCache",
+             usage = "Keep checksums in a cache file of work dir, so reruns don't hash unchanged files again" )
+    private boolean checksumCache;
+
+    @Option( name = "--sidecarChecksum",
+             usage = "Take checksums from sidecar files like foo.jar.md5 next to the artifacts instead of reading the artifacts" )
+    private boolean sidecarChecksum;
+
+    @Option( name = "--sidecarVerifyRate",
+             usage = "Fraction of files between 0 and 1 whose sidecar checksums are verified against the content, default is 0" )
+    private double sidecarVerifyRate;
+
     @Option( name = "-H", aliases = "--host", usage = "Cassandra server hostname" )
     private String cassandraHost;
 
@@ -84,10 +117,71 @@ public class MigrateOptions
     @Option( name = "-k", aliases = "--keyspace", usage = "Cassandra server keyspace" )
     private String cassandraKeyspace;
 
+    @Option( name = "--driverProfile",
+             usage = "Properties file with cassandra driver tuning, see README for the keys" )
+    private File driverProfile;
+
+    @Option( name = "--connectionsPerHost", usage = "Cassandra driver: connections to each host" )
+    private int connectionsPerHost;
+
+    @Option( name = "--maxRequestsPerConnection",
+             usage = "Cassandra driver: max requests in flight on each connection" )
+    private int maxRequestsPerConnection;
+
+    @Option( name = "--compression", usage = "Cassandra driver: protocol compression, NONE | LZ4 | SNAPPY" )
+    private String compression;
+
+    @Option( name = "--consistency", usage = "Cassandra driver: consistency level of reads and writes, e.g. ONE" )
+    private String consistency;
+
+    @Option( name = "--fetchSize", usage = "Cassandra driver: rows fetched in each page of a query" )
+    private int fetchSize;
+
+    @Option( name = "--speculativeDelay",
+             usage = "Cassandra driver: millis before a request is also sent to another host, default is off" )
+    private long speculativeDelay;
+
     @Option( name = "-t", aliases = "--threads",
              usage = "Scan: Threads will run concurrently to scan against repos for pkg types. Migrate:Threads which will run migrating concurrently. " )
     private int threads;
 
+    @Option( name = "--statThreads", usage = "Migrate: threads of the stat stage, default is same as threads" )
+    private int statThreads;
+
+    @Option( name = "--checksumThreads",
+             usage = "Migrate: threads of the checksum stage when dedupe, default is number of processors" )
+    private int checksumThreads;
+
+    @Option( name = "--writeThreads", usage = "Migrate: threads of the db write stage, default is same as threads" )
+    private int writeThreads;
+
+    @Option( name = "--queueSize", usage = "Migrate: size of the queue in front of each stage, default is 10000" )
+    private int queueSize;
+
+    @Option( name = "--skipMigrated",
+             usage = "Migrate: keep a filter of migrated paths in work dir and skip the paths in it when migrate runs again" )
+    private boolean skipMigrated;
+
+    @Option( name = "--skipMigratedFromDB",
+             usage = "Migrate: with --skipMigrated, first add the files in the path map to the filter by a token range scan" )
+    private boolean skipMigratedFromDB;
+
+    @Option( name = "--owner",
+             usage = "Migrate: name of this process, to share the todo files of the work dir with other migrate processes" )
+    private String owner;
+
+    @Option( name = "--leaseTimeout",
+             usage = "Migrate: seconds after which the todo files of an owner without heartbeat are taken back, default is 600" )
+    private int leaseTimeout;
+
+    @Option( name = "--traceRate",
+             usage = "Migrate: fraction of paths between 0 and 1 whose step times are written to path_traces of work dir, default is 0" )
+    private double traceRate;
+
+    @Option( name = "--traceThreshold",
+             usage = "Migrate: milliseconds after which the step times of a path are always written to path_traces, default is 0 for none" )
+    private int traceThreshold;
+
     @Option( name = "-i", aliases = "--indexGA", usage = "Determine if to index GA cache during migrate operation" )
     private String indexEnable;
 
@@ -98,7 +192,62 @@ public class MigrateOptions
              usage = "The store pattern for stores which will be cached in GA cache" )
     private String indexGAStorePattern;
 
-    @Argument( index = 0, metaVar = "command", usage = "Name of command to run, use scan | migrate | resume" )
+    @Option( name = "--gaFlushInterval",
+             usage = "Seconds between writes of newly indexed GAs to the GA cache table, default is 30" )
+    private int gaFlushInterval;
+
+    @Option( name = "--gaMaxPending",
+             usage = "Indexed GA and store pairs kept in memory before they are written early, default is 1000000" )
+    private int gaMaxPending;
+
+    @Option( name = "--indexDumpOnly",
+             usage = "Index: only write the GA index to the dump file of work dir, not to the GA cache table" )
+    private boolean indexDumpOnly;
+
+    @Option( name = "--verifySampleRate",
+             usage = "Verify: fraction of files between 0 and 1 which are re-hashed and compared with the checksum in the path map, default is 0" )
+    private double verifySampleRate;
+
+    @Option( name = "--exportDir",
+             usage = "Export and import: dir of the exported path map shards, default is export in work dir" )
+    private String exportDir;
+
+    @Option( name = "--force",
+             usage = "Import: import the shards of an export without a manifest, like one which did not finish" )
+    private boolean force;
+
+    @Option( name = "--sstableDir",
+             usage = "Migrate and import: write the rows as SSTables to this dir for sstableloader instead of to cassandra" )
+    private String sstableDir;
+
+    @Option( name = "--sstableRanges",
+             usage = "Migrate and import: token ranges written to SSTables of their own at the same time, default is same as write threads" )
+    private int sstableRanges;
+
+    @Option( name = "--sstableBuffer",
+             usage = "Migrate and import: MB of rows each SSTable writer sorts in memory before writing them, default is 16" )
+    private int sstableBuffer;
+
+    @Option( name = "--jdbcUrl",
+             usage = "Migrate and import: write the path map to this database instead of to cassandra, with its JDBC driver on the class path" )
+    private String jdbcUrl;
+
+    @Option( name = "--jdbcUser", usage = "Migrate and import: user of the database" )
+    private String jdbcUser;
+
+    @Option( name = "--jdbcPassword", usage = "Migrate and import: password of the database" )
+    private String jdbcPassword;
+
+    @Option( name = "--jdbcBatchSize",
+             usage = "Migrate and import: files written to the database in one batch at most, default is 500" )
+    private int jdbcBatchSize;
+
+    @Option( name = "--jdbcPoolSize",
+             usage = "Migrate and import: connections to the database, which is the batches written at the same time, default is 4" )
+    private int jdbcPoolSize;
+
+    @Argument( index = 0, metaVar = "command",
+               usage = "Name of command to run, use scan | migrate | index | verify | export | import | resume" )
     private String command;
 
     public boolean isHelp()
@@ -141,6 +290,76 @@ public class MigrateOptions
         this.filterPattern = filterPattern;
     }
 
+    public List<String> getPriorityStores()
+    {
+        return splitList( priorityStores );
+    }
+
+    public void setPriorityStores( String priorityStores )
+    {
+        this.priorityStores = priorityStores;
+    }
+
+    public List<String> getPriorityTypes()
+    {
+        return splitList( priorityTypes );
+    }
+
+    public void setPriorityTypes( String priorityTypes )
+    {
+        this.priorityTypes = priorityTypes;
+    }
+
+    public List<String> getAccessLogs()
+    {
+        return splitList( accessLogs );
+    }
+
+    public void setAccessLogs( String accessLogs )
+    {
+        this.accessLogs = accessLogs;
+    }
+
+    /**
+     * @return true if scan orders the stores by priority, into todo files of their own
+     */
+    public boolean isPrioritized()
+    {
+        return !getPriorityStores().isEmpty() || !getPriorityTypes().isEmpty() || !getAccessLogs().isEmpty();
+    }
+
+    public StorePriority getStorePriority()
+            throws MigrateException
+    {
+        final List<Path> logs = new ArrayList<>();
+        getAccessLogs().forEach( log -> logs.add( Paths.get( log ) ) );
+        try
+        {
+            return new StorePriority( getPriorityStores(), getPriorityTypes(), StorePriority.countHits( logs ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not read access logs {}: {}", e, getAccessLogs(),
+                                        e.getMessage() );
+        }
+    }
+
+    private static List<String> splitList( final String list )
+    {
+        final List<String> values = new ArrayList<>();
+        if ( StringUtils.isNotBlank( list ) )
+        {
+            for ( String value : list.split( "," ) )
+            {
+                if ( StringUtils.isNotBlank( value ) )
+                {
+                    values.add( value.trim() );
+                }
+            }
+        }
+        return values;
+    }
+
     public int getBatchSize()
     {
         return batchSize <= 0 ? DEFAULT_BATCH_SIZE : batchSize;
@@ -171,6 +390,69 @@ public class MigrateOptions
         this.dedupeAlgorithm = dedupeAlgorithm;
     }
 
+    public List<String> getDedupeAlgorithms()
+    {
+        final List<String> algorithms = new ArrayList<>( 3 );
+        for ( String algorithm : getDedupeAlgorithm().split( "," ) )
+        {
+            if ( StringUtils.isNotBlank( algorithm ) && !algorithms.contains( algorithm.trim().toUpperCase() ) )
+            {
+                algorithms.add( algorithm.trim().toUpperCase() );
+            }
+        }
+        return algorithms;
+    }
+
+    public int getDigestLanes()
+    {
+        return digestLanes <= 0 ? 1 : digestLanes;
+    }
+
+    public void setDigestLanes( int digestLanes )
+    {
+        this.digestLanes = digestLanes;
+    }
+
+    public long getMmapThreshold()
+    {
+        return mmapThreshold <= 0 ? 0 : mmapThreshold;
+    }
+
+    public void setMmapThreshold( long mmapThreshold )
+    {
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    public boolean isChecksumCache()
+    {
+        return checksumCache;
+    }
+
+    public void setChecksumCache( boolean checksumCache )
+    {
+        this.checksumCache = checksumCache;
+    }
+
+    public boolean isSidecarChecksum()
+    {
+        return sidecarChecksum;
+    }
+
+    public void setSidecarChecksum( boolean sidecarChecksum )
+    {
+        this.sidecarChecksum = sidecarChecksum;
+    }
+
+    public double getSidecarVerifyRate()
+    {
+        return sidecarVerifyRate <= 0 ? 0 : Math.min( 1, sidecarVerifyRate );
+    }
+
+    public void setSidecarVerifyRate( double sidecarVerifyRate )
+    {
+        this.sidecarVerifyRate = sidecarVerifyRate;
+    }
+
     public void setMigrator( CassandraMigrator migrator )
     {
         this.migrator = migrator;
@@ -236,6 +518,75 @@ public class MigrateOptions
         this.cassandraKeyspace = cassandraKeyspace;
     }
 
+    /**
+     * @return the driver profile from the file of --driverProfile, if any, with the single driver options applied
+     */
+    public DriverProfile getDriverProfile()
+            throws MigrateException
+    {
+        final DriverProfile profile = driverProfile == null ? new DriverProfile() : DriverProfile.load( driverProfile );
+        if ( connectionsPerHost > 0 )
+        {
+            profile.set( DriverProfile.CONNECTIONS_PER_HOST, String.valueOf( connectionsPerHost ) );
+        }
+        if ( maxRequestsPerConnection > 0 )
+        {
+            profile.set( DriverProfile.MAX_REQUESTS_PER_CONNECTION, String.valueOf( maxRequestsPerConnection ) );
+        }
+        if ( StringUtils.isNotBlank( compression ) )
+        {
+            profile.set( DriverProfile.COMPRESSION, compression );
+        }
+        if ( StringUtils.isNotBlank( consistency ) )
+        {
+            profile.set( DriverProfile.CONSISTENCY, consistency );
+        }
+        if ( fetchSize > 0 )
+        {
+            profile.set( DriverProfile.FETCH_SIZE, String.valueOf( fetchSize ) );
+        }
+        if ( speculativeDelay > 0 )
+        {
+            profile.set( DriverProfile.SPECULATIVE_DELAY, String.valueOf( speculativeDelay ) );
+        }
+        return profile;
+    }
+
+    public void setDriverProfile( File driverProfile )
+    {
+        this.driverProfile = driverProfile;
+    }
+
+    public void setConnectionsPerHost( int connectionsPerHost )
+    {
+        this.connectionsPerHost = connectionsPerHost;
+    }
+
+    public void setMaxRequestsPerConnection( int maxRequestsPerConnection )
+    {
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    public void setCompression( String compression )
+    {
+        this.compression = compression;
+    }
+
+    public void setConsistency( String consistency )
+    {
+        this.consistency = consistency;
+    }
+
+    public void setFetchSize( int fetchSize )
+    {
+        this.fetchSize = fetchSize;
+    }
+
+    public void setSpeculativeDelay( long speculativeDelay )
+    {
+        this.speculativeDelay = speculativeDelay;
+    }
+
     public int getThreads()
     {
         return threads <= 0 ? 1 : threads;
@@ -246,6 +597,125 @@ public class MigrateOptions
         this.threads = threads;
     }
 
+    public int getStatThreads()
+    {
+        return statThreads <= 0 ? getThreads() : statThreads;
+    }
+
+    public void setStatThreads( int statThreads )
+    {
+        this.statThreads = statThreads;
+    }
+
+    public int getChecksumThreads()
+    {
+        return checksumThreads <= 0 ? Runtime.getRuntime().availableProcessors() : checksumThreads;
+    }
+
+    public void setChecksumThreads( int checksumThreads )
+    {
+        this.checksumThreads = checksumThreads;
+    }
+
+    public int getWriteThreads()
+    {
+        return writeThreads <= 0 ? getThreads() : writeThreads;
+    }
+
+    public void setWriteThreads( int writeThreads )
+    {
+        this.writeThreads = writeThreads;
+    }
+
+    public int getQueueSize()
+    {
+        return queueSize <= 0 ? DEFAULT_QUEUE_SIZE : queueSize;
+    }
+
+    public void setQueueSize( int queueSize )
+    {
+        this.queueSize = queueSize;
+    }
+
+    public boolean isSkipMigrated()
+    {
+        return skipMigrated;
+    }
+
+    public void setSkipMigrated( boolean skipMigrated )
+    {
+        this.skipMigrated = skipMigrated;
+    }
+
+    public boolean isSkipMigratedFromDB()
+    {
+        return skipMigratedFromDB;
+    }
+
+    public void setSkipMigratedFromDB( boolean skipMigratedFromDB )
+    {
+        this.skipMigratedFromDB = skipMigratedFromDB;
+    }
+
+    public String getOwner()
+    {
+        return owner;
+    }
+
+    public void setOwner( String owner )
+    {
+        this.owner = owner;
+    }
+
+    public boolean isLeased()
+    {
+        return !isBlank( owner );
+    }
+
+    public int getLeaseTimeout()
+    {
+        return leaseTimeout <= 0 ? DEFAULT_LEASE_TIMEOUT : leaseTimeout;
+    }
+
+    public void setLeaseTimeout( int leaseTimeout )
+    {
+        this.leaseTimeout = leaseTimeout;
+    }
+
+    public double getTraceRate()
+    {
+        return traceRate <= 0 ? 0 : Math.min( 1, traceRate );
+    }
+
+    public void setTraceRate( double traceRate )
+    {
+        this.traceRate = traceRate;
+    }
+
+    public int getTraceThreshold()
+    {
+        return traceThreshold <= 0 ? 0 : traceThreshold;
+    }
+
+    public void setTraceThreshold( int traceThreshold )
+    {
+        this.traceThreshold = traceThreshold;
+    }
+
+    public boolean isTraced()
+    {
+        return getTraceRate() > 0 || getTraceThreshold() > 0;
+    }
+
+    /**
+     * A file of the work dir which each migrate process writes for itself, named after its owner when it shares the
+     * work dir.
+     */
+    public File getMigrateFile( final String name )
+    {
+        return Paths.get( getWorkDir(), isLeased() ? name + "." + owner : name ).toFile();
+    }
+
     public String getIndexEnable()
     {
         return StringUtils.isBlank( indexEnable ) ? "true" : indexEnable.trim().toLowerCase();
@@ -276,6 +746,156 @@ public class MigrateOptions
         this.indyCacheTable = indyCacheTable;
     }
 
+    public int getGaFlushInterval()
+    {
+        return gaFlushInterval <= 0 ? DEFAULT_GA_FLUSH_INTERVAL : gaFlushInterval;
+    }
+
+    public void setGaFlushInterval( int gaFlushInterval )
+    {
+        this.gaFlushInterval = gaFlushInterval;
+    }
+
+    public int getGaMaxPending()
+    {
+        return gaMaxPending <= 0 ? DEFAULT_GA_MAX_PENDING : gaMaxPending;
+    }
+
+    public void setGaMaxPending( int gaMaxPending )
+    {
+        this.gaMaxPending = gaMaxPending;
+    }
+
+    public boolean isIndexDumpOnly()
+    {
+        return indexDumpOnly;
+    }
+
+    public void setIndexDumpOnly( boolean indexDumpOnly )
+    {
+        this.indexDumpOnly = indexDumpOnly;
+    }
+
+    public double getVerifySampleRate()
+    {
+        return verifySampleRate <= 0 ? 0 : Math.min( 1, verifySampleRate );
+    }
+
+    public void setVerifySampleRate( double verifySampleRate )
+    {
+        this.verifySampleRate = verifySampleRate;
+    }
+
+    public String getExportDir()
+    {
+        return isBlank( exportDir ) ? Paths.get( getWorkDir(), EXPORT_DIR ).toAbsolutePath().toString() : exportDir;
+    }
+
+    public void setExportDir( String exportDir )
+    {
+        this.exportDir = exportDir;
+    }
+
+    public boolean isForce()
+    {
+        return force;
+    }
+
+    public void setForce( boolean force )
+    {
+        this.force = force;
+    }
+
+    public String getSSTableDir()
+    {
+        return sstableDir;
+    }
+
+    public void setSSTableDir( String sstableDir )
+    {
+        this.sstableDir = sstableDir;
+    }
+
+    public boolean isSSTableOutput()
+    {
+        return !isBlank( sstableDir );
+    }
+
+    public int getSSTableRanges()
+    {
+        return sstableRanges <= 0 ? getWriteThreads() : sstableRanges;
+    }
+
+    public void setSSTableRanges( int sstableRanges )
+    {
+        this.sstableRanges = sstableRanges;
+    }
+
+    public int getSSTableBuffer()
+    {
+        return sstableBuffer <= 0 ? DEFAULT_SSTABLE_BUFFER : sstableBuffer;
+    }
+
+    public void setSSTableBuffer( int sstableBuffer )
+    {
+        this.sstableBuffer = sstableBuffer;
+    }
+
+    public String getJdbcUrl()
+    {
+        return jdbcUrl;
+    }
+
+    public void setJdbcUrl( String jdbcUrl )
+    {
+        this.jdbcUrl = jdbcUrl;
+    }
+
+    public boolean isJdbcOutput()
+    {
+        return !isBlank( jdbcUrl );
+    }
+
+    public String getJdbcUser()
+    {
+        return jdbcUser;
+    }
+
+    public void setJdbcUser( String jdbcUser )
+    {
+        this.jdbcUser = jdbcUser;
+    }
+
+    public String getJdbcPassword()
+    {
+        return jdbcPassword;
+    }
+
+    public void setJdbcPassword( String jdbcPassword )
+    {
+        this.jdbcPassword = jdbcPassword;
+    }
+
+    public int getJdbcBatchSize()
+    {
+        return jdbcBatchSize <= 0 ? DEFAULT_JDBC_BATCH_SIZE : jdbcBatchSize;
+    }
+
+    public void setJdbcBatchSize( int jdbcBatchSize )
+    {
+        this.jdbcBatchSize = jdbcBatchSize;
+    }
+
+    public int getJdbcPoolSize()
+    {
+        return jdbcPoolSize <= 0 ? DEFAULT_JDBC_POOL_SIZE : jdbcPoolSize;
+    }
+
+    public void setJdbcPoolSize( int jdbcPoolSize )
+    {
+        this.jdbcPoolSize = jdbcPoolSize;
+    }
+
     public boolean parseArgs( final String[] args )
     {
         final CmdLineParser parser = new CmdLineParser( this );
@@ -302,9 +922,11 @@ public class MigrateOptions
             return false;
         }
         final String cmd = getCommand().toLowerCase().trim();
-        if ( !cmd.equals( Util.CMD_SCAN ) && !cmd.equals( Util.CMD_MIGRATE ) )
+        if ( !cmd.equals( Util.CMD_SCAN ) && !cmd.equals( Util.CMD_MIGRATE ) && !cmd.equals( Util.CMD_INDEX )
+                && !cmd.equals( Util.CMD_VERIFY ) && !cmd.equals( Util.CMD_EXPORT ) && !cmd.equals( Util.CMD_IMPORT ) )
         {
-            printInfo( String.format( "Invalid command %s, use scan | migrate | resume", cmd ) );
+            printInfo( String.format( "Invalid command %s, use scan | migrate | index | verify | export | import | resume",
+                                      cmd ) );
             return false;
         }
 
@@ -322,26 +944,112 @@ public class MigrateOptions
             printInfo( String.format( "Filter pattern for unwanted files: %s", getFilterPattern() ) );
             printInfo( String.format( "Threads will run concurrently to scan against repos for pkg types: %s",
                                       getThreads() ) );
+            printInfo( String.format( "Will order stores by priority? %s", isPrioritized() ) );
+            if ( isPrioritized() )
+            {
+                printInfo( String.format( "Stores migrated first: %s", getPriorityStores() ) );
+                printInfo( String.format( "Order of repo types: %s", getPriorityTypes() ) );
+                printInfo( String.format( "Access logs for the requests of stores: %s", getAccessLogs() ) );
+            }
         }
 
         if ( getCommand().equals( CMD_MIGRATE ) )
         {
+            printSSTableInfo();
+            printJdbcInfo();
             printInfo( String.format( "Cassandra server host: %s", getCassandraHost() ) );
             printInfo( String.format( "Cassandra server port: %s", getCassandraPort() ) );
             printInfo( String.format( "Cassandra server username: %s", getCassandraUser() ) );
             printInfo( String.format( "Cassandra server keyspace: %s", getCassandraKeyspace() ) );
+            printInfo( String.format( "Cassandra driver profile: %s", describeDriverProfile() ) );
             printInfo( String.format( "Will use checksum to dedupe files? %s", isDedupe() ) );
             if ( isDedupe() )
             {
-                printInfo( String.format( "Checksum algorithm for dedupe: %s", getDedupeAlgorithm() ) );
+                printInfo( String.format( "Checksum algorithms for dedupe: %s", getDedupeAlgorithms() ) );
+                printInfo( String.format( "Digest lanes for checksum: %s", getDigestLanes() ) );
+                printInfo( String.format( "Memory map threshold in MB for checksum: %s", getMmapThreshold() ) );
+                printInfo( String.format( "Will use checksum cache file? %s", isChecksumCache() ) );
+                printInfo( String.format( "Will use checksum sidecar files? %s", isSidecarChecksum() ) );
+                if ( isSidecarChecksum() )
+                {
+                    printInfo( String.format( "Verify rate of sidecar checksums: %s", getSidecarVerifyRate() ) );
+                }
+            }
+            printInfo( String.format( "Owner sharing the todo files with other processes: %s", getOwner() ) );
+            if ( isLeased() )
+            {
+                printInfo( String.format( "Seconds after which todo files of a silent owner are taken back: %s",
+                                          getLeaseTimeout() ) );
+            }
+            printInfo( String.format( "Fraction of paths traced: %s", getTraceRate() ) );
+            printInfo( String.format( "Milliseconds after which a path is traced: %s", getTraceThreshold() ) );
+            printInfo( String.format( "Will skip paths migrated before? %s", isSkipMigrated() ) );
+            if ( isSkipMigrated() )
+            {
+                printInfo( String.format( "Will add the files in the path map to the filter of migrated paths? %s",
+                                          isSkipMigratedFromDB() ) );
             }
             printInfo( String.format( "Will do index for GA cache table? %s", getIndexEnable() ) );
             if ( "true".equals( getIndexEnable() ) )
             {
                 printInfo( String.format( "Store patterns for GA cache: %s", getIndexGAStorePattern() ) );
                 printInfo( String.format( "The cassandra cache table for GA cache: %s", getIndyCacheTable() ) );
+                printInfo( String.format( "Seconds between GA cache flushes: %s", getGaFlushInterval() ) );
+                printInfo( String.format( "Max pending GA cache entries: %s", getGaMaxPending() ) );
             }
             printInfo( String.format( "Threads which will run migrating concurrently: %s", getThreads() ) );
+            printInfo( String.format( "Threads of stat stage: %s", getStatThreads() ) );
+            if ( isDedupe() )
+            {
+                printInfo( String.format( "Threads of checksum stage: %s", getChecksumThreads() ) );
+            }
+            printInfo( String.format( "Threads of write stage: %s", getWriteThreads() ) );
+            printInfo( String.format( "Queue size of each stage: %s", getQueueSize() ) );
+        }
+
+        if ( getCommand().equals( CMD_INDEX ) )
+        {
+            printInfo( String.format( "Store patterns for GA cache: %s", getIndexGAStorePattern() ) );
+            printInfo( String.format( "Will only write GA index to dump file? %s", isIndexDumpOnly() ) );
+            if ( !isIndexDumpOnly() )
+            {
+                printInfo( String.format( "Cassandra server host: %s", getCassandraHost() ) );
+                printInfo( String.format( "Cassandra server port: %s", getCassandraPort() ) );
+                printInfo( String.format( "The cassandra cache table for GA cache: %s", getIndyCacheTable() ) );
+            }
+            printInfo( String.format( "Threads which will read paths files concurrently: %s", getThreads() ) );
+        }
+
+        if ( getCommand().equals( CMD_VERIFY ) )
+        {
+            printInfo( String.format( "Cassandra server host: %s", getCassandraHost() ) );
+            printInfo( String.format( "Cassandra server port: %s", getCassandraPort() ) );
+            printInfo( String.format( "Cassandra server keyspace: %s", getCassandraKeyspace() ) );
+            printInfo( String.format( "Cassandra driver profile: %s", describeDriverProfile() ) );
+            printInfo( String.format( "Sample rate of files to re-hash: %s", getVerifySampleRate() ) );
+            if ( getVerifySampleRate() > 0 )
+            {
+                printInfo( String.format( "Checksum algorithm to re-hash: %s", getDedupeAlgorithms().get( 0 ) ) );
+            }
+            printInfo( String.format( "Threads which will verify concurrently: %s", getThreads() ) );
+        }
+
+        if ( getCommand().equals( CMD_EXPORT ) || getCommand().equals( CMD_IMPORT ) )
+        {
+            printInfo( String.format( "Cassandra server host: %s", getCassandraHost() ) );
+            printInfo( String.format( "Cassandra server port: %s", getCassandraPort() ) );
+            printInfo( String.format( "Cassandra server keyspace: %s", getCassandraKeyspace() ) );
+            printInfo( String.format( "Cassandra driver profile: %s", describeDriverProfile() ) );
+            printInfo( String.format( "Dir of the exported path map: %s", getExportDir() ) );
+            printInfo( String.format( "Threads which will scan or read shards concurrently: %s", getThreads() ) );
+            if ( getCommand().equals( CMD_IMPORT ) )
+            {
+                printSSTableInfo();
+                printJdbcInfo();
+                printInfo( String.format( "Threads of write stage: %s", getWriteThreads() ) );
+                printInfo( String.format( "Import an export without manifest: %s", isForce() ) );
+                printInfo( String.format( "Queue size of write stage: %s", getQueueSize() ) );
+            }
         }
 
         newLine();
@@ -353,12 +1061,56 @@ public class MigrateOptions
 
         if ( getCommand().equals( CMD_MIGRATE ) )
         {
-            return validateBaseDir() && validateTodoDir() && validateCassandra();
+            return validateBaseDir() && validateOwner() && validateTodoDir() && validateSSTable() && validateJdbc() && validateCassandra();
+        }
+
+        if ( getCommand().equals( CMD_INDEX ) )
+        {
+            return validateIndex();
+        }
+
+        if ( getCommand().equals( CMD_VERIFY ) )
+        {
+            return validateBaseDir() && validateVerify();
+        }
+
+        if ( getCommand().equals( CMD_EXPORT ) && isBlank( getCassandraKeyspace() ) )
+        {
+            printInfo( "Validation failed: export needs the keyspace of the path map (-k)." );
+            return false;
+        }
+
+        if ( getCommand().equals( CMD_IMPORT ) )
+        {
+            return validateImport() && validateSSTable() && validateJdbc() && validateCassandra();
         }
 
         return true;
     }
 
+    private void printSSTableInfo()
+    {
+        printInfo( String.format( "Will write SSTables instead of to cassandra? %s", isSSTableOutput() ) );
+        if ( isSSTableOutput() )
+        {
+            printInfo( String.format( "Dir of the SSTables: %s", getSSTableDir() ) );
+            printInfo( String.format( "Token ranges of the SSTables: %s", getSSTableRanges() ) );
+            printInfo( String.format( "MB of rows each SSTable writer buffers: %s", getSSTableBuffer() ) );
+        }
+    }
+
+    private void printJdbcInfo()
+    {
+        printInfo( String.format( "Will write to a database instead of to cassandra? %s", isJdbcOutput() ) );
+        if ( isJdbcOutput() )
+        {
+            printInfo( String.format( "JDBC url of the database: %s", getJdbcUrl() ) );
+            printInfo( String.format( "JDBC user of the database: %s", getJdbcUser() ) );
+            printInfo( String.format( "Files written to the database in one batch: %s", getJdbcBatchSize() ) );
+            printInfo( String.format( "Connections to the database: %s", getJdbcPoolSize() ) );
+        }
+    }
+
     private boolean validateBaseDir()
     {
         Path basePath = Paths.get( getBaseDir() );
@@ -397,6 +1149,17 @@ public class MigrateOptions
         return true;
     }
 
+    private boolean validateOwner()
+    {
+        if ( isLeased() && !owner.matches( "[A-Za-z0-9_.-]+" ) )
+        {
+            printInfo( String.format( "Validation failed: owner %s may only have letters, digits, '.', '_' and '-'.",
+                                      owner ) );
+            return false;
+        }
+        return true;
+    }
+
     private boolean validateTodoDir()
     {
         Path todoPath = Paths.get( getToDoDir() );
@@ -421,6 +1184,20 @@ public class MigrateOptions
             return false;
         }
 
+        if ( isLeased() && Files.isDirectory( Paths.get( getInProgressDir() ) ) )
+        {
+            // the files claimed by other owners may come back to todo
+            try (Stream<Path> claimed = Files.walk( Paths.get( getInProgressDir() ), 2 ))
+            {
+                claimed.filter( MigrateCmd.WORKING_FILES_FILTER ).forEach( p -> todoFilesCount.getAndIncrement() );
+            }
+            catch ( IOException e )
+            {
+                printInfo( String.format( "Error: Can not list dir %s", getInProgressDir() ) );
+                return false;
+            }
+        }
+
         if ( todoFilesCount.get() <= 0 )
         {
             printInfo(
@@ -431,8 +1208,135 @@ public class MigrateOptions
         return true;
     }
 
+    private String describeDriverProfile()
+    {
+        try
+        {
+            return getDriverProfile().toString();
+        }
+        catch ( MigrateException e )
+        {
+            return e.getMessage();
+        }
+    }
+
+    private boolean validateIndex()
+    {
+        if ( isBlank( getIndexGAStorePattern() ) )
+        {
+            printInfo( "Validation failed: index needs the store pattern of the GA cache (-g)." );
+            return false;
+        }
+        if ( !isIndexDumpOnly() && isBlank( getIndyCacheTable() ) )
+        {
+            printInfo( "Validation failed: index needs the GA cache table (-c) unless --indexDumpOnly is set." );
+            return false;
+        }
+        try
+        {
+            if ( IndexCmd.listPathsFiles( this ).isEmpty() )
+            {
+                printInfo( "Error: There are no maven paths files in todo or processed folder of work dir, please use "
+                                   + "'scan' command first to generate them." );
+                return false;
+            }
+        }
+        catch ( MigrateException e )
+        {
+            printInfo( e.getMessage() );
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validateVerify()
+    {
+        if ( isBlank( getCassandraKeyspace() ) )
+        {
+            printInfo( "Validation failed: verify needs the keyspace of the path map (-k)." );
+            return false;
+        }
+        try
+        {
+            if ( IndexCmd.listPathsFiles( this, MigrateCmd.WORKING_FILES_FILTER ).isEmpty() )
+            {
+                printInfo( "Error: There are no paths files in todo or processed folder of work dir, please use "
+                                   + "'scan' command first to generate them." );
+                return false;
+            }
+        }
+        catch ( MigrateException e )
+        {
+            printInfo( e.getMessage() );
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validateImport()
+    {
+        try
+        {
+            if ( ExportCmd.listShards( new File( getExportDir() ) ).isEmpty() )
+            {
+                printInfo( String.format( "Error: There are no exported shards in %s, please use 'export' command "
+                                                  + "first to generate them.", getExportDir() ) );
+                return false;
+            }
+            // export writes the manifest last, so without one it did not finish
+            if ( !new File( getExportDir(), ExportCmd.MANIFEST ).exists() && !isForce() )
+            {
+                printInfo( String.format( "Error: There is no manifest in %s, the export may be incomplete. Please "
+                                                  + "export again, or use --force to import the shards anyway.",
+                                          getExportDir() ) );
+                return false;
+            }
+        }
+        catch ( IOException e )
+        {
+            printInfo( String.format( "Error: Can not list dir %s", getExportDir() ) );
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validateSSTable()
+    {
+        if ( isSSTableOutput() && isBlank( getCassandraKeyspace() ) )
+        {
+            printInfo( "Validation failed: SSTables need the keyspace of the path map (-k)." );
+            return false;
+        }
+        if ( isSSTableOutput() && "true".equals( getIndexEnable() ) && !getIndyCacheTable().contains( "." ) )
+        {
+            printInfo( "Validation failed: SSTables need the keyspace of the GA cache table (-c keyspace.table)." );
+            return false;
+        }
+        return true;
+    }
+
+    private boolean validateJdbc()
+    {
+        if ( isJdbcOutput() && isSSTableOutput() )
+        {
+            printInfo( "Validation failed: a database (--jdbcUrl) and SSTables (--sstableDir) can not both be written." );
+            return false;
+        }
+        return true;
+    }
+
     private CassandraMigrator migrator;
 
+    private MigrateTarget target;
+
+    /**
+     * Write to this target instead of the one the options name, like an in-memory one of a load test.
+     */
+    void setTarget( final MigrateTarget target )
+    {
+        this.target = target;
+    }
+
     public boolean validateCassandra()
     {
         try
@@ -475,11 +1379,13 @@ public class MigrateOptions
                 cassandraProps.put( PROP_CASSANDRA_PASS, getCassandraPass() );
             }
 
+            ChecksumEngine checksumEngine = null;
             if ( isDedupe() )
             {
                 try
                 {
-                    new ChecksumCalculator( getDedupeAlgorithm() ); // verify algo
+                    checksumEngine = new ChecksumEngine( getDedupeAlgorithms(), ChecksumEngine.DEFAULT_BUFFER_SIZE,
+                                                         getMmapThreshold() * 1024 * 1024, getDigestLanes() );
                 }
                 catch ( NoSuchAlgorithmException e )
                 {
@@ -487,11 +1393,91 @@ public class MigrateOptions
                             String.format( "Error: checksum algorithm not supported: %s", getDedupeAlgorithm() ), e );
                 }
             }
+            ChecksumCache checksumCache = null;
+            if ( checksumEngine != null && isChecksumCache() )
+            {
+                final File cacheFile = getMigrateFile( CHECKSUM_CACHE_FILE );
+                try
+                {
+                    checksumCache = ChecksumCache.open( cacheFile, String.join( ",", checksumEngine.getAlgorithms() ),
+                                                        checksumEngine.getDigestLength() );
+                }
+                catch ( IOException e )
+                {
+                    throw new MigrateException(
+                            String.format( "Error: can not open checksum cache %s: %s", cacheFile, e.getMessage() ),
+                            e );
+                }
+            }
             boolean isIndexEnabled = Boolean.parseBoolean( this.getIndexEnable() );
             CassandraMigrator.GACacheOptions cacheOptions =
                     new CassandraMigrator.GACacheOptions( isIndexEnabled, this.getIndexGAStorePattern(),
-                                                          this.getIndyCacheTable(), Paths.get( getWorkDir(), GA_CACHE_DUMP ).toFile() );
-            migrator = CassandraMigrator.getMigrator( cassandraProps, getBaseDir(), isDedupe(), getDedupeAlgorithm(), cacheOptions );
+                                                          this.getIndyCacheTable(), getMigrateFile( GA_CACHE_DUMP ),
+                                                          getGaFlushInterval() * 1000L, getGaMaxPending() );
+            DedupeIndex dedupeIndex = null;
+            if ( checksumEngine != null )
+            {
+                final File duplicatesFile = getMigrateFile( DEDUPE_DUPLICATES_FILE );
+                try
+                {
+                    dedupeIndex = new DedupeIndex( duplicatesFile, getMigrateFile( DEDUPE_PRIMARIES_FILE ) );
+                    // every owner's primaries, so a rerun or another process points copies to them again
+                    final File[] primaries = new File( getWorkDir() ).listFiles(
+                            ( dir, name ) -> name.startsWith( DEDUPE_PRIMARIES_FILE ) );
+                    if ( primaries != null )
+                    {
+                        for ( File file : primaries )
+                        {
+                            printInfo( String.format( "Dedupe: loaded %s files from %s", dedupeIndex.load( file ),
+                                                      file ) );
+                        }
+                    }
+                }
+                catch ( IOException e )
+                {
+                    throw new MigrateException(
+                            String.format( "Error: can not open dedupe log %s: %s", duplicatesFile, e.getMessage() ),
+                            e );
+                }
+            }
+            SidecarChecksums sidecarChecksums = null;
+            if ( checksumEngine != null && isSidecarChecksum() )
+            {
+                sidecarChecksums = new SidecarChecksums( checksumEngine, getSidecarVerifyRate() );
+                if ( !sidecarChecksums.isSupported() )
+                {
+                    printInfo( String.format( "Warning: no sidecar files known for algorithms %s, will calculate them",
+                                              checksumEngine.getAlgorithms() ) );
+                    sidecarChecksums = null;
+                }
+            }
+            CassandraMigrator.DedupeOptions dedupeOptions =
+                    new CassandraMigrator.DedupeOptions( checksumEngine, checksumCache, dedupeIndex,
+                                                         sidecarChecksums );
+            final MigrateTarget target;
+            if ( this.target != null )
+            {
+                target = this.target;
+            }
+            else if ( isJdbcOutput() )
+            {
+                target = new JdbcTarget( getJdbcUrl(), getJdbcUser(), getJdbcPassword(),
+                                         isIndexEnabled ? getIndyCacheTable().replace( '.', '_' ) : null,
+                                         getJdbcBatchSize(), getJdbcPoolSize(), getWriteThreads() );
+            }
+            else if ( isSSTableOutput() )
+            {
+                target = new SSTableSink( new File( getSSTableDir() ), getCassandraKeyspace(),
+                                          isIndexEnabled ? getIndyCacheTable() : null, getSSTableRanges(),
+                                          getSSTableBuffer() );
+            }
+            else
+            {
+                target = new CassandraTarget( cassandraProps, new CassandraSessionFactory( this ),
+                                              isIndexEnabled ? getIndyCacheTable() : null,
+                                              checksumEngine != null && checksumEngine.getAlgorithms().size() > 1 );
+            }
+            migrator = CassandraMigrator.getMigrator( target, getBaseDir(), dedupeOptions, cacheOptions );
         }
     }
 
@@ -510,6 +1496,8 @@ public class MigrateOptions
         // of the terminal.
         parser.setUsageWidth(
                 ( System.getenv( "COLUMNS" ) == null ? 100 : Integer.parseInt( System.getenv( "COLUMNS" ) ) ) );
+        // printed directly, after what was queued before
+        flushLog();
         parser.printUsage( System.out );
         newLine();
     }
@@ -529,6 +1517,11 @@ public class MigrateOptions
         return Paths.get( getWorkDir(), PROCESSED_FILES_DIR ).toAbsolutePath().toString();
     }
 
+    public String getInProgressDir()
+    {
+        return Paths.get( getWorkDir(), INPROGRESS_FILES_DIR ).toAbsolutePath().toString();
+    }
+
     public File getStatusFile()
             throws IOException
     {
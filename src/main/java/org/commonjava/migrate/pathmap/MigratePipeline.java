@@ -0,0 +1,391 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Runs migrating as three stages, each with its own thread pool: stat (file system metadata, I/O bound), checksum
+ * (CPU bound, only when dedupe is enabled) and write (path db, network bound). Stages are connected by bounded queues;
+ * a full queue blocks the upstream stage so memory stays bounded while every pool can be sized for its own resource.
+ */
+public class MigratePipeline
+{
+    /**
+     * The work done by each stage for one path.
+     */
+    public interface Stages
+    {
+        /**
+         * @param listing paths scanned together with this one, e.g. to find files next to it; may be null
+         */
+        MigrateEntry stat( String physicalPath, Set<String> listing )
+                throws MigrateException;
+
+        boolean needsChecksum();
+
+        void checksum( MigrateEntry entry )
+                throws MigrateException;
+
+        void write( MigrateEntry entry )
+                throws MigrateException;
+    }
+
+    /**
+     * Receives the final result of every submitted path.
+     */
+    public interface Listener
+    {
+        void succeeded( MigrateEntry entry );
+
+        void failed( String physicalPath, MigrateException error );
+    }
+
+    static final String STAGE_STAT = "stat";
+
+    static final String STAGE_CHECKSUM = "checksum";
+
+    static final String STAGE_WRITE = "write";
+
+    private final Stages stages;
+
+    private final Listener listener;
+
+    private final Stage statStage;
+
+    private final Stage checksumStage;
+
+    private final Stage writeStage;
+
+    private final PathTracer tracer;
+
+    public MigratePipeline( final Stages stages, final Listener listener, final int statThreads,
+                            final int checksumThreads, final int writeThreads, final int queueSize )
+    {
+        this( stages, listener, statThreads, checksumThreads, writeThreads, queueSize, null );
+    }
+
+    /**
+     * @param tracer gets the time of the steps of every path when it is done, null to trace nothing
+     */
+    public MigratePipeline( final Stages stages, final Listener listener, final int statThreads,
+                            final int checksumThreads, final int writeThreads, final int queueSize,
+                            final PathTracer tracer )
+    {
+        this.stages = stages;
+        this.listener = listener;
+        this.tracer = tracer;
+        this.statStage = new Stage( STAGE_STAT, statThreads, queueSize );
+        this.checksumStage = stages.needsChecksum() ? new Stage( STAGE_CHECKSUM, checksumThreads, queueSize ) : null;
+        this.writeStage = new Stage( STAGE_WRITE, writeThreads, queueSize );
+    }
+
+    /**
+     * Queue a physical path for migrating. Blocks when the stat stage queue is full.
+     */
+    public void submit( final String physicalPath )
+    {
+        submit( physicalPath, null );
+    }
+
+    /**
+     * Queue a physical path for migrating together with the paths it was scanned with. Blocks when the stat stage
+     * queue is full.
+     */
+    public void submit( final String physicalPath, final Set<String> listing )
+    {
+        final long submitted = System.nanoTime();
+        statStage.execute( () -> {
+            final long start = System.nanoTime();
+            final MigrateEntry entry;
+            try
+            {
+                entry = stages.stat( physicalPath, listing );
+            }
+            catch ( MigrateException | RuntimeException e )
+            {
+                final MigrateException error = asMigrateException( physicalPath, e );
+                if ( tracer != null )
+                {
+                    tracer.recordStatFailure( physicalPath, start - submitted, System.nanoTime() - start,
+                                              error.getMessage() );
+                }
+                listener.failed( physicalPath, error );
+                return null;
+            }
+            final long end = System.nanoTime();
+            entry.started( submitted );
+            entry.addNanos( PathTracer.Step.QUEUE, start - submitted );
+            entry.addNanos( PathTracer.Step.STAT, end - start );
+            entry.queued( end );
+            if ( checksumStage != null )
+            {
+                return () -> checksumStage.execute( () -> checksum( entry ) );
+            }
+            return () -> writeStage.execute( () -> write( entry ) );
+        } );
+    }
+
+    /**
+     * Queue an entry which needs no stat and no checksum, like a row of an export, straight for the write stage.
+     * Blocks when the write stage queue is full.
+     */
+    public void submitWrite( final MigrateEntry entry )
+    {
+        final long submitted = System.nanoTime();
+        entry.started( submitted );
+        entry.queued( submitted );
+        writeStage.execute( () -> write( entry ) );
+    }
+
+    /**
+     * @return the handoff of the entry to the write stage, or null if it failed
+     */
+    private Runnable checksum( final MigrateEntry entry )
+    {
+        final long start = System.nanoTime();
+        entry.dequeued( start );
+        try
+        {
+            stages.checksum( entry );
+        }
+        catch ( MigrateException | RuntimeException e )
+        {
+            failed( entry, asMigrateException( entry.getPhysicalPath(), e ) );
+            return null;
+        }
+        final long end = System.nanoTime();
+        entry.addNanos( PathTracer.Step.CHECKSUM, end - start );
+        entry.queued( end );
+        return () -> writeStage.execute( () -> write( entry ) );
+    }
+
+    /**
+     * The stages time the steps of writing themselves, as only they know what it is made of.
+     */
+    private Runnable write( final MigrateEntry entry )
+    {
+        entry.dequeued( System.nanoTime() );
+        try
+        {
+            stages.write( entry );
+        }
+        catch ( MigrateException | RuntimeException e )
+        {
+            failed( entry, asMigrateException( entry.getPhysicalPath(), e ) );
+            return null;
+        }
+        if ( tracer != null )
+        {
+            tracer.record( entry, System.nanoTime() - entry.getStartedAt(), null );
+        }
+        listener.succeeded( entry );
+        return null;
+    }
+
+    private void failed( final MigrateEntry entry, final MigrateException error )
+    {
+        if ( tracer != null )
+        {
+            tracer.record( entry, System.nanoTime() - entry.getStartedAt(), error.getMessage() );
+        }
+        listener.failed( entry.getPhysicalPath(), error );
+    }
+
+    private static MigrateException asMigrateException( final String physicalPath, final Exception e )
+    {
+        if ( e instanceof MigrateException )
+        {
+            return (MigrateException) e;
+        }
+        return new MigrateException( "Error: unexpected error when migrating {}: {}", e, physicalPath,
+                                     e.getMessage() );
+    }
+
+    /**
+     * Wait until every submitted path went through all stages, then release the pools. Stages are drained from the
+     * upstream one, so no stage gets new work after it was shut down.
+     */
+    public void awaitCompletion()
+            throws InterruptedException
+    {
+        statStage.shutdownAndAwait();
+        if ( checksumStage != null )
+        {
+            checksumStage.shutdownAndAwait();
+        }
+        writeStage.shutdownAndAwait();
+    }
+
+    public void shutdownNow()
+    {
+        for ( Stage stage : getStages() )
+        {
+            stage.executor.shutdownNow();
+        }
+    }
+
+    public List<Stage> getStages()
+    {
+        final List<Stage> all = new ArrayList<>( 3 );
+        all.add( statStage );
+        if ( checksumStage != null )
+        {
+            all.add( checksumStage );
+        }
+        all.add( writeStage );
+        return all;
+    }
+
+    public List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 3 );
+        getStages().forEach( s -> lines.add( s.toString() ) );
+        return lines;
+    }
+
+    public static class Stage
+    {
+        private final String name;
+
+        private final int threads;
+
+        private final ThreadPoolExecutor executor;
+
+        private final AtomicLong busyNanos = new AtomicLong( 0 );
+
+        private final AtomicLong processed = new AtomicLong( 0 );
+
+        private final long startNanos = System.nanoTime();
+
+        private volatile long endNanos;
+
+        Stage( final String name, final int threads, final int queueSize )
+        {
+            this.name = name;
+            this.threads = threads <= 0 ? 1 : threads;
+            final AtomicInteger threadNum = new AtomicInteger( 0 );
+            final ThreadFactory factory = r -> {
+                final Thread t = new Thread( r, "migrate-" + name + "-" + threadNum.getAndIncrement() );
+                t.setDaemon( true );
+                return t;
+            };
+            // A full queue blocks the producer instead of rejecting, which is the back pressure between stages
+            this.executor = new ThreadPoolExecutor( this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                                                    new ArrayBlockingQueue<>( queueSize <= 0 ? 1 : queueSize ),
+                                                    factory, ( r, e ) -> {
+                if ( e.isShutdown() )
+                {
+                    throw new RejectedExecutionException( "Stage " + name + " is already shut down" );
+                }
+                try
+                {
+                    e.getQueue().put( r );
+                }
+                catch ( InterruptedException ie )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException( "Interrupted while waiting for stage " + name, ie );
+                }
+            } );
+            this.executor.prestartAllCoreThreads();
+        }
+
+        /**
+         * @param task work of the stage, returning the handoff to the next stage or null if there is none. The
+         * handoff is not counted as busy, as it blocks while the next stage is full.
+         */
+        void execute( final Supplier<Runnable> task )
+        {
+            executor.execute( () -> {
+                final long start = System.nanoTime();
+                final Runnable handoff;
+                try
+                {
+                    handoff = task.get();
+                }
+                finally
+                {
+                    busyNanos.addAndGet( System.nanoTime() - start );
+                    processed.incrementAndGet();
+                }
+                if ( handoff != null )
+                {
+                    handoff.run();
+                }
+            } );
+        }
+
+        void shutdownAndAwait()
+                throws InterruptedException
+        {
+            executor.shutdown();
+            while ( !executor.awaitTermination( 1, TimeUnit.MINUTES ) )
+            {
+                Util.printInfo( String.format( "Waiting for stage %s to finish, %s tasks queued", name,
+                                               executor.getQueue().size() ) );
+            }
+            endNanos = System.nanoTime();
+        }
+
+        public String getName()
+        {
+            return name;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public long getProcessed()
+        {
+            return processed.get();
+        }
+
+        public int getQueued()
+        {
+            return executor.getQueue().size();
+        }
+
+        /**
+         * Fraction of the available thread time of this stage which was spent on real work.
+         */
+        public double getUtilization()
+        {
+            final long end = endNanos > 0 ? endNanos : System.nanoTime();
+            final long available = ( end - startNanos ) * threads;
+            return available <= 0 ? 0 : Math.min( 1.0, (double) busyNanos.get() / (double) available );
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "Stage %s: threads=%s, processed=%s, queued=%s, utilization=%.2f%%", name, threads,
+                                  getProcessed(), getQueued(), getUtilization() * 100 );
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Where the write stage puts the path map: the cassandra path db, SSTables for sstableloader or a relational database.
+ * The migrator does stat, checksum and dedupe the same way for all of them and hands each file to {@link #insert}.
+ * Methods are called from all write threads at the same time.
+ */
+public interface MigrateTarget
+        extends Closeable
+{
+    /**
+     * Write a file of the path map with its parent directories and the reverse map entry, as the path db inserts it.
+     * Returns once the file is stored, so that a path reported as migrated is never lost.
+     *
+     * @param checksum checksum of the file, may be null
+     * @param primary true if this file is the first one seen with the checksum, whose storage the later ones share;
+     * false for duplicates and restored rows, which must not make the target reclaim the given storage
+     */
+    void insert( String fileSystem, String path, Date creation, Date expiration, String fileId, long size,
+                 String fileStorage, String checksum, boolean primary )
+            throws IOException;
+
+    /**
+     * Write all checksums of a file, when more than the primary one is calculated.
+     */
+    void putChecksums( String fileSystem, String path, Map<String, String> checksums )
+            throws IOException;
+
+    /**
+     * Append repos to a GA of the GA cache, as a {@link GAIndex.Writer}.
+     */
+    ListenableFuture<?> appendGa( String ga, Set<String> repos );
+
+    /**
+     * Lines describing what was written, printed when migrate ends.
+     */
+    List<String> report();
+}
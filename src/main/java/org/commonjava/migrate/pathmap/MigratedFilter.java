@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Session;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Bloom filter of the paths which were written to the path map, so migrate can skip them before any I/O when it runs
+ * again after a partial failure. Paths are only added once their write succeeded, and it can also be filled from the
+ * path map itself by a token range scan. It is kept in a file of the work dir and saved from time to time while
+ * migrating. A false positive skips a path which is not migrated, so the rate is much lower than the one of verify,
+ * and verify finds such paths afterwards; migrate also lists every path it skips, so they can be written again.
+ */
+public class MigratedFilter
+{
+    static final double FALSE_POSITIVE_RATE = 0.000001;
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File file;
+
+    private final PathBloomFilter filter;
+
+    private final LongAdder added = new LongAdder();
+
+    private MigratedFilter( final File file, final PathBloomFilter filter )
+    {
+        this.file = file;
+        this.filter = filter;
+    }
+
+    /**
+     * Load the filter of the file, or create an empty one for the expected number of paths if there is none.
+     */
+    public static MigratedFilter open( final File file, final long expectedPaths )
+            throws MigrateException
+    {
+        if ( !file.exists() )
+        {
+            return new MigratedFilter( file, new PathBloomFilter( expectedPaths, FALSE_POSITIVE_RATE ) );
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE ) ))
+        {
+            return new MigratedFilter( file, PathBloomFilter.readFrom( in ) );
+        }
+        catch ( IOException e )
+        {
+            throw new MigrateException( "Error: can not read filter of migrated paths {}: {}, delete it to start a "
+                                                + "new one", e, file, e.getMessage() );
+        }
+    }
+
+    public boolean contains( final String fileSystem, final String path )
+    {
+        return filter.mightContain( fileSystem + path );
+    }
+
+    public void add( final String fileSystem, final String path )
+    {
+        filter.put( fileSystem + path );
+        added.increment();
+    }
+
+    /**
+     * Add the files in the path map, read by token ranges in parallel.
+     */
+    public void addFromPathMap( final Session session, final String keyspace, final int threads )
+            throws MigrateException
+    {
+        final TokenRangeScanner scanner =
+                new TokenRangeScanner( session, keyspace + ".pathmap", "filesystem, parentpath, filename, fileid",
+                                       "filesystem, parentpath" );
+        scanner.scan( threads, worker -> row -> {
+            final String filename = row.getString( 2 );
+            if ( row.getString( 3 ) != null && !filename.endsWith( "/" ) )
+            {
+                add( row.getString( 0 ), PathMapUtils.normalize( row.getString( 1 ), filename ) );
+            }
+        } );
+    }
+
+    /**
+     * Write the filter to a temp file and move it over the file, so a crash while saving keeps the one before.
+     */
+    public synchronized void save()
+            throws IOException
+    {
+        final File temp = new File( file.getPath() + ".tmp" );
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream( new FileOutputStream( temp ), BUFFER_SIZE ) ))
+        {
+            filter.writeTo( out );
+        }
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Save, printing instead of throwing on errors, for timers and shutdown.
+     */
+    public void trySave()
+    {
+        try
+        {
+            save();
+        }
+        catch ( IOException e )
+        {
+            printInfo( String.format( "Error: can not save filter of migrated paths %s: %s", file,
+                                      e.getMessage() ) );
+        }
+    }
+
+    public long getAdded()
+    {
+        return added.sum();
+    }
+
+    public double getFalsePositiveRate()
+    {
+        return filter.getFalsePositiveRate();
+    }
+
+    public long getByteSize()
+    {
+        return filter.getByteSize();
+    }
+}
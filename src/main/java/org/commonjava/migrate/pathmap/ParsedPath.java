@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+/**
+ * Components of a physical path in the indy storage, as given by {@link PathParser}, e.g. for
+ * /opt/indy/var/lib/indy/storage/maven/hosted-public/org/foo/1.0/foo-1.0.pom: file system maven:hosted:public, path
+ * /org/foo/1.0/foo-1.0.pom, store path maven/hosted-public/org/foo/1.0/foo-1.0.pom, package maven and repo type
+ * hosted.
+ */
+public final class ParsedPath
+{
+    private final String fileSystem;
+
+    private final String path;
+
+    private final String storePath;
+
+    private final String pkg;
+
+    private final String repoType;
+
+    ParsedPath( final String fileSystem, final String path, final String storePath, final String pkg,
+                final String repoType )
+    {
+        this.fileSystem = fileSystem;
+        this.path = path;
+        this.storePath = storePath;
+        this.pkg = pkg;
+        this.repoType = repoType;
+    }
+
+    public String getFileSystem()
+    {
+        return fileSystem;
+    }
+
+    public String getPath()
+    {
+        return path;
+    }
+
+    public String getStorePath()
+    {
+        return storePath;
+    }
+
+    public String getPkg()
+    {
+        return pkg;
+    }
+
+    public String getRepoType()
+    {
+        return repoType;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ParsedPath{fileSystem='" + fileSystem + "', path='" + path + "', storePath='" + storePath + "'}";
+    }
+}
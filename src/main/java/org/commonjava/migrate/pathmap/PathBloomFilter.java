@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of paths which many threads can add to at the same time, as the one of guava is not thread safe in
+ * the version we have. The bits are set with compare and swap, and the k bit indexes are derived from the two halves
+ * of one murmur3 128 hash, like guava does. The size is fixed when it is created, from the expected number of paths
+ * and the false positive probability. It can be written to a file and read back, to be kept across runs.
+ */
+public class PathBloomFilter
+{
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private static final int MAGIC = 0x50424c4d;
+
+    private final AtomicLongArray bits;
+
+    private final long bitSize;
+
+    private final int hashes;
+
+    public PathBloomFilter( final long expected, final double fpp )
+    {
+        final long n = Math.max( 1, expected );
+        final long m = Math.max( 64, (long) ( -n * Math.log( fpp ) / ( Math.log( 2 ) * Math.log( 2 ) ) ) );
+        final long words = ( m + 63 ) / 64;
+        if ( words > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "Bloom filter for " + expected + " paths is too big" );
+        }
+        this.bits = new AtomicLongArray( (int) words );
+        this.bitSize = words * 64;
+        this.hashes = Math.max( 1, (int) Math.round( (double) bitSize / n * Math.log( 2 ) ) );
+    }
+
+    private PathBloomFilter( final int words, final int hashes )
+    {
+        this.bits = new AtomicLongArray( words );
+        this.bitSize = (long) words * 64;
+        this.hashes = hashes;
+    }
+
+    public void put( final CharSequence key )
+    {
+        final HashCode hash = HASH.hashUnencodedChars( key );
+        final long h1 = hash.asLong();
+        final long h2 = secondHalf( hash );
+        long combined = h1;
+        for ( int i = 0; i < hashes; i++ )
+        {
+            final long index = ( combined & Long.MAX_VALUE ) % bitSize;
+            final int word = (int) ( index >>> 6 );
+            final long mask = 1L << index;
+            long current = bits.get( word );
+            while ( ( current & mask ) == 0 && !bits.compareAndSet( word, current, current | mask ) )
+            {
+                current = bits.get( word );
+            }
+            combined += h2;
+        }
+    }
+
+    public boolean mightContain( final CharSequence key )
+    {
+        final HashCode hash = HASH.hashUnencodedChars( key );
+        final long h1 = hash.asLong();
+        final long h2 = secondHalf( hash );
+        long combined = h1;
+        for ( int i = 0; i < hashes; i++ )
+        {
+            final long index = ( combined & Long.MAX_VALUE ) % bitSize;
+            if ( ( bits.get( (int) ( index >>> 6 ) ) & ( 1L << index ) ) == 0 )
+            {
+                return false;
+            }
+            combined += h2;
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    public long getByteSize()
+    {
+        return bitSize / 8;
+    }
+
+    /**
+     * @return the false positive probability estimated from the bits set now; it grows over the one the filter was
+     * created for when more paths than expected are put
+     */
+    public double getFalsePositiveRate()
+    {
+        long set = 0;
+        for ( int i = 0; i < bits.length(); i++ )
+        {
+            set += Long.bitCount( bits.get( i ) );
+        }
+        return Math.pow( (double) set / bitSize, hashes );
+    }
+
+    /**
+     * Write the bits as they are now. Paths put while writing may or may not be in what is written.
+     */
+    public void writeTo( final DataOutput out )
+            throws IOException
+    {
+        out.writeInt( MAGIC );
+        out.writeInt( bits.length() );
+        out.writeInt( hashes );
+        for ( int i = 0; i < bits.length(); i++ )
+        {
+            out.writeLong( bits.get( i ) );
+        }
+    }
+
+    public static PathBloomFilter readFrom( final DataInput in )
+            throws IOException
+    {
+        if ( in.readInt() != MAGIC )
+        {
+            throw new IOException( "Not a path bloom filter" );
+        }
+        final int words = in.readInt();
+        final int hashes = in.readInt();
+        if ( words <= 0 || hashes <= 0 )
+        {
+            throw new IOException( "Invalid path bloom filter of " + words + " words and " + hashes + " hashes" );
+        }
+        final PathBloomFilter filter = new PathBloomFilter( words, hashes );
+        for ( int i = 0; i < words; i++ )
+        {
+            filter.bits.set( i, in.readLong() );
+        }
+        return filter;
+    }
+
+    private static long secondHalf( final HashCode hash )
+    {
+        final byte[] bytes = hash.asBytes();
+        long value = 0;
+        for ( int i = 15; i >= 8; i-- )
+        {
+            value = ( value << 8 ) | ( bytes[i] & 0xFF );
+        }
+        return value;
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Row;
+import org.commonjava.storage.pathmapped.pathdb.datastax.model.DtxPathMap;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A row of the pathmap table as a line of an export: the columns separated by tabs, with tabs, new lines and
+ * backslashes escaped and null written as \N, like the text formats of databases, so an export can be read with
+ * zcat and grep as well as imported again.
+ */
+public final class PathMapRow
+{
+    static final String COLUMNS =
+            "filesystem, parentpath, filename, fileid, creation, expiration, size, filestorage, checksum";
+
+    private static final String NULL = "\\N";
+
+    private static final int FIELDS = 9;
+
+    private final String fileSystem;
+
+    private final String parentPath;
+
+    private final String filename;
+
+    private final String fileId;
+
+    private final Date creation;
+
+    private final Date expiration;
+
+    private final long size;
+
+    private final String fileStorage;
+
+    private final String checksum;
+
+    PathMapRow( final String fileSystem, final String parentPath, final String filename, final String fileId,
+                final Date creation, final Date expiration, final long size, final String fileStorage,
+                final String checksum )
+    {
+        this.fileSystem = fileSystem;
+        this.parentPath = parentPath;
+        this.filename = filename;
+        this.fileId = fileId;
+        this.creation = creation;
+        this.expiration = expiration;
+        this.size = size;
+        this.fileStorage = fileStorage;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @param row a row selected with {@link #COLUMNS}
+     */
+    static PathMapRow of( final Row row )
+    {
+        return new PathMapRow( row.getString( 0 ), row.getString( 1 ), row.getString( 2 ), row.getString( 3 ),
+                               row.getTimestamp( 4 ), row.getTimestamp( 5 ), row.getLong( 6 ), row.getString( 7 ),
+                               row.getString( 8 ) );
+    }
+
+    static PathMapRow parse( final String line )
+    {
+        final String[] fields = line.split( "\t", -1 );
+        if ( fields.length != FIELDS )
+        {
+            throw new IllegalArgumentException( "Expected " + FIELDS + " fields but got " + fields.length );
+        }
+        final String size = unescape( fields[6] );
+        return new PathMapRow( unescape( fields[0] ), unescape( fields[1] ), unescape( fields[2] ),
+                               unescape( fields[3] ), toDate( unescape( fields[4] ) ),
+                               toDate( unescape( fields[5] ) ), size == null ? 0 : Long.parseLong( size ),
+                               unescape( fields[7] ), unescape( fields[8] ) );
+    }
+
+    /**
+     * The directory rows the path db writes for the parent of a file, from the parent itself up to the one below root,
+     * as their parent path and their filename, which ends with a slash.
+     */
+    static List<String[]> dirsOf( final String fileSystem, final String parentPath )
+    {
+        final List<String[]> dirs = new ArrayList<>();
+        if ( PathMapUtils.ROOT_DIR.equals( parentPath ) )
+        {
+            return dirs;
+        }
+        final String dirPath = parentPath.endsWith( "/" ) ? parentPath : parentPath + "/";
+        final DtxPathMap parent = new DtxPathMap();
+        parent.setFileSystem( fileSystem );
+        parent.setParentPath( PathMapUtils.getParentPath( dirPath ) );
+        parent.setFilename( PathMapUtils.getFilename( dirPath ) );
+        dirs.add( new String[] { parent.getParentPath(), parent.getFilename() } );
+        dirs.addAll( PathMapUtils.getParentsBottomUp( parent, ( fs, dirParent, dirName ) -> new String[] { dirParent,
+                dirName } ) );
+        return dirs;
+    }
+
+    String toLine()
+    {
+        final StringBuilder sb = new StringBuilder( 256 );
+        append( sb, fileSystem ).append( '\t' );
+        append( sb, parentPath ).append( '\t' );
+        append( sb, filename ).append( '\t' );
+        append( sb, fileId ).append( '\t' );
+        append( sb, creation == null ? null : String.valueOf( creation.getTime() ) ).append( '\t' );
+        append( sb, expiration == null ? null : String.valueOf( expiration.getTime() ) ).append( '\t' );
+        sb.append( size ).append( '\t' );
+        append( sb, fileStorage ).append( '\t' );
+        return append( sb, checksum ).toString();
+    }
+
+    /**
+     * Directory rows are not exported, they are created again for the parents of each file on import.
+     */
+    boolean isDirectory()
+    {
+        return fileId == null || filename.endsWith( "/" );
+    }
+
+    /**
+     * @param parser to get the physical path of the file, which failures are reported with
+     * @return an entry which the write stage of migrate writes back as this row
+     */
+    MigrateEntry toEntry( final PathParser parser )
+    {
+        final String path = getPath();
+        final MigrateEntry entry =
+                new MigrateEntry( parser.toPhysicalPath( fileSystem, path ), null, size, fileSystem, path,
+                                  fileStorage );
+        entry.setRestored( fileId, creation, expiration );
+        entry.setChecksum( checksum );
+        return entry;
+    }
+
+    String getFileSystem()
+    {
+        return fileSystem;
+    }
+
+    String getPath()
+    {
+        return PathMapUtils.normalize( parentPath, filename );
+    }
+
+    String getFileId()
+    {
+        return fileId;
+    }
+
+    Date getCreation()
+    {
+        return creation;
+    }
+
+    Date getExpiration()
+    {
+        return expiration;
+    }
+
+    long getSize()
+    {
+        return size;
+    }
+
+    String getFileStorage()
+    {
+        return fileStorage;
+    }
+
+    String getChecksum()
+    {
+        return checksum;
+    }
+
+    private static StringBuilder append( final StringBuilder sb, final String value )
+    {
+        if ( value == null )
+        {
+            return sb.append( NULL );
+        }
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            final char c = value.charAt( i );
+            switch ( c )
+            {
+                case '\\':
+                    sb.append( "\\\\" );
+                    break;
+                case '\t':
+                    sb.append( "\\t" );
+                    break;
+                case '\n':
+                    sb.append( "\\n" );
+                    break;
+                case '\r':
+                    sb.append( "\\r" );
+                    break;
+                default:
+                    sb.append( c );
+            }
+        }
+        return sb;
+    }
+
+    private static String unescape( final String field )
+    {
+        if ( NULL.equals( field ) )
+        {
+            return null;
+        }
+        if ( field.indexOf( '\\' ) < 0 )
+        {
+            return field;
+        }
+        final StringBuilder sb = new StringBuilder( field.length() );
+        for ( int i = 0; i < field.length(); i++ )
+        {
+            final char c = field.charAt( i );
+            if ( c != '\\' || i == field.length() - 1 )
+            {
+                sb.append( c );
+                continue;
+            }
+            final char next = field.charAt( ++i );
+            switch ( next )
+            {
+                case 't':
+                    sb.append( '\t' );
+                    break;
+                case 'n':
+                    sb.append( '\n' );
+                    break;
+                case 'r':
+                    sb.append( '\r' );
+                    break;
+                default:
+                    sb.append( next );
+            }
+        }
+        return sb.toString();
+    }
+
+    private static Date toDate( final String millis )
+    {
+        return millis == null ? null : new Date( Long.parseLong( millis ) );
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+/**
+ * Splits a physical path of the indy storage into its file system, path and store path in one scan. This runs for
+ * every file, so the store part ("maven/hosted-public") is only parsed the first time it is seen: its file system,
+ * package and repo type are kept in a cache, which also makes all paths of a store share one file system string, and
+ * the last store of each thread is checked first, as the paths files list the files of a store one after another.
+ * The path is cut out of the physical path as it is. Paths out of the common shape (empty segments, trailing '/',
+ * odd store names) are handed to the original split based parsing, so the results are always the same as before.
+ */
+public class PathParser
+{
+    private static final String FILE_PREFIX = "file:";
+
+    private static final int MAX_CACHED_STORES = 100000;
+
+    private final String baseDir;
+
+    private final ConcurrentHashMap<String, Store> stores = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<Store> lastStore = new ThreadLocal<>();
+
+    public PathParser( final String baseDir )
+    {
+        this.baseDir = isBlank( baseDir ) ? null : baseDir;
+    }
+
+    public ParsedPath parse( final String physicalPath )
+    {
+        final int start = storeStart( physicalPath );
+        final int pkgEnd = physicalPath.indexOf( '/', start );
+        if ( pkgEnd <= start )
+        {
+            return slowParse( physicalPath );
+        }
+        int repoEnd = physicalPath.indexOf( '/', pkgEnd + 1 );
+        if ( repoEnd < 0 )
+        {
+            repoEnd = physicalPath.length();
+        }
+        if ( repoEnd == pkgEnd + 1 )
+        {
+            return slowParse( physicalPath );
+        }
+
+        final Store store = storeOf( physicalPath, start, repoEnd );
+        final String storePath = start == 0 ? physicalPath : physicalPath.substring( start );
+        final String path;
+        if ( repoEnd >= physicalPath.length() - 1 )
+        {
+            path = "/"; // nothing, or only a '/', after the store
+        }
+        else if ( physicalPath.charAt( physicalPath.length() - 1 ) == '/'
+                || physicalPath.indexOf( "//", repoEnd ) >= 0 || physicalPath.startsWith( FILE_PREFIX,
+                                                                                            repoEnd + 1 ) )
+        {
+            path = slowPath( storePath );
+        }
+        else
+        {
+            path = physicalPath.substring( repoEnd );
+        }
+        return new ParsedPath( store.fileSystem, path, storePath, store.pkg, store.type );
+    }
+
+    /**
+     * The physical path of a path in a file system, the opposite of {@link #parse(String)}: e.g.
+     * ${baseDir}/maven/hosted-public/org/foo.pom for maven:hosted:public and /org/foo.pom.
+     */
+    public String toPhysicalPath( final String fileSystem, final String path )
+    {
+        final int pkgEnd = fileSystem.indexOf( ':' );
+        final int typeEnd = fileSystem.indexOf( ':', pkgEnd + 1 );
+        if ( pkgEnd <= 0 || typeEnd < 0 )
+        {
+            throw new IllegalArgumentException( "Not a file system of a store: " + fileSystem );
+        }
+        final StringBuilder sb = new StringBuilder();
+        if ( baseDir != null )
+        {
+            sb.append( baseDir );
+            if ( !baseDir.endsWith( "/" ) )
+            {
+                sb.append( '/' );
+            }
+        }
+        sb.append( fileSystem, 0, pkgEnd )
+          .append( '/' )
+          .append( fileSystem, pkgEnd + 1, typeEnd )
+          .append( '-' )
+          .append( fileSystem, typeEnd + 1, fileSystem.length() );
+        return sb.append( path.startsWith( "/" ) ? "" : "/" ).append( path ).toString();
+    }
+
+    private int storeStart( final String physicalPath )
+    {
+        if ( baseDir == null )
+        {
+            return 0;
+        }
+        final int index = physicalPath.indexOf( baseDir );
+        if ( index < 0 )
+        {
+            return 0;
+        }
+        final int start = index + baseDir.length();
+        return start < physicalPath.length() && physicalPath.charAt( start ) == '/' ? start + 1 : start;
+    }
+
+    private Store storeOf( final String physicalPath, final int start, final int end )
+    {
+        final int length = end - start;
+        final Store last = lastStore.get();
+        if ( last != null && last.key.length() == length && physicalPath.regionMatches( start, last.key, 0,
+                                                                                         length ) )
+        {
+            return last;
+        }
+        final String key = physicalPath.substring( start, end );
+        Store store = stores.get( key );
+        if ( store == null )
+        {
+            store = new Store( key );
+            if ( stores.size() < MAX_CACHED_STORES )
+            {
+                final Store existing = stores.putIfAbsent( key, store );
+                if ( existing != null )
+                {
+                    store = existing;
+                }
+            }
+        }
+        lastStore.set( store );
+        return store;
+    }
+
+    private ParsedPath slowParse( final String physicalPath )
+    {
+        final String storePath = slowStorePath( baseDir, physicalPath );
+        final String fileSystem = slowFileSystem( storePath );
+        final String[] parts = storePath.split( "/" );
+        return new ParsedPath( fileSystem, slowPath( storePath ), storePath, parts[0], parts[1].split( "-" )[0] );
+    }
+
+    /**
+     * File system, package and repo type of a store, e.g. maven:hosted:public, maven and hosted for
+     * maven/hosted-public.
+     */
+    private static final class Store
+    {
+        private final String key;
+
+        private final String fileSystem;
+
+        private final String pkg;
+
+        private final String type;
+
+        private Store( final String key )
+        {
+            this.key = key;
+            final int slash = key.indexOf( '/' );
+            final String repo = key.substring( slash + 1 );
+            final int dash = repo.indexOf( '-' );
+            this.pkg = key.substring( 0, slash );
+            if ( dash >= 0 && dash < repo.length() - 1 && repo.charAt( dash + 1 ) != '-'
+                    && repo.charAt( repo.length() - 1 ) != '-' )
+            {
+                this.type = repo.substring( 0, dash );
+                this.fileSystem = pkg + ":" + type + ":" + repo.substring( dash + 1 );
+            }
+            else
+            {
+                this.fileSystem = slowFileSystem( key );
+                this.type = repo.split( "-" )[0];
+            }
+        }
+    }
+
+    /**
+     * The original way to get the store path, i.e. the part of the physical path after the base dir.
+     */
+    static String slowStorePath( final String baseDir, final String physicalPath )
+    {
+        if ( isBlank( baseDir ) || !physicalPath.contains( baseDir ) )
+        {
+            return physicalPath;
+        }
+
+        final int storePathStart = physicalPath.indexOf( baseDir ) + baseDir.length();
+        final String storePath = physicalPath.substring( storePathStart );
+        return storePath.startsWith( "/" ) ? storePath.substring( 1 ) : storePath;
+    }
+
+    /**
+     * The original way to get the path in the store, normalizing segment by segment.
+     */
+    static String slowPath( final String storePath )
+    {
+        final String[] parts = storePath.split( "/" );
+        String path = "";
+        for ( int i = 2; i < parts.length; i++ )
+        {
+            path = PathMapUtils.normalize( path, parts[i] );
+        }
+        return path.startsWith( "/" ) ? path : "/" + path;
+    }
+
+    /**
+     * The original way to get the file system, splitting the repo name on each '-' and joining it again.
+     */
+    static String slowFileSystem( final String storePath )
+    {
+        final String[] parts = storePath.split( "/" );
+        final String pkg = parts[0];
+        final String repo = parts[1];
+        final String[] keyAName = repo.split( "-" );
+        final String type = keyAName[0];
+        StringBuilder name = new StringBuilder();
+        if ( keyAName.length > 2 )
+        {
+            for ( int i = 1; i < keyAName.length; i++ )
+            {
+                if ( name.length() != 0 )
+                {
+                    name.append( "-" );
+                }
+                name.append( keyAName[i] );
+            }
+
+        }
+        else
+        {
+            name.append( keyAName[1] );
+        }
+        return pkg + ":" + type + ":" + name.toString();
+    }
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Keeps the time each step took for a sample of the migrated paths, and for every path slower than a threshold, so
+ * slow files can be told apart by where their time went: the stat on the storage mount, waiting in the queues of the
+ * stages, the checksum, the file info of the physical store, the insert into the path db or the GA cache. The traces
+ * go to a ring buffer which is appended to a file as JSON lines periodically; when it laps the dump, the oldest traces
+ * are dropped and counted, so a slow disk never holds up the migrate.
+ */
+public class PathTracer
+        implements Closeable
+{
+    /**
+     * The steps timed for each path, with the name they have in the dump.
+     */
+    public enum Step
+    {
+        STAT( "stat" ), QUEUE( "queue" ), CHECKSUM( "checksum" ), FILE_INFO( "fileInfo" ), INSERT( "insert" ),
+        GA( "ga" );
+
+        static final Step[] ALL = values();
+
+        private final String key;
+
+        Step( final String key )
+        {
+            this.key = key;
+        }
+
+        public String getKey()
+        {
+            return key;
+        }
+    }
+
+    private static final int TOP_FILE_SYSTEMS = 5;
+
+    private final File file;
+
+    private final double rate;
+
+    private final long thresholdNanos;
+
+    private final AtomicReferenceArray<Trace> traces;
+
+    private final AtomicLong written = new AtomicLong();
+
+    // next trace to dump, only changed by dump
+    private long dumped;
+
+    private final LongAdder sampled = new LongAdder();
+
+    private final LongAdder slow = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final Map<String, LongAdder> slowByFileSystem = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService dumps;
+
+    /**
+     * @param rate fraction of the paths, between 0 and 1, traced however fast they are
+     * @param thresholdMillis paths taking longer are always traced, 0 to trace only the sample
+     * @param capacity traces kept until the next dump
+     */
+    public PathTracer( final File file, final double rate, final long thresholdMillis, final int capacity )
+    {
+        this.file = file;
+        this.rate = Math.max( 0, Math.min( 1, rate ) );
+        this.thresholdNanos = thresholdMillis <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos( thresholdMillis );
+        this.traces = new AtomicReferenceArray<>( Math.max( 1, capacity ) );
+    }
+
+    /**
+     * Dump the traces from a thread of its own every period, until closed.
+     */
+    public void startDump( final long periodMillis )
+    {
+        dumps = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "path-trace-dump" );
+            t.setDaemon( true );
+            return t;
+        } );
+        dumps.scheduleWithFixedDelay( () -> {
+            try
+            {
+                dump();
+            }
+            catch ( IOException e )
+            {
+                printInfo( String.format( "Error: can not write path traces to %s: %s", file, e.getMessage() ) );
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Trace a path which went through the stat stage, if it is slow or sampled.
+     *
+     * @param error message of the failure, null if it was migrated
+     */
+    public void record( final MigrateEntry entry, final long totalNanos, final String error )
+    {
+        final long[] steps = new long[Step.ALL.length];
+        for ( Step step : Step.ALL )
+        {
+            steps[step.ordinal()] = entry.getNanos( step );
+        }
+        record( entry.getPhysicalPath(), entry.getFileSystem(), entry.getPath(), entry.getSize(), totalNanos, steps,
+                error );
+    }
+
+    /**
+     * Trace a path which failed in the stat stage, so nothing but the time of the stat is known.
+     */
+    public void recordStatFailure( final String physicalPath, final long queueNanos, final long statNanos,
+                                   final String error )
+    {
+        final long[] steps = new long[Step.ALL.length];
+        steps[Step.QUEUE.ordinal()] = queueNanos;
+        steps[Step.STAT.ordinal()] = statNanos;
+        record( physicalPath, null, null, -1, queueNanos + statNanos, steps, error );
+    }
+
+    private void record( final String physicalPath, final String fileSystem, final String path, final long size,
+                         final long totalNanos, final long[] steps, final String error )
+    {
+        final boolean isSlow = totalNanos >= thresholdNanos;
+        if ( isSlow )
+        {
+            slow.increment();
+            if ( fileSystem != null )
+            {
+                slowByFileSystem.computeIfAbsent( fileSystem, k -> new LongAdder() ).increment();
+            }
+        }
+        else if ( rate > 0 && ThreadLocalRandom.current().nextDouble() < rate )
+        {
+            sampled.increment();
+        }
+        else
+        {
+            return;
+        }
+        final long seq = written.getAndIncrement();
+        traces.set( (int) ( seq % traces.length() ),
+                    new Trace( seq, System.currentTimeMillis(), physicalPath, fileSystem, path, size, totalNanos,
+                               steps, isSlow, error ) );
+    }
+
+    /**
+     * Append the traces recorded since the last dump to the file.
+     *
+     * @return number of traces written
+     */
+    synchronized int dump()
+            throws IOException
+    {
+        final long end = written.get();
+        final long start = Math.max( dumped, end - traces.length() );
+        dropped.add( start - dumped );
+        final List<Trace> pending = new ArrayList<>();
+        long next = start;
+        for ( ; next < end; next++ )
+        {
+            final Trace trace = traces.get( (int) ( next % traces.length() ) );
+            if ( trace == null || trace.seq < next )
+            {
+                // taken by a recording thread which did not set it yet, left for the next dump
+                break;
+            }
+            if ( trace.seq > next )
+            {
+                dropped.increment();
+                continue;
+            }
+            pending.add( trace );
+        }
+        dumped = next;
+        if ( pending.isEmpty() )
+        {
+            return 0;
+        }
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter( new FileOutputStream( file, true ), StandardCharsets.UTF_8 ) ))
+        {
+            for ( Trace trace : pending )
+            {
+                writer.write( trace.toJson() );
+                writer.newLine();
+            }
+        }
+        return pending.size();
+    }
+
+    public List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 2 );
+        lines.add( String.format( "Trace: sampled paths: %s, slow paths: %s, dropped before dump: %s, written to %s",
+                                  sampled.sum(), slow.sum(), dropped.sum(), file ) );
+        if ( !slowByFileSystem.isEmpty() )
+        {
+            final String top = slowByFileSystem.entrySet()
+                                               .stream()
+                                               .sorted( ( a, b ) -> Long.compare( b.getValue().sum(),
+                                                                                  a.getValue().sum() ) )
+                                               .limit( TOP_FILE_SYSTEMS )
+                                               .map( e -> e.getKey() + "=" + e.getValue().sum() )
+                                               .collect( Collectors.joining( ", " ) );
+            lines.add( "Trace: file systems with most slow paths: " + top );
+        }
+        return lines;
+    }
+
+    /**
+     * Stop the periodic dump and write what is left.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if ( dumps != null )
+        {
+            dumps.shutdownNow();
+        }
+        dump();
+    }
+
+    private static final class Trace
+    {
+        private final long seq;
+
+        private final long time;
+
+        private final String physicalPath;
+
+        private final String fileSystem;
+
+        private final String path;
+
+        private final long size;
+
+        private final long totalNanos;
+
+        private final long[] steps;
+
+        private final boolean slow;
+
+        private final String error;
+
+        private Trace( final long seq, final long time, final String physicalPath, final String fileSystem,
+                       final String path, final long size, final long totalNanos, final long[] steps,
+                       final boolean slow, final String error )
+        {
+            this.seq = seq;
+            this.time = time;
+            this.physicalPath = physicalPath;
+            this.fileSystem = fileSystem;
+            this.path = path;
+            this.size = size;
+            this.totalNanos = totalNanos;
+            this.steps = steps;
+            this.slow = slow;
+            this.error = error;
+        }
+
+        /**
+         * Times are in milliseconds, the steps add up to less than the total by the time spent between them.
+         */
+        private String toJson()
+        {
+            final StringBuilder sb = new StringBuilder( 256 );
+            sb.append( "{\"time\":" ).append( time );
+            sb.append( ",\"physicalPath\":" ).append( quote( physicalPath ) );
+            sb.append( ",\"fileSystem\":" ).append( quote( fileSystem ) );
+            sb.append( ",\"path\":" ).append( quote( path ) );
+            sb.append( ",\"size\":" ).append( size );
+            sb.append( ",\"slow\":" ).append( slow );
+            sb.append( ",\"total\":" ).append( millis( totalNanos ) );
+            for ( Step step : Step.ALL )
+            {
+                sb.append( ",\"" ).append( step.getKey() ).append( "\":" ).append( millis( steps[step.ordinal()] ) );
+            }
+            sb.append( ",\"error\":" ).append( quote( error ) ).append( '}' );
+            return sb.toString();
+        }
+
+        private static String millis( final long nanos )
+        {
+            return String.format( Locale.ROOT, "%.3f", nanos / 1e6 );
+        }
+
+        private static String quote( final String value )
+        {
+            if ( value == null )
+            {
+                return "null";
+            }
+            final StringBuilder sb = new StringBuilder( value.length() + 2 ).append( '"' );
+            for ( int i = 0; i < value.length(); i++ )
+            {
+                final char c = value.charAt( i );
+                if ( c == '"' || c == '\\' )
+                {
+                    sb.append( '\\' ).append( c );
+                }
+                else if ( c < 0x20 )
+                {
+                    sb.append( String.format( "\\u%04x", (int) c ) );
+                }
+                else
+                {
+                    sb.append( c );
+                }
+            }
+            return sb.append( '"' ).toString();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives each repo name a small int id, so that sets of repos can be kept as int arrays. Ids are dense, starting at 0,
+ * and never change once given. Lookups don't lock; only new names take the monitor.
+ */
+public class RepoDictionary
+{
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private volatile String[] names = new String[64];
+
+    private int count;
+
+    public int intern( final String name )
+    {
+        final Integer id = ids.get( name );
+        if ( id != null )
+        {
+            return id;
+        }
+        synchronized ( this )
+        {
+            final Integer existing = ids.get( name );
+            if ( existing != null )
+            {
+                return existing;
+            }
+            String[] current = names;
+            if ( count == current.length )
+            {
+                current = Arrays.copyOf( current, count * 2 );
+            }
+            current[count] = name;
+            names = current;
+            // publish the name before the id, so whoever sees the id also sees the name
+            ids.put( name, count );
+            return count++;
+        }
+    }
+
+    /**
+     * @return id of the name, or -1 if it was never interned
+     */
+    public int get( final String name )
+    {
+        final Integer id = ids.get( name );
+        return id == null ? -1 : id;
+    }
+
+    public String name( final int id )
+    {
+        return names[id];
+    }
+
+    public int size()
+    {
+        return ids.size();
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.io.sstable.CQLSSTableWriter;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.getSchemaCreateTableFileChecksum;
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.getSchemaCreateTablePathmap;
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.getSchemaCreateTableReversemap;
+
+/**
+ * Writes the rows migrate would insert into the path map, the reverse map, the file checksums and the GA cache table
+ * as SSTables on local disk instead, to be streamed into the cluster by sstableloader. No connection to Cassandra is
+ * needed. The token ring is split into ranges, and each table has a writer of its own for each range, so the rows of
+ * a range are sorted and flushed by its writer while the other ranges are written by other threads, and SSTables of
+ * different ranges never overlap in tokens. The files are laid out as keyspace/table below the dir, as sstableloader
+ * expects them.
+ */
+public class SSTableSink
+        implements MigrateTarget
+{
+    private final File dir;
+
+    private final int bufferMB;
+
+    private final Table pathMap;
+
+    private final Table reverseMap;
+
+    private final Table fileChecksum;
+
+    private final Table pathChecksums;
+
+    private final Table gaCache;
+
+    private final LongAdder dirs = new LongAdder();
+
+    // files of a directory come one after another from scan, so their parents are only written once for the run
+    private final ThreadLocal<String> lastParent = new ThreadLocal<>();
+
+    /**
+     * @param gaCacheTable GA cache table with its keyspace, null to write no GA cache
+     * @param ranges number of token ranges, which is the number of SSTables of each table written at the same time
+     * @param bufferMB data each writer sorts in memory before it flushes an SSTable
+     */
+    public SSTableSink( final File dir, final String keyspace, final String gaCacheTable, final int ranges,
+                        final int bufferMB )
+    {
+        this.dir = dir;
+        this.bufferMB = bufferMB;
+        this.pathMap = new Table( keyspace, "pathmap", getSchemaCreateTablePathmap( keyspace ),
+                                  "INSERT INTO " + keyspace + ".pathmap (" + PathMapRow.COLUMNS
+                                          + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)", ranges );
+        this.reverseMap = new Table( keyspace, "reversemap", getSchemaCreateTableReversemap( keyspace ),
+                                     "UPDATE " + keyspace + ".reversemap SET paths = paths + ? WHERE fileid = ?",
+                                     ranges );
+        this.fileChecksum = new Table( keyspace, "filechecksum", getSchemaCreateTableFileChecksum( keyspace ),
+                                       "INSERT INTO " + keyspace
+                                               + ".filechecksum (checksum, fileid, storage) VALUES (?, ?, ?)", ranges );
+        this.pathChecksums = new Table( keyspace, "pathchecksums",
+                                        CassandraMigrator.getSchemaCreateChecksumsTable( keyspace ),
+                                        "UPDATE " + keyspace + ".pathchecksums SET checksums = checksums + ? "
+                                                + "WHERE filesystem = ? AND path = ?", ranges );
+        if ( gaCacheTable == null )
+        {
+            this.gaCache = null;
+        }
+        else
+        {
+            final String[] names = gaCacheTable.split( "\\." );
+            this.gaCache = new Table( names[0], names[1], CassandraMigrator.getSchemaCreateTable( gaCacheTable ),
+                                      CassandraMigrator.getGaStoresUpdate( gaCacheTable ), ranges );
+        }
+    }
+
+    /**
+     * Nothing is reclaimed when writing SSTables, so the checksum is written with the row whether primary or not.
+     */
+    @Override
+    public void insert( final String fileSystem, final String path, final Date creation, final Date expiration,
+                        final String fileId, final long size, final String fileStorage, final String checksum,
+                        final boolean primary )
+            throws IOException
+    {
+        final String parentPath = PathMapUtils.getParentPath( path );
+        pathMap.write( key( fileSystem, parentPath ), fileSystem, parentPath, PathMapUtils.getFilename( path ),
+                       fileId, orUnset( creation ), orUnset( expiration ), size, fileStorage, orUnset( checksum ) );
+        makeDirs( fileSystem, parentPath );
+        reverseMap.write( key( fileId ), Collections.singleton( PathMapUtils.marshall( fileSystem, path ) ), fileId );
+        if ( primary && checksum != null )
+        {
+            fileChecksum.write( key( checksum ), checksum, fileId, fileStorage );
+        }
+    }
+
+    @Override
+    public void putChecksums( final String fileSystem, final String path, final Map<String, String> checksums )
+            throws IOException
+    {
+        pathChecksums.write( key( fileSystem, path ), checksums, fileSystem, path );
+    }
+
+    /**
+     * Completes once the row is given to its writer.
+     */
+    @Override
+    public ListenableFuture<?> appendGa( final String ga, final Set<String> repos )
+    {
+        try
+        {
+            gaCache.write( key( ga ), repos, ga );
+            return Futures.immediateFuture( null );
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            return Futures.immediateFailedFuture( e );
+        }
+    }
+
+    /**
+     * Same as the path db does before inserting a file, but without looking up which directories exist already.
+     */
+    private void makeDirs( final String fileSystem, final String parentPath )
+            throws IOException
+    {
+        if ( PathMapUtils.ROOT_DIR.equals( parentPath ) || ( fileSystem + parentPath ).equals( lastParent.get() ) )
+        {
+            return;
+        }
+        lastParent.set( fileSystem + parentPath );
+        for ( String[] row : PathMapRow.dirsOf( fileSystem, parentPath ) )
+        {
+            pathMap.write( key( fileSystem, row[0] ), fileSystem, row[0], row[1], CQLSSTableWriter.UNSET_VALUE,
+                           CQLSSTableWriter.UNSET_VALUE, CQLSSTableWriter.UNSET_VALUE, 0L,
+                           CQLSSTableWriter.UNSET_VALUE, CQLSSTableWriter.UNSET_VALUE );
+            dirs.increment();
+        }
+    }
+
+    @Override
+    public List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 2 );
+        lines.add( String.format( "SSTables: rows of pathmap: %s (directories: %s), reversemap: %s, filechecksum: %s, "
+                                          + "pathchecksums: %s, GA cache: %s", pathMap.getRows(), dirs.sum(),
+                                  reverseMap.getRows(), fileChecksum.getRows(), pathChecksums.getRows(),
+                                  gaCache == null ? 0 : gaCache.getRows() ) );
+        lines.add( String.format( "SSTables: written to %s, load each keyspace/table dir in it with sstableloader",
+                                  dir ) );
+        return lines;
+    }
+
+    /**
+     * Flush the SSTables left in the buffers of all writers.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        IOException error = null;
+        for ( Table table : new Table[] { pathMap, reverseMap, fileChecksum, pathChecksums, gaCache } )
+        {
+            try
+            {
+                if ( table != null )
+                {
+                    table.close();
+                }
+            }
+            catch ( IOException e )
+            {
+                error = error == null ? e : error;
+            }
+        }
+        if ( error != null )
+        {
+            throw error;
+        }
+    }
+
+    File getTableDir( final String keyspace, final String table )
+    {
+        return new File( new File( dir, keyspace ), table );
+    }
+
+    /**
+     * Index of the range of the token ring the token falls in, for ranges of equal size in token order.
+     */
+    static int rangeOf( final long token, final int ranges )
+    {
+        final long high = ( token >>> 32 ) ^ 0x80000000L;
+        return (int) ( ( high * ranges ) >>> 32 );
+    }
+
+    static long token( final ByteBuffer partitionKey )
+    {
+        return (Long) Murmur3Partitioner.instance.getToken( partitionKey ).getTokenValue();
+    }
+
+    static ByteBuffer key( final String column )
+    {
+        return ByteBuffer.wrap( column.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    static ByteBuffer key( final String first, final String second )
+    {
+        return CompositeType.build( key( first ), key( second ) );
+    }
+
+    private static Object orUnset( final Object value )
+    {
+        // null would be written as a tombstone
+        return value == null ? CQLSSTableWriter.UNSET_VALUE : value;
+    }
+
+    /**
+     * The writers of a table, one for each range, created when the first row of the range comes. A writer is not
+     * thread safe, rows of a range are added to it one at a time.
+     */
+    private final class Table
+    {
+        private final String keyspace;
+
+        private final String name;
+
+        private final String schema;
+
+        private final String statement;
+
+        private final AtomicReferenceArray<CQLSSTableWriter> writers;
+
+        private final LongAdder rows = new LongAdder();
+
+        private Table( final String keyspace, final String name, final String schema, final String statement,
+                       final int ranges )
+        {
+            this.keyspace = keyspace;
+            this.name = name;
+            this.schema = schema;
+            this.statement = statement;
+            this.writers = new AtomicReferenceArray<>( ranges );
+        }
+
+        void write( final ByteBuffer partitionKey, final Object... values )
+                throws IOException
+        {
+            final int range = rangeOf( token( partitionKey ), writers.length() );
+            final CQLSSTableWriter existing = writers.get( range );
+            final CQLSSTableWriter writer = existing == null ? createWriter( range ) : existing;
+            synchronized ( writer )
+            {
+                writer.addRow( values );
+            }
+            rows.increment();
+        }
+
+        private synchronized CQLSSTableWriter createWriter( final int range )
+                throws IOException
+        {
+            if ( writers.get( range ) == null )
+            {
+                final File tableDir = getTableDir( keyspace, name );
+                if ( !tableDir.isDirectory() && !tableDir.mkdirs() )
+                {
+                    throw new IOException( "Can not create dir " + tableDir );
+                }
+                writers.set( range, CQLSSTableWriter.builder()
+                                                    .inDirectory( tableDir )
+                                                    .forTable( schema )
+                                                    .using( statement )
+                                                    .withBufferSizeInMB( bufferMB )
+                                                    .build() );
+            }
+            return writers.get( range );
+        }
+
+        long getRows()
+        {
+            return rows.sum();
+        }
+
+        synchronized void close()
+                throws IOException
+        {
+            for ( int i = 0; i < writers.length(); i++ )
+            {
+                final CQLSSTableWriter writer = writers.get( i );
+                if ( writer != null )
+                {
+                    synchronized ( writer )
+                    {
+                        writer.close();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -27,17 +27,24 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+import static org.commonjava.migrate.pathmap.Util.PRIORITY_TODO_PREFIX;
+import static org.commonjava.migrate.pathmap.Util.STORE_PRIORITY_FILE;
 import static org.commonjava.migrate.pathmap.Util.TODO_FILES_DIR;
+import static org.commonjava.migrate.pathmap.Util.forEachParallel;
 import static org.commonjava.migrate.pathmap.Util.newLine;
 import static org.commonjava.migrate.pathmap.Util.newLines;
 import static org.commonjava.migrate.pathmap.Util.prepareWorkingDir;
@@ -72,7 +79,11 @@ public class ScanCmd
         pkgFolderPaths = listValidPkgFolders( options.getBaseDir() );
 
         final int total;
-        if ( options.getThreads() <= 1 )
+        if ( options.isPrioritized() )
+        {
+            total = priorityScanRun( pkgFolderPaths, options );
+        }
+        else if ( options.getThreads() <= 1 )
         {
             total = noScanReposRun( pkgFolderPaths, options );
         }
@@ -170,7 +181,8 @@ public class ScanCmd
                     service.execute( () -> {
                         try
                         {
-                            int totalForSlice = listReposFiles( pkg, repoSlice, options, batchNum );
+                            int totalForSlice = listReposFiles( getTodoPrefixForPkg( pkg ), repoSlice, options,
+                                                                 batchNum );
                             totalForPkg.addAndGet( totalForSlice );
                         }
                         finally
@@ -210,6 +222,76 @@ public class ScanCmd
         return total.get();
     }
 
+    /**
+     * Scan store by store in the order of their priority, each into todo files of its own named after its rank, so
+     * migrate takes the stores in that order and knows when it is done with one. The order is kept in
+     * store_priority of work dir.
+     */
+    private int priorityScanRun( final List<String> pkgFolderPaths, final MigrateOptions options )
+            throws MigrateException
+    {
+        final StorePriority priority = options.getStorePriority();
+        final Map<String, Path> stores = new TreeMap<>( priority );
+        for ( String pkg : pkgFolderPaths )
+        {
+            final List<Path> repos;
+            try
+            {
+                repos = listReposForPkg( pkg );
+            }
+            catch ( IOException e )
+            {
+                throw new MigrateException( "Error: can not list repos of package {}: {}", e, pkg, e.getMessage() );
+            }
+            final String pkgName = Paths.get( pkg ).getFileName().toString();
+            repos.forEach( repo -> stores.put( fileSystemOf( pkgName, repo.getFileName().toString() ), repo ) );
+        }
+        final List<String> order = new ArrayList<>( stores.keySet() );
+        storePriority( order, priority, options );
+        printInfo( String.format( "Stores in order of priority, first of %s: %s", order.size(),
+                                  order.stream().limit( 10 ).collect( Collectors.joining( ", " ) ) ) );
+
+        final AtomicInteger total = new AtomicInteger( 0 );
+        final List<Integer> ranks = IntStream.range( 0, order.size() ).boxed().collect( Collectors.toList() );
+        // all ranks of the same width, so the names sort in the order of the ranks
+        final int rankWidth = Math.max( 6, String.valueOf( order.size() - 1 ).length() );
+        forEachParallel( ranks, options.getThreads(), "scan stores", rank -> {
+            final Path repo = stores.get( order.get( rank ) );
+            final String prefix = String.format( "%s%0" + rankWidth + "d-%s-%s", PRIORITY_TODO_PREFIX, rank,
+                                                 repo.getParent().getFileName(), repo.getFileName() );
+            total.addAndGet( listReposFiles( prefix, Collections.singletonList( repo ), options,
+                                             new AtomicInteger( 0 ) ) );
+        } );
+        return total.get();
+    }
+
+    /**
+     * The file system of a store by its dir, or the dir if it is not named like one.
+     */
+    private static String fileSystemOf( final String pkgName, final String repoName )
+    {
+        final String storePath = pkgName + "/" + repoName;
+        return repoName.indexOf( '-' ) > 0 ? PathParser.slowFileSystem( storePath ) : storePath;
+    }
+
+    private void storePriority( final List<String> order, final StorePriority priority,
+                                final MigrateOptions options )
+    {
+        final List<String> lines = new ArrayList<>( order.size() );
+        for ( int i = 0; i < order.size(); i++ )
+        {
+            lines.add( String.format( "%s\t%s\t%s", i, order.get( i ), priority.getHits( order.get( i ) ) ) );
+        }
+        try
+        {
+            Files.write( Paths.get( options.getWorkDir(), STORE_PRIORITY_FILE ), lines );
+        }
+        catch ( IOException e )
+        {
+            printInfo( String.format( "Error: can not write %s: %s", STORE_PRIORITY_FILE, e.getMessage() ) );
+        }
+    }
+
     private List<Path> listReposForPkg( final String pkgDir )
             throws IOException
     {
@@ -269,10 +351,9 @@ public class ScanCmd
         return totalFileNum.get();
     }
 
-    private int listReposFiles( final String pkg, final List<Path> repos, final MigrateOptions options,
+    private int listReposFiles( final String todoPrefix, final List<Path> repos, final MigrateOptions options,
                                 final AtomicInteger batchNum )
     {
-        final String todoPrefix = getTodoPrefixForPkg( pkg );
         final List<String> filePaths = new ArrayList<>( options.getBatchSize() );
         final AtomicInteger totalFileNum = new AtomicInteger( 0 );
         final Predicate<Path> fileFilter = getFileFilter( options );
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Checksums taken from the sidecar files stored next to artifacts, like foo.jar.md5 and foo.jar.sha1, so the artifact
+ * itself does not need to be read. Whether the sidecars exist is decided from the paths scanned together with the
+ * artifact, so no extra stat is needed. Sidecars are only used when there is one for every algorithm; otherwise the
+ * artifact has to be read anyway, and all digests are calculated in that single pass.
+ * <p>
+ * A fraction of the files can be verified by calculating the checksum anyway and comparing it with the sidecar.
+ */
+public class SidecarChecksums
+{
+    private static final Map<String, String> EXTENSIONS = new HashMap<>();
+
+    static
+    {
+        EXTENSIONS.put( "MD5", ".md5" );
+        EXTENSIONS.put( "SHA-1", ".sha1" );
+        EXTENSIONS.put( "SHA1", ".sha1" );
+        EXTENSIONS.put( "SHA-256", ".sha256" );
+        EXTENSIONS.put( "SHA-512", ".sha512" );
+    }
+
+    private static final int MAX_SIDECAR_SIZE = 4096;
+
+    private final List<String> algorithms;
+
+    private final List<String> extensions;
+
+    private final int[] hexLengths;
+
+    private final double verifyRate;
+
+    private final LongAdder found = new LongAdder();
+
+    private final LongAdder invalid = new LongAdder();
+
+    private final LongAdder verified = new LongAdder();
+
+    private final LongAdder mismatched = new LongAdder();
+
+    /**
+     * @param engine engine whose algorithms the sidecars need to provide
+     * @param verifyRate fraction of the files, between 0 and 1, whose sidecars are verified against the content
+     */
+    public SidecarChecksums( final ChecksumEngine engine, final double verifyRate )
+    {
+        this.algorithms = engine.getAlgorithms();
+        this.extensions = new ArrayList<>( algorithms.size() );
+        this.hexLengths = new int[algorithms.size()];
+        for ( int i = 0; i < algorithms.size(); i++ )
+        {
+            extensions.add( EXTENSIONS.get( algorithms.get( i ).toUpperCase() ) );
+            hexLengths[i] = engine.getDigestLength( algorithms.get( i ) ) * 2;
+        }
+        this.verifyRate = Math.max( 0, Math.min( 1, verifyRate ) );
+    }
+
+    /**
+     * @return true if every algorithm has a known sidecar extension
+     */
+    public boolean isSupported()
+    {
+        return !extensions.contains( null );
+    }
+
+    /**
+     * @param physicalPath path of the artifact
+     * @param listing paths scanned together with the artifact
+     * @return sidecar paths by algorithm, or null if there is not a sidecar for each algorithm in the listing
+     */
+    public Map<String, String> find( final String physicalPath, final Set<String> listing )
+    {
+        if ( listing == null || !isSupported() )
+        {
+            return null;
+        }
+        Map<String, String> sidecars = null;
+        for ( int i = 0; i < algorithms.size(); i++ )
+        {
+            final String sidecar = physicalPath + extensions.get( i );
+            if ( !listing.contains( sidecar ) )
+            {
+                return null;
+            }
+            if ( sidecars == null )
+            {
+                sidecars = new LinkedHashMap<>( algorithms.size() * 2 );
+            }
+            sidecars.put( algorithms.get( i ), sidecar );
+        }
+        return sidecars;
+    }
+
+    /**
+     * Read the checksums from the sidecars found by {@link #find(String, Set)}. A sidecar holds the hex checksum as
+     * its first token, sometimes followed by the file name.
+     *
+     * @return hex checksums by algorithm, or null if any of the sidecars is missing or not a valid checksum
+     */
+    public Map<String, String> read( final Map<String, String> sidecars )
+    {
+        final Map<String, String> checksums = new LinkedHashMap<>( algorithms.size() * 2 );
+        for ( int i = 0; i < algorithms.size(); i++ )
+        {
+            final String algorithm = algorithms.get( i );
+            final String checksum = parse( sidecars.get( algorithm ), hexLengths[i] );
+            if ( checksum == null )
+            {
+                invalid.increment();
+                return null;
+            }
+            checksums.put( algorithm, checksum );
+        }
+        found.increment();
+        return checksums;
+    }
+
+    private static String parse( final String sidecar, final int hexLength )
+    {
+        final byte[] content;
+        try
+        {
+            content = Files.readAllBytes( Paths.get( sidecar ) );
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        if ( content.length > MAX_SIDECAR_SIZE )
+        {
+            return null;
+        }
+        final String text = new String( content, StandardCharsets.US_ASCII ).trim();
+        int end = 0;
+        while ( end < text.length() && !Character.isWhitespace( text.charAt( end ) ) )
+        {
+            end++;
+        }
+        if ( end != hexLength )
+        {
+            return null;
+        }
+        for ( int i = 0; i < end; i++ )
+        {
+            if ( Character.digit( text.charAt( i ), 16 ) < 0 )
+            {
+                return null;
+            }
+        }
+        return text.substring( 0, end ).toLowerCase();
+    }
+
+    /**
+     * @return true if the checksums read from sidecars of this file should be checked against its content
+     */
+    public boolean shouldVerify()
+    {
+        return verifyRate > 0 && ThreadLocalRandom.current().nextDouble() < verifyRate;
+    }
+
+    /**
+     * Compare sidecar checksums with the calculated ones.
+     *
+     * @return true if they are the same
+     */
+    public boolean verify( final String physicalPath, final Map<String, String> fromSidecars,
+                           final Map<String, String> calculated )
+    {
+        verified.increment();
+        if ( fromSidecars.equals( calculated ) )
+        {
+            return true;
+        }
+        mismatched.increment();
+        printInfo( String.format( "Warning: sidecar checksums %s of %s do not match its content %s", fromSidecars,
+                                  physicalPath, calculated ) );
+        return false;
+    }
+
+    public long getFound()
+    {
+        return found.sum();
+    }
+
+    public long getMismatched()
+    {
+        return mismatched.sum();
+    }
+
+    public List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 2 );
+        lines.add( String.format( "Sidecar checksums: used: %s, invalid: %s", found.sum(), invalid.sum() ) );
+        lines.add( String.format( "Sidecar checksums: verified: %s, mismatched: %s", verified.sum(),
+                                  mismatched.sum() ) );
+        return lines;
+    }
+}
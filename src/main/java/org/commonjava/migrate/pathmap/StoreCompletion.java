@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Writes a marker for each store once all of its paths are migrated, so indy can switch it to path mapped storage
+ * while other stores are still migrating. A store is done when it is sealed, as no more of its paths will be
+ * submitted, and none of its submitted paths is left in the pipeline. The marker is a file named after the file
+ * system of the store, with the succeeded and failed paths. A store with failed paths must not be switched, so it gets
+ * a "*.failed" marker instead; the failed paths are in failed_paths as always.
+ */
+public class StoreCompletion
+{
+    static final String FAILED_SUFFIX = ".failed";
+
+    private final Path markerDir;
+
+    private final Map<String, Store> stores = new ConcurrentHashMap<>();
+
+    private final AtomicInteger completed = new AtomicInteger();
+
+    private final AtomicInteger failed = new AtomicInteger();
+
+    public StoreCompletion( final Path markerDir )
+            throws IOException
+    {
+        this.markerDir = Files.createDirectories( markerDir );
+    }
+
+    public void submitted( final String fileSystem )
+    {
+        storeOf( fileSystem ).pending.incrementAndGet();
+    }
+
+    public void done( final String fileSystem, final boolean succeeded )
+    {
+        final Store store = storeOf( fileSystem );
+        ( succeeded ? store.succeeded : store.failed ).incrementAndGet();
+        if ( store.pending.decrementAndGet() == 0 && store.sealed )
+        {
+            complete( fileSystem, store );
+        }
+    }
+
+    /**
+     * No more paths of the store will be submitted.
+     */
+    public void seal( final String fileSystem )
+    {
+        final Store store = storeOf( fileSystem );
+        store.sealed = true;
+        if ( store.pending.get() == 0 )
+        {
+            complete( fileSystem, store );
+        }
+    }
+
+    public void sealAll()
+    {
+        stores.keySet().forEach( this::seal );
+    }
+
+    public int getCompleted()
+    {
+        return completed.get();
+    }
+
+    public int getFailed()
+    {
+        return failed.get();
+    }
+
+    private Store storeOf( final String fileSystem )
+    {
+        return stores.computeIfAbsent( fileSystem, k -> new Store() );
+    }
+
+    /**
+     * Written to a temp file moved over the marker, so it is never read half written.
+     */
+    private void complete( final String fileSystem, final Store store )
+    {
+        if ( !store.written.compareAndSet( false, true ) )
+        {
+            return;
+        }
+        final String marker = String.format( "Succeeded:%s\nFailed:%s\nCompleted:%s\n", store.succeeded.get(),
+                                             store.failed.get(), System.currentTimeMillis() );
+        final boolean succeeded = store.failed.get() == 0;
+        final Path temp = markerDir.resolve( fileSystem + ".tmp" );
+        try
+        {
+            Files.write( temp, marker.getBytes( StandardCharsets.UTF_8 ) );
+            Files.move( temp, markerDir.resolve( succeeded ? fileSystem : fileSystem + FAILED_SUFFIX ),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+            ( succeeded ? completed : failed ).incrementAndGet();
+            printInfo( String.format( "Store %s %s: %s paths succeeded, %s failed", fileSystem,
+                                      succeeded ? "completed" : "done with failures", store.succeeded.get(),
+                                      store.failed.get() ) );
+        }
+        catch ( IOException e )
+        {
+            printInfo( String.format( "Error: can not write completion marker of store %s: %s", fileSystem,
+                                      e.getMessage() ) );
+        }
+    }
+
+    private static final class Store
+    {
+        private final AtomicLong pending = new AtomicLong();
+
+        private final AtomicLong succeeded = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private final AtomicBoolean written = new AtomicBoolean();
+
+        private volatile boolean sealed;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Order of the stores to migrate in, so the stores which matter most reach the path db first and can be switched to
+ * path mapped storage while the others are still migrating: first the stores listed explicitly, in their order, then
+ * the stores with most requests in the access logs, then by repo type in the order given, and last by name. Stores
+ * are compared by their file system, like maven:hosted:build-1.
+ */
+public class StorePriority
+        implements Comparator<String>
+{
+    // a store in a request path of the content api, like /api/content/maven/hosted/build-1/... or /api/hosted/build-1/...
+    private static final Pattern STORE_IN_REQUEST =
+            Pattern.compile( "(?:/(maven|npm|generic-http)|/api)/(hosted|group|remote)/([^/\\s?\"]+)" );
+
+    private static final String DEFAULT_PKG = "maven";
+
+    private final List<String> stores;
+
+    private final List<String> types;
+
+    private final Map<String, Long> hits;
+
+    /**
+     * @param stores file systems of the stores which come first, in their order
+     * @param types repo types like hosted, group or remote in their order, the ones not listed come after them
+     * @param hits requests by file system of store
+     */
+    public StorePriority( final List<String> stores, final List<String> types, final Map<String, Long> hits )
+    {
+        this.stores = stores;
+        this.types = types;
+        this.hits = hits;
+    }
+
+    @Override
+    public int compare( final String a, final String b )
+    {
+        int result = Integer.compare( rank( stores, a ), rank( stores, b ) );
+        if ( result == 0 )
+        {
+            result = Long.compare( hits.getOrDefault( b, 0L ), hits.getOrDefault( a, 0L ) );
+        }
+        if ( result == 0 )
+        {
+            result = Integer.compare( rank( types, typeOf( a ) ), rank( types, typeOf( b ) ) );
+        }
+        return result == 0 ? a.compareTo( b ) : result;
+    }
+
+    public long getHits( final String fileSystem )
+    {
+        return hits.getOrDefault( fileSystem, 0L );
+    }
+
+    private static int rank( final List<String> list, final String value )
+    {
+        final int index = list.indexOf( value );
+        return index < 0 ? list.size() : index;
+    }
+
+    private static String typeOf( final String fileSystem )
+    {
+        final String[] parts = fileSystem.split( ":" );
+        return parts.length > 1 ? parts[1] : "";
+    }
+
+    /**
+     * Count the requests of each store in access logs, read as gzip when they end with .gz. Only the first store of a
+     * line is counted; requests to a group count for the group, not for its members.
+     *
+     * @return requests by file system of store
+     */
+    public static Map<String, Long> countHits( final List<Path> accessLogs )
+            throws IOException
+    {
+        final Map<String, Long> hits = new HashMap<>();
+        for ( Path log : accessLogs )
+        {
+            try (InputStream in = open( log );
+                 BufferedReader reader = new BufferedReader( new InputStreamReader( in, StandardCharsets.UTF_8 ) ))
+            {
+                String line;
+                while ( ( line = reader.readLine() ) != null )
+                {
+                    final Matcher matcher = STORE_IN_REQUEST.matcher( line );
+                    if ( matcher.find() )
+                    {
+                        final String pkg = matcher.group( 1 ) == null ? DEFAULT_PKG : matcher.group( 1 );
+                        hits.merge( pkg + ":" + matcher.group( 2 ) + ":" + matcher.group( 3 ), 1L, Long::sum );
+                    }
+                }
+            }
+        }
+        return hits;
+    }
+
+    private static InputStream open( final Path log )
+            throws IOException
+    {
+        final InputStream in = Files.newInputStream( log );
+        return log.getFileName().toString().endsWith( ".gz" ) ? new GZIPInputStream( in ) : in;
+    }
+}
@@ -0,0 +1,409 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Claims of todo files by the migrate processes sharing a work dir, on one host or on several mounting it. A process
+ * takes a todo file by renaming it into inprogress/owner, which only one process can do, and moves it on to the
+ * processed dir once all its paths are done. It rewrites inprogress/owner.heartbeat while it runs. When the
+ * heartbeat of another owner stays the same for the timeout, as seen with the clock of this process so the clocks of
+ * the hosts need not agree, its files are renamed back to todo for any process to take. A process takes back its own
+ * files of an earlier run when it starts, and does not finish while other owners still hold files which may come
+ * back.
+ */
+public class TodoLeases
+        implements Closeable
+{
+    static final String HEARTBEAT_SUFFIX = ".heartbeat";
+
+    private static final long MAX_POLL_MILLIS = 5000;
+
+    private final Path todoDir;
+
+    private final Path inProgressDir;
+
+    private final Path processedDir;
+
+    private final Predicate<Path> todoFilter;
+
+    private final String owner;
+
+    private final Path ownerDir;
+
+    private final Path heartbeatFile;
+
+    private final long timeoutMillis;
+
+    private final LongSupplier clock;
+
+    private final Deque<Path> listed = new ArrayDeque<>();
+
+    // last heartbeat seen of each other owner, with the time it was first seen
+    private final Map<String, Observed> observed = new HashMap<>();
+
+    private final AtomicLong beats = new AtomicLong();
+
+    private ScheduledExecutorService heartbeats;
+
+    public TodoLeases( final Path todoDir, final Path inProgressDir, final Path processedDir,
+                       final Predicate<Path> todoFilter, final String owner, final long timeoutMillis )
+            throws IOException
+    {
+        this( todoDir, inProgressDir, processedDir, todoFilter, owner, timeoutMillis,
+              () -> TimeUnit.NANOSECONDS.toMillis( System.nanoTime() ) );
+    }
+
+    TodoLeases( final Path todoDir, final Path inProgressDir, final Path processedDir,
+                final Predicate<Path> todoFilter, final String owner, final long timeoutMillis,
+                final LongSupplier clock )
+            throws IOException
+    {
+        this.todoDir = todoDir;
+        this.inProgressDir = inProgressDir;
+        this.processedDir = processedDir;
+        this.todoFilter = todoFilter;
+        this.owner = owner;
+        this.ownerDir = inProgressDir.resolve( owner );
+        this.heartbeatFile = inProgressDir.resolve( owner + HEARTBEAT_SUFFIX );
+        this.timeoutMillis = timeoutMillis;
+        this.clock = clock;
+        Files.createDirectories( ownerDir );
+        Files.createDirectories( processedDir );
+        heartbeat();
+        final int own = moveAll( ownerDir, todoDir );
+        if ( own > 0 )
+        {
+            printInfo( String.format( "Took back %s todo files claimed by owner %s before", own, owner ) );
+        }
+    }
+
+    /**
+     * Rewrite the heartbeat every quarter of the timeout from a thread of its own, until closed.
+     */
+    public void startHeartbeat()
+    {
+        heartbeats = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "todo-lease-heartbeat" );
+            t.setDaemon( true );
+            return t;
+        } );
+        final long period = Math.max( 1, timeoutMillis / 4 );
+        heartbeats.scheduleWithFixedDelay( () -> {
+            try
+            {
+                heartbeat();
+            }
+            catch ( IOException e )
+            {
+                printInfo( String.format( "Error: can not write heartbeat %s: %s", heartbeatFile, e.getMessage() ) );
+            }
+        }, period, period, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Claim the next todo file. When there are none left, the files of other owners whose leases went stale are
+     * taken back first, and this waits as long as other owners hold files.
+     *
+     * @return the claimed file in the dir of this owner, null when all todo files are claimed or done
+     */
+    public synchronized Path claim()
+            throws IOException
+    {
+        while ( true )
+        {
+            if ( listed.isEmpty() )
+            {
+                listed.addAll( listTodo() );
+            }
+            while ( !listed.isEmpty() )
+            {
+                final Path todo = listed.poll();
+                final Path claimed = ownerDir.resolve( todo.getFileName() );
+                try
+                {
+                    Files.move( todo, claimed, StandardCopyOption.ATOMIC_MOVE );
+                    return claimed;
+                }
+                catch ( NoSuchFileException e )
+                {
+                    // claimed by another owner since it was listed
+                }
+            }
+            if ( reclaimStale() == 0 )
+            {
+                if ( !othersHoldFiles() )
+                {
+                    return null;
+                }
+                try
+                {
+                    Thread.sleep( Math.min( MAX_POLL_MILLIS, Math.max( 1, timeoutMillis / 4 ) ) );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException( "Interrupted while waiting for todo files of other owners" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Move a claimed file to the processed dir, once all of its paths are done.
+     *
+     * @return false if the lease was lost, as this owner was taken for dead and the file given to another one
+     */
+    public boolean complete( final Path claimed )
+            throws IOException
+    {
+        try
+        {
+            Files.move( claimed, processedDir.resolve( claimed.getFileName() ), StandardCopyOption.ATOMIC_MOVE );
+            return true;
+        }
+        catch ( NoSuchFileException e )
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Move the files of other owners whose heartbeat did not change for the timeout back to todo.
+     *
+     * @return number of files moved back
+     */
+    synchronized int reclaimStale()
+            throws IOException
+    {
+        int reclaimed = 0;
+        for ( Path dir : listOwnerDirs() )
+        {
+            final String other = dir.getFileName().toString();
+            if ( !isStale( other ) )
+            {
+                continue;
+            }
+            final int moved = moveAll( dir, todoDir );
+            if ( moved > 0 )
+            {
+                printInfo( String.format( "Took back %s todo files of owner %s, silent for more than %s seconds",
+                                          moved, other, timeoutMillis / 1000 ) );
+            }
+            reclaimed += moved;
+            Files.deleteIfExists( inProgressDir.resolve( other + HEARTBEAT_SUFFIX ) );
+            deleteIfEmpty( dir );
+            observed.remove( other );
+        }
+        return reclaimed;
+    }
+
+    private boolean isStale( final String other )
+            throws IOException
+    {
+        final Path file = inProgressDir.resolve( other + HEARTBEAT_SUFFIX );
+        String beat;
+        try
+        {
+            beat = new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 );
+        }
+        catch ( NoSuchFileException e )
+        {
+            beat = "";
+        }
+        final long now = clock.getAsLong();
+        final Observed seen = observed.get( other );
+        if ( seen == null || !seen.beat.equals( beat ) )
+        {
+            observed.put( other, new Observed( beat, now ) );
+            return false;
+        }
+        return now - seen.since >= timeoutMillis;
+    }
+
+    private boolean othersHoldFiles()
+            throws IOException
+    {
+        for ( Path dir : listOwnerDirs() )
+        {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream( dir ))
+            {
+                if ( files.iterator().hasNext() )
+                {
+                    return true;
+                }
+            }
+            catch ( NoSuchFileException e )
+            {
+                // taken back by another owner meanwhile
+            }
+        }
+        return false;
+    }
+
+    private List<Path> listOwnerDirs()
+            throws IOException
+    {
+        final List<Path> dirs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream( inProgressDir, Files::isDirectory ))
+        {
+            for ( Path dir : stream )
+            {
+                if ( !dir.getFileName().toString().equals( owner ) )
+                {
+                    dirs.add( dir );
+                }
+            }
+        }
+        return dirs;
+    }
+
+    private List<Path> listTodo()
+            throws IOException
+    {
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream( todoDir ))
+        {
+            for ( Path file : stream )
+            {
+                if ( todoFilter.test( file ) )
+                {
+                    files.add( file );
+                }
+            }
+        }
+        // all owners go through the files in the same order, the names are only sorted for a stable one
+        files.sort( null );
+        return files;
+    }
+
+    /**
+     * Write the heartbeat with a new count, to a temp file moved over it so it is never read half written.
+     */
+    void heartbeat()
+            throws IOException
+    {
+        final Path temp = inProgressDir.resolve( owner + HEARTBEAT_SUFFIX + ".tmp" );
+        Files.write( temp, String.format( "%s %s", owner, beats.incrementAndGet() ).getBytes( StandardCharsets.UTF_8 ) );
+        Files.move( temp, heartbeatFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static int moveAll( final Path from, final Path to )
+            throws IOException
+    {
+        int moved = 0;
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream( from ))
+        {
+            stream.forEach( files::add );
+        }
+        catch ( NoSuchFileException e )
+        {
+            return 0;
+        }
+        for ( Path file : files )
+        {
+            try
+            {
+                Files.move( file, to.resolve( file.getFileName() ), StandardCopyOption.ATOMIC_MOVE );
+                moved++;
+            }
+            catch ( NoSuchFileException e )
+            {
+                // taken back by another owner
+            }
+        }
+        return moved;
+    }
+
+    private static void deleteIfEmpty( final Path dir )
+            throws IOException
+    {
+        try
+        {
+            Files.deleteIfExists( dir );
+        }
+        catch ( DirectoryNotEmptyException e )
+        {
+            // the owner came back and claimed a file meanwhile
+        }
+    }
+
+    public String getOwner()
+    {
+        return owner;
+    }
+
+    /**
+     * Stop the heartbeat and remove it with the dir of this owner if all claimed files are done, so nobody waits for
+     * them. Files left are taken back by this owner when it starts again, or by others after the timeout.
+     */
+    @Override
+    public void close()
+            throws IOException
+    {
+        if ( heartbeats != null )
+        {
+            heartbeats.shutdownNow();
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream( ownerDir ))
+        {
+            if ( files.iterator().hasNext() )
+            {
+                return;
+            }
+        }
+        Files.deleteIfExists( ownerDir );
+        Files.deleteIfExists( heartbeatFile );
+    }
+
+    private static final class Observed
+    {
+        private final String beat;
+
+        private final long since;
+
+        private Observed( final String beat, final long since )
+        {
+            this.beat = beat;
+            this.since = since;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TokenRange;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntFunction;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Full scan of a table by token ranges of its partition key, in parallel. The ranges of the ring are split so each
+ * worker gets several of them, and each range is read with paging, fetching the next page while the current one is
+ * handled. Each worker has a row handler of its own, so the rows never have to be handed between threads.
+ */
+public class TokenRangeScanner
+{
+    private static final int RANGES_PER_THREAD = 8;
+
+    private static final int PREFETCH_THRESHOLD = 1000;
+
+    private final Session session;
+
+    private final String table;
+
+    private final PreparedStatement between;
+
+    private final PreparedStatement after;
+
+    private final PreparedStatement upTo;
+
+    private final LongAdder rows = new LongAdder();
+
+    /**
+     * @param table the table with keyspace, like indystorage.pathmap
+     * @param columns the columns to select, comma separated
+     * @param partitionKey the columns of the partition key, comma separated
+     */
+    public TokenRangeScanner( final Session session, final String table, final String columns,
+                              final String partitionKey )
+    {
+        this.session = session;
+        this.table = table;
+        final String select = "SELECT " + columns + " FROM " + table + " WHERE ";
+        final String token = "token(" + partitionKey + ")";
+        this.between = session.prepare( select + token + " > ? AND " + token + " <= ?" );
+        this.after = session.prepare( select + token + " > ?" );
+        this.upTo = session.prepare( select + token + " <= ?" );
+    }
+
+    /**
+     * Scan all ranges with the given number of workers. The handler of each worker is created from its number and
+     * closed after its last range.
+     */
+    public void scan( final int threads, final IntFunction<RowHandler> handlers )
+            throws MigrateException
+    {
+        final Set<TokenRange> ringRanges = session.getCluster().getMetadata().getTokenRanges();
+        if ( ringRanges.isEmpty() )
+        {
+            throw new MigrateException( "Error: no token ranges in the metadata of the cluster" );
+        }
+        final List<TokenRange> ranges = splitRanges( ringRanges, threads * RANGES_PER_THREAD );
+        final ConcurrentLinkedQueue<TokenRange> queue = new ConcurrentLinkedQueue<>( ranges );
+        final AtomicInteger done = new AtomicInteger();
+        final long start = System.currentTimeMillis();
+
+        final int workers = Math.max( 1, threads );
+        final ExecutorService executor = Executors.newFixedThreadPool( workers );
+        final List<Future<?>> futures = new ArrayList<>( workers );
+        for ( int i = 0; i < workers; i++ )
+        {
+            final int worker = i;
+            futures.add( executor.submit( () -> {
+                try (RowHandler handler = handlers.apply( worker ))
+                {
+                    TokenRange range;
+                    while ( ( range = queue.poll() ) != null )
+                    {
+                        scanRange( range, handler );
+                        final int count = done.incrementAndGet();
+                        if ( count % workers == 0 || count == ranges.size() )
+                        {
+                            final long seconds = Math.max( 1, ( System.currentTimeMillis() - start ) / 1000 );
+                            printInfo( String.format( "%s: %s/%s token ranges scanned, rows: %s, %s rows/s", table,
+                                                      count, ranges.size(), rows.sum(), rows.sum() / seconds ) );
+                        }
+                    }
+                }
+                return null;
+            } ) );
+        }
+        executor.shutdown();
+        try
+        {
+            for ( Future<?> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MigrateException( "Error: interrupted while scanning {}", e, table );
+        }
+        catch ( ExecutionException e )
+        {
+            executor.shutdownNow();
+            throw new MigrateException( "Error: failed to scan {}: {}", e.getCause(), table,
+                                        e.getCause().getMessage() );
+        }
+    }
+
+    public long getRows()
+    {
+        return rows.sum();
+    }
+
+    /**
+     * Split the ranges of the ring into about the given number of parts.
+     */
+    static List<TokenRange> splitRanges( final Set<TokenRange> ranges, final int parts )
+    {
+        final int perRange = Math.max( 1, ( parts + ranges.size() - 1 ) / ranges.size() );
+        final List<TokenRange> split = new ArrayList<>( ranges.size() * perRange );
+        for ( TokenRange range : ranges )
+        {
+            try
+            {
+                split.addAll( range.splitEvenly( perRange ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                split.add( range );
+            }
+        }
+        return split;
+    }
+
+    private void scanRange( final TokenRange range, final RowHandler handler )
+            throws IOException
+    {
+        if ( range.getStart().compareTo( range.getEnd() ) < 0 )
+        {
+            scan( between.bind().setToken( 0, range.getStart() ).setToken( 1, range.getEnd() ), handler );
+        }
+        else
+        {
+            // wraps around the ring, or ends at the min token which means up to the end of the ring
+            scan( after.bind().setToken( 0, range.getStart() ), handler );
+            scan( upTo.bind().setToken( 0, range.getEnd() ), handler );
+        }
+    }
+
+    private void scan( final Statement statement, final RowHandler handler )
+            throws IOException
+    {
+        final ResultSet resultSet = session.execute( statement );
+        for ( Row row : resultSet )
+        {
+            if ( resultSet.getAvailableWithoutFetching() == PREFETCH_THRESHOLD && !resultSet.isFullyFetched() )
+            {
+                resultSet.fetchMoreResults();
+            }
+            handler.handle( row );
+            rows.increment();
+        }
+    }
+
+    /**
+     * Handles the rows of one worker.
+     */
+    public interface RowHandler
+            extends Closeable
+    {
+        void handle( Row row )
+                throws IOException;
+
+        @Override
+        default void close()
+                throws IOException
+        {
+        }
+    }
+}
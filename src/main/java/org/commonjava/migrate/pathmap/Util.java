@@ -22,9 +22,15 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class Util
 {
@@ -38,10 +44,43 @@ public class Util
 
     static final int DEFAULT_FAILED_BATCH_SIZE = 10000;
 
+    static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    static final int DEFAULT_GA_FLUSH_INTERVAL = 30;
+
+    static final int DEFAULT_GA_MAX_PENDING = 1000000;
+
+    static final int DEFAULT_SSTABLE_BUFFER = 16;
+
+    static final int DEFAULT_JDBC_BATCH_SIZE = 500;
+
+    static final int DEFAULT_JDBC_POOL_SIZE = 4;
+
+    static final int DEFAULT_LEASE_TIMEOUT = 600;
+
+    static final int DEFAULT_TRACE_BUFFER = 10000;
+
+    static final long TRACE_DUMP_PERIOD = 15000L;
+
+    static final int LOG_BUFFER = 65536;
+
+    static final long LOG_SUMMARY_PERIOD = 10000L;
+
+    static final long LOG_FLUSH_TIMEOUT = 5000L;
+
+    private static final AsyncLog LOG = newLog();
+
+    /**
+     * Shorter than the lines of paths files really are, so what is sized from it is rather too big than too small.
+     */
+    static final int AVERAGE_PATH_LENGTH = 64;
+
     static final String TODO_FILES_DIR = "todo";
 
     static final String PROCESSED_FILES_DIR = "processed";
 
+    static final String INPROGRESS_FILES_DIR = "inprogress";
+
     static final String FAILED_PATHS_FILE = "failed_paths";
 
     static final String STATUS_FILE = "scan_final";
@@ -50,10 +89,59 @@ public class Util
 
     static final String PROGRESS_FILE = "migrate_progress";
 
+    static final String CHECKSUM_CACHE_FILE = "checksum_cache";
+
+    static final String MIGRATED_FILTER_FILE = "migrated_filter";
+
+    /**
+     * Paths skipped by the filter of migrated paths, one per line like in a todo file.
+     */
+    static final String MIGRATED_SKIPPED_FILE = "migrated_skipped";
+
+    static final String DEDUPE_REPORT_FILE = "dedupe_report";
+
+    static final String PATH_TRACES_FILE = "path_traces";
+
+    static final String STORE_PRIORITY_FILE = "store_priority";
+
+    static final String COMPLETED_STORES_DIR = "completed_stores";
+
+    /**
+     * Todo files of one store each, named after the rank of the store, written by scan with a store priority.
+     */
+    static final String PRIORITY_TODO_PREFIX = TODO_FILES_DIR + "-p";
+
+    static final String DEDUPE_DUPLICATES_FILE = "dedupe_duplicates";
+
+    /**
+     * Files deduped copies can point to, one log per owner, all loaded again by the next migrate.
+     */
+    static final String DEDUPE_PRIMARIES_FILE = "dedupe_primaries";
+
+    static final String VERIFY_REPORT_FILE = "verify_report";
+
+    static final String VERIFY_MISSING_FILE = "verify_missing";
+
+    static final String VERIFY_EXTRA_FILE = "verify_extra";
+
+    static final String VERIFY_MISMATCH_FILE = "verify_mismatch";
+
+    static final String EXPORT_DIR = "export";
+
+    static final String IMPORT_FAILED_FILE = "import_failed";
+
     static final String CMD_SCAN = "scan";
 
     static final String CMD_MIGRATE = "migrate";
 
+    static final String CMD_INDEX = "index";
+
+    static final String CMD_VERIFY = "verify";
+
+    static final String CMD_EXPORT = "export";
+
+    static final String CMD_IMPORT = "import";
+
     static void prepareWorkingDir( final String workDir )
             throws IOException
     {
@@ -71,18 +159,56 @@ public class Util
             FileUtils.forceDelete( processedDir.toFile() );
         }
         Files.createDirectories( processedDir );
+        Path inProgressDir = Paths.get( workDir, INPROGRESS_FILES_DIR );
+        if ( inProgressDir.toFile().exists() )
+        {
+            printInfo( "inprogress folder is not empty, will clean it first." );
+            FileUtils.forceDelete( inProgressDir.toFile() );
+        }
+        // markers of an earlier migrate would tell about stores not migrated again yet
+        Path completedDir = Paths.get( workDir, COMPLETED_STORES_DIR );
+        if ( completedDir.toFile().exists() )
+        {
+            printInfo( "completed_stores folder is not empty, will clean it first." );
+            FileUtils.forceDelete( completedDir.toFile() );
+        }
+    }
+
+    private static AsyncLog newLog()
+    {
+        final AsyncLog log = new AsyncLog( System.out, LOG_BUFFER, LOG_SUMMARY_PERIOD );
+        // what is still queued when the commands are done or exit
+        Runtime.getRuntime().addShutdownHook( new Thread( () -> log.flush( LOG_FLUSH_TIMEOUT ), "async-log-flush" ) );
+        return log;
     }
 
     static void printInfo( final String message )
     {
-        System.out.println( message );
+        LOG.info( message );
+    }
+
+    /**
+     * Print an error about a subject like a path, summarizing those repeated with other subjects, see
+     * {@link AsyncLog#error(String, String, String)}.
+     */
+    static void printError( final String format, final String subject, final String detail )
+    {
+        LOG.error( format, subject, detail );
+    }
+
+    /**
+     * Wait until everything printed before is on the console.
+     */
+    static void flushLog()
+    {
+        LOG.flush( LOG_FLUSH_TIMEOUT );
     }
 
     static void newLines( final int lines )
     {
         for ( int i = 0; i < lines; i++ )
         {
-            System.out.println();
+            LOG.info( "" );
         }
     }
 
@@ -91,6 +217,19 @@ public class Util
         newLines( 1 );
     }
 
+    /**
+     * @return about the number of paths in the paths files, from their size
+     */
+    static long estimatePaths( final List<Path> files )
+    {
+        long bytes = 0;
+        for ( Path file : files )
+        {
+            bytes += file.toFile().length();
+        }
+        return Math.max( 1024, bytes / AVERAGE_PATH_LENGTH );
+    }
+
     static Map<Integer, List<Path>> slicePathsByMod( final List<Path> totalPaths, final int mod )
     {
         Map<Integer, List<Path>> slices = new HashMap<>( mod );
@@ -102,4 +241,54 @@ public class Util
         return slices;
     }
 
+    /**
+     * Process the items with the given number of workers, each taking the next item when it is done with one.
+     *
+     * @param what what is done, for the error messages
+     */
+    static <T> void forEachParallel( final Collection<T> items, final int threads, final String what,
+                                     final Worker<T> worker )
+            throws MigrateException
+    {
+        final ConcurrentLinkedQueue<T> queue = new ConcurrentLinkedQueue<>( items );
+        final int workers = Math.max( 1, Math.min( threads, items.size() ) );
+        final ExecutorService executor = Executors.newFixedThreadPool( workers );
+        final List<Future<?>> futures = new ArrayList<>( workers );
+        for ( int i = 0; i < workers; i++ )
+        {
+            futures.add( executor.submit( () -> {
+                T item;
+                while ( ( item = queue.poll() ) != null )
+                {
+                    worker.process( item );
+                }
+                return null;
+            } ) );
+        }
+        executor.shutdown();
+        try
+        {
+            for ( Future<?> future : futures )
+            {
+                future.get();
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new MigrateException( "Error: interrupted while trying to {}", e, what );
+        }
+        catch ( ExecutionException e )
+        {
+            executor.shutdownNow();
+            throw new MigrateException( "Error: failed to {}: {}", e.getCause(), what, e.getCause().getMessage() );
+        }
+    }
+
+    interface Worker<T>
+    {
+        void process( T item )
+                throws Exception;
+    }
 }
@@ -0,0 +1,398 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Session;
+import org.apache.commons.io.FileUtils;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.commonjava.migrate.pathmap.Util.VERIFY_EXTRA_FILE;
+import static org.commonjava.migrate.pathmap.Util.VERIFY_MISMATCH_FILE;
+import static org.commonjava.migrate.pathmap.Util.VERIFY_MISSING_FILE;
+import static org.commonjava.migrate.pathmap.Util.VERIFY_REPORT_FILE;
+import static org.commonjava.migrate.pathmap.Util.estimatePaths;
+import static org.commonjava.migrate.pathmap.Util.forEachParallel;
+import static org.commonjava.migrate.pathmap.Util.newLines;
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Checks the path map against the paths files of scan. The paths files are read into a Bloom filter first; then the
+ * pathmap table is scanned in parallel by token ranges with the {@link TokenRangeScanner}, and each file row is checked
+ * against that filter (not in it: extra), its size against the file on disk and, for a sample, its checksum against
+ * the content, while it is added to a second filter of stored paths; at last the paths files are read again and the
+ * paths not in the stored filter are missing. Nothing is sorted or held per path, so memory only depends on the size
+ * of the filters, and false positives can only hide a missing or extra path, never report a wrong one.
+ */
+public class VerifyCmd
+        implements Command
+{
+    static final double FALSE_POSITIVE_RATE = 0.001;
+
+    private static final String COLUMNS = "filesystem, parentpath, filename, fileid, size, checksum";
+
+    private final LongAdder expected = new LongAdder();
+
+    private final LongAdder unparsable = new LongAdder();
+
+    private final LongAdder rows = new LongAdder();
+
+    private final LongAdder dirs = new LongAdder();
+
+    private final LongAdder missing = new LongAdder();
+
+    private final LongAdder extra = new LongAdder();
+
+    private final LongAdder sizeMismatched = new LongAdder();
+
+    private final LongAdder rehashed = new LongAdder();
+
+    private final LongAdder checksumMismatched = new LongAdder();
+
+    private PathParser parser;
+
+    private PathBloomFilter expectedPaths;
+
+    private PathBloomFilter storedPaths;
+
+    private ChecksumEngine checksumEngine;
+
+    private double sampleRate;
+
+    private ReportLog missingLog;
+
+    private ReportLog extraLog;
+
+    private ReportLog mismatchLog;
+
+    @Override
+    public void run( final MigrateOptions options )
+            throws MigrateException
+    {
+        final long start = System.currentTimeMillis();
+        final List<Path> files = IndexCmd.listPathsFiles( options, MigrateCmd.WORKING_FILES_FILTER );
+        try
+        {
+            prepare( options, files );
+            printInfo( String.format( "Verifying path map against %s paths files with %s threads, filters of %s "
+                                              + "bytes each", files.size(), options.getThreads(),
+                                      expectedPaths.getByteSize() ) );
+
+            readPathsFiles( files, options.getThreads() );
+            printInfo( String.format( "Paths files read: %s paths, in %s seconds", expected.sum(),
+                                      ( System.currentTimeMillis() - start ) / 1000 ) );
+
+            try (CassandraSessionFactory sessions = new CassandraSessionFactory( options ))
+            {
+                scan( sessions.getSession(), options.getCassandraKeyspace(), options.getThreads() );
+            }
+            printInfo( String.format( "Path map scanned: %s files, %s directories, in %s seconds", rows.sum(),
+                                      dirs.sum(), ( System.currentTimeMillis() - start ) / 1000 ) );
+
+            findMissing( files, options.getThreads() );
+        }
+        finally
+        {
+            close();
+        }
+
+        final List<String> report = report();
+        report.add( String.format( "Verify: total spent time: %s seconds",
+                                   ( System.currentTimeMillis() - start ) / 1000 ) );
+        newLines( 2 );
+        report.forEach( Util::printInfo );
+        try
+        {
+            FileUtils.writeLines( Paths.get( options.getWorkDir(), VERIFY_REPORT_FILE ).toFile(), report );
+        }
+        catch ( IOException e )
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Create the filters, sized from the paths files, and the logs of missing, extra and mismatched paths.
+     */
+    void prepare( final MigrateOptions options, final List<Path> files )
+            throws MigrateException
+    {
+        final long expectedPaths = estimatePaths( files );
+        this.expectedPaths = new PathBloomFilter( expectedPaths, FALSE_POSITIVE_RATE );
+        this.storedPaths = new PathBloomFilter( expectedPaths, FALSE_POSITIVE_RATE );
+        this.parser = new PathParser( options.getBaseDir() );
+        this.sampleRate = options.getVerifySampleRate();
+        if ( sampleRate > 0 )
+        {
+            try
+            {
+                this.checksumEngine = new ChecksumEngine( options.getDedupeAlgorithms().get( 0 ),
+                                                          ChecksumEngine.DEFAULT_BUFFER_SIZE,
+                                                          options.getMmapThreshold() * 1024 * 1024 );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new MigrateException( "Error: checksum algorithm not supported: {}", e,
+                                            options.getDedupeAlgorithm() );
+            }
+        }
+        try
+        {
+            this.missingLog = new ReportLog( Paths.get( options.getWorkDir(), VERIFY_MISSING_FILE ).toFile() );
+            this.extraLog = new ReportLog( Paths.get( options.getWorkDir(), VERIFY_EXTRA_FILE ).toFile() );
+            this.mismatchLog = new ReportLog( Paths.get( options.getWorkDir(), VERIFY_MISMATCH_FILE ).toFile() );
+        }
+        catch ( IOException e )
+        {
+            close();
+            throw new MigrateException( "Error: can not create verify logs in {}: {}", e, options.getWorkDir(),
+                                        e.getMessage() );
+        }
+    }
+
+    void readPathsFiles( final List<Path> files, final int threads )
+            throws MigrateException
+    {
+        forEachParallel( files, threads, "read paths files", file -> forEachPath( file, true, parsed -> {
+            expected.increment();
+            expectedPaths.put( key( parsed.getFileSystem(), parsed.getPath() ) );
+        } ) );
+    }
+
+    private void scan( final Session session, final String keyspace, final int threads )
+            throws MigrateException
+    {
+        final TokenRangeScanner scanner = new TokenRangeScanner( session, keyspace + ".pathmap", COLUMNS,
+                                                                 "filesystem, parentpath" );
+        scanner.scan( threads, worker -> row -> checkRow( row.getString( 0 ), row.getString( 1 ), row.getString( 2 ),
+                                                          row.getString( 3 ), row.getLong( 4 ),
+                                                          row.getString( 5 ) ) );
+    }
+
+    /**
+     * Check one row of the path map: directories are only counted, files not in the paths files are extra, and the
+     * size and, for a sample, the checksum of the others are compared with the file on disk.
+     */
+    void checkRow( final String fileSystem, final String parentPath, final String filename, final String fileId,
+                   final long size, final String checksum )
+            throws IOException
+    {
+        if ( fileId == null || filename.endsWith( "/" ) )
+        {
+            dirs.increment();
+            return;
+        }
+        rows.increment();
+        final String path = PathMapUtils.normalize( parentPath, filename );
+        final String key = key( fileSystem, path );
+        storedPaths.put( key );
+        if ( !expectedPaths.mightContain( key ) )
+        {
+            extra.increment();
+            extraLog.write( fileSystem + "\t" + path );
+            return;
+        }
+
+        final File file = new File( parser.toPhysicalPath( fileSystem, path ) );
+        long actualSize;
+        try
+        {
+            actualSize = Files.size( file.toPath() );
+        }
+        catch ( IOException e )
+        {
+            actualSize = -1;
+        }
+        if ( actualSize != size )
+        {
+            sizeMismatched.increment();
+            mismatchLog.write( "size\t" + fileSystem + "\t" + path + "\t" + size + "\t" + actualSize );
+            return;
+        }
+
+        if ( checksumEngine != null && checksum != null && ThreadLocalRandom.current().nextDouble() < sampleRate )
+        {
+            rehashed.increment();
+            final String actualChecksum = checksumEngine.checksum( file );
+            if ( !checksum.equalsIgnoreCase( actualChecksum ) )
+            {
+                checksumMismatched.increment();
+                mismatchLog.write( "checksum\t" + fileSystem + "\t" + path + "\t" + checksum + "\t" + actualChecksum );
+            }
+        }
+    }
+
+    /**
+     * Log the paths of the paths files which are not in the filter of stored paths, as they are in the paths
+     * files, so the log can be given to migrate as a todo file again.
+     */
+    void findMissing( final List<Path> files, final int threads )
+            throws MigrateException
+    {
+        // the unparsable paths were counted when the files were read first
+        forEachParallel( files, threads, "find missing paths", file -> forEachPath( file, false, parsed -> {
+            if ( !storedPaths.mightContain( key( parsed.getFileSystem(), parsed.getPath() ) ) )
+            {
+                missing.increment();
+                missingLog.write( parser.toPhysicalPath( parsed.getFileSystem(), parsed.getPath() ) );
+            }
+        } ) );
+    }
+
+    List<String> report()
+    {
+        final List<String> lines = new ArrayList<>( 8 );
+        lines.add( String.format( "Verify: paths in paths files: %s, unparsable: %s", expected.sum(),
+                                  unparsable.sum() ) );
+        lines.add( String.format( "Verify: files in path map: %s, directories: %s", rows.sum(), dirs.sum() ) );
+        lines.add( String.format( "Verify: missing in path map: %s, see %s", missing.sum(), VERIFY_MISSING_FILE ) );
+        lines.add( String.format( "Verify: extra in path map: %s, see %s", extra.sum(), VERIFY_EXTRA_FILE ) );
+        lines.add( String.format( "Verify: size mismatched: %s, see %s", sizeMismatched.sum(),
+                                  VERIFY_MISMATCH_FILE ) );
+        lines.add( String.format( "Verify: re-hashed: %s, checksum mismatched: %s", rehashed.sum(),
+                                  checksumMismatched.sum() ) );
+        lines.add( String.format( "Verify: false positive rate of the filters: %s, missing and extra paths may be "
+                                          + "undercounted by it", FALSE_POSITIVE_RATE ) );
+        return lines;
+    }
+
+    long getUnparsable()
+    {
+        return unparsable.sum();
+    }
+
+    long getMissing()
+    {
+        return missing.sum();
+    }
+
+    long getExtra()
+    {
+        return extra.sum();
+    }
+
+    long getSizeMismatched()
+    {
+        return sizeMismatched.sum();
+    }
+
+    long getChecksumMismatched()
+    {
+        return checksumMismatched.sum();
+    }
+
+    void close()
+    {
+        for ( ReportLog log : new ReportLog[] { missingLog, extraLog, mismatchLog } )
+        {
+            if ( log != null )
+            {
+                log.close();
+            }
+        }
+    }
+
+    private static String key( final String fileSystem, final String path )
+    {
+        // a file system never has a '/' and a path always starts with one
+        return fileSystem + path;
+    }
+
+    /**
+     * @param countUnparsable true to count the paths which can not be parsed, in only one pass over the files
+     */
+    private void forEachPath( final Path file, final boolean countUnparsable, final PathHandler handler )
+            throws IOException
+    {
+        try (BufferedReader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ))
+        {
+            String physicalPath;
+            while ( ( physicalPath = reader.readLine() ) != null )
+            {
+                final ParsedPath parsed;
+                try
+                {
+                    parsed = parser.parse( physicalPath );
+                }
+                catch ( RuntimeException e )
+                {
+                    if ( countUnparsable )
+                    {
+                        unparsable.increment();
+                    }
+                    continue;
+                }
+                handler.handle( parsed );
+            }
+        }
+    }
+
+    private interface PathHandler
+    {
+        void handle( ParsedPath parsed )
+                throws IOException;
+    }
+
+    /**
+     * Lines of one of the verify logs, written by all workers.
+     */
+    private static final class ReportLog
+            implements Closeable
+    {
+        private final BufferedWriter writer;
+
+        private ReportLog( final File file )
+                throws IOException
+        {
+            this.writer = new BufferedWriter( new FileWriter( file ) );
+        }
+
+        private synchronized void write( final String line )
+                throws IOException
+        {
+            writer.write( line );
+            writer.newLine();
+        }
+
+        @Override
+        public synchronized void close()
+        {
+            try
+            {
+                writer.close();
+            }
+            catch ( IOException e )
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncLogTest
+{
+    private static final long PERIOD = 60000;
+
+    @Test
+    public void linesOfEachThreadArePrintedInOrder()
+            throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsyncLog log = new AsyncLog( new PrintStream( bytes, false, "UTF-8" ), 4096, PERIOD );
+        final ExecutorService threads = Executors.newFixedThreadPool( 4 );
+        final List<Future<?>> futures = new ArrayList<>();
+        for ( int t = 0; t < 4; t++ )
+        {
+            final int thread = t;
+            futures.add( threads.submit( () -> {
+                for ( int i = 0; i < 500; i++ )
+                {
+                    assertTrue( log.info( thread + ":" + i ) );
+                }
+            } ) );
+        }
+        for ( Future<?> future : futures )
+        {
+            future.get();
+        }
+        threads.shutdown();
+        assertTrue( log.flush( 10000 ) );
+
+        final int[] next = new int[4];
+        for ( String line : lines( bytes ) )
+        {
+            final String[] parts = line.split( ":" );
+            final int thread = Integer.parseInt( parts[0] );
+            assertThat( Integer.parseInt( parts[1] ), equalTo( next[thread]++ ) );
+        }
+        assertThat( next, equalTo( new int[] { 500, 500, 500, 500 } ) );
+    }
+
+    @Test
+    public void repeatedErrorsAreSummarized()
+            throws Exception
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final AsyncLog log = new AsyncLog( new PrintStream( bytes, false, "UTF-8" ), 64, PERIOD );
+        for ( int i = 0; i < 1000; i++ )
+        {
+            final String path = "/maven/hosted-build-1/foo-" + i + ".jar";
+            log.error( "Error: %s failed to migrate. Error is: %s", path, "no host available to write " + path );
+        }
+        log.error( "Error: %s failed to migrate. Error is: %s", "/bar.jar", "timeout" );
+        assertTrue( log.flush( 10000 ) );
+
+        assertThat( lines( bytes ), equalTo( Arrays.asList(
+                "Error: /maven/hosted-build-1/foo-0.jar failed to migrate. Error is: no host available to write "
+                        + "/maven/hosted-build-1/foo-0.jar",
+                "Error: /bar.jar failed to migrate. Error is: timeout",
+                "Repeated 999 times in up to 60 seconds, last one: Error: /maven/hosted-build-1/foo-999.jar failed "
+                        + "to migrate. Error is: no host available to write /maven/hosted-build-1/foo-999.jar" ) ) );
+    }
+
+    @Test
+    public void aStuckConsoleDropsLinesInsteadOfBlocking()
+            throws Exception
+    {
+        final CountDownLatch stuck = new CountDownLatch( 1 );
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final OutputStream console = new OutputStream()
+        {
+            @Override
+            public void write( final int b )
+                    throws IOException
+            {
+                try
+                {
+                    stuck.await();
+                }
+                catch ( InterruptedException e )
+                {
+                    throw new IOException( e );
+                }
+                bytes.write( b );
+            }
+        };
+        final AsyncLog log = new AsyncLog( new PrintStream( console, false, "UTF-8" ), 8, PERIOD );
+        for ( int i = 0; i < 100; i++ )
+        {
+            log.info( "line " + i );
+        }
+        // one line is with the console, 8 in the buffer
+        assertTrue( log.getDropped() >= 100 - 1 - 8 );
+        assertThat( log.flush( 100 ), equalTo( false ) );
+        stuck.countDown();
+        assertTrue( log.flush( 10000 ) );
+
+        final List<String> lines = lines( bytes );
+        assertThat( lines.get( 0 ), equalTo( "line 0" ) );
+        assertThat( lines.get( lines.size() - 1 ), equalTo(
+                "Warning: " + log.getDropped() + " lines were dropped as the console could not keep up" ) );
+    }
+
+    private static List<String> lines( final ByteArrayOutputStream bytes )
+    {
+        final String text = new String( bytes.toByteArray(), StandardCharsets.UTF_8 );
+        return Arrays.asList( text.split( System.lineSeparator() ) );
+    }
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.commonjava.storage.pathmapped.util.PathMapUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.PROP_CASSANDRA_HOST;
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.PROP_CASSANDRA_KEYSPACE;
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.PROP_CASSANDRA_PORT;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Migrates a generated storage into an embedded cassandra through the real write path, checks the path map and the GA
+ * cache table against the storage, and records the insert throughput and latency percentiles. Run with
+ * "mvn -Pcassandra-it verify"; -Dit.files sets the number of artifacts and -Dit.minFilesPerSecond fails the run
+ * below a throughput.
+ */
+public class CassandraMigrateIT
+{
+    private static final String KEYSPACE = "indystorage";
+
+    private static final String GA_TABLE = "indycache.ga";
+
+    private static EmbeddedCassandra cassandra;
+
+    private static Cluster cluster;
+
+    private static Session session;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startCassandra()
+            throws Exception
+    {
+        cassandra = EmbeddedCassandra.start();
+        cluster = Cluster.builder()
+                         .withoutJMXReporting()
+                         .addContactPoint( EmbeddedCassandra.HOST )
+                         .withPort( cassandra.getNativePort() )
+                         .build();
+        session = cluster.connect();
+        session.execute( "CREATE KEYSPACE IF NOT EXISTS indycache WITH replication = "
+                                 + "{'class': 'SimpleStrategy', 'replication_factor': 1};" );
+    }
+
+    @AfterClass
+    public static void disconnect()
+    {
+        if ( cluster != null )
+        {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void generatedStorageIsMigrated()
+            throws Exception
+    {
+        final Path base = temp.newFolder( "storage" ).toPath();
+        final SyntheticStorage generator = new SyntheticStorage();
+        generator.setFiles( Integer.getInteger( "it.files", 3000 ) );
+        generator.setMedianFileSize( 1024 );
+        final SyntheticStorage.Stats stats = generator.generate( base );
+        printInfo( String.format( "Generated %s", stats ) );
+
+        final MigrateOptions options = new MigrateOptions();
+        options.setBaseDir( base.toString() );
+        options.setWorkDir( temp.newFolder( "work" ).getAbsolutePath() );
+        options.setThreads( 4 );
+        new ScanCmd().run( options );
+
+        options.setCassandraHost( EmbeddedCassandra.HOST );
+        options.setCassandraPort( Integer.toString( cassandra.getNativePort() ) );
+        options.setCassandraKeyspace( KEYSPACE );
+        options.setIndyCacheTable( GA_TABLE );
+        options.setDedupe( true );
+        options.setWriteThreads( 8 );
+        final Map<String, Object> config = new HashMap<>();
+        config.put( PROP_CASSANDRA_HOST, EmbeddedCassandra.HOST );
+        config.put( PROP_CASSANDRA_PORT, cassandra.getNativePort() );
+        config.put( PROP_CASSANDRA_KEYSPACE, KEYSPACE );
+        final TimedTarget target = new TimedTarget(
+                new CassandraTarget( config, new CassandraSessionFactory( options ), GA_TABLE, false ),
+                (int) stats.getFiles() );
+        options.setTarget( target );
+        final long start = System.nanoTime();
+        new MigrateCmd().run( options );
+        final double seconds = ( System.nanoTime() - start ) / 1e9;
+
+        assertThat( (long) target.getInserts(), equalTo( stats.getFiles() ) );
+        assertPathMap( base );
+        assertGaCache( base );
+        record( stats, target, seconds );
+    }
+
+    private void assertPathMap( final Path base )
+            throws Exception
+    {
+        final PathParser parser = new PathParser( base.toString() );
+        final PreparedStatement select = session.prepare( "SELECT size, checksum, fileid FROM " + KEYSPACE
+                                                                  + ".pathmap WHERE filesystem=? AND parentpath=? AND filename=?;" );
+        final PreparedStatement reverse =
+                session.prepare( "SELECT paths FROM " + KEYSPACE + ".reversemap WHERE fileid=?;" );
+        for ( Path file : listFiles( base ) )
+        {
+            final ParsedPath parsed = parser.parse( file.toString() );
+            final Row row = session.execute( select.bind( parsed.getFileSystem(),
+                                                          PathMapUtils.getParentPath( parsed.getPath() ),
+                                                          PathMapUtils.getFilename( parsed.getPath() ) ) ).one();
+            assertThat( file.toString(), row, notNullValue() );
+            assertThat( file.toString(), row.getLong( "size" ), equalTo( file.toFile().length() ) );
+            assertThat( file.toString(), row.getString( "checksum" ),
+                        equalTo( DigestUtils.md5Hex( Files.readAllBytes( file ) ) ) );
+            final Row paths = session.execute( reverse.bind( row.getString( "fileid" ) ) ).one();
+            assertThat( file.toString(), paths, notNullValue() );
+            assertTrue( file.toString(), paths.getSet( "paths", String.class )
+                                              .contains( PathMapUtils.marshall( parsed.getFileSystem(),
+                                                                                parsed.getPath() ) ) );
+        }
+    }
+
+    /**
+     * The GA cache has every GA of a pom in a build repo with all the build repos it is in.
+     */
+    private void assertGaCache( final Path base )
+            throws Exception
+    {
+        final PathParser parser = new PathParser( base.toString() );
+        final Map<String, Set<String>> expected = new TreeMap<>();
+        final Set<String> scanned = new TreeSet<>();
+        for ( Path file : listFiles( base ) )
+        {
+            final ParsedPath parsed = parser.parse( file.toString() );
+            if ( parsed.getFileSystem().matches( "maven:hosted:build-\\d+" ) && parsed.getPath().endsWith( ".pom" ) )
+            {
+                final String repo = parsed.getFileSystem().substring( GAExtractor.MAVEN_HOSTED.length() );
+                expected.computeIfAbsent( GAExtractor.getGaPath( parsed.getPath() ), k -> new TreeSet<>() )
+                        .add( repo );
+                scanned.add( repo );
+            }
+        }
+        final Map<String, Set<String>> actual = new TreeMap<>();
+        for ( Row row : session.execute( "SELECT ga, stores FROM " + GA_TABLE + ";" ) )
+        {
+            actual.put( row.getString( "ga" ), new TreeSet<>( row.getSet( "stores", String.class ) ) );
+        }
+        assertThat( actual.remove( GAIndex.SCANNED_STORES ), equalTo( scanned ) );
+        assertThat( actual, equalTo( expected ) );
+    }
+
+    private static void record( final SyntheticStorage.Stats stats, final TimedTarget target, final double seconds )
+            throws Exception
+    {
+        final String result = String.format( Locale.ROOT,
+                                              "{\"files\":%s,\"bytes\":%s,\"seconds\":%.3f,\"filesPerSecond\":%.1f,"
+                                                      + "\"insertP50Micros\":%s,\"insertP95Micros\":%s,"
+                                                      + "\"insertP99Micros\":%s,\"insertMaxMicros\":%s}",
+                                              stats.getFiles(), stats.getBytes(), seconds,
+                                              stats.getFiles() / seconds, target.getPercentileMicros( 50 ),
+                                              target.getPercentileMicros( 95 ), target.getPercentileMicros( 99 ),
+                                              target.getPercentileMicros( 100 ) );
+        printInfo( "Cassandra migrate: " + result );
+        final String resultFile = System.getProperty( "it.result" );
+        if ( resultFile != null )
+        {
+            Files.write( new File( resultFile ).toPath(), Collections.singletonList( result ), StandardCharsets.UTF_8,
+                         StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+        }
+        final double minFilesPerSecond = Double.parseDouble( System.getProperty( "it.minFilesPerSecond", "0" ) );
+        assertTrue( String.format( "%.1f files/s is below the minimum of %s", stats.getFiles() / seconds,
+                                   minFilesPerSecond ), stats.getFiles() / seconds >= minFilesPerSecond );
+    }
+
+    private static List<Path> listFiles( final Path base )
+            throws Exception
+    {
+        try (Stream<Path> files = Files.walk( base ))
+        {
+            return files.filter( Files::isRegularFile ).collect( Collectors.toList() );
+        }
+    }
+}
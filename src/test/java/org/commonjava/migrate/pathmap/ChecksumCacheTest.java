@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class ChecksumCacheTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void entriesSurviveReopenAndInvalidateOnChange()
+            throws Exception
+    {
+        final File log = new File( temporaryFolder.getRoot(), "checksum_cache" );
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            for ( int i = 1; i <= 100000; i++ )
+            {
+                cache.put( 42, i, i * 10L, 1000L + i, md5( i ) );
+            }
+            cache.put( 42, 7, 71L, 2000L, md5( -7 ) ); // file 7 changed, last record wins
+        }
+
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            assertThat( cache.size(), equalTo( 100000 ) );
+            assertThat( cache.get( 42, 1, 10L, 1001L ), equalTo( md5( 1 ) ) );
+            assertThat( cache.get( 42, 99999, 999990L, 1000L + 99999 ), equalTo( md5( 99999 ) ) );
+            assertThat( cache.get( 42, 7, 71L, 2000L ), equalTo( md5( -7 ) ) );
+            assertThat( cache.get( 42, 7, 70L, 1007L ), nullValue() );
+            assertThat( cache.get( 42, 2, 20L, 9999L ), nullValue() ); // mtime changed
+            assertThat( cache.get( 43, 2, 20L, 1002L ), nullValue() ); // other device
+        }
+    }
+
+    @Test
+    public void truncatedRecordAndOtherAlgorithmAreIgnored()
+            throws Exception
+    {
+        final File log = new File( temporaryFolder.getRoot(), "checksum_cache" );
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            cache.put( 1, 1, 1L, 1L, md5( 1 ) );
+            cache.put( 1, 2, 2L, 2L, md5( 2 ) );
+        }
+        try (RandomAccessFile raf = new RandomAccessFile( log, "rw" ))
+        {
+            raf.setLength( raf.length() - 3 );
+        }
+
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            assertThat( cache.get( 1, 1, 1L, 1L ), equalTo( md5( 1 ) ) );
+            assertThat( cache.get( 1, 2, 2L, 2L ), nullValue() );
+            cache.put( 1, 3, 3L, 3L, md5( 3 ) );
+        }
+
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            assertThat( cache.get( 1, 1, 1L, 1L ), equalTo( md5( 1 ) ) );
+            assertThat( cache.get( 1, 3, 3L, 3L ), equalTo( md5( 3 ) ) );
+        }
+
+        try (ChecksumCache cache = ChecksumCache.open( log, "SHA-1", 20 ))
+        {
+            assertThat( cache.size(), equalTo( 0 ) );
+        }
+    }
+
+    @Test
+    public void lookupsDoNotWaitForTheLog()
+            throws Exception
+    {
+        final File log = new File( temporaryFolder.getRoot(), "checksum_cache" );
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            final Future<?> put;
+            synchronized ( cache.logLock ) // a slow disk: the append can not go through
+            {
+                put = executor.submit( () -> {
+                    cache.put( 5, 5, 5L, 5L, md5( 5 ) );
+                    return null;
+                } );
+                final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 10 );
+                while ( cache.get( 5, 5, 5L, 5L ) == null && System.nanoTime() < deadline )
+                {
+                    Thread.sleep( 1 );
+                }
+                assertThat( cache.get( 5, 5, 5L, 5L ), equalTo( md5( 5 ) ) );
+                assertThat( put.isDone(), is( false ) );
+            }
+            put.get( 10, TimeUnit.SECONDS );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        try (ChecksumCache cache = ChecksumCache.open( log, "MD5", 16 ))
+        {
+            assertThat( cache.get( 5, 5, 5L, 5L ), equalTo( md5( 5 ) ) );
+        }
+    }
+
+    private static String md5( final int i )
+    {
+        return DigestUtils.md5Hex( String.valueOf( i ) );
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChecksumEngineTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void streamedAndMappedMatchPlainDigest()
+            throws Exception
+    {
+        final byte[] content = randomBytes( 300 * 1024 + 17 );
+        final File f = temporaryFolder.newFile( "big" );
+        FileUtils.writeByteArrayToFile( f, content );
+
+        final ChecksumEngine streamed = new ChecksumEngine( "MD5", 4096, 0 );
+        final ChecksumEngine mapped = new ChecksumEngine( "MD5", 4096, 1024 );
+
+        assertEquals( DigestUtils.md5Hex( content ), streamed.checksum( f ) );
+        assertEquals( DigestUtils.md5Hex( content ), mapped.checksum( f ) );
+    }
+
+    @Test
+    public void differentFilesGetDifferentChecksums()
+            throws Exception
+    {
+        final File f1 = temporaryFolder.newFile( "f1" );
+        FileUtils.writeStringToFile( f1, "abc" );
+        final File f2 = temporaryFolder.newFile( "f2" );
+        FileUtils.writeStringToFile( f2, "def" );
+        final File empty = temporaryFolder.newFile( "empty" );
+
+        final ChecksumEngine engine = new ChecksumEngine( "MD5", 0, 0 );
+        assertEquals( DigestUtils.md5Hex( "abc" ), engine.checksum( f1 ) );
+        assertEquals( DigestUtils.md5Hex( "def" ), engine.checksum( f2 ) );
+        assertEquals( DigestUtils.md5Hex( new byte[0] ), engine.checksum( empty ) );
+    }
+
+    @Test
+    public void multipleAlgorithmsInOnePass()
+            throws Exception
+    {
+        final byte[] content = randomBytes( 200 * 1024 + 3 );
+        final File f = temporaryFolder.newFile( "multi" );
+        FileUtils.writeByteArrayToFile( f, content );
+
+        final List<String> algorithms = Arrays.asList( "SHA-256", "MD5", "SHA-1" );
+        for ( ChecksumEngine engine : Arrays.asList( new ChecksumEngine( algorithms, 4096, 0, 1 ),
+                                                     new ChecksumEngine( algorithms, 4096, 0, 3 ),
+                                                     new ChecksumEngine( algorithms, 4096, 1024, 3 ) ) )
+        {
+            final Map<String, String> checksums = engine.checksums( f );
+            assertEquals( algorithms, new ArrayList<>( checksums.keySet() ) );
+            assertEquals( DigestUtils.sha256Hex( content ), checksums.get( "SHA-256" ) );
+            assertEquals( DigestUtils.md5Hex( content ), checksums.get( "MD5" ) );
+            assertEquals( DigestUtils.shaHex( content ), checksums.get( "SHA-1" ) );
+            assertEquals( DigestUtils.sha256Hex( content ), engine.checksum( f ) );
+            assertEquals( checksums, engine.split( engine.join( checksums ) ) );
+            assertEquals( ( 32 + 16 + 20 ) * 2, engine.join( checksums ).length() );
+        }
+    }
+
+    @Test
+    public void sharedEngineIsCorrectUnderConcurrency()
+            throws Exception
+    {
+        final List<File> files = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for ( int i = 0; i < 16; i++ )
+        {
+            final byte[] content = randomBytes( 8192 * ( i + 1 ) + i );
+            final File f = temporaryFolder.newFile( "f" + i );
+            FileUtils.writeByteArrayToFile( f, content );
+            files.add( f );
+            expected.add( DigestUtils.sha256Hex( content ) );
+        }
+
+        final ChecksumEngine engine = new ChecksumEngine( "SHA-256", 1024, 0 );
+        final ExecutorService service = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            final List<Future<?>> futures = new ArrayList<>();
+            for ( int round = 0; round < 20; round++ )
+            {
+                for ( int i = 0; i < files.size(); i++ )
+                {
+                    final int idx = i;
+                    futures.add( service.submit( () -> {
+                        assertEquals( expected.get( idx ), engine.checksum( files.get( idx ) ) );
+                        return null;
+                    } ) );
+                }
+            }
+            for ( Future<?> f : futures )
+            {
+                f.get();
+            }
+        }
+        finally
+        {
+            service.shutdownNow();
+        }
+    }
+
+    @Test
+    public void everyCallerGetsLanesOfItsOwn()
+            throws Exception
+    {
+        final List<File> files = new ArrayList<>();
+        final List<String> expected = new ArrayList<>();
+        for ( int i = 0; i < 8; i++ )
+        {
+            final byte[] content = randomBytes( 16384 * ( i + 1 ) + i );
+            final File f = temporaryFolder.newFile( "lanes" + i );
+            FileUtils.writeByteArrayToFile( f, content );
+            files.add( f );
+            expected.add( DigestUtils.md5Hex( content ) + DigestUtils.shaHex( content )
+                                  + DigestUtils.sha512Hex( content ) );
+        }
+
+        // two lanes for three other digests, so a lane updates more than one
+        final ChecksumEngine engine =
+                new ChecksumEngine( Arrays.asList( "SHA-256", "MD5", "SHA-1", "SHA-512" ), 1024, 0, 2 );
+        final ExecutorService service = Executors.newFixedThreadPool( 8 );
+        try
+        {
+            final List<Future<?>> futures = new ArrayList<>();
+            for ( int round = 0; round < 10; round++ )
+            {
+                for ( int i = 0; i < files.size(); i++ )
+                {
+                    final int idx = i;
+                    futures.add( service.submit( () -> {
+                        final Map<String, String> checksums = engine.checksums( files.get( idx ) );
+                        assertEquals( expected.get( idx ),
+                                      checksums.get( "MD5" ) + checksums.get( "SHA-1" ) + checksums.get( "SHA-512" ) );
+                        return null;
+                    } ) );
+                }
+            }
+            for ( Future<?> f : futures )
+            {
+                f.get();
+            }
+        }
+        finally
+        {
+            service.shutdownNow();
+        }
+    }
+
+    private byte[] randomBytes( final int size )
+    {
+        final byte[] bytes = new byte[size];
+        new Random( size ).nextBytes( bytes );
+        return bytes;
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class DedupeIndexTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void duplicatesPointToFirstSeenFile()
+            throws Exception
+    {
+        final File log = temporaryFolder.newFile( "dedupe_duplicates" );
+        try (DedupeIndex index = new DedupeIndex( log ))
+        {
+            for ( int i = 0; i < 50000; i++ )
+            {
+                final String checksum = DigestUtils.md5Hex( "content-" + i );
+                assertThat( index.get( checksum, 10, "store/" + i ), nullValue() );
+                assertThat( index.register( checksum, "id-" + i, "store/" + i, 10 ), equalTo( true ) );
+            }
+
+            final DedupeIndex.Entry shared = index.get( DigestUtils.md5Hex( "content-42" ), 10, "store/dup" );
+            assertThat( shared.getFileId(), equalTo( "id-42" ) );
+            assertThat( shared.getStorePath(), equalTo( "store/42" ) );
+            index.shared( "store/dup", shared, 10 );
+
+            final String sha256 = DigestUtils.sha256Hex( "content-42" );
+            assertThat( index.get( sha256, 5, "store/sha" ), nullValue() );
+            index.register( sha256, "id-sha", "store/sha", 5 );
+            final DedupeIndex.Entry sharedSha = index.get( sha256, 5, "store/sha2" );
+            assertThat( sharedSha.getFileId(), equalTo( "id-sha" ) );
+            index.shared( "store/sha2", sharedSha, 5 );
+
+            assertThat( index.getUniqueFiles(), equalTo( 50001L ) );
+            assertThat( index.getDuplicateFiles(), equalTo( 2L ) );
+            assertThat( index.getDuplicateBytes(), equalTo( 15L ) );
+        }
+
+        final List<String> duplicates = FileUtils.readLines( log );
+        assertThat( duplicates.size(), equalTo( 2 ) );
+        assertThat( duplicates.get( 0 ), equalTo( "store/dup\tstore/42\t10" ) );
+    }
+
+    @Test
+    public void fileOfAnotherSizeIsNotACopy()
+            throws Exception
+    {
+        try (DedupeIndex index = new DedupeIndex( null ))
+        {
+            final String checksum = DigestUtils.md5Hex( "content" );
+            index.register( checksum, "id-1", "store/1", 10 );
+            assertThat( index.get( checksum, 11, "store/2" ), nullValue() );
+            // the first one keeps the checksum
+            assertThat( index.register( checksum, "id-2", "store/2", 11 ), equalTo( false ) );
+            assertThat( index.get( checksum, 10, "store/3" ).getFileId(), equalTo( "id-1" ) );
+            assertThat( index.get( checksum, 11, "store/4" ), nullValue() );
+
+            assertThat( index.getUniqueFiles(), equalTo( 2L ) );
+            assertThat( index.report().get( 3 ), equalTo( "Dedupe: same checksum with another size, not deduped: 2" ) );
+        }
+    }
+
+    @Test
+    public void primariesAreLoadedAgain()
+            throws Exception
+    {
+        final File duplicates = temporaryFolder.newFile( "dedupe_duplicates" );
+        final File primaries = temporaryFolder.newFile( "dedupe_primaries" );
+        final String checksum = DigestUtils.md5Hex( "content" );
+        try (DedupeIndex index = new DedupeIndex( duplicates, primaries ))
+        {
+            index.register( checksum, "id-1", "store/1", 10 );
+        }
+
+        try (DedupeIndex index = new DedupeIndex( duplicates, primaries ))
+        {
+            assertThat( index.load( primaries ), equalTo( 1 ) );
+            final DedupeIndex.Entry shared = index.get( checksum, 10, "store/2" );
+            assertThat( shared.getFileId(), equalTo( "id-1" ) );
+            index.shared( "store/2", shared, 10 );
+            // the primary itself migrated again is no copy of itself
+            index.shared( "store/1", index.get( checksum, 10, "store/1" ), 10 );
+
+            assertThat( index.getUniqueFiles(), equalTo( 1L ) );
+            assertThat( index.getDuplicateFiles(), equalTo( 1L ) );
+        }
+
+        assertThat( FileUtils.readLines( primaries ).size(), equalTo( 1 ) );
+        assertThat( FileUtils.readLines( duplicates ).size(), equalTo( 1 ) );
+    }
+}
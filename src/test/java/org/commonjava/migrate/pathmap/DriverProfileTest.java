@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.Configuration;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.HostDistance;
+import com.datastax.driver.core.ProtocolOptions;
+import com.datastax.driver.core.policies.ConstantSpeculativeExecutionPolicy;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DriverProfileTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void profileFileAndOptionsAreApplied()
+            throws Exception
+    {
+        final File file = temporaryFolder.newFile( "driver.properties" );
+        FileUtils.writeStringToFile( file, "connectionsPerHost=4\nmaxRequestsPerConnection=2048\ncompression=lz4\n"
+                + "consistency=LOCAL_QUORUM\nfetchSize=1000\nreadTimeout=30000\nspeculativeDelay=50\n" );
+        final MigrateOptions options = new MigrateOptions();
+        options.setDriverProfile( file );
+        options.setConsistency( "one" );
+        options.setFetchSize( 5000 );
+        final DriverProfile profile = options.getDriverProfile();
+
+        final Cluster.Builder builder = Cluster.builder().withoutJMXReporting().addContactPoint( "127.0.0.1" );
+        profile.apply( builder );
+        final Configuration config = builder.getConfiguration();
+        assertThat( config.getPoolingOptions().getCoreConnectionsPerHost( HostDistance.LOCAL ), equalTo( 4 ) );
+        assertThat( config.getPoolingOptions().getMaxConnectionsPerHost( HostDistance.REMOTE ), equalTo( 4 ) );
+        assertThat( config.getPoolingOptions().getMaxRequestsPerConnection( HostDistance.LOCAL ), equalTo( 2048 ) );
+        assertThat( config.getProtocolOptions().getCompression(), equalTo( ProtocolOptions.Compression.LZ4 ) );
+        assertThat( config.getQueryOptions().getConsistencyLevel(), equalTo( ConsistencyLevel.ONE ) );
+        assertThat( config.getQueryOptions().getFetchSize(), equalTo( 5000 ) );
+        assertTrue( config.getQueryOptions().getDefaultIdempotence() );
+        assertThat( config.getSocketOptions().getReadTimeoutMillis(), equalTo( 30000 ) );
+        assertThat( config.getPolicies().getSpeculativeExecutionPolicy(),
+                    instanceOf( ConstantSpeculativeExecutionPolicy.class ) );
+    }
+
+    @Test( expected = MigrateException.class )
+    public void invalidValueIsRejected()
+            throws Exception
+    {
+        new DriverProfile().set( DriverProfile.COMPRESSION, "zstd" );
+    }
+
+    @Test( expected = MigrateException.class )
+    public void unknownKeyIsRejected()
+            throws Exception
+    {
+        new DriverProfile().set( "poolSize", "4" );
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.cassandra.service.CassandraDaemon;
+import org.apache.commons.io.FileUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * A single node cassandra inside the test JVM, listening on free ports of localhost with its data in
+ * target/cassandra-it, so the integration tests need neither a network nor a cassandra install. It is started once for
+ * all tests of the JVM, as cassandra can not start again after a stop, and ends with the JVM.
+ */
+final class EmbeddedCassandra
+{
+    static final String HOST = "127.0.0.1";
+
+    private static EmbeddedCassandra instance;
+
+    private final int nativePort;
+
+    static synchronized EmbeddedCassandra start()
+            throws IOException
+    {
+        if ( instance == null )
+        {
+            instance = new EmbeddedCassandra( Paths.get( System.getProperty( "it.cassandra.dir", "target/cassandra-it" ) )
+                                                   .toAbsolutePath() );
+        }
+        return instance;
+    }
+
+    private EmbeddedCassandra( final Path dir )
+            throws IOException
+    {
+        FileUtils.deleteQuietly( dir.toFile() );
+        Files.createDirectories( dir );
+        this.nativePort = freePort();
+        final Path config = dir.resolve( "cassandra.yaml" );
+        Files.write( config, Arrays.asList( "cluster_name: pathmap-it",
+                                            "num_tokens: 1",
+                                            "partitioner: org.apache.cassandra.dht.Murmur3Partitioner",
+                                            "data_file_directories:",
+                                            "  - " + dir.resolve( "data" ),
+                                            "commitlog_directory: " + dir.resolve( "commitlog" ),
+                                            "saved_caches_directory: " + dir.resolve( "saved_caches" ),
+                                            "hints_directory: " + dir.resolve( "hints" ),
+                                            "cdc_raw_directory: " + dir.resolve( "cdc_raw" ),
+                                            "commitlog_sync: periodic",
+                                            "commitlog_sync_period_in_ms: 10000",
+                                            "seed_provider:",
+                                            "  - class_name: org.apache.cassandra.locator.SimpleSeedProvider",
+                                            "    parameters:",
+                                            "      - seeds: \"" + HOST + "\"",
+                                            "listen_address: " + HOST,
+                                            "rpc_address: " + HOST,
+                                            "storage_port: " + freePort(),
+                                            "native_transport_port: " + nativePort,
+                                            "start_native_transport: true",
+                                            "start_rpc: false",
+                                            "endpoint_snitch: SimpleSnitch",
+                                            "disk_access_mode: standard" ), StandardCharsets.UTF_8 );
+        System.setProperty( "cassandra.config", config.toUri().toString() );
+        System.setProperty( "cassandra.storagedir", dir.toString() );
+        System.setProperty( "cassandra.jmx.local.port", Integer.toString( freePort() ) );
+        System.setProperty( "cassandra-foreground", "true" );
+
+        // managed: a failed start throws instead of exiting the JVM
+        final CassandraDaemon daemon = new CassandraDaemon( true );
+        daemon.activate();
+        if ( !daemon.isNativeTransportRunning() )
+        {
+            throw new IllegalStateException( "Embedded cassandra started without native transport" );
+        }
+    }
+
+    int getNativePort()
+    {
+        return nativePort;
+    }
+
+    private static int freePort()
+            throws IOException
+    {
+        try (ServerSocket socket = new ServerSocket( 0 ))
+        {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ExportCmdTest
+{
+    private static final String BASE = "/opt/indy/var/lib/indy/storage";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void rowIsWrittenAndParsedBack()
+    {
+        final PathMapRow row = new PathMapRow( "maven:hosted:build-1", "/org/foo\tbar", "foo\\1.0\n.pom", "id-1",
+                                               new Date( 1500000000000L ), null, 42, "maven/hosted-build-1/x",
+                                               null );
+        final String line = row.toLine();
+        assertThat( line.split( "\t", -1 ).length, equalTo( 9 ) );
+        assertTrue( line.indexOf( '\n' ) < 0 );
+
+        final PathMapRow parsed = PathMapRow.parse( line );
+        assertThat( parsed.getFileSystem(), equalTo( row.getFileSystem() ) );
+        assertThat( parsed.getPath(), equalTo( "/org/foo\tbar/foo\\1.0\n.pom" ) );
+        assertThat( parsed.getFileId(), equalTo( "id-1" ) );
+        assertThat( parsed.getCreation(), equalTo( row.getCreation() ) );
+        assertThat( parsed.getExpiration(), nullValue() );
+        assertThat( parsed.getSize(), equalTo( 42L ) );
+        assertThat( parsed.getFileStorage(), equalTo( row.getFileStorage() ) );
+        assertThat( parsed.getChecksum(), nullValue() );
+    }
+
+    @Test
+    public void shardsAreImportedAsRestoredEntries()
+            throws Exception
+    {
+        final File exportDir = temporaryFolder.newFolder( "export" );
+        final ExportCmd export = new ExportCmd();
+        for ( int worker = 0; worker < 3; worker++ )
+        {
+            try (ExportCmd.ShardWriter writer = export.openShard( exportDir, worker ))
+            {
+                writer.write( new PathMapRow( "maven:hosted:build-" + worker, "/org/foo", "", null, null, null, 0,
+                                              null, null ) );
+                for ( int i = 0; i < 100; i++ )
+                {
+                    writer.write( new PathMapRow( "maven:hosted:build-" + worker, "/org/foo/1." + i,
+                                                  "foo-1." + i + ".pom", "id-" + worker + "-" + i,
+                                                  new Date( 1000L * i ), null, i, "storage/" + i, "sum-" + i ) );
+                }
+            }
+        }
+        assertThat( export.getShardRows().size(), equalTo( 3 ) );
+        assertTrue( export.getShardRows().values().stream().allMatch( rows -> rows == 100L ) );
+
+        final List<Path> shards = ExportCmd.listShards( exportDir );
+        assertThat( shards.size(), equalTo( 3 ) );
+        final ImportCmd importCmd = new ImportCmd();
+        final List<MigrateEntry> entries = new ArrayList<>();
+        for ( Path shard : shards )
+        {
+            importCmd.readShard( shard, new PathParser( BASE ), entries::add );
+        }
+        assertThat( importCmd.getRead(), equalTo( 300L ) );
+
+        final MigrateEntry entry = entries.get( 105 );
+        assertTrue( entry.isRestored() );
+        assertThat( entry.getFileSystem(), equalTo( "maven:hosted:build-1" ) );
+        assertThat( entry.getPath(), equalTo( "/org/foo/1.5/foo-1.5.pom" ) );
+        assertThat( entry.getPhysicalPath(), equalTo( BASE + "/maven/hosted-build-1/org/foo/1.5/foo-1.5.pom" ) );
+        assertThat( entry.getFileId(), equalTo( "id-1-5" ) );
+        assertThat( entry.getStorePath(), equalTo( "storage/5" ) );
+        assertThat( entry.getCreation(), equalTo( new Date( 5000L ) ) );
+        assertThat( entry.getSize(), equalTo( 5L ) );
+        assertThat( entry.getChecksum(), equalTo( "sum-5" ) );
+    }
+
+    @Test
+    public void exportWithoutManifestIsOnlyImportedWithForce()
+            throws Exception
+    {
+        final File workDir = temporaryFolder.newFolder( "work" );
+        final File exportDir = temporaryFolder.newFolder( "export" );
+        // a crashed export leaves its shards but no manifest
+        try (ExportCmd.ShardWriter writer = new ExportCmd().openShard( exportDir, 0 ))
+        {
+            writer.write( new PathMapRow( "maven:hosted:build-1", "/org/foo/1.0", "foo-1.0.pom", "id-1",
+                                          new Date( 1000L ), null, 1, "storage/1", "sum-1" ) );
+        }
+        final String[] args =
+                { "import", "-b", BASE, "-w", workDir.getPath(), "--exportDir", exportDir.getPath() };
+
+        final MigrateOptions options = new MigrateOptions();
+        options.setTarget( new MemoryTarget() );
+        assertFalse( options.parseArgs( args ) );
+
+        final MigrateOptions forced = new MigrateOptions();
+        final MemoryTarget target = new MemoryTarget();
+        forced.setTarget( target );
+        final String[] forceArgs = Arrays.copyOf( args, args.length + 1 );
+        forceArgs[args.length] = "--force";
+        assertTrue( forced.parseArgs( forceArgs ) );
+        new ImportCmd().run( forced );
+        assertThat( target.getFiles(), equalTo( 1L ) );
+    }
+}
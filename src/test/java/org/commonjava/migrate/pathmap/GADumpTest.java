@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GADumpTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void segmentsAreLoadedBackAndCompacted()
+            throws Exception
+    {
+        final File file = new File( temporaryFolder.getRoot(), "ga_cache_dump" );
+        final Map<String, Set<String>> expected = new TreeMap<>();
+        final GATrie known = new GATrie();
+        final Set<String> scanned = new HashSet<>();
+        try (GADump dump = GADump.open( file, known, scanned ))
+        {
+            for ( int segment = 0; segment < 5; segment++ )
+            {
+                final TreeMap<String, Set<String>> gas = new TreeMap<>();
+                for ( int i = 0; i < 300; i++ )
+                {
+                    final String ga = "org/commonjava/indy/module-" + ( i % 120 );
+                    final String repo = "build-" + ( segment * 7 + i ) % 11;
+                    known.add( ga, repo );
+                    gas.computeIfAbsent( ga, k -> new TreeSet<>() ).add( repo );
+                    expected.computeIfAbsent( ga, k -> new TreeSet<>() ).add( repo );
+                }
+                scanned.add( "build-" + segment );
+                dump.append( gas, new TreeSet<>( scanned ) );
+            }
+            assertThat( dump.getSegments(), equalTo( 5 ) );
+            assertThat( load( file, new HashSet<>() ), equalTo( expected ) );
+
+            dump.compact( known, scanned );
+            assertThat( dump.getSegments(), equalTo( 1 ) );
+            dump.append( new TreeMap<>( Collections.singletonMap( "org/foo/new", Collections.singleton( "build-99" ) ) ),
+                         null );
+        }
+        expected.put( "org/foo/new", Collections.singleton( "build-99" ) );
+
+        final Set<String> loadedScanned = new HashSet<>();
+        assertThat( load( file, loadedScanned ), equalTo( expected ) );
+        assertThat( loadedScanned, equalTo( new HashSet<>(
+                Arrays.asList( "build-0", "build-1", "build-2", "build-3", "build-4" ) ) ) );
+    }
+
+    @Test
+    public void truncatedSegmentIsDropped()
+            throws Exception
+    {
+        final File file = new File( temporaryFolder.getRoot(), "ga_cache_dump" );
+        try (GADump dump = GADump.open( file, new GATrie(), new HashSet<>() ))
+        {
+            dump.append( new TreeMap<>( Collections.singletonMap( "org/foo/a", Collections.singleton( "build-1" ) ) ),
+                         null );
+            dump.append( new TreeMap<>( Collections.singletonMap( "org/foo/b", Collections.singleton( "build-2" ) ) ),
+                         null );
+        }
+        try (RandomAccessFile raf = new RandomAccessFile( file, "rw" ))
+        {
+            raf.setLength( raf.length() - 3 );
+        }
+
+        final GATrie known = new GATrie();
+        try (GADump dump = GADump.open( file, known, new HashSet<>() ))
+        {
+            assertThat( dump.getSegments(), equalTo( 1 ) );
+            dump.append( new TreeMap<>( Collections.singletonMap( "org/foo/c", Collections.singleton( "build-3" ) ) ),
+                         null );
+        }
+        assertTrue( known.contains( "org/foo/a", "build-1" ) );
+        assertThat( load( file, new HashSet<>() ).keySet(),
+                    equalTo( new TreeSet<>( Arrays.asList( "org/foo/a", "org/foo/c" ) ) ) );
+    }
+
+    @Test
+    public void textDumpIsMovedAside()
+            throws Exception
+    {
+        final File file = new File( temporaryFolder.getRoot(), "ga_cache_dump" );
+        FileUtils.writeStringToFile( file, "org/foo/a=[build-1]\n" );
+        final GATrie known = new GATrie();
+        GADump.open( file, known, new HashSet<>() ).close();
+
+        assertThat( known.size(), equalTo( 0L ) );
+        assertThat( FileUtils.readFileToString( new File( file.getPath() + ".old" ) ),
+                    equalTo( "org/foo/a=[build-1]\n" ) );
+        assertThat( load( file, new HashSet<>() ).size(), equalTo( 0 ) );
+    }
+
+    private static Map<String, Set<String>> load( final File file, final Set<String> scanned )
+            throws Exception
+    {
+        final GATrie trie = new GATrie();
+        GADump.read( file, trie, scanned );
+        final Map<String, Set<String>> result = new TreeMap<>();
+        trie.forEach( ( ga, repos ) -> result.put( ga, new TreeSet<>( repos ) ) );
+        return result;
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class GAExtractorTest
+{
+    @Test
+    public void sameGaPathAsBefore()
+    {
+        final String[] paths = { "/org/commonjava/indy/indy-api/1.0/indy-api-1.0.pom", "/g/1.0/a-1.0.pom",
+                "/1.0/a-1.0.pom", "/a-1.0.pom", "a-1.0.pom", "g/1.0/a-1.0.pom", "org/foo/bar/1.0/bar-1.0.pom",
+                "//org/foo/1.0/foo-1.0.pom", "/org//foo/1.0/foo-1.0.pom", "/org/foo/1.0//foo-1.0.pom",
+                "/org/foo//1.0/foo-1.0.pom", "/org/./foo/1.0/foo-1.0.pom", "/org/foo/../bar/1.0/bar-1.0.pom",
+                "/", "" };
+        for ( String path : paths )
+        {
+            assertThat( path, GAExtractor.getGaPath( path ), equalTo( GAExtractor.slowGaPath( path ) ) );
+        }
+        assertThat( GAExtractor.getGaPath( "/org/commonjava/indy/indy-api/1.0/indy-api-1.0.pom" ),
+                    equalTo( "org/commonjava/indy/indy-api" ) );
+    }
+
+    @Test
+    public void onlyMatchingHostedReposAreIndexed()
+    {
+        final GAExtractor extractor = new GAExtractor( "^build-\\d+" );
+        assertThat( extractor.repoOf( "maven:hosted:build-123" ), equalTo( "build-123" ) );
+        assertThat( extractor.repoOf( "maven:hosted:build-123" ), equalTo( "build-123" ) );
+        assertThat( extractor.repoOf( "maven:hosted:build-x" ), nullValue() );
+        assertThat( extractor.repoOf( "maven:remote:build-1" ), nullValue() );
+        assertThat( extractor.repoOf( "npm:hosted:build-1" ), nullValue() );
+        assertThat( new GAExtractor( null ).repoOf( "maven:hosted:build-1" ), nullValue() );
+    }
+}
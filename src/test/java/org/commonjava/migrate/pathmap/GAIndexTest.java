@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GAIndexTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private final Map<String, Set<String>> table = new ConcurrentHashMap<>();
+
+    private final AtomicInteger failures = new AtomicInteger( 0 );
+
+    private final GAIndex.Writer writer = ( ga, repos ) -> {
+        if ( failures.getAndDecrement() > 0 )
+        {
+            return Futures.immediateFailedFuture( new IllegalStateException( "unavailable" ) );
+        }
+        table.computeIfAbsent( ga, k -> ConcurrentHashMap.newKeySet() ).addAll( repos );
+        return Futures.immediateFuture( null );
+    };
+
+    @Test
+    public void concurrentAddsAreAllWrittenAndDumped()
+            throws Exception
+    {
+        final File dump = temporaryFolder.newFile( "ga_cache_dump" );
+        final GAIndex index = new GAIndex( writer, dump, 5, 100, 4 );
+        final ExecutorService service = Executors.newFixedThreadPool( 8 );
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int repo = t;
+            service.execute( () -> {
+                for ( int i = 0; i < 5000; i++ )
+                {
+                    index.add( "org/foo/artifact-" + ( i % 1000 ), "build-" + repo );
+                }
+                index.addScanned( "build-" + repo );
+            } );
+        }
+        service.shutdown();
+        assertTrue( service.awaitTermination( 1, TimeUnit.MINUTES ) );
+        index.close();
+
+        assertThat( table.size(), equalTo( 1001 ) );
+        assertThat( table.get( "org/foo/artifact-7" ).size(), equalTo( 8 ) );
+        assertThat( table.get( GAIndex.SCANNED_STORES ).size(), equalTo( 8 ) );
+        assertTrue( index.getWritten() >= 8000L + 8 ); // pairs added again after a flush are written again
+        assertThat( index.getPendingEntries(), equalTo( 0L ) );
+
+        final GATrie dumped = new GATrie();
+        final Set<String> scanned = new HashSet<>();
+        GADump.read( dump, dumped, scanned );
+        final Map<String, Set<String>> fromDump = new HashMap<>();
+        dumped.forEach( fromDump::put );
+        fromDump.put( GAIndex.SCANNED_STORES, scanned );
+        assertThat( fromDump, equalTo( table ) );
+    }
+
+    @Test
+    public void failedWritesAreRetried()
+            throws Exception
+    {
+        failures.set( 2 );
+        final GAIndex index = new GAIndex( writer, null, 60000, 1000, 1 );
+        index.add( "org/foo/a", "build-1" );
+        index.add( "org/foo/b", "build-2" );
+        index.flush();
+        assertThat( index.getFailed(), equalTo( 2L ) );
+        assertThat( index.getPendingEntries(), equalTo( 2L ) );
+
+        index.close();
+        assertThat( table.get( "org/foo/a" ).size(), equalTo( 1 ) );
+        assertThat( table.get( "org/foo/b" ).size(), equalTo( 1 ) );
+        assertThat( index.getPendingEntries(), equalTo( 0L ) );
+    }
+
+    @Test
+    public void rerunWritesAllItsPairsAgain()
+            throws Exception
+    {
+        final File dump = new File( temporaryFolder.getRoot(), "ga_cache_dump" );
+        final GAIndex first = new GAIndex( writer, dump, 60000, 1000, 4 );
+        first.add( "org/foo/a", "build-1" );
+        first.add( "org/foo/b", "build-1" );
+        first.addScanned( "build-1" );
+        first.close();
+
+        // e.g. the table was lost
+        table.clear();
+        final GAIndex second = new GAIndex( writer, dump, 60000, 1000, 4 );
+        second.add( "org/foo/a", "build-1" );
+        second.add( "org/foo/a", "build-2" );
+        second.addScanned( "build-2" );
+        second.close();
+
+        assertThat( table.get( "org/foo/a" ), equalTo( new HashSet<>( Arrays.asList( "build-1", "build-2" ) ) ) );
+        assertThat( table.containsKey( "org/foo/b" ), equalTo( false ) );
+        assertThat( table.get( GAIndex.SCANNED_STORES ),
+                    equalTo( new HashSet<>( Arrays.asList( "build-1", "build-2" ) ) ) );
+        assertThat( second.getWritten(), equalTo( 2L + 2 ) );
+
+        final GATrie dumped = new GATrie();
+        GADump.read( dump, dumped, new HashSet<>() );
+        assertThat( dumped.size(), equalTo( 3L ) );
+    }
+
+    @Test
+    public void pairsStillFailingAtCloseAreWrittenByNextRun()
+            throws Exception
+    {
+        final File dump = new File( temporaryFolder.getRoot(), "ga_cache_dump" );
+        final File pending = new File( dump.getPath() + GAIndex.PENDING_SUFFIX );
+        failures.set( Integer.MAX_VALUE );
+        final GAIndex first = new GAIndex( writer, dump, 60000, 1000, 4 );
+        first.add( "org/foo/a", "build-1" );
+        first.add( "org/foo/a", "build-2" );
+        first.close();
+        assertThat( first.getPendingEntries(), equalTo( 2L ) );
+        assertTrue( pending.exists() );
+
+        failures.set( 0 );
+        final GAIndex second = new GAIndex( writer, dump, 60000, 1000, 4 );
+        assertThat( second.getPendingEntries(), equalTo( 2L ) );
+        second.close();
+        assertThat( table.get( "org/foo/a" ), equalTo( new HashSet<>( Arrays.asList( "build-1", "build-2" ) ) ) );
+        assertThat( pending.exists(), equalTo( false ) );
+    }
+}
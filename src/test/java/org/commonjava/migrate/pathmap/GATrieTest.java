@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GATrieTest
+{
+    @Test
+    public void sameContentAsMapOfSets()
+    {
+        final GATrie trie = new GATrie();
+        final Map<String, Set<String>> expected = new TreeMap<>();
+        final Random random = new Random( 42 );
+        final String[] groups = { "org/commonjava/indy", "org/commonjava/indy/client", "org/apache/maven", "org",
+                "com/redhat", "io/netty", "" };
+        for ( int i = 0; i < 20000; i++ )
+        {
+            final String ga = groups[random.nextInt( groups.length )] + "/artifact-" + random.nextInt( 500 );
+            final String repo = "build-" + random.nextInt( 20 );
+            final boolean added = expected.computeIfAbsent( ga, k -> new TreeSet<>() ).add( repo );
+            assertThat( trie.add( ga, repo ), equalTo( added ) );
+        }
+        assertTrue( trie.add( "org", "build-1" ) );
+        expected.computeIfAbsent( "org", k -> new TreeSet<>() ).add( "build-1" );
+        assertTrue( trie.contains( "org/apache/maven/artifact-1", "build-3" )
+                            == expected.get( "org/apache/maven/artifact-1" ).contains( "build-3" ) );
+        assertFalse( trie.contains( "org/apache/mave", "build-3" ) );
+        assertFalse( trie.contains( "org", "no-such-repo" ) );
+
+        final Map<String, Set<String>> actual = new TreeMap<>();
+        trie.forEach( ( ga, repos ) -> actual.put( ga, new TreeSet<>( repos ) ) );
+        assertThat( actual, equalTo( expected ) );
+        long pairs = 0;
+        for ( Set<String> repos : expected.values() )
+        {
+            pairs += repos.size();
+        }
+        assertThat( trie.size(), equalTo( pairs ) );
+    }
+
+    @Test
+    public void gasOfOneShardAreSorted()
+    {
+        final GATrie trie = new GATrie();
+        for ( String ga : new String[] { "org/b/x", "org/a", "org/a/b", "org/ab", "org/a/a", "org" } )
+        {
+            trie.add( ga, "build-1" );
+        }
+        final List<String> gas = new ArrayList<>();
+        trie.forEach( ( ga, repos ) -> gas.add( ga ) );
+        final List<String> sorted = new ArrayList<>( new TreeSet<>( gas ) );
+        assertThat( gas, equalTo( sorted ) );
+    }
+
+    @Test
+    public void drainWhileAddingLosesNothing()
+            throws Exception
+    {
+        final GATrie trie = new GATrie();
+        final Map<String, Set<String>> drained = new ConcurrentHashMap<>();
+        final ExecutorService service = Executors.newFixedThreadPool( 4 );
+        for ( int t = 0; t < 4; t++ )
+        {
+            final int repo = t;
+            service.execute( () -> {
+                for ( int i = 0; i < 20000; i++ )
+                {
+                    trie.add( "g" + ( i % 7 ) + "/a" + i, "build-" + repo );
+                }
+            } );
+        }
+        service.shutdown();
+        long count = 0;
+        while ( !service.isTerminated() )
+        {
+            count += trie.drain( ( ga, repos ) -> drained.computeIfAbsent( ga, k -> ConcurrentHashMap.newKeySet() )
+                                                        .addAll( repos ) );
+        }
+        assertTrue( service.awaitTermination( 1, TimeUnit.MINUTES ) );
+        count += trie.drain(
+                ( ga, repos ) -> drained.computeIfAbsent( ga, k -> ConcurrentHashMap.newKeySet() ).addAll( repos ) );
+
+        assertThat( drained.size(), equalTo( 20000 ) );
+        assertThat( count, equalTo( 80000L ) );
+        assertThat( trie.size(), equalTo( 0L ) );
+    }
+
+    @Test
+    public void mergePartialTries()
+    {
+        final RepoDictionary repos = new RepoDictionary();
+        final GATrie first = new GATrie( repos );
+        final GATrie second = new GATrie( repos );
+        first.add( "org/foo/a", "build-1" );
+        second.add( "org/foo/a", "build-2" );
+        second.add( "org/foo/b", "build-2" );
+        first.merge( second );
+
+        final GATrie other = new GATrie();
+        other.add( "org/foo/c", "build-3" );
+        first.merge( other );
+
+        final Map<String, Set<String>> result = new HashMap<>();
+        first.forEach( ( ga, names ) -> result.put( ga, new TreeSet<>( names ) ) );
+        assertThat( result.get( "org/foo/a" ), equalTo( new TreeSet<>( Arrays.asList( "build-1", "build-2" ) ) ) );
+        assertThat( result.size(), equalTo( 3 ) );
+        assertThat( first.size(), equalTo( 4L ) );
+    }
+}
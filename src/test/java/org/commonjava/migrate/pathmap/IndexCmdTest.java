@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class IndexCmdTest
+{
+    private static final String BASE = "/opt/indy/var/lib/indy/storage";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private MigrateOptions options;
+
+    private final Map<String, Set<String>> expected = new TreeMap<>();
+
+    @Before
+    public void prepare()
+            throws Exception
+    {
+        final File workDir = temporaryFolder.newFolder( "work" );
+        Util.prepareWorkingDir( workDir.getAbsolutePath() );
+        options = new MigrateOptions();
+        options.setWorkDir( workDir.getAbsolutePath() );
+        options.setBaseDir( BASE );
+        options.setIndexGAStorePattern( "^build-\\d+" );
+        options.setIndexDumpOnly( true );
+        options.setThreads( 3 );
+
+        for ( int batch = 0; batch < 6; batch++ )
+        {
+            final List<String> lines = new ArrayList<>();
+            for ( int i = 0; i < 100; i++ )
+            {
+                final String repo = "build-" + ( ( batch * 100 + i ) % 7 );
+                final String ga = "org/foo/artifact-" + ( i % 40 );
+                lines.add( BASE + "/maven/hosted-" + repo + "/" + ga + "/1." + i + "/artifact-1." + i + ".pom" );
+                lines.add( BASE + "/maven/hosted-" + repo + "/" + ga + "/1." + i + "/artifact-1." + i + ".jar" );
+                expected.computeIfAbsent( ga, k -> new TreeSet<>() ).add( repo );
+            }
+            lines.add( BASE + "/maven/hosted-shared-imports/org/bar/bar/1.0/bar-1.0.pom" );
+            lines.add( BASE + "/maven/remote-build-1/org/bar/baz/1.0/baz-1.0.pom" );
+            lines.add( BASE + "/maven/hosted-build-1/bad.pom" );
+            final String dir = batch % 2 == 0 ? options.getToDoDir() : options.getProcessedDir();
+            FileUtils.writeLines( new File( dir, "todo-maven-batch-" + batch + ".txt" ), lines );
+        }
+        FileUtils.writeLines( new File( options.getToDoDir(), "todo-npm-batch-0.txt" ), Arrays.asList(
+                BASE + "/npm/hosted-build-1/org/npm/pkg/1.0/pkg-1.0.pom" ) );
+    }
+
+    @Test
+    public void pathsFilesOfPriorityScanAreFound()
+            throws Exception
+    {
+        FileUtils.writeLines( new File( options.getToDoDir(), "todo-p000000-maven-hosted-build-1-batch-0.txt" ),
+                              Arrays.asList( BASE + "/maven/hosted-build-1/org/foo/artifact-0/2.0/artifact-2.0.pom" ) );
+        FileUtils.writeLines( new File( options.getToDoDir(), "todo-p000001-npm-hosted-build-1-batch-0.txt" ),
+                              Arrays.asList( BASE + "/npm/hosted-build-1/org/npm/pkg/2.0/pkg-2.0.pom" ) );
+        assertThat( IndexCmd.listPathsFiles( options ).size(), equalTo( 6 + 1 ) );
+    }
+
+    @Test
+    public void partialIndexesAreMerged()
+            throws Exception
+    {
+        final List<Path> files = IndexCmd.listPathsFiles( options );
+        assertThat( files.size(), equalTo( 6 ) );
+
+        final Set<String> scanned = ConcurrentHashMap.newKeySet();
+        final GATrie index = new IndexCmd().build( files, 3, BASE, options.getIndexGAStorePattern(), scanned );
+        final Map<String, Set<String>> actual = new TreeMap<>();
+        index.forEach( ( ga, repos ) -> actual.put( ga, new TreeSet<>( repos ) ) );
+        assertThat( actual, equalTo( expected ) );
+        assertThat( scanned.size(), equalTo( 7 ) );
+    }
+
+    @Test
+    public void dumpOnlyRunWritesIndexToDump()
+            throws Exception
+    {
+        new IndexCmd().run( options );
+
+        final GATrie dumped = new GATrie();
+        final Set<String> scanned = new HashSet<>();
+        GADump.read( new File( options.getWorkDir(), Util.GA_CACHE_DUMP ), dumped, scanned );
+        final Map<String, Set<String>> actual = new TreeMap<>();
+        dumped.forEach( ( ga, repos ) -> actual.put( ga, new TreeSet<>( repos ) ) );
+        assertThat( scanned.size(), equalTo( 7 ) );
+        assertThat( actual, equalTo( expected ) );
+    }
+
+    @Test
+    public void tableRunAfterDumpOnlyRunWritesEverything()
+            throws Exception
+    {
+        new IndexCmd().run( options );
+
+        final Map<String, Set<String>> table = new ConcurrentHashMap<>();
+        options.setIndexDumpOnly( false );
+        new IndexCmd( ( ga, repos ) -> {
+            table.computeIfAbsent( ga, k -> new TreeSet<>() ).addAll( repos );
+            return Futures.immediateFuture( null );
+        } ).run( options );
+
+        assertThat( table.remove( GAIndex.SCANNED_STORES ).size(), equalTo( 7 ) );
+        assertThat( table, equalTo( expected ) );
+    }
+}
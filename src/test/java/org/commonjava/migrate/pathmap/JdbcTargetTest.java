@@ -0,0 +1,274 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.h2.api.Trigger;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class JdbcTargetTest
+{
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    @Test
+    public void concurrentInsertsAreWrittenInBatches()
+            throws Exception
+    {
+        final String url = newDatabase();
+        final JdbcTarget target = new JdbcTarget( url, null, null, "indycache_ga", 50, 2, 8 );
+        final ExecutorService threads = Executors.newFixedThreadPool( 8 );
+        final List<Future<?>> futures = new ArrayList<>();
+        for ( int t = 0; t < 8; t++ )
+        {
+            final int thread = t;
+            futures.add( threads.submit( () -> {
+                for ( int i = thread; i < 1000; i += 8 )
+                {
+                    final String fileSystem = "maven:hosted:build-" + ( i % 3 );
+                    final String path = "/org/foo/foo-" + ( i % 10 ) + "/1.0/foo-" + i + ".jar";
+                    target.insert( fileSystem, path, new Date(), null, "id-" + i, i, "st/" + i, "sum-" + i,
+                                   i < 500 );
+                }
+                return null;
+            } ) );
+        }
+        for ( Future<?> future : futures )
+        {
+            future.get();
+        }
+        threads.shutdown();
+        target.appendGa( "org/foo/foo-1", new HashSet<>( Arrays.asList( "build-1", "build-2" ) ) ).get();
+        final String report = target.report().get( 0 );
+        target.close();
+
+        // 1000 files in the dirs /org/foo/foo-N/1.0 of 3 file systems, which have 10 of 1.0 and foo-N, and org and foo
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap" ), equalTo( 1000 + 3 * ( 10 + 10 + 2 ) ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap WHERE fileid IS NULL AND size = 0" ),
+                    equalTo( 3 * ( 10 + 10 + 2 ) ) );
+        assertThat( query( url, "SELECT fileid FROM pathmap WHERE filesystem = 'maven:hosted:build-2' "
+                + "AND parentpath = '/org/foo/foo-1/1.0' AND filename = 'foo-11.jar'" ), equalTo( "id-11" ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM reversemap" ), equalTo( 1000 ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM filechecksum" ), equalTo( 500 ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM indycache_ga" ), equalTo( 2 ) );
+        assertThat( report, containsString( "written again file by file: 0" ) );
+        final int batches = Integer.parseInt( report.replaceAll( "^JDBC: batches: (\\d+) .*", "$1" ) );
+        assertTrue( "Inserts were not grouped: " + report, batches < 1000 );
+    }
+
+    @Test
+    public void rowsOfAnEarlierRunAreUpdated()
+            throws Exception
+    {
+        final String url = newDatabase();
+        JdbcTarget target = new JdbcTarget( url, null, null, null, 50, 1, 1 );
+        target.insert( "maven:hosted:build-1", "/org/foo/1.0/foo.jar", new Date(), null, "id-1", 1, "st/1", "sum-1",
+                       true );
+        target.putChecksums( "maven:hosted:build-1", "/org/foo/1.0/foo.jar",
+                             Collections.singletonMap( "md5", "md5-1" ) );
+        target.close();
+
+        target = new JdbcTarget( url, null, null, null, 50, 1, 1 );
+        target.insert( "maven:hosted:build-1", "/org/foo/1.0/foo.jar", new Date(), null, "id-2", 2, "st/2", "sum-2",
+                       true );
+        target.putChecksums( "maven:hosted:build-1", "/org/foo/1.0/foo.jar",
+                             Collections.singletonMap( "md5", "md5-2" ) );
+        final String report = target.report().get( 0 );
+        target.close();
+
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap" ), equalTo( 1 + 3 ) );
+        assertThat( query( url, "SELECT fileid FROM pathmap WHERE filename = 'foo.jar'" ), equalTo( "id-2" ) );
+        assertThat( query( url, "SELECT size FROM pathmap WHERE filename = 'foo.jar'" ), equalTo( "2" ) );
+        assertThat( query( url, "SELECT checksum FROM pathchecksums WHERE algorithm = 'md5'" ), equalTo( "md5-2" ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM reversemap" ), equalTo( 2 ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM filechecksum" ), equalTo( 2 ) );
+        assertThat( report, containsString( "written again file by file: 2" ) );
+    }
+
+    @Test
+    public void onlyTheFailedFileOfABatchFails()
+            throws Exception
+    {
+        final String url = newDatabase();
+        final JdbcTarget target = new JdbcTarget( url, null, null, null, 50, 1, 2 );
+        final ExecutorService threads = Executors.newFixedThreadPool( 2 );
+        final Future<?> good = threads.submit( () -> {
+            target.insert( "maven:hosted:build-1", "/org/foo/1.0/foo.jar", new Date(), null, "id-1", 1, "st/1", null,
+                           false );
+            return null;
+        } );
+        final Future<?> bad = threads.submit( () -> {
+            // longer than the column
+            target.insert( "maven:hosted:build-1", "/org/foo/1.0/bar.jar", new Date(), null,
+                           String.join( "", Collections.nCopies( 300, "x" ) ), 1, "st/1", null, false );
+            return null;
+        } );
+        assertThat( good.get(), nullValue() );
+        try
+        {
+            bad.get();
+            fail( "Insert of a too long file id succeeded" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IOException );
+        }
+        threads.shutdown();
+        target.close();
+        assertThat( query( url, "SELECT fileid FROM pathmap WHERE filename = 'foo.jar'" ), equalTo( "id-1" ) );
+        // the dirs are there whichever of the two wrote them
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap" ), equalTo( 1 + 3 ) );
+    }
+
+    @Test
+    public void directoryOfAFailedBatchIsWrittenByTheFileWhichSkippedIt()
+            throws Exception
+    {
+        final String url = newDatabase();
+        final JdbcTarget target = new JdbcTarget( url, null, null, null, 1, 2, 2 );
+        try (Connection connection = DriverManager.getConnection( url );
+             Statement statement = connection.createStatement())
+        {
+            statement.executeUpdate( "CREATE TRIGGER refuse_dir BEFORE INSERT ON pathmap FOR EACH ROW CALL \""
+                                             + RefuseDirUntilCommitted.class.getName() + "\"" );
+        }
+        final ExecutorService threads = Executors.newFixedThreadPool( 2 );
+        // writes the dirs, which are refused until the other file is committed, and once more when written again
+        final Future<?> owner = threads.submit( () -> {
+            target.insert( "maven:hosted:build-1", "/org/foo/1.0/foo.jar", new Date(), null, "id-1", 1, "st/1", null,
+                           false );
+            return null;
+        } );
+        assertTrue( RefuseDirUntilCommitted.DIR_REACHED.await( 10, TimeUnit.SECONDS ) );
+        // skips the dirs, which are being written
+        final Future<?> other = threads.submit( () -> {
+            target.insert( "maven:hosted:build-1", "/org/foo/1.0/bar.jar", new Date(), null, "id-2", 2, "st/2", null,
+                           false );
+            return null;
+        } );
+        assertThat( other.get(), nullValue() );
+        try
+        {
+            owner.get();
+            fail( "Insert with refused directory rows succeeded" );
+        }
+        catch ( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IOException );
+        }
+        threads.shutdown();
+        target.close();
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap WHERE filename = 'foo.jar'" ), equalTo( 0 ) );
+        assertThat( query( url, "SELECT fileid FROM pathmap WHERE filename = 'bar.jar'" ), equalTo( "id-2" ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap WHERE filename = '1.0/'" ),
+                    equalTo( 1 ) );
+        assertThat( count( url, "SELECT COUNT(*) FROM pathmap" ), equalTo( 1 + 3 ) );
+    }
+
+    @Test
+    public void duplicateKeysAreIntegrityViolations()
+    {
+        assertTrue( JdbcTarget.isDuplicateKey( new SQLException( "duplicate", "23505" ) ) );
+        final SQLException batch = new SQLException( "batch", "HY000" );
+        batch.setNextException( new SQLException( "duplicate", "23000" ) );
+        assertTrue( JdbcTarget.isDuplicateKey( batch ) );
+        assertThat( JdbcTarget.isDuplicateKey( new SQLException( "too long", "22001" ) ), equalTo( false ) );
+    }
+
+    /**
+     * Refuses the row of the dir /org/foo/1.0 twice, the first time once the file bar.jar is being inserted.
+     */
+    public static final class RefuseDirUntilCommitted
+            implements Trigger
+    {
+        static final CountDownLatch DIR_REACHED = new CountDownLatch( 1 );
+
+        static final CountDownLatch FILE_REACHED = new CountDownLatch( 1 );
+
+        static final AtomicInteger REFUSALS = new AtomicInteger( 2 );
+
+        @Override
+        public void fire( final Connection connection, final Object[] oldRow, final Object[] newRow )
+                throws SQLException
+        {
+            if ( "bar.jar".equals( newRow[2] ) )
+            {
+                FILE_REACHED.countDown();
+            }
+            else if ( newRow[3] == null && "1.0/".equals( newRow[2] ) && REFUSALS.getAndDecrement() > 0 )
+            {
+                DIR_REACHED.countDown();
+                try
+                {
+                    FILE_REACHED.await( 10, TimeUnit.SECONDS );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                throw new SQLException( "Directory refused", "HY000" );
+            }
+        }
+    }
+
+    private static String newDatabase()
+    {
+        return "jdbc:h2:mem:pathmap" + DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1";
+    }
+
+    private static int count( final String url, final String sql )
+            throws SQLException
+    {
+        return Integer.parseInt( query( url, sql ) );
+    }
+
+    private static String query( final String url, final String sql )
+            throws SQLException
+    {
+        try (Connection connection = DriverManager.getConnection( url );
+             Statement statement = connection.createStatement();
+             ResultSet result = statement.executeQuery( sql ))
+        {
+            assertTrue( result.next() );
+            return result.getString( 1 );
+        }
+    }
+}
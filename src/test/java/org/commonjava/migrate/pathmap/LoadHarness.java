@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.io.FileUtils;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+import static org.commonjava.migrate.pathmap.Util.printInfo;
+
+/**
+ * Runs scan and migrate on a {@link SyntheticStorage}, with migrate writing to a {@link MemoryTarget} so that no
+ * cassandra is needed, and reports the files and bytes per second and the peak heap of each. Arguments after "--"
+ * go to migrate, like --dedupe or --writeThreads, to compare settings and changes on the same storage:
+ * <pre>
+ * mvn -Pload test-compile exec:exec -Dload.args="--files 100000 -- --dedupe"
+ * </pre>
+ */
+public class LoadHarness
+{
+    @Option( name = "--storage", usage = "Dir to generate the storage in, which is used as it is if not empty; default is a temp dir removed at the end" )
+    private File storage;
+
+    @Option( name = "--files", usage = "Artifacts to generate, not counting sidecars, default is 10000" )
+    private int files = 10000;
+
+    @Option( name = "--maven", usage = "Maven repos to generate, default is 20" )
+    private int mavenRepos = 20;
+
+    @Option( name = "--npm", usage = "Npm repos to generate, default is 5" )
+    private int npmRepos = 5;
+
+    @Option( name = "--generic", usage = "Generic-http repos to generate, default is 3" )
+    private int genericRepos = 3;
+
+    @Option( name = "--skew", usage = "Exponent of the Zipf distribution of files over repos, default is 1.1" )
+    private double repoSkew = 1.1;
+
+    @Option( name = "--medianSize", usage = "Median file size in bytes, default is 4096" )
+    private int medianFileSize = 4096;
+
+    @Option( name = "--duplicates", usage = "Fraction of files which are copies of other files, default is 0.05" )
+    private double duplicateRate = 0.05;
+
+    @Option( name = "--noSidecars", usage = "Generate no md5 and sha1 files next to maven artifacts" )
+    private boolean noSidecars;
+
+    @Option( name = "--seed", usage = "Seed of the generated storage, default is 1" )
+    private long seed = 1;
+
+    @Option( name = "--threads", usage = "Threads of scan, default is number of processors" )
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    @Option( name = "--result", usage = "File to append the results to as JSON lines" )
+    private File result;
+
+    public static void main( final String[] args )
+            throws Exception
+    {
+        final int split = Arrays.asList( args ).indexOf( "--" );
+        final String[] own = split < 0 ? args : Arrays.copyOfRange( args, 0, split );
+        final String[] migrateArgs = split < 0 ? new String[0] : Arrays.copyOfRange( args, split + 1, args.length );
+        final LoadHarness harness = new LoadHarness();
+        final CmdLineParser parser = new CmdLineParser( harness );
+        try
+        {
+            parser.parseArgument( own );
+        }
+        catch ( CmdLineException e )
+        {
+            printInfo( "Invalid option(s): " + e.getMessage() );
+            parser.printUsage( System.out );
+            System.exit( 1 );
+        }
+        harness.run( migrateArgs );
+        // migrate leaves its progress timer behind
+        System.exit( 0 );
+    }
+
+    List<Phase> run( final String... migrateArgs )
+            throws IOException, MigrateException
+    {
+        final boolean temporary = storage == null;
+        final Path base = temporary ? Files.createTempDirectory( "indy-storage" ) : storage.toPath();
+        final Path workDir = Files.createTempDirectory( "load-work" );
+        try
+        {
+            if ( isEmpty( base ) )
+            {
+                generate( base );
+            }
+            final long[] totals = measureStorage( base );
+            printInfo( String.format( "Storage %s: %s files, %s bytes", base, totals[0], totals[1] ) );
+
+            final List<Phase> phases = new ArrayList<>();
+            final MigrateOptions scanOptions = new MigrateOptions();
+            if ( !scanOptions.parseArgs( new String[] { "scan", "-b", base.toString(), "-w", workDir.toString(), "-t",
+                    Integer.toString( threads ) } ) )
+            {
+                throw new MigrateException( "Error: invalid scan options" );
+            }
+            phases.add( measure( "scan", new ScanCmd(), scanOptions, () -> totals ) );
+
+            final MemoryTarget target = new MemoryTarget();
+            final List<String> args = new ArrayList<>( Arrays.asList( "migrate", "-b", base.toString(), "-w",
+                                                                      workDir.toString() ) );
+            args.addAll( Arrays.asList( migrateArgs ) );
+            final MigrateOptions migrateOptions = new MigrateOptions();
+            migrateOptions.setTarget( target );
+            if ( !migrateOptions.parseArgs( args.toArray( new String[0] ) ) )
+            {
+                throw new MigrateException( "Error: invalid migrate options {}", Arrays.toString( migrateArgs ) );
+            }
+            phases.add( measure( "migrate", new MigrateCmd(), migrateOptions,
+                                 () -> new long[] { target.getFiles(), target.getBytes() } ) );
+
+            printInfo( "" );
+            phases.forEach( phase -> printInfo( phase.toString() ) );
+            if ( result != null )
+            {
+                final List<String> lines = new ArrayList<>();
+                for ( Phase phase : phases )
+                {
+                    lines.add( phase.toJson( String.join( " ", migrateArgs ) ) );
+                }
+                Files.write( result.toPath(), lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                             StandardOpenOption.APPEND );
+                printInfo( String.format( "Results appended to %s", result ) );
+            }
+            return phases;
+        }
+        finally
+        {
+            FileUtils.deleteQuietly( workDir.toFile() );
+            if ( temporary )
+            {
+                FileUtils.deleteQuietly( base.toFile() );
+            }
+        }
+    }
+
+    private void generate( final Path base )
+            throws IOException
+    {
+        final SyntheticStorage generator = new SyntheticStorage();
+        generator.setSeed( seed );
+        generator.setFiles( files );
+        generator.setMavenRepos( mavenRepos );
+        generator.setNpmRepos( npmRepos );
+        generator.setGenericRepos( genericRepos );
+        generator.setRepoSkew( repoSkew );
+        generator.setMedianFileSize( medianFileSize );
+        generator.setDuplicateRate( duplicateRate );
+        generator.setSidecars( !noSidecars );
+        final long start = System.nanoTime();
+        final SyntheticStorage.Stats stats = generator.generate( base );
+        printInfo( String.format( "Generated %s in %.1f seconds", stats, ( System.nanoTime() - start ) / 1e9 ) );
+    }
+
+    private static boolean isEmpty( final Path dir )
+            throws IOException
+    {
+        try (Stream<Path> children = Files.list( dir ))
+        {
+            return !children.findAny().isPresent();
+        }
+    }
+
+    private static long[] measureStorage( final Path base )
+            throws IOException
+    {
+        final long[] totals = new long[2];
+        try (Stream<Path> files = Files.walk( base ))
+        {
+            files.filter( Files::isRegularFile ).forEach( file -> {
+                totals[0]++;
+                totals[1] += file.toFile().length();
+            } );
+        }
+        return totals;
+    }
+
+    /**
+     * Run a command with the peaks of the heap pools reset before, so the peak is that of the command.
+     *
+     * @param done files and bytes done by the command, asked for when it ended
+     */
+    private static Phase measure( final String name, final Command command, final MigrateOptions options,
+                                  final Done done )
+            throws MigrateException
+    {
+        System.gc();
+        final List<MemoryPoolMXBean> heap = new ArrayList<>();
+        for ( MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+        {
+            if ( pool.getType() == MemoryType.HEAP )
+            {
+                pool.resetPeakUsage();
+                heap.add( pool );
+            }
+        }
+        final long start = System.nanoTime();
+        command.run( options );
+        final double seconds = ( System.nanoTime() - start ) / 1e9;
+        long peak = 0;
+        for ( MemoryPoolMXBean pool : heap )
+        {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        final long[] counts = done.get();
+        return new Phase( name, counts[0], counts[1], seconds, peak );
+    }
+
+    private interface Done
+    {
+        long[] get();
+    }
+
+    static final class Phase
+    {
+        final String name;
+
+        final long files;
+
+        final long bytes;
+
+        final double seconds;
+
+        // sum of the peaks of the heap pools, which may be a little more than the peak of the whole heap
+        final long peakHeap;
+
+        private Phase( final String name, final long files, final long bytes, final double seconds,
+                       final long peakHeap )
+        {
+            this.name = name;
+            this.files = files;
+            this.bytes = bytes;
+            this.seconds = seconds;
+            this.peakHeap = peakHeap;
+        }
+
+        double filesPerSecond()
+        {
+            return files / Math.max( seconds, 1e-3 );
+        }
+
+        double bytesPerSecond()
+        {
+            return bytes / Math.max( seconds, 1e-3 );
+        }
+
+        String toJson( final String migrateArgs )
+        {
+            return String.format( Locale.ROOT, "{\"phase\":\"%s\",\"args\":\"%s\",\"files\":%s,\"bytes\":%s,"
+                                          + "\"seconds\":%.3f,\"filesPerSecond\":%.1f,\"bytesPerSecond\":%.1f,"
+                                          + "\"peakHeapBytes\":%s}",
+                                  name, migrateArgs.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ), files, bytes,
+                                  seconds, filesPerSecond(), bytesPerSecond(), peakHeap );
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%s: %s files, %.1f MB in %.1f seconds: %.0f files/s, %.1f MB/s, peak heap %s MB",
+                                  name, files, bytes / ( 1024.0 * 1024 ), seconds, filesPerSecond(),
+                                  bytesPerSecond() / ( 1024 * 1024 ), peakHeap / ( 1024 * 1024 ) );
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.args4j.CmdLineParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class LoadHarnessTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void everyGeneratedFileIsScannedAndMigrated()
+            throws Exception
+    {
+        final File result = new File( temp.getRoot(), "result.json" );
+        final LoadHarness harness = new LoadHarness();
+        new CmdLineParser( harness ).parseArgument( "--files", "500", "--medianSize", "256",
+                                                                       "--threads", "2", "--result",
+                                                                       result.getPath() );
+        final List<LoadHarness.Phase> phases = harness.run( "--dedupe", "--sidecarChecksum" );
+
+        assertThat( phases.size(), equalTo( 2 ) );
+        final LoadHarness.Phase scan = phases.get( 0 );
+        final LoadHarness.Phase migrate = phases.get( 1 );
+        assertThat( migrate.files, equalTo( scan.files ) );
+        assertThat( migrate.bytes, equalTo( scan.bytes ) );
+        assertTrue( migrate.filesPerSecond() > 0 && migrate.peakHeap > 0 );
+        final List<String> lines = Files.readAllLines( result.toPath() );
+        assertThat( lines.size(), equalTo( 2 ) );
+        assertThat( lines.get( 1 ), containsString( "\"phase\":\"migrate\",\"args\":\"--dedupe --sidecarChecksum\"" ) );
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what migrate writes instead of storing it, so a load test measures the migrator and not a database.
+ */
+public class MemoryTarget
+        implements MigrateTarget
+{
+    private final LongAdder files = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    private final LongAdder duplicates = new LongAdder();
+
+    private final LongAdder checksums = new LongAdder();
+
+    private final LongAdder gaAppends = new LongAdder();
+
+    @Override
+    public void insert( final String fileSystem, final String path, final Date creation, final Date expiration,
+                        final String fileId, final long size, final String fileStorage, final String checksum,
+                        final boolean primary )
+    {
+        files.increment();
+        bytes.add( size );
+        if ( !primary )
+        {
+            duplicates.increment();
+        }
+    }
+
+    @Override
+    public void putChecksums( final String fileSystem, final String path, final Map<String, String> checksums )
+    {
+        this.checksums.add( checksums.size() );
+    }
+
+    @Override
+    public ListenableFuture<?> appendGa( final String ga, final Set<String> repos )
+    {
+        gaAppends.increment();
+        return Futures.immediateFuture( null );
+    }
+
+    public long getFiles()
+    {
+        return files.sum();
+    }
+
+    public long getBytes()
+    {
+        return bytes.sum();
+    }
+
+    public long getDuplicates()
+    {
+        return duplicates.sum();
+    }
+
+    public long getGaAppends()
+    {
+        return gaAppends.sum();
+    }
+
+    @Override
+    public List<String> report()
+    {
+        return Collections.singletonList(
+                String.format( "Memory: files: %s, bytes: %s, duplicates: %s, checksums: %s, GA appends: %s",
+                               files.sum(), bytes.sum(), duplicates.sum(), checksums.sum(), gaAppends.sum() ) );
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MigratePipelineTest
+{
+    @Test
+    public void allPathsReachListenerThroughEveryStage()
+            throws Exception
+    {
+        final Set<String> written = ConcurrentHashMap.newKeySet();
+        final Set<String> failed = ConcurrentHashMap.newKeySet();
+        final MigratePipeline.Stages stages = new MigratePipeline.Stages()
+        {
+            @Override
+            public MigrateEntry stat( final String physicalPath, final Set<String> listing )
+                    throws MigrateException
+            {
+                if ( physicalPath.endsWith( "7" ) )
+                {
+                    throw new MigrateException( "Error: missing {}", physicalPath );
+                }
+                return new MigrateEntry( physicalPath, new File( physicalPath ), 1, "maven:hosted:test",
+                                         physicalPath, physicalPath );
+            }
+
+            @Override
+            public boolean needsChecksum()
+            {
+                return true;
+            }
+
+            @Override
+            public void checksum( final MigrateEntry entry )
+            {
+                entry.setChecksum( "sum-" + entry.getPath() );
+            }
+
+            @Override
+            public void write( final MigrateEntry entry )
+            {
+                assertThat( entry.getChecksum(), equalTo( "sum-" + entry.getPath() ) );
+                if ( entry.getPath().endsWith( "3" ) )
+                {
+                    throw new IllegalStateException( "db down" );
+                }
+                written.add( entry.getPath() );
+            }
+        };
+
+        final MigratePipeline pipeline = new MigratePipeline( stages, new MigratePipeline.Listener()
+        {
+            @Override
+            public void succeeded( final MigrateEntry entry )
+            {
+                assertTrue( written.contains( entry.getPath() ) );
+            }
+
+            @Override
+            public void failed( final String physicalPath, final MigrateException error )
+            {
+                failed.add( physicalPath );
+            }
+        }, 2, 3, 4, 8 );
+
+        for ( int i = 0; i < 1000; i++ )
+        {
+            pipeline.submit( "/path/" + i );
+        }
+        pipeline.awaitCompletion();
+
+        assertThat( written.size(), equalTo( 800 ) );
+        assertThat( failed.size(), equalTo( 200 ) );
+        assertThat( pipeline.getStages().size(), equalTo( 3 ) );
+        assertThat( pipeline.getStages().get( 0 ).getProcessed(), equalTo( 1000L ) );
+        assertThat( pipeline.getStages().get( 1 ).getProcessed(), equalTo( 900L ) );
+        assertThat( pipeline.getStages().get( 2 ).getProcessed(), equalTo( 900L ) );
+    }
+
+    @Test
+    public void submittedWritesSkipStatAndChecksum()
+            throws Exception
+    {
+        final Set<String> written = ConcurrentHashMap.newKeySet();
+        final MigratePipeline.Stages stages = new MigratePipeline.Stages()
+        {
+            @Override
+            public MigrateEntry stat( final String physicalPath, final Set<String> listing )
+            {
+                throw new IllegalStateException( "no stat expected" );
+            }
+
+            @Override
+            public boolean needsChecksum()
+            {
+                return true;
+            }
+
+            @Override
+            public void checksum( final MigrateEntry entry )
+            {
+                throw new IllegalStateException( "no checksum expected" );
+            }
+
+            @Override
+            public void write( final MigrateEntry entry )
+            {
+                written.add( entry.getPath() );
+            }
+        };
+        final MigratePipeline pipeline = new MigratePipeline( stages, new MigratePipeline.Listener()
+        {
+            @Override
+            public void succeeded( final MigrateEntry entry )
+            {
+            }
+
+            @Override
+            public void failed( final String physicalPath, final MigrateException error )
+            {
+            }
+        }, 1, 1, 4, 8 );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            pipeline.submitWrite( new MigrateEntry( "/path/" + i, null, 1, "maven:hosted:test", "/path/" + i,
+                                                    "storage/" + i ) );
+        }
+        pipeline.awaitCompletion();
+
+        assertThat( written.size(), equalTo( 100 ) );
+        assertThat( pipeline.getStages().get( 0 ).getProcessed(), equalTo( 0L ) );
+        assertThat( pipeline.getStages().get( 2 ).getProcessed(), equalTo( 100L ) );
+    }
+
+    @Test
+    public void stageBlockedBySlowWriteIsNotBusy()
+            throws Exception
+    {
+        final MigratePipeline.Stages stages = new MigratePipeline.Stages()
+        {
+            @Override
+            public MigrateEntry stat( final String physicalPath, final Set<String> listing )
+            {
+                return new MigrateEntry( physicalPath, new File( physicalPath ), 1, "maven:hosted:test",
+                                         physicalPath, physicalPath );
+            }
+
+            @Override
+            public boolean needsChecksum()
+            {
+                return false;
+            }
+
+            @Override
+            public void checksum( final MigrateEntry entry )
+            {
+            }
+
+            @Override
+            public void write( final MigrateEntry entry )
+            {
+                try
+                {
+                    Thread.sleep( 5 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final MigratePipeline pipeline = new MigratePipeline( stages, new MigratePipeline.Listener()
+        {
+            @Override
+            public void succeeded( final MigrateEntry entry )
+            {
+            }
+
+            @Override
+            public void failed( final String physicalPath, final MigrateException error )
+            {
+            }
+        }, 2, 1, 1, 2 );
+
+        for ( int i = 0; i < 100; i++ )
+        {
+            pipeline.submit( "/path/" + i );
+        }
+        pipeline.awaitCompletion();
+
+        // stat spends its time waiting for the full write queue, which is no work of its own
+        assertTrue( pipeline.getStages().get( 0 ).getUtilization() < 0.5 );
+        assertTrue( pipeline.getStages().get( 1 ).getUtilization() > 0.8 );
+    }
+}
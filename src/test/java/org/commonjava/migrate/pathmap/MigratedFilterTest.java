@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class MigratedFilterTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void migratedPathsAreKeptForTheNextRun()
+            throws Exception
+    {
+        final File file = new File( temporaryFolder.getRoot(), Util.MIGRATED_FILTER_FILE );
+        final MigratedFilter first = MigratedFilter.open( file, 10000 );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            first.add( "maven:hosted:build-" + ( i % 10 ), "/org/foo/" + i + "/foo-" + i + ".pom" );
+        }
+        assertThat( first.getAdded(), equalTo( 5000L ) );
+        first.save();
+        assertFalse( new File( file.getPath() + ".tmp" ).exists() );
+
+        final MigratedFilter second = MigratedFilter.open( file, 10 );
+        assertThat( second.getByteSize(), equalTo( first.getByteSize() ) );
+        for ( int i = 0; i < 5000; i++ )
+        {
+            assertTrue( second.contains( "maven:hosted:build-" + ( i % 10 ), "/org/foo/" + i + "/foo-" + i + ".pom" ) );
+        }
+        int falsePositives = 0;
+        for ( int i = 5000; i < 10000; i++ )
+        {
+            if ( second.contains( "maven:hosted:build-" + ( i % 10 ), "/org/foo/" + i + "/foo-" + i + ".pom" ) )
+            {
+                falsePositives++;
+            }
+        }
+        assertThat( falsePositives, equalTo( 0 ) );
+        assertTrue( second.getFalsePositiveRate() < MigratedFilter.FALSE_POSITIVE_RATE );
+    }
+
+    @Test( expected = MigrateException.class )
+    public void brokenFileIsRejected()
+            throws Exception
+    {
+        final File file = new File( temporaryFolder.getRoot(), Util.MIGRATED_FILTER_FILE );
+        FileUtils.writeStringToFile( file, "not a filter" );
+        MigratedFilter.open( file, 10 );
+    }
+
+    @Test
+    public void skippedPathsAreListed()
+            throws Exception
+    {
+        final File base = temporaryFolder.newFolder( "storage" );
+        final File workDir = temporaryFolder.newFolder( "work" );
+        for ( int i = 0; i < 3; i++ )
+        {
+            FileUtils.writeStringToFile( new File( base, "maven/hosted-build-1/org/foo/1.0/foo-" + i + ".jar" ),
+                                         "foo-" + i );
+        }
+
+        final long[] written = new long[2];
+        for ( int run = 0; run < 2; run++ )
+        {
+            final MigrateOptions scanOptions = new MigrateOptions();
+            assertTrue( scanOptions.parseArgs(
+                    new String[] { "scan", "-b", base.getPath(), "-w", workDir.getPath(), "-t", "1" } ) );
+            new ScanCmd().run( scanOptions );
+
+            final MemoryTarget target = new MemoryTarget();
+            final MigrateOptions migrateOptions = new MigrateOptions();
+            migrateOptions.setTarget( target );
+            assertTrue( migrateOptions.parseArgs(
+                    new String[] { "migrate", "-b", base.getPath(), "-w", workDir.getPath(), "--skipMigrated" } ) );
+            new MigrateCmd().run( migrateOptions );
+            written[run] = target.getFiles();
+        }
+
+        assertThat( written[0], equalTo( 3L ) );
+        assertThat( written[1], equalTo( 0L ) );
+        // the skipped paths were processed by the first run already
+        assertTrue( FileUtils.readLines( new File( workDir, Util.PROGRESS_FILE ) ).contains( "Processed:3" ) );
+        assertTrue( FileUtils.readLines( new File( workDir, Util.PROGRESS_FILE ) ).contains( "Skipped:3" ) );
+        final List<String> skipped = FileUtils.readLines( new File( workDir, Util.MIGRATED_SKIPPED_FILE ) );
+        assertThat( skipped.size(), equalTo( 3 ) );
+        assertTrue( skipped.contains( new File( base, "maven/hosted-build-1/org/foo/1.0/foo-0.jar" ).getPath() ) );
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertTrue;
+
+public class PathBloomFilterTest
+{
+    private static final int PATHS = 100000;
+
+    @Test
+    public void noFalseNegativesAndFewFalsePositives()
+    {
+        final PathBloomFilter filter = new PathBloomFilter( PATHS, 0.001 );
+        IntStream.range( 0, PATHS ).parallel().forEach( i -> filter.put( path( i ) ) );
+
+        final List<String> lost = new ArrayList<>();
+        for ( int i = 0; i < PATHS; i++ )
+        {
+            if ( !filter.mightContain( path( i ) ) )
+            {
+                lost.add( path( i ) );
+            }
+        }
+        assertTrue( "lost: " + lost, lost.isEmpty() );
+
+        int falsePositives = 0;
+        for ( int i = PATHS; i < 2 * PATHS; i++ )
+        {
+            if ( filter.mightContain( path( i ) ) )
+            {
+                falsePositives++;
+            }
+        }
+        assertTrue( "false positives: " + falsePositives, falsePositives < PATHS * 0.003 );
+    }
+
+    private static String path( final int i )
+    {
+        return "maven:hosted:build-" + ( i % 97 ) + "/org/foo/artifact-" + i + "/1.0/artifact-" + i + "-1.0.pom";
+    }
+}
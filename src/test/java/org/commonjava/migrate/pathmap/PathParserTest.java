@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class PathParserTest
+{
+    private static final String BASE = "/opt/indy/var/lib/indy/storage";
+
+    @Test
+    public void sameResultsAsBefore()
+    {
+        final String[] suffixes = { "/maven/hosted-public/org/commonjava/indy/indy-api/1.0/indy-api-1.0.pom",
+                "/maven/hosted-shared-imports-redhat/org/foo/1.0/foo-1.0.jar",
+                "/maven/remote-koji-org.jboss-1.2.3.Final_redhat_00001-1/org/foo/1.0/foo-1.0.pom",
+                "/npm/remote-npmjs/@babel/core/-/core-7.0.0.tgz", "/npm/hosted-build-1/lodash/package.json",
+                "/maven/hosted-a--b/org/foo.pom", "/maven/hosted--b/org/foo.pom", "/maven/hosted-a-/org/foo.pom",
+                "/maven/-x/org/foo.pom", "/maven/hosted-public", "/maven/hosted-public/",
+                "/maven/hosted-public//org//foo/", "/maven/hosted-public/file:org/foo.pom",
+                "/maven/hosted-public/org/file:foo.pom", "//maven/hosted-public/org/foo.pom",
+                "/maven//hosted-public/org/foo.pom", "/maven/hosted/org/foo.pom", "/maven/hosted-/org/foo.pom",
+                "/maven", "/", "" };
+        for ( String baseDir : new String[] { BASE, BASE + "/", "", null, "/other" } )
+        {
+            final PathParser parser = new PathParser( baseDir );
+            for ( String suffix : suffixes )
+            {
+                final String physicalPath = BASE + suffix;
+                // twice, to go through the cached store too
+                check( parser, baseDir, physicalPath );
+                check( parser, baseDir, physicalPath );
+            }
+        }
+    }
+
+    private static void check( final PathParser parser, final String baseDir, final String physicalPath )
+    {
+        final String storePath = PathParser.slowStorePath( baseDir, physicalPath );
+        String fileSystem;
+        try
+        {
+            fileSystem = PathParser.slowFileSystem( storePath );
+        }
+        catch ( RuntimeException e )
+        {
+            fileSystem = null;
+        }
+
+        final ParsedPath parsed;
+        try
+        {
+            parsed = parser.parse( physicalPath );
+        }
+        catch ( RuntimeException e )
+        {
+            if ( fileSystem != null )
+            {
+                fail( physicalPath + " failed: " + e );
+            }
+            return;
+        }
+        if ( fileSystem == null )
+        {
+            fail( physicalPath + " should fail as before, but gave " + parsed );
+        }
+        assertThat( physicalPath, parsed.getFileSystem(), equalTo( fileSystem ) );
+        assertThat( physicalPath, parsed.getStorePath(), equalTo( storePath ) );
+        assertThat( physicalPath, parsed.getPath(), equalTo( PathParser.slowPath( storePath ) ) );
+        assertThat( physicalPath, parsed.getPkg() + ":" + parsed.getRepoType(),
+                    equalTo( fileSystem.substring( 0, fileSystem.lastIndexOf( ':' ) ) ) );
+    }
+
+    @Test
+    public void physicalPathIsBuiltBack()
+    {
+        for ( String baseDir : new String[] { BASE, BASE + "/" } )
+        {
+            final PathParser parser = new PathParser( baseDir );
+            for ( String suffix : new String[] { "/maven/hosted-public/org/foo/1.0/foo-1.0.pom",
+                    "/maven/remote-koji-org.jboss-1.2.3.Final_redhat_00001-1/org/foo.pom",
+                    "/npm/remote-npmjs/@babel/core/-/core-7.0.0.tgz", "/maven/hosted-public/foo.pom" } )
+            {
+                final ParsedPath parsed = parser.parse( BASE + suffix );
+                assertThat( parser.toPhysicalPath( parsed.getFileSystem(), parsed.getPath() ),
+                            equalTo( BASE + suffix ) );
+            }
+        }
+    }
+
+    @Test
+    public void pathsOfAStoreShareTheFileSystem()
+    {
+        final PathParser parser = new PathParser( BASE );
+        final ParsedPath first = parser.parse( BASE + "/maven/hosted-public/org/foo/1.0/foo-1.0.pom" );
+        parser.parse( BASE + "/npm/hosted-public/lodash/package.json" );
+        final ParsedPath second = parser.parse( BASE + "/maven/hosted-public/org/bar/1.0/bar-1.0.pom" );
+        assertThat( second.getFileSystem(), sameInstance( first.getFileSystem() ) );
+        assertThat( second.getPkg(), equalTo( "maven" ) );
+        assertThat( second.getRepoType(), equalTo( "hosted" ) );
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class PathTracerTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void onlySlowPathsAreTracedWithoutSample()
+            throws Exception
+    {
+        final File file = new File( temp.getRoot(), "path_traces" );
+        final PathTracer tracer = new PathTracer( file, 0, 100, 16 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            final MigrateEntry entry = newEntry( "maven:hosted:build-" + ( i % 2 ), "/org/foo/foo-" + i + ".jar" );
+            entry.addNanos( PathTracer.Step.STAT, TimeUnit.MILLISECONDS.toNanos( i < 3 ? 150 : 1 ) );
+            entry.addNanos( PathTracer.Step.INSERT, TimeUnit.MILLISECONDS.toNanos( 2 ) );
+            tracer.record( entry, entry.getNanos( PathTracer.Step.STAT ) + entry.getNanos( PathTracer.Step.INSERT ),
+                           i == 0 ? "Error: \"db\" down" : null );
+        }
+        tracer.close();
+
+        final List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+        assertThat( lines.size(), equalTo( 3 ) );
+        assertThat( lines.get( 0 ), containsString( "\"fileSystem\":\"maven:hosted:build-0\"" ) );
+        assertThat( lines.get( 0 ), containsString( "\"slow\":true,\"total\":152.000,\"stat\":150.000" ) );
+        assertThat( lines.get( 0 ), containsString( "\"insert\":2.000,\"ga\":0.000" ) );
+        assertThat( lines.get( 0 ), containsString( "\"error\":\"Error: \\\"db\\\" down\"}" ) );
+        assertThat( lines.get( 1 ), containsString( "\"error\":null}" ) );
+        assertThat( tracer.report().get( 1 ),
+                    equalTo( "Trace: file systems with most slow paths: maven:hosted:build-0=2, "
+                                     + "maven:hosted:build-1=1" ) );
+    }
+
+    @Test
+    public void tracesLappedBeforeTheDumpAreDropped()
+            throws Exception
+    {
+        final File file = new File( temp.getRoot(), "path_traces" );
+        final PathTracer tracer = new PathTracer( file, 1, 0, 4 );
+        for ( int i = 0; i < 10; i++ )
+        {
+            tracer.record( newEntry( "maven:hosted:build-1", "/foo-" + i + ".jar" ), 1, null );
+        }
+        assertThat( tracer.dump(), equalTo( 4 ) );
+        tracer.recordStatFailure( "/storage/maven/hosted-build-1/bar.jar", 1000, 2000, "Error: missing" );
+        assertThat( tracer.dump(), equalTo( 1 ) );
+        assertThat( tracer.dump(), equalTo( 0 ) );
+        tracer.close();
+
+        final List<String> lines = Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 );
+        assertThat( lines.size(), equalTo( 5 ) );
+        // the newest are kept
+        assertThat( lines.get( 0 ), containsString( "\"path\":\"/foo-6.jar\"" ) );
+        assertThat( lines.get( 4 ), containsString( "\"fileSystem\":null" ) );
+        assertThat( lines.get( 4 ), containsString( "\"total\":0.003,\"stat\":0.002,\"queue\":0.001" ) );
+        assertThat( tracer.report().get( 0 ), containsString( "sampled paths: 11, slow paths: 0, dropped before dump: 6" ) );
+    }
+
+    @Test
+    public void pipelineTimesTheStepsOfEveryPath()
+            throws Exception
+    {
+        final File file = new File( temp.getRoot(), "path_traces" );
+        final PathTracer tracer = new PathTracer( file, 1, 0, 100 );
+        final MigratePipeline.Stages stages = new MigratePipeline.Stages()
+        {
+            @Override
+            public MigrateEntry stat( final String physicalPath, final Set<String> listing )
+            {
+                return newEntry( "maven:hosted:build-1", physicalPath );
+            }
+
+            @Override
+            public boolean needsChecksum()
+            {
+                return true;
+            }
+
+            @Override
+            public void checksum( final MigrateEntry entry )
+                    throws MigrateException
+            {
+                sleep( 5 );
+            }
+
+            @Override
+            public void write( final MigrateEntry entry )
+            {
+                entry.addNanos( PathTracer.Step.INSERT, 1 );
+            }
+        };
+        final MigratePipeline pipeline = new MigratePipeline( stages, new MigratePipeline.Listener()
+        {
+            @Override
+            public void succeeded( final MigrateEntry entry )
+            {
+                assertTrue( entry.getNanos( PathTracer.Step.CHECKSUM ) >= TimeUnit.MILLISECONDS.toNanos( 5 ) );
+                assertThat( entry.getNanos( PathTracer.Step.INSERT ), equalTo( 1L ) );
+            }
+
+            @Override
+            public void failed( final String physicalPath, final MigrateException error )
+            {
+            }
+        }, 1, 1, 1, 8, tracer );
+        for ( int i = 0; i < 5; i++ )
+        {
+            pipeline.submit( "/foo-" + i + ".jar" );
+        }
+        pipeline.awaitCompletion();
+        tracer.close();
+
+        assertThat( Files.readAllLines( file.toPath(), StandardCharsets.UTF_8 ).size(), equalTo( 5 ) );
+    }
+
+    private static MigrateEntry newEntry( final String fileSystem, final String path )
+    {
+        return new MigrateEntry( "/storage" + path, new File( "/storage" + path ), 1, fileSystem, path, path );
+    }
+
+    private static void sleep( final long millis )
+            throws MigrateException
+    {
+        try
+        {
+            Thread.sleep( millis );
+        }
+        catch ( InterruptedException e )
+        {
+            throw new MigrateException( "Error: interrupted", e );
+        }
+    }
+}
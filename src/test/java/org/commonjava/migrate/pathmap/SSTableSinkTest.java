@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.db.rows.Cell;
+import org.apache.cassandra.db.rows.Row;
+import org.apache.cassandra.db.rows.UnfilteredRowIterator;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.ISSTableScanner;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.ByteBufferUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.commonjava.storage.pathmapped.pathdb.datastax.util.CassandraPathDBUtils.getSchemaCreateTablePathmap;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SSTableSinkTest
+{
+    private static final String KEYSPACE = "indystorage";
+
+    private static final int RANGES = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void filesAreWrittenWithTheirDirsPerTokenRange()
+            throws Exception
+    {
+        final File dir = temporaryFolder.newFolder( "sstables" );
+        final SSTableSink sink = new SSTableSink( dir, KEYSPACE, "indycache.ga", RANGES, 1 );
+        for ( int i = 0; i < 200; i++ )
+        {
+            final String fileSystem = "maven:hosted:build-" + ( i % 3 );
+            final String path = "/org/foo/foo-" + ( i % 10 ) + "/1.0/foo-" + i + ".jar";
+            sink.insert( fileSystem, path, new Date(), null, "id-" + i, i, "st/" + i, "sum-" + ( i % 100 ),
+                         i < 100 );
+        }
+        assertTrue( sink.appendGa( "org/foo/foo-1", Collections.singleton( "build-1" ) ).isDone() );
+        sink.close();
+
+        final Map<String, String> fileIds = new HashMap<>();
+        final int rows = readRows( sink.getTableDir( KEYSPACE, "pathmap" ), getSchemaCreateTablePathmap( KEYSPACE ),
+                                   fileIds );
+        // 200 files in the dirs /org/foo/foo-N/1.0 of 3 file systems, which have 10 of 1.0 and foo-N, and org and foo
+        assertThat( rows, equalTo( 200 + 3 * ( 10 + 10 + 2 ) ) );
+        assertThat( fileIds.get( "maven:hosted:build-2 /org/foo/foo-1/1.0 foo-11.jar" ), equalTo( "id-11" ) );
+        assertTrue( fileIds.containsKey( "maven:hosted:build-2 /org/foo foo-1/" ) );
+        assertThat( fileIds.get( "maven:hosted:build-2 /org/foo foo-1/" ), nullValue() );
+        assertTrue( fileIds.containsKey( "maven:hosted:build-0 / org/" ) );
+
+        assertThat( readRows( sink.getTableDir( KEYSPACE, "filechecksum" ),
+                              "CREATE TABLE " + KEYSPACE + ".filechecksum (checksum varchar, fileid varchar, "
+                                      + "storage varchar, PRIMARY KEY (checksum))", new HashMap<>() ),
+                    equalTo( 100 ) );
+        assertThat( readRows( sink.getTableDir( "indycache", "ga" ),
+                              CassandraMigrator.getSchemaCreateTable( "indycache.ga" ), new HashMap<>() ),
+                    equalTo( 1 ) );
+        assertFalse( sink.getTableDir( KEYSPACE, "pathchecksums" ).exists() );
+    }
+
+    @Test
+    public void rangesSplitTheRingInTokenOrder()
+    {
+        assertThat( SSTableSink.rangeOf( Long.MIN_VALUE, RANGES ), equalTo( 0 ) );
+        assertThat( SSTableSink.rangeOf( -1, RANGES ), equalTo( 1 ) );
+        assertThat( SSTableSink.rangeOf( 0, RANGES ), equalTo( 2 ) );
+        assertThat( SSTableSink.rangeOf( Long.MAX_VALUE, RANGES ), equalTo( 3 ) );
+        int last = 0;
+        for ( long token = Long.MIN_VALUE; token < Long.MAX_VALUE - ( 1L << 56 ); token += 1L << 56 )
+        {
+            final int range = SSTableSink.rangeOf( token, RANGES );
+            assertTrue( range >= last );
+            last = range;
+        }
+    }
+
+    /**
+     * Read the rows of all SSTables of a table, checking that the partitions of each SSTable are of one range.
+     *
+     * @param fileIds filled with the file id, if the table has one, of each row by its partition and clustering key
+     * @return number of rows
+     */
+    private static int readRows( final File tableDir, final String schema, final Map<String, String> fileIds )
+            throws Exception
+    {
+        final File[] data = tableDir.listFiles( ( d, name ) -> name.endsWith( "-Data.db" ) );
+        assertThat( data, notNullValue() );
+        final CFMetaData metadata = CFMetaData.compile( schema, tableDir.getParentFile().getName() );
+        int rows = 0;
+        for ( File file : data )
+        {
+            final SSTableReader reader =
+                    SSTableReader.openNoValidation( Descriptor.fromFilename( file.getPath() ), metadata );
+            final Set<Integer> ranges = new HashSet<>();
+            try (ISSTableScanner scanner = reader.getScanner())
+            {
+                while ( scanner.hasNext() )
+                {
+                    try (UnfilteredRowIterator partition = scanner.next())
+                    {
+                        ranges.add( SSTableSink.rangeOf( (Long) partition.partitionKey().getToken().getTokenValue(),
+                                                         RANGES ) );
+                        final String key = keyOf( metadata, partition.partitionKey().getKey() );
+                        while ( partition.hasNext() )
+                        {
+                            final Row row = (Row) partition.next();
+                            rows++;
+                            if ( metadata.getColumnDefinition( ByteBufferUtil.bytes( "fileid" ) ) != null
+                                    && row.clustering().size() > 0 )
+                            {
+                                final Cell fileId = row.getCell(
+                                        metadata.getColumnDefinition( ByteBufferUtil.bytes( "fileid" ) ) );
+                                fileIds.put( key + " " + UTF8Type.instance.compose( row.clustering().get( 0 ) ),
+                                             fileId == null ? null : UTF8Type.instance.compose( fileId.value() ) );
+                            }
+                        }
+                    }
+                }
+            }
+            finally
+            {
+                reader.selfRef().release();
+            }
+            assertThat( ranges.size(), equalTo( 1 ) );
+        }
+        return rows;
+    }
+
+    private static String keyOf( final CFMetaData metadata, final ByteBuffer key )
+    {
+        if ( metadata.getKeyValidator() instanceof CompositeType )
+        {
+            final List<String> parts = new ArrayList<>();
+            for ( ByteBuffer part : ( (CompositeType) metadata.getKeyValidator() ).split( key ) )
+            {
+                parts.add( UTF8Type.instance.compose( part ) );
+            }
+            return String.join( " ", parts );
+        }
+        return UTF8Type.instance.compose( key );
+    }
+}
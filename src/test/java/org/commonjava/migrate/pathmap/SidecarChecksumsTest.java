@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SidecarChecksumsTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readSidecarsFoundInListing()
+            throws Exception
+    {
+        final File jar = temporaryFolder.newFile( "foo-1.0.jar" );
+        FileUtils.writeStringToFile( jar, "content" );
+        final File md5 = temporaryFolder.newFile( "foo-1.0.jar.md5" );
+        FileUtils.writeStringToFile( md5, DigestUtils.md5Hex( "content" ).toUpperCase() + "  foo-1.0.jar\n" );
+        final File sha1 = temporaryFolder.newFile( "foo-1.0.jar.sha1" );
+        FileUtils.writeStringToFile( sha1, DigestUtils.shaHex( "content" ) );
+
+        final ChecksumEngine engine = new ChecksumEngine( Arrays.asList( "MD5", "SHA-1" ), 0, 0, 1 );
+        final SidecarChecksums sidecars = new SidecarChecksums( engine, 0 );
+        assertTrue( sidecars.isSupported() );
+
+        final Set<String> listing =
+                new HashSet<>( Arrays.asList( jar.getPath(), md5.getPath(), sha1.getPath() ) );
+        final Map<String, String> found = sidecars.find( jar.getPath(), listing );
+        assertThat( found.get( "MD5" ), equalTo( md5.getPath() ) );
+        assertThat( found.get( "SHA-1" ), equalTo( sha1.getPath() ) );
+
+        final Map<String, String> checksums = sidecars.read( found );
+        assertThat( checksums, equalTo( engine.checksums( jar ) ) );
+        assertTrue( sidecars.verify( jar.getPath(), checksums, engine.checksums( jar ) ) );
+        assertThat( sidecars.getFound(), equalTo( 1L ) );
+        assertThat( sidecars.getMismatched(), equalTo( 0L ) );
+
+        // without a sidecar for every algorithm the file has to be read anyway
+        listing.remove( sha1.getPath() );
+        assertThat( sidecars.find( jar.getPath(), listing ), nullValue() );
+        assertThat( sidecars.find( jar.getPath(), null ), nullValue() );
+    }
+
+    @Test
+    public void invalidOrWrongSidecarIsNotTrusted()
+            throws Exception
+    {
+        final File jar = temporaryFolder.newFile( "bar.jar" );
+        FileUtils.writeStringToFile( jar, "bar" );
+        final File md5 = temporaryFolder.newFile( "bar.jar.md5" );
+        FileUtils.writeStringToFile( md5, "MD5 (bar.jar) = " + DigestUtils.md5Hex( "bar" ) );
+
+        final ChecksumEngine engine = new ChecksumEngine( "MD5", 0, 0 );
+        final SidecarChecksums sidecars = new SidecarChecksums( engine, 1 );
+        assertTrue( sidecars.shouldVerify() );
+
+        final Set<String> listing = new HashSet<>( Arrays.asList( jar.getPath(), md5.getPath() ) );
+        final Map<String, String> found = sidecars.find( jar.getPath(), listing );
+        assertThat( sidecars.read( found ), nullValue() );
+
+        FileUtils.writeStringToFile( md5, DigestUtils.md5Hex( "other" ) );
+        final Map<String, String> wrong = sidecars.read( found );
+        assertFalse( sidecars.verify( jar.getPath(), wrong, engine.checksums( jar ) ) );
+        assertThat( sidecars.getMismatched(), equalTo( 1L ) );
+
+        assertFalse( new SidecarChecksums( new ChecksumEngine( "SHA-384", 0, 0 ), 0 ).isSupported() );
+    }
+
+    @Test
+    public void staleSidecarDoesNotDedupe()
+            throws Exception
+    {
+        final File base = temporaryFolder.newFolder( "storage" );
+        final File workDir = temporaryFolder.newFolder( "work" );
+        final File dir = new File( base, "maven/hosted-build-1/org/foo/1.0" );
+        FileUtils.writeStringToFile( new File( dir, "foo-1.jar" ), "b" );
+        // left from an earlier foo-1.jar
+        FileUtils.writeStringToFile( new File( dir, "foo-1.jar.md5" ), DigestUtils.md5Hex( "a" ) );
+        FileUtils.writeStringToFile( new File( dir, "foo-2.jar" ), "a" );
+
+        final MigrateOptions scanOptions = new MigrateOptions();
+        assertTrue( scanOptions.parseArgs(
+                new String[] { "scan", "-b", base.getPath(), "-w", workDir.getPath(), "-t", "1" } ) );
+        new ScanCmd().run( scanOptions );
+
+        final MemoryTarget target = new MemoryTarget();
+        final MigrateOptions migrateOptions = new MigrateOptions();
+        migrateOptions.setTarget( target );
+        assertTrue( migrateOptions.parseArgs(
+                new String[] { "migrate", "-b", base.getPath(), "-w", workDir.getPath(), "--dedupe",
+                        "--sidecarChecksum", "--writeThreads", "1" } ) );
+        new MigrateCmd().run( migrateOptions );
+
+        assertThat( target.getFiles(), equalTo( 3L ) );
+        assertThat( target.getDuplicates(), equalTo( 0L ) );
+    }
+}
@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.commonjava.migrate.pathmap.Util.COMPLETED_STORES_DIR;
+import static org.commonjava.migrate.pathmap.Util.STORE_PRIORITY_FILE;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class StorePriorityTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void storesAreOrderedByListThenHitsThenTypeThenName()
+    {
+        final Map<String, Long> hits = new HashMap<>();
+        hits.put( "maven:remote:central", 50L );
+        hits.put( "maven:hosted:build-2", 10L );
+        final StorePriority priority =
+                new StorePriority( Collections.singletonList( "npm:hosted:npm-1" ), Arrays.asList( "hosted", "group" ),
+                                   hits );
+        final List<String> stores = new ArrayList<>(
+                Arrays.asList( "maven:remote:other", "maven:group:public", "maven:hosted:build-1",
+                               "maven:hosted:build-2", "maven:remote:central", "npm:hosted:npm-1" ) );
+        stores.sort( priority );
+
+        assertThat( stores, equalTo( Arrays.asList( "npm:hosted:npm-1", "maven:remote:central", "maven:hosted:build-2",
+                                                    "maven:hosted:build-1", "maven:group:public",
+                                                    "maven:remote:other" ) ) );
+    }
+
+    @Test
+    public void requestsOfStoresAreCountedInAccessLogs()
+            throws Exception
+    {
+        final Path log = temp.newFile( "access.log" ).toPath();
+        Files.write( log, Arrays.asList(
+                "10.0.0.1 - - [01/Oct/2019:10:00:00 +0000] \"GET /api/content/maven/hosted/build-1/org/foo/1.0/foo.jar HTTP/1.1\" 200",
+                "10.0.0.1 - - [01/Oct/2019:10:00:01 +0000] \"GET /api/content/npm/group/npm-all/lodash HTTP/1.1\" 200",
+                "10.0.0.1 - - [01/Oct/2019:10:00:02 +0000] \"GET /api/hosted/build-1/org/foo/maven-metadata.xml HTTP/1.1\" 200",
+                "10.0.0.1 - - [01/Oct/2019:10:00:03 +0000] \"GET /api/stats/version-info HTTP/1.1\" 200" ),
+                     StandardCharsets.UTF_8 );
+        final Path gzipped = temp.getRoot().toPath().resolve( "access.log.1.gz" );
+        try (OutputStream out = new GZIPOutputStream( Files.newOutputStream( gzipped ) ))
+        {
+            out.write( "\"GET /api/content/maven/remote/central/org/bar/1.0/bar.pom?x=1 HTTP/1.1\"\n".getBytes(
+                    StandardCharsets.UTF_8 ) );
+        }
+
+        final Map<String, Long> hits = StorePriority.countHits( Arrays.asList( log, gzipped ) );
+
+        final Map<String, Long> expected = new HashMap<>();
+        expected.put( "maven:hosted:build-1", 2L );
+        expected.put( "npm:group:npm-all", 1L );
+        expected.put( "maven:remote:central", 1L );
+        assertThat( hits, equalTo( expected ) );
+    }
+
+    @Test
+    public void migrateTakesStoresInOrderAndMarksThemCompleted()
+            throws Exception
+    {
+        final Path base = temp.newFolder( "storage" ).toPath();
+        final Path workDir = temp.newFolder( "work" ).toPath();
+        writeFiles( base.resolve( "maven/remote-central" ), 3 );
+        writeFiles( base.resolve( "maven/hosted-build-1" ), 5 );
+        writeFiles( base.resolve( "maven/hosted-build-2" ), 4 );
+        writeFiles( base.resolve( "npm/hosted-npm-1" ), 2 );
+
+        final MigrateOptions scanOptions = new MigrateOptions();
+        assertTrue( scanOptions.parseArgs( new String[] { "scan", "-b", base.toString(), "-w", workDir.toString(),
+                "-t", "2", "-B", "2", "--priorityStores", "maven:hosted:build-2", "--priorityTypes",
+                "hosted,remote" } ) );
+        new ScanCmd().run( scanOptions );
+
+        assertThat( Files.readAllLines( workDir.resolve( STORE_PRIORITY_FILE ) ),
+                    equalTo( Arrays.asList( "0\tmaven:hosted:build-2\t0", "1\tmaven:hosted:build-1\t0",
+                                            "2\tnpm:hosted:npm-1\t0", "3\tmaven:remote:central\t0" ) ) );
+        assertThat( list( workDir.resolve( "todo" ) ).get( 0 ), equalTo( "todo-p000000-maven-hosted-build-2-batch-0.txt" ) );
+        assertThat( list( workDir.resolve( "todo" ) ).size(), equalTo( 2 + 3 + 1 + 2 ) );
+
+        final MemoryTarget target = new MemoryTarget();
+        final MigrateOptions migrateOptions = new MigrateOptions();
+        migrateOptions.setTarget( target );
+        assertTrue( migrateOptions.parseArgs(
+                new String[] { "migrate", "-b", base.toString(), "-w", workDir.toString() } ) );
+        new MigrateCmd().run( migrateOptions );
+
+        assertThat( target.getFiles(), equalTo( 14L ) );
+        final Path markers = workDir.resolve( COMPLETED_STORES_DIR );
+        assertThat( list( markers ), equalTo(
+                Arrays.asList( "maven:hosted:build-1", "maven:hosted:build-2", "maven:remote:central",
+                               "npm:hosted:npm-1" ) ) );
+        assertThat( Files.readAllLines( markers.resolve( "maven:hosted:build-1" ) ).subList( 0, 2 ),
+                    equalTo( Arrays.asList( "Succeeded:5", "Failed:0" ) ) );
+    }
+
+    @Test
+    public void aStoreIsCompletedWhenSealedAndNothingIsPending()
+            throws Exception
+    {
+        final Path markers = temp.newFolder().toPath();
+        final StoreCompletion completion = new StoreCompletion( markers );
+        completion.submitted( "maven:hosted:build-1" );
+        completion.submitted( "maven:hosted:build-1" );
+        completion.done( "maven:hosted:build-1", true );
+        completion.seal( "maven:hosted:build-1" );
+        assertThat( list( markers ).size(), equalTo( 0 ) );
+        completion.done( "maven:hosted:build-1", false );
+        // all paths done before it is sealed
+        completion.submitted( "maven:hosted:build-2" );
+        completion.done( "maven:hosted:build-2", true );
+        // a store with failed paths must not be switched
+        assertThat( list( markers ), equalTo( Collections.singletonList( "maven:hosted:build-1.failed" ) ) );
+        completion.sealAll();
+
+        assertThat( completion.getCompleted(), equalTo( 1 ) );
+        assertThat( completion.getFailed(), equalTo( 1 ) );
+        assertThat( list( markers ), equalTo( Arrays.asList( "maven:hosted:build-1.failed", "maven:hosted:build-2" ) ) );
+        assertThat( Files.readAllLines( markers.resolve( "maven:hosted:build-1.failed" ) ).subList( 0, 2 ),
+                    equalTo( Arrays.asList( "Succeeded:1", "Failed:1" ) ) );
+    }
+
+    private static void writeFiles( final Path repo, final int files )
+            throws Exception
+    {
+        Files.createDirectories( repo.resolve( "org/foo/1.0" ) );
+        for ( int i = 0; i < files; i++ )
+        {
+            Files.write( repo.resolve( "org/foo/1.0/foo-" + i + ".jar" ), new byte[] { (byte) i } );
+        }
+    }
+
+    private static List<String> list( final Path dir )
+            throws Exception
+    {
+        try (Stream<Path> files = Files.list( dir ))
+        {
+            return files.map( p -> p.getFileName().toString() ).sorted().collect( Collectors.toList() );
+        }
+    }
+}
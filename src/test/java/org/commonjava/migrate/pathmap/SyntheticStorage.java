@@ -0,0 +1,436 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Builds a made up indy storage under a base dir for load tests. The maven, npm and generic-http repos get their files
+ * by a Zipf distribution, so a few repos are big and most are small like in a real storage. Maven artifacts are in
+ * GAV dirs of several depths with a pom, a jar and sometimes sources, and md5 and sha1 sidecars; npm packages have
+ * their tarballs and a package.json. File sizes are log-normal around a median, and a fraction of the files are
+ * copies of earlier ones for dedupe. The same seed builds the same tree.
+ */
+public class SyntheticStorage
+{
+    // contents are slices of one random block behind the number of the content, so that their checksums differ
+    private static final int BLOCK_SIZE = 1024 * 1024;
+
+    private long seed = 1;
+
+    private int mavenRepos = 20;
+
+    private int npmRepos = 5;
+
+    private int genericRepos = 3;
+
+    private int files = 10000;
+
+    private double repoSkew = 1.1;
+
+    private int medianFileSize = 4096;
+
+    private double fileSizeSpread = 1.5;
+
+    private long maxFileSize = 64L * 1024 * 1024;
+
+    private boolean sidecars = true;
+
+    private double duplicateRate = 0.05;
+
+    public void setSeed( final long seed )
+    {
+        this.seed = seed;
+    }
+
+    public void setMavenRepos( final int mavenRepos )
+    {
+        this.mavenRepos = mavenRepos;
+    }
+
+    public void setNpmRepos( final int npmRepos )
+    {
+        this.npmRepos = npmRepos;
+    }
+
+    public void setGenericRepos( final int genericRepos )
+    {
+        this.genericRepos = genericRepos;
+    }
+
+    /**
+     * @param files artifacts to write in all repos, not counting sidecars
+     */
+    public void setFiles( final int files )
+    {
+        this.files = files;
+    }
+
+    /**
+     * @param repoSkew exponent of the Zipf distribution of files over repos, 0 for repos of the same size
+     */
+    public void setRepoSkew( final double repoSkew )
+    {
+        this.repoSkew = repoSkew;
+    }
+
+    public void setMedianFileSize( final int medianFileSize )
+    {
+        this.medianFileSize = medianFileSize;
+    }
+
+    /**
+     * @param fileSizeSpread sigma of the log-normal distribution of file sizes; the mean size is the median times
+     * exp(sigma^2 / 2)
+     */
+    public void setFileSizeSpread( final double fileSizeSpread )
+    {
+        this.fileSizeSpread = fileSizeSpread;
+    }
+
+    public void setMaxFileSize( final long maxFileSize )
+    {
+        this.maxFileSize = maxFileSize;
+    }
+
+    public void setSidecars( final boolean sidecars )
+    {
+        this.sidecars = sidecars;
+    }
+
+    public void setDuplicateRate( final double duplicateRate )
+    {
+        this.duplicateRate = duplicateRate;
+    }
+
+    public Stats generate( final Path baseDir )
+            throws IOException
+    {
+        return new Generator( baseDir ).run();
+    }
+
+    /**
+     * What was written.
+     */
+    public static class Stats
+    {
+        private int repos;
+
+        private long files;
+
+        private long artifacts;
+
+        private long sidecars;
+
+        private long duplicates;
+
+        private long bytes;
+
+        public int getRepos()
+        {
+            return repos;
+        }
+
+        /**
+         * @return all files written, artifacts and sidecars
+         */
+        public long getFiles()
+        {
+            return files;
+        }
+
+        public long getArtifacts()
+        {
+            return artifacts;
+        }
+
+        public long getSidecars()
+        {
+            return sidecars;
+        }
+
+        public long getDuplicates()
+        {
+            return duplicates;
+        }
+
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "repos: %s, files: %s (artifacts: %s, sidecars: %s, duplicates: %s), bytes: %s",
+                                  repos, files, artifacts, sidecars, duplicates, bytes );
+        }
+    }
+
+    private class Generator
+    {
+        private final Path baseDir;
+
+        private final Random random = new Random( seed );
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+
+        // content and size of each artifact, to copy them for duplicates
+        private long[] contents;
+
+        private long[] sizes;
+
+        private final Stats stats = new Stats();
+
+        private final MessageDigest md5;
+
+        private final MessageDigest sha1;
+
+        private Generator( final Path baseDir )
+        {
+            this.baseDir = baseDir;
+            random.nextBytes( block );
+            try
+            {
+                md5 = MessageDigest.getInstance( "MD5" );
+                sha1 = MessageDigest.getInstance( "SHA-1" );
+            }
+            catch ( NoSuchAlgorithmException e )
+            {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        private Stats run()
+                throws IOException
+        {
+            final List<String> repos = new ArrayList<>();
+            for ( int i = 0; i < mavenRepos; i++ )
+            {
+                repos.add( "maven/" + ( i == 0 ? "hosted-shared-imports" : "hosted-build-" + i ) );
+            }
+            for ( int i = 0; i < npmRepos; i++ )
+            {
+                repos.add( "npm/hosted-npm-" + i );
+            }
+            for ( int i = 0; i < genericRepos; i++ )
+            {
+                repos.add( "generic-http/remote-site-" + i );
+            }
+            // so that the big repos are not all of one type
+            Collections.shuffle( repos, random );
+
+            final double[] cumulative = new double[repos.size()];
+            double sum = 0;
+            for ( int k = 0; k < cumulative.length; k++ )
+            {
+                sum += 1 / Math.pow( k + 1, repoSkew );
+                cumulative[k] = sum;
+            }
+            // a repo may get one more than its count to finish a GAV or package
+            contents = new long[files + repos.size()];
+            sizes = new long[files + repos.size()];
+            final int[] counts = new int[repos.size()];
+            for ( int i = 0; i < files; i++ )
+            {
+                int k = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+                counts[k < 0 ? Math.min( -k - 1, counts.length - 1 ) : k]++;
+            }
+
+            for ( int k = 0; k < repos.size(); k++ )
+            {
+                if ( counts[k] == 0 )
+                {
+                    continue;
+                }
+                stats.repos++;
+                final Path repo = baseDir.resolve( repos.get( k ) );
+                if ( repos.get( k ).startsWith( "maven/" ) )
+                {
+                    writeMaven( repo, counts[k] );
+                }
+                else if ( repos.get( k ).startsWith( "npm/" ) )
+                {
+                    writeNpm( repo, counts[k] );
+                }
+                else
+                {
+                    writeGeneric( repo, counts[k] );
+                }
+            }
+            return stats;
+        }
+
+        private void writeMaven( final Path repo, final int count )
+                throws IOException
+        {
+            // GAs are drawn from a pool shared by all maven repos, so a GA is in several repos like in the GA cache
+            final int gas = Math.max( 1, files / 16 );
+            int written = 0;
+            for ( int v = 0; written < count; v++ )
+            {
+                final int ga = random.nextInt( gas );
+                final StringBuilder group = new StringBuilder( "org/commonjava" );
+                for ( int depth = 0; depth < ga % 4; depth++ )
+                {
+                    group.append( "/part" ).append( ( ga >> depth ) % 10 );
+                }
+                final String artifactId = "artifact-" + ga;
+                final String version = "1." + v + "." + random.nextInt( 10 );
+                final Path dir = repo.resolve( group + "/" + artifactId + "/" + version );
+                final String name = artifactId + "-" + version;
+                writeArtifact( dir.resolve( name + ".pom" ), sidecars );
+                writeArtifact( dir.resolve( name + ".jar" ), sidecars );
+                written += 2;
+                if ( written < count && random.nextDouble() < 0.3 )
+                {
+                    writeArtifact( dir.resolve( name + "-sources.jar" ), sidecars );
+                    written++;
+                }
+            }
+        }
+
+        private void writeNpm( final Path repo, final int count )
+                throws IOException
+        {
+            final int packages = Math.max( 1, count / 4 );
+            final Set<Integer> described = new HashSet<>();
+            int written = 0;
+            for ( int v = 0; written < count; v++ )
+            {
+                final int pkg = random.nextInt( packages );
+                final String base = "pkg-" + pkg;
+                final String name = pkg % 3 == 0 ? "@scope-" + ( pkg % 5 ) + "/" + base : base;
+                if ( described.add( pkg ) )
+                {
+                    writeArtifact( repo.resolve( name + "/package.json" ), false );
+                    written++;
+                }
+                writeArtifact( repo.resolve( name + "/-/" + base + "-1." + v + ".0.tgz" ), false );
+                written++;
+            }
+        }
+
+        private void writeGeneric( final Path repo, final int count )
+                throws IOException
+        {
+            for ( int i = 0; i < count; i++ )
+            {
+                final StringBuilder dir = new StringBuilder( "downloads" );
+                for ( int depth = 0; depth < i % 4; depth++ )
+                {
+                    dir.append( "/dir" ).append( random.nextInt( 20 ) );
+                }
+                writeArtifact( repo.resolve( dir + "/file-" + i + ".bin" ), false );
+            }
+        }
+
+        private void writeArtifact( final Path file, final boolean withSidecars )
+                throws IOException
+        {
+            final int n = (int) stats.artifacts;
+            if ( n > 0 && random.nextDouble() < duplicateRate )
+            {
+                final int earlier = random.nextInt( n );
+                contents[n] = contents[earlier];
+                sizes[n] = sizes[earlier];
+                stats.duplicates++;
+            }
+            else
+            {
+                contents[n] = n;
+                sizes[n] = fileSize();
+            }
+            write( file, contents[n], sizes[n], withSidecars );
+            stats.artifacts++;
+            if ( withSidecars )
+            {
+                writeSidecar( file, ".md5", md5 );
+                writeSidecar( file, ".sha1", sha1 );
+            }
+        }
+
+        private long fileSize()
+        {
+            final double size = medianFileSize * Math.exp( fileSizeSpread * random.nextGaussian() );
+            return Math.max( 1, Math.min( maxFileSize, Math.round( size ) ) );
+        }
+
+        private void write( final Path file, final long content, final long size, final boolean digest )
+                throws IOException
+        {
+            Files.createDirectories( file.getParent() );
+            md5.reset();
+            sha1.reset();
+            final byte[] header = ByteBuffer.allocate( 8 ).putLong( content ).array();
+            try (OutputStream out = Files.newOutputStream( file ))
+            {
+                long left = size;
+                int chunk = (int) Math.min( left, header.length );
+                write( out, header, 0, chunk, digest );
+                left -= chunk;
+                int offset = (int) ( ( content * 7919 ) % BLOCK_SIZE );
+                while ( left > 0 )
+                {
+                    chunk = (int) Math.min( left, BLOCK_SIZE - offset );
+                    write( out, block, offset, chunk, digest );
+                    left -= chunk;
+                    offset = 0;
+                }
+            }
+            stats.files++;
+            stats.bytes += size;
+        }
+
+        private void write( final OutputStream out, final byte[] bytes, final int offset, final int length,
+                            final boolean digest )
+                throws IOException
+        {
+            out.write( bytes, offset, length );
+            if ( digest )
+            {
+                md5.update( bytes, offset, length );
+                sha1.update( bytes, offset, length );
+            }
+        }
+
+        private void writeSidecar( final Path file, final String extension, final MessageDigest digest )
+                throws IOException
+        {
+            final byte[] hex = Hex.encodeHexString( digest.digest() ).getBytes( StandardCharsets.UTF_8 );
+            Files.write( file.resolveSibling( file.getFileName() + extension ), hex );
+            stats.files++;
+            stats.sidecars++;
+            stats.bytes += hex.length;
+        }
+    }
+}
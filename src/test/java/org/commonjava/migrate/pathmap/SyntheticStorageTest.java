@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticStorageTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void storageHasTheLayoutOfIndy()
+            throws Exception
+    {
+        final Path base = temp.newFolder().toPath();
+        final SyntheticStorage generator = new SyntheticStorage();
+        generator.setFiles( 2000 );
+        generator.setMedianFileSize( 512 );
+        final SyntheticStorage.Stats stats = generator.generate( base );
+
+        final List<Path> files = list( base );
+        assertThat( (long) files.size(), equalTo( stats.getFiles() ) );
+        assertTrue( stats.getArtifacts() >= 2000 && stats.getArtifacts() <= 2000 + 28 );
+        assertThat( files.stream().mapToLong( f -> f.toFile().length() ).sum(), equalTo( stats.getBytes() ) );
+        assertTrue( stats.getDuplicates() > 0 );
+
+        final PathParser parser = new PathParser( base.toString() );
+        final Map<String, Integer> perRepo = new HashMap<>();
+        for ( Path file : files )
+        {
+            final ParsedPath parsed = parser.parse( file.toString() );
+            assertTrue( file.toString(), parsed.getFileSystem().matches(
+                    "maven:hosted:(build-\\d+|shared-imports)|npm:hosted:npm-\\d+|generic-http:remote:site-\\d+" ) );
+            perRepo.merge( parsed.getFileSystem(), 1, Integer::sum );
+            final String name = file.getFileName().toString();
+            if ( name.endsWith( ".md5" ) || name.endsWith( ".sha1" ) )
+            {
+                final File artifact = new File( file.toString().replaceAll( "\\.(md5|sha1)$", "" ) );
+                final byte[] content = Files.readAllBytes( artifact.toPath() );
+                final String expected = name.endsWith( ".md5" ) ? DigestUtils.md5Hex( content ) : DigestUtils.shaHex(
+                        content );
+                assertThat( new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 ), equalTo( expected ) );
+            }
+        }
+        // skewed: the biggest repo has many times the files of the median one
+        final List<Integer> sizes = perRepo.values().stream().sorted().collect( Collectors.toList() );
+        assertTrue( sizes.toString(), sizes.get( sizes.size() - 1 ) > 5 * sizes.get( sizes.size() / 2 ) );
+    }
+
+    @Test
+    public void sameSeedBuildsTheSameStorage()
+            throws Exception
+    {
+        final SyntheticStorage generator = new SyntheticStorage();
+        generator.setFiles( 300 );
+        final Path first = temp.newFolder().toPath();
+        final Path second = temp.newFolder().toPath();
+        generator.generate( first );
+        generator.generate( second );
+        final List<Path> files = list( first );
+        assertThat( files.stream().map( first::relativize ).collect( Collectors.toList() ),
+                    equalTo( list( second ).stream().map( second::relativize ).collect( Collectors.toList() ) ) );
+        for ( Path file : files )
+        {
+            assertTrue( file.toString(), Arrays.equals( Files.readAllBytes( file ),
+                                                        Files.readAllBytes( second.resolve( first.relativize( file ) ) ) ) );
+        }
+    }
+
+    private static List<Path> list( final Path base )
+            throws Exception
+    {
+        try (Stream<Path> files = Files.walk( base ))
+        {
+            return files.filter( Files::isRegularFile ).sorted().collect( Collectors.toList() );
+        }
+    }
+}
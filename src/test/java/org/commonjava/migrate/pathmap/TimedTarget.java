@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Times the inserts of another target, for the latency percentiles of the write path.
+ */
+public class TimedTarget
+        implements MigrateTarget
+{
+    private final MigrateTarget target;
+
+    private final long[] nanos;
+
+    private final AtomicInteger inserts = new AtomicInteger();
+
+    /**
+     * @param maxInserts inserts to keep the time of, later ones are not timed
+     */
+    public TimedTarget( final MigrateTarget target, final int maxInserts )
+    {
+        this.target = target;
+        this.nanos = new long[maxInserts];
+    }
+
+    @Override
+    public void insert( final String fileSystem, final String path, final Date creation, final Date expiration,
+                        final String fileId, final long size, final String fileStorage, final String checksum,
+                        final boolean primary )
+            throws IOException
+    {
+        final long start = System.nanoTime();
+        target.insert( fileSystem, path, creation, expiration, fileId, size, fileStorage, checksum, primary );
+        final int i = inserts.getAndIncrement();
+        if ( i < nanos.length )
+        {
+            nanos[i] = System.nanoTime() - start;
+        }
+    }
+
+    @Override
+    public void putChecksums( final String fileSystem, final String path, final Map<String, String> checksums )
+            throws IOException
+    {
+        target.putChecksums( fileSystem, path, checksums );
+    }
+
+    @Override
+    public ListenableFuture<?> appendGa( final String ga, final Set<String> repos )
+    {
+        return target.appendGa( ga, repos );
+    }
+
+    public int getInserts()
+    {
+        return inserts.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return insert time in microseconds below which the given percent of the timed inserts are
+     */
+    public long getPercentileMicros( final double percentile )
+    {
+        final long[] sorted = Arrays.copyOf( nanos, Math.min( inserts.get(), nanos.length ) );
+        if ( sorted.length == 0 )
+        {
+            return 0;
+        }
+        Arrays.sort( sorted );
+        final int index = (int) Math.ceil( percentile / 100 * sorted.length ) - 1;
+        return sorted[Math.max( 0, Math.min( index, sorted.length - 1 ) )] / 1000;
+    }
+
+    @Override
+    public List<String> report()
+    {
+        final List<String> report = new ArrayList<>( target.report() );
+        report.add( String.format( "Insert latency: p50: %s us, p95: %s us, p99: %s us, max: %s us",
+                                   getPercentileMicros( 50 ), getPercentileMicros( 95 ), getPercentileMicros( 99 ),
+                                   getPercentileMicros( 100 ) ) );
+        return report;
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        target.close();
+    }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.commonjava.migrate.pathmap.MigrateCmd.WORKING_FILES_FILTER;
+import static org.commonjava.migrate.pathmap.Util.TODO_FILES_DIR;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class TodoLeasesTest
+{
+    private static final long TIMEOUT = 1000;
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void eachFileIsClaimedByOneOwner()
+            throws Exception
+    {
+        final Path workDir = temp.newFolder().toPath();
+        writeTodo( workDir, 20 );
+        final ExecutorService owners = Executors.newFixedThreadPool( 2 );
+        final List<Future<List<String>>> claims = new ArrayList<>();
+        for ( String owner : new String[] { "host-a", "host-b" } )
+        {
+            claims.add( owners.submit( () -> {
+                final List<String> claimed = new ArrayList<>();
+                try (TodoLeases leases = newLeases( workDir, owner, System::currentTimeMillis ))
+                {
+                    Path file;
+                    while ( ( file = leases.claim() ) != null )
+                    {
+                        assertTrue( file.startsWith( workDir.resolve( "inprogress" ).resolve( owner ) ) );
+                        claimed.add( file.getFileName().toString() );
+                        assertTrue( leases.complete( file ) );
+                    }
+                }
+                return claimed;
+            } ) );
+        }
+        final List<String> all = new ArrayList<>();
+        for ( Future<List<String>> claim : claims )
+        {
+            all.addAll( claim.get() );
+        }
+        owners.shutdown();
+
+        assertThat( all.size(), equalTo( 20 ) );
+        assertThat( new HashSet<>( all ).size(), equalTo( 20 ) );
+        assertThat( list( workDir.resolve( "processed" ) ).size(), equalTo( 20 ) );
+        assertThat( list( workDir.resolve( "todo" ) ).size(), equalTo( 0 ) );
+        // both owners cleaned up after themselves
+        assertThat( list( workDir.resolve( "inprogress" ) ).size(), equalTo( 0 ) );
+    }
+
+    @Test
+    public void filesOfASilentOwnerAreTakenBack()
+            throws Exception
+    {
+        final Path workDir = temp.newFolder().toPath();
+        writeTodo( workDir, 3 );
+        final AtomicLong now = new AtomicLong();
+        final TodoLeases dead = newLeases( workDir, "host-a", now::get );
+        dead.claim();
+        dead.claim();
+        final TodoLeases alive = newLeases( workDir, "host-b", now::get );
+
+        // the heartbeat of host-a is seen for the first time
+        assertThat( alive.reclaimStale(), equalTo( 0 ) );
+        now.addAndGet( TIMEOUT / 2 );
+        assertThat( alive.reclaimStale(), equalTo( 0 ) );
+        // a beat in time keeps the files with host-a
+        dead.heartbeat();
+        now.addAndGet( TIMEOUT / 2 );
+        assertThat( alive.reclaimStale(), equalTo( 0 ) );
+        now.addAndGet( TIMEOUT );
+        assertThat( alive.reclaimStale(), equalTo( 2 ) );
+        assertTrue( !Files.exists( workDir.resolve( "inprogress" ).resolve( "host-a" ) ) );
+
+        final Set<String> claimed = new HashSet<>();
+        Path file;
+        while ( ( file = alive.claim() ) != null )
+        {
+            claimed.add( file.getFileName().toString() );
+            alive.complete( file );
+        }
+        assertThat( claimed.size(), equalTo( 3 ) );
+        alive.close();
+    }
+
+    @Test
+    public void anOwnerTakesBackItsFilesWhenItStartsAgain()
+            throws Exception
+    {
+        final Path workDir = temp.newFolder().toPath();
+        writeTodo( workDir, 2 );
+        final TodoLeases first = newLeases( workDir, "host-a", System::currentTimeMillis );
+        final Path claimed = first.claim();
+        first.close();
+        // left for the next run, as it did not complete
+        assertTrue( Files.exists( claimed ) );
+
+        final TodoLeases second = newLeases( workDir, "host-a", System::currentTimeMillis );
+        assertTrue( !Files.exists( claimed ) );
+        assertThat( list( workDir.resolve( "todo" ) ).size(), equalTo( 2 ) );
+        assertTrue( second.complete( second.claim() ) );
+        assertTrue( second.complete( second.claim() ) );
+        assertThat( second.claim(), nullValue() );
+        // a file lost to another owner can not be completed
+        assertThat( second.complete( claimed ), equalTo( false ) );
+        second.close();
+    }
+
+    private static TodoLeases newLeases( final Path workDir, final String owner,
+                                         final LongSupplier clock )
+            throws IOException
+    {
+        return new TodoLeases( workDir.resolve( "todo" ), workDir.resolve( "inprogress" ),
+                               workDir.resolve( "processed" ), WORKING_FILES_FILTER, owner, TIMEOUT, clock );
+    }
+
+    private static void writeTodo( final Path workDir, final int files )
+            throws IOException
+    {
+        final Path todo = Files.createDirectories( workDir.resolve( "todo" ) );
+        for ( int i = 0; i < files; i++ )
+        {
+            Files.write( todo.resolve( String.format( TODO_FILES_DIR + "-%03d", i ) ),
+                         Collections.singletonList( "/maven/hosted-build-1/foo-" + i + ".jar" ) );
+        }
+    }
+
+    private static List<Path> list( final Path dir )
+            throws IOException
+    {
+        try (Stream<Path> files = Files.list( dir ))
+        {
+            return files.collect( Collectors.toList() );
+        }
+    }
+}
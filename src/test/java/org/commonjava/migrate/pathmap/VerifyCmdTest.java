@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2013~2019 Red Hat, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.migrate.pathmap;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class VerifyCmdTest
+{
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void rowsAreComparedWithPathsFiles()
+            throws Exception
+    {
+        final File base = temporaryFolder.newFolder( "storage" );
+        final File workDir = temporaryFolder.newFolder( "work" );
+        Util.prepareWorkingDir( workDir.getAbsolutePath() );
+        final File store = new File( base, "maven/hosted-build-1" );
+        final File pom = write( store, "org/foo/1.0/foo-1.0.pom", "<project/>" );
+        final File jar = write( store, "org/foo/1.0/foo-1.0.jar", "jar" );
+        final File bar = write( store, "org/bar/1.0/bar-1.0.pom", "<project/>" );
+        final File baz = write( store, "org/baz/1.0/baz-1.0.pom", "<project/>" );
+        FileUtils.writeLines( new File( workDir, "todo/todo-maven-batch-0.txt" ),
+                              Arrays.asList( pom.getPath(), jar.getPath(), bar.getPath(), baz.getPath(),
+                                             "/elsewhere/foo.pom" ) );
+
+        final MigrateOptions options = new MigrateOptions();
+        options.setBaseDir( base.getPath() );
+        options.setWorkDir( workDir.getPath() );
+        options.setVerifySampleRate( 1 );
+        final List<Path> files = IndexCmd.listPathsFiles( options, MigrateCmd.WORKING_FILES_FILTER );
+
+        final VerifyCmd verify = new VerifyCmd();
+        verify.prepare( options, files );
+        verify.readPathsFiles( files, 2 );
+        final String fileSystem = "maven:hosted:build-1";
+        final String otherChecksum = "2cb9e1b9ce0bd67d2d2ff0c4cbb5a9f2";
+        verify.checkRow( fileSystem, "/", "org/", null, 0, null );
+        verify.checkRow( fileSystem, "/org/foo/1.0", "foo-1.0.pom", "1", pom.length(),
+                         new ChecksumEngine( "MD5", 1024, 0 ).checksum( pom ) );
+        verify.checkRow( fileSystem, "/org/foo/1.0", "foo-1.0.jar", "2", 100, null );
+        verify.checkRow( fileSystem, "/org/baz/1.0", "baz-1.0.pom", "3", baz.length(), otherChecksum );
+        verify.checkRow( "maven:hosted:build-2", "/org/foo/1.0", "foo-1.0.pom", "4", pom.length(), null );
+        verify.findMissing( files, 2 );
+        verify.close();
+
+        // counted once, though both passes read it
+        assertThat( verify.getUnparsable(), equalTo( 1L ) );
+        assertThat( verify.getMissing(), equalTo( 1L ) );
+        assertThat( verify.getExtra(), equalTo( 1L ) );
+        assertThat( verify.getSizeMismatched(), equalTo( 1L ) );
+        assertThat( verify.getChecksumMismatched(), equalTo( 1L ) );
+        assertThat( FileUtils.readLines( new File( workDir, Util.VERIFY_MISSING_FILE ) ),
+                    equalTo( Collections.singletonList( bar.getPath() ) ) );
+        assertThat( FileUtils.readLines( new File( workDir, Util.VERIFY_EXTRA_FILE ) ),
+                    equalTo( Collections.singletonList( "maven:hosted:build-2\t/org/foo/1.0/foo-1.0.pom" ) ) );
+        assertThat( FileUtils.readLines( new File( workDir, Util.VERIFY_MISMATCH_FILE ) ).size(), equalTo( 2 ) );
+    }
+
+    private static File write( final File store, final String path, final String content )
+            throws Exception
+    {
+        final File file = new File( store, path );
+        FileUtils.writeStringToFile( file, content );
+        return file;
+    }
+}